@@ -0,0 +1,102 @@
+/**
+ * Copyright (C) 2013-2016 The Rythm Engine project
+ * for LICENSE and other details see:
+ * https://github.com/rythmengine/rythmengine
+ */
+package org.rythmengine;
+
+/*-
+ * #%L
+ * Rythm Template Engine
+ * %%
+ * Copyright (C) 2017 - 2021 OSGL (Open Source General Library)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.rythmengine.internal.compiler.TemplateArchive;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.rythmengine.conf.RythmConfigurationKey.*;
+
+/**
+ * Precompile all templates under a template home into an archive, which is loaded
+ * at runtime by setting {@link org.rythmengine.conf.RythmConfigurationKey#HOME_PRECOMPILED_ARCHIVE}.
+ * <p>The template home must have the same layout as the one used at runtime, because the
+ * template classes are looked up by the class names derived from the template paths.</p>
+ * <p>Usage:</p>
+ * <pre><code>java org.rythmengine.Precompiler &lt;template home&gt; &lt;archive file&gt; [&lt;configuration key&gt;=&lt;value&gt; ...]</code></pre>
+ * <p>See the README for running it in the Maven build of an application with the exec-maven-plugin.</p>
+ */
+public class Precompiler {
+
+    /**
+     * Precompile the templates under the home dir into the archive file
+     *
+     * @param home the template home dir
+     * @param archive the archive file
+     * @param configuration other configurations of the engine compiling the templates
+     * @return the number of template classes in the archive
+     * @throws IOException
+     */
+    public static int precompile(File home, File archive, Map<String, ?> configuration) throws IOException {
+        Map<String, Object> conf = new HashMap<String, Object>(configuration);
+        conf.put(HOME_TEMPLATE.getKey(), home);
+        conf.put(ENGINE_MODE.getKey(), Rythm.Mode.prod);
+        conf.put(RESOURCE_AUTO_SCAN.getKey(), true);
+        conf.put(ENGINE_FILE_WRITE_ENABLED.getKey(), false);
+        conf.remove(HOME_PRECOMPILED_ARCHIVE.getKey());
+        // the templates are loaded by the auto scan
+        RythmEngine engine = new RythmEngine(conf);
+        try {
+            File dir = archive.getAbsoluteFile().getParentFile();
+            if (null != dir && !dir.exists() && !dir.mkdirs()) {
+                throw new IOException("Cannot create dir: " + dir);
+            }
+            OutputStream os = new FileOutputStream(archive);
+            try {
+                return TemplateArchive.write(engine, os);
+            } finally {
+                os.close();
+            }
+        } finally {
+            engine.shutdown();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: java org.rythmengine.Precompiler <template home> <archive file> [<configuration key>=<value> ...]");
+            System.exit(1);
+        }
+        Map<String, Object> conf = new HashMap<String, Object>();
+        for (int i = 2; i < args.length; ++i) {
+            String arg = args[i];
+            int pos = arg.indexOf('=');
+            if (pos < 1) {
+                System.err.println("Invalid configuration: " + arg);
+                System.exit(1);
+            }
+            conf.put(arg.substring(0, pos).trim(), arg.substring(pos + 1).trim());
+        }
+        int n = precompile(new File(args[0]), new File(args[1]), conf);
+        System.out.println(String.format("%s template classes precompiled into %s", n, args[1]));
+    }
+}
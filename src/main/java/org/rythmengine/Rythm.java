@@ -34,6 +34,8 @@ import org.rythmengine.utils.Escape;
 import java.io.File;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 /**
  * Rythm is a service wrapper of the {@link RythmEngine}.
@@ -325,6 +327,17 @@ public class Rythm {
         return engine().render(file, args);
     }
 
+    /**
+     * @param executor
+     * @param template
+     * @param args
+     * @return a future of the render result
+     * @see RythmEngine#renderAsync(java.util.concurrent.Executor, String, Object...)
+     */
+    public static CompletableFuture<String> renderAsync(Executor executor, String template, Object... args) {
+        return engine().renderAsync(executor, template, args);
+    }
+
     /**
      * @param template
      * @param args
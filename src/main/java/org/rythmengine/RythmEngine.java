@@ -53,9 +53,10 @@ import org.rythmengine.sandbox.SandboxThreadFactory;
 import org.rythmengine.template.*;
 import org.rythmengine.toString.ToStringOption;
 import org.rythmengine.toString.ToStringStyle;
-import org.rythmengine.utils.F;
+import org.rythmengine.utils.Flow;
 import org.rythmengine.utils.IO;
 import org.rythmengine.utils.JSONWrapper;
+import org.rythmengine.utils.RenderPublisher;
 import org.rythmengine.utils.S;
 import osgl.version.Version;
 import osgl.version.Versioned;
@@ -63,12 +64,21 @@ import osgl.version.Versioned;
 import java.io.*;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 /**
  * <p>Not Thread Safe</p>
@@ -304,6 +314,32 @@ public class RythmEngine implements IEventDispatcher {
         return _classCache;
     }
 
+    private RenderBufferPool _bufferPool;
+
+    /**
+     * Get {@link RenderBufferPool render buffer pool} of the engine
+     * <p/>
+     * <p><b>Note</b>, this method should not be used by user application</p>
+     *
+     * @return render buffer pool
+     */
+    public RenderBufferPool renderBufferPool() {
+        return _bufferPool;
+    }
+
+    private SlotPool<ITemplate.__Context> _contextPool;
+
+    /**
+     * Get the pool of {@link ITemplate.__Context render context} of the engine
+     * <p/>
+     * <p><b>Note</b>, this method should not be used by user application</p>
+     *
+     * @return render context pool
+     */
+    public SlotPool<ITemplate.__Context> renderContextPool() {
+        return _contextPool;
+    }
+
     private ExtensionManager _extensionManager;
 
     /**
@@ -649,6 +685,8 @@ public class RythmEngine implements IEventDispatcher {
         _classLoader = new TemplateClassLoader(this);
         _classCache = new TemplateClassCache(this);
         _resourceManager = new TemplateResourceManager(this);
+        _bufferPool = new RenderBufferPool(_conf.bufferPoolSize(), _conf.bufferMaxSize());
+        _contextPool = new SlotPool<ITemplate.__Context>(_conf.bufferPoolSize());
         _extensionManager = new ExtensionManager(this);
         int ttl = (Integer) _conf.get(RythmConfigurationKey.DEFAULT_CACHE_TTL);
         _cacheService = _conf.get(RythmConfigurationKey.CACHE_SERVICE_IMPL);
@@ -989,6 +1027,7 @@ public class RythmEngine implements IEventDispatcher {
             t = tc.asTemplate(this);
             if (null == t) return null;
             _templates.put(tc.getKey(), t);
+            tagRegistryChanged();
             //classes().add(key, tc);
         } else {
             t = tc.asTemplate(this);
@@ -1012,11 +1051,12 @@ public class RythmEngine implements IEventDispatcher {
      * @return render result
      */
     public String render(String template, Object... args) {
+        ITemplate t = null;
         try {
-            ITemplate t = getTemplate(template, args);
+            t = getTemplate(template, args);
             return t.render();
         } finally {
-            renderCleanUp();
+            renderCleanUp(t);
         }
     }
 
@@ -1035,12 +1075,51 @@ public class RythmEngine implements IEventDispatcher {
      * @param args     render args array
      */
     public void render(OutputStream os, String template, Object... args) {
+        render(os, Charset.defaultCharset(), template, args);
+    }
+
+    /**
+     * Render template by string parameter and an array of
+     * template args. The string parameter could be either
+     * a path point to the template source file, or the inline
+     * template source content. The render result is encoded with
+     * the charset specified and output to the binary output stream
+     * <p/>
+     * <p>See {@link #getTemplate(java.io.File, Object...)} for note on
+     * render args</p>
+     *
+     * @param os       the output stream
+     * @param charset  the charset used to encode the render result
+     * @param template either the path of template source file or inline template content
+     * @param args     render args array
+     */
+    public void render(OutputStream os, Charset charset, String template, Object... args) {
         outputMode.set(OutputMode.os);
+        ITemplate t = null;
         try {
-            ITemplate t = getTemplate(template, args);
-            t.render(os);
+            t = getTemplate(template, args);
+            t.render(os, charset);
         } finally {
-            renderCleanUp();
+            renderCleanUp(t);
+        }
+    }
+
+    /**
+     * Render a template instance obtained from {@link #getTemplate(String, Object...)}
+     * with its render args already set. The render result is encoded with the charset
+     * specified and output to the binary output stream. The template instance shall
+     * not be used after this call
+     *
+     * @param os       the output stream
+     * @param charset  the charset used to encode the render result
+     * @param template the template instance
+     */
+    public void render(OutputStream os, Charset charset, ITemplate template) {
+        outputMode.set(OutputMode.os);
+        try {
+            template.render(os, charset);
+        } finally {
+            renderCleanUp(template);
         }
     }
 
@@ -1060,11 +1139,12 @@ public class RythmEngine implements IEventDispatcher {
      */
     public void render(Writer w, String template, Object... args) {
         outputMode.set(OutputMode.writer);
+        ITemplate t = null;
         try {
-            ITemplate t = getTemplate(template, args);
+            t = getTemplate(template, args);
             t.render(w);
         } finally {
-            renderCleanUp();
+            renderCleanUp(t);
         }
     }
 
@@ -1080,17 +1160,18 @@ public class RythmEngine implements IEventDispatcher {
      * @return render result
      */
     public String render(File file, Object... args) {
+        ITemplate t = null;
         try {
             if (!file.exists())
               throw new RuntimeException("template '"+file.getName()+"' does not exist!");
             if (!file.canRead())
               throw new RuntimeException("template '"+file.getName()+"' not readable!");
-            ITemplate t = getTemplate(file, args);
+            t = getTemplate(file, args);
             if (t==null)
               throw new RuntimeException("template '"+file.getName()+"' load failed!");
             return t.render();
         } finally {
-            renderCleanUp();
+            renderCleanUp(t);
         }
     }
 
@@ -1107,12 +1188,30 @@ public class RythmEngine implements IEventDispatcher {
      * @param args render args array
      */
     public void render(OutputStream os, File file, Object... args) {
+        render(os, Charset.defaultCharset(), file, args);
+    }
+
+    /**
+     * Render template with source specified by {@link java.io.File file instance}
+     * and an array of render args. Render result is encoded with the charset
+     * specified and output into the binary {@link java.io.OutputStream}
+     * <p/>
+     * <p>See {@link #getTemplate(java.io.File, Object...)} for note on
+     * render args</p>
+     *
+     * @param os      the output stream
+     * @param charset the charset used to encode the render result
+     * @param file    the template source file
+     * @param args    render args array
+     */
+    public void render(OutputStream os, Charset charset, File file, Object... args) {
         outputMode.set(OutputMode.os);
+        ITemplate t = null;
         try {
-            ITemplate t = getTemplate(file, args);
-            t.render(os);
+            t = getTemplate(file, args);
+            t.render(os, charset);
         } finally {
-            renderCleanUp();
+            renderCleanUp(t);
         }
     }
 
@@ -1130,11 +1229,12 @@ public class RythmEngine implements IEventDispatcher {
      */
     public void render(Writer w, File file, Object... args) {
         outputMode.set(OutputMode.writer);
+        ITemplate t = null;
         try {
-            ITemplate t = getTemplate(file, args);
+            t = getTemplate(file, args);
             t.render(w);
         } finally {
-            renderCleanUp();
+            renderCleanUp(t);
         }
     }
 
@@ -1202,17 +1302,18 @@ public class RythmEngine implements IEventDispatcher {
         if (typeInferenceEnabled) {
             key += ParamTypeInferencer.uuid();
         }
+        ITemplate t = null;
         try {
             TemplateClass tc = classes().getByTemplate(key, false);
             if (null == tc) {
                 tc = new TemplateClass(new StringTemplateResource(key, template), this);
                 //classes().add(key, tc);
             }
-            ITemplate t = tc.asTemplate(this);
+            t = tc.asTemplate(this);
             setRenderArgs(t, args);
             return t.render();
         } finally {
-            renderCleanUp();
+            renderCleanUp(t);
         }
     }
 
@@ -1230,11 +1331,28 @@ public class RythmEngine implements IEventDispatcher {
      * @return render result
      */
     public String substitute(String template, Object... args) {
+        if (tiered()) {
+            boolean compiled = false;
+            try {
+                String result = tieredTemplates().render(template, args);
+                if (null != result) {
+                    return result;
+                }
+                compiled = true;
+            } finally {
+                // the compiled template clears the render settings once rendered
+                if (!compiled) {
+                    renderSettings.clear();
+                    Rythm.RenderTime.clear();
+                }
+            }
+        }
+        ITemplate t = null;
         try {
-            ITemplate t = getTemplate(BasicRythm.INSTANCE, template, args);
+            t = getTemplate(BasicRythm.INSTANCE, template, args);
             return t.render();
         } finally {
-            renderCleanUp();
+            renderCleanUp(t);
         }
     }
 
@@ -1250,11 +1368,12 @@ public class RythmEngine implements IEventDispatcher {
      * @return render result
      */
     public String substitute(File file, Object... args) {
+        ITemplate t = null;
         try {
-            ITemplate t = getTemplate(file, args, BasicRythm.INSTANCE);
+            t = getTemplate(file, args, BasicRythm.INSTANCE);
             return t.render();
         } finally {
-            renderCleanUp();
+            renderCleanUp(t);
         }
     }
 
@@ -1276,17 +1395,18 @@ public class RythmEngine implements IEventDispatcher {
             argClass = obj.getClass().getSuperclass();
         }
         String key = template + argClass;
+        ITemplate t = null;
         try {
             TemplateClass tc = classes().getByTemplate(key);
             if (null == tc) {
                 tc = new TemplateClass(template, this, new ToString(argClass));
                 //classes().add(key, tc);
             }
-            ITemplate t = tc.asTemplate(this);
+            t = tc.asTemplate(this);
             t.__setRenderArg(0, obj);
             return t.render();
         } finally {
-            renderCleanUp();
+            renderCleanUp(t);
         }
     }
 
@@ -1314,6 +1434,7 @@ public class RythmEngine implements IEventDispatcher {
     public String toString(Object obj, ToStringOption option, ToStringStyle style) {
         Class<?> c = obj.getClass();
         AutoToString.AutoToStringData key = new AutoToString.AutoToStringData(c, option, style);
+        ITemplate t = null;
         try {
             //String template = AutoToString.templateStr(c, option, style);
             TemplateClass tc = classes().getByTemplate(key);
@@ -1321,11 +1442,11 @@ public class RythmEngine implements IEventDispatcher {
                 tc = new TemplateClass(new ToStringTemplateResource(key), this, new AutoToString(c, key));
                 //classes().add(key, tc);
             }
-            ITemplate t = tc.asTemplate(this);
+            t = tc.asTemplate(this);
             t.__setRenderArg(0, obj);
             return t.render();
         } finally {
-            renderCleanUp();
+            renderCleanUp(t);
         }
     }
 
@@ -1344,6 +1465,31 @@ public class RythmEngine implements IEventDispatcher {
         return toString(obj, option, ToStringStyle.fromApacheStyle(style));
     }
 
+    /*
+     * The interpreter renders no template instance, so the templates are compiled when the
+     * source is enhanced or a listener expects the template rendered
+     */
+    private boolean tiered() {
+        if (conf().tieredThreshold() <= 0 || conf().typeInferenceEnabled() || null != conf().sourceEnhancer()) {
+            return false;
+        }
+        EventBus.Hooks hooks = hooks();
+        return null == hooks.onRender && null == hooks.rendered;
+    }
+
+    private volatile TieredTemplateManager _tieredTemplates = null;
+
+    private TieredTemplateManager tieredTemplates() {
+        if (null == _tieredTemplates) {
+            synchronized (this) {
+                if (null == _tieredTemplates) {
+                    _tieredTemplates = new TieredTemplateManager(this);
+                }
+            }
+        }
+        return _tieredTemplates;
+    }
+
     private Set<String> nonExistsTemplates = new CopyOnWriteArraySet<String>();
 
     private class NonExistsTemplatesChecker implements IShutdownListener {
@@ -1403,6 +1549,7 @@ public class RythmEngine implements IEventDispatcher {
             key += ParamTypeInferencer.uuid();
         }
 
+        ITemplate t = null;
         try {
             TemplateClass tc = classes().getByTemplate(template);
             if (null == tc) {
@@ -1418,14 +1565,222 @@ public class RythmEngine implements IEventDispatcher {
                     return "";
                 }
             }
-            ITemplate t = tc.asTemplate(this);
+            t = tc.asTemplate(this);
             setRenderArgs(t, args);
             return t.render();
         } finally {
-            renderCleanUp();
+            renderCleanUp(t);
         }
     }
     
+    /* -----------------------------------------------------------------------------
+      Asynchronous rendering
+    -------------------------------------------------------------------------------*/
+
+    /**
+     * The environment settings of a render operation, i.e. the
+     * {@link org.rythmengine.extension.ICodeType code type}, the locale and the
+     * user context. Unlike {@link RenderSettings} a render context is an immutable
+     * value which can be passed to another thread
+     */
+    public static final class RenderContext {
+        private final ICodeType codeType;
+        private final Locale locale;
+        private final Map<String, Object> userContext;
+
+        public RenderContext(ICodeType codeType, Locale locale, Map<String, Object> userContext) {
+            this.codeType = codeType;
+            this.locale = locale;
+            this.userContext = userContext;
+        }
+
+        public ICodeType codeType() {
+            return codeType;
+        }
+
+        public Locale locale() {
+            return locale;
+        }
+
+        public Map<String, Object> userContext() {
+            return userContext;
+        }
+    }
+
+    /**
+     * Return the render context {@link #prepare(ICodeType, Locale, Map) prepared}
+     * for the current thread
+     *
+     * @return the render context of the current thread
+     */
+    public RenderContext currentRenderContext() {
+        return new RenderContext(renderSettings.codeType(), renderSettings.locale(), renderSettings.userContext());
+    }
+
+    /**
+     * Render template by string parameter and an array of template args on the
+     * specified executor. The render context {@link #prepare(ICodeType, Locale, Map) prepared}
+     * on the calling thread is used for the render operation
+     * <p/>
+     * <p>See {@link #render(String, Object...)}</p>
+     *
+     * @param executor the executor to run the render operation
+     * @param template either the path of template source file or inline template content
+     * @param args     render args array
+     * @return a future of the render result
+     */
+    public CompletableFuture<String> renderAsync(Executor executor, String template, Object... args) {
+        return renderAsync(executor, currentRenderContext(), template, args);
+    }
+
+    /**
+     * Render template by string parameter and an array of template args on the
+     * specified executor with the specified render context
+     * <p/>
+     * <p>See {@link #render(String, Object...)}</p>
+     *
+     * @param executor the executor to run the render operation
+     * @param context  the render context
+     * @param template either the path of template source file or inline template content
+     * @param args     render args array
+     * @return a future of the render result
+     */
+    public CompletableFuture<String> renderAsync(Executor executor, final RenderContext context, final String template, final Object... args) {
+        if (null == executor || null == context) throw new NullPointerException();
+        return CompletableFuture.supplyAsync(new Supplier<String>() {
+            @Override
+            public String get() {
+                RenderScope scope = enterRender(context, OutputMode.str);
+                try {
+                    return render(template, args);
+                } finally {
+                    exitRender(scope);
+                }
+            }
+        }, executor);
+    }
+
+    /**
+     * Render template by string parameter and an array of template args on the
+     * specified executor. The render result is output to the specified binary
+     * output stream, which is closed by neither this method nor the render
+     * operation
+     * <p/>
+     * <p>See {@link #render(java.io.OutputStream, java.nio.charset.Charset, String, Object...)}</p>
+     *
+     * @param executor the executor to run the render operation
+     * @param os       the output stream
+     * @param charset  the charset used to encode the render result
+     * @param template either the path of template source file or inline template content
+     * @param args     render args array
+     * @return a future completed when the render result has been written to the stream
+     */
+    public CompletableFuture<Void> renderAsync(Executor executor, final OutputStream os, final Charset charset, final String template, final Object... args) {
+        if (null == executor) throw new NullPointerException();
+        final RenderContext context = currentRenderContext();
+        return CompletableFuture.supplyAsync(new Supplier<Void>() {
+            @Override
+            public Void get() {
+                RenderScope scope = enterRender(context, OutputMode.os);
+                try {
+                    render(os, charset, template, args);
+                    return null;
+                } finally {
+                    exitRender(scope);
+                }
+            }
+        }, executor);
+    }
+
+    /**
+     * Render template by string parameter and an array of template args into a
+     * stream of byte buffers encoded with the default charset.
+     * <p/>
+     * <p>See {@link #renderPublisher(java.util.concurrent.Executor, java.nio.charset.Charset, String, Object...)}</p>
+     *
+     * @param executor the executor to run the render operations
+     * @param template either the path of template source file or inline template content
+     * @param args     render args array
+     * @return a publisher of the render result
+     */
+    public Flow.Publisher<ByteBuffer> renderPublisher(Executor executor, String template, Object... args) {
+        return renderPublisher(executor, Charset.defaultCharset(), template, args);
+    }
+
+    /**
+     * Render template by string parameter and an array of template args into a
+     * stream of byte buffers. The template is rendered on the executor once for
+     * each subscriber, with the render context {@link #prepare(ICodeType, Locale, Map) prepared}
+     * on the calling thread. The render operation follows the demand of the
+     * subscriber, see {@link RenderPublisher}
+     *
+     * @param executor the executor to run the render operations
+     * @param charset  the charset used to encode the render result
+     * @param template either the path of template source file or inline template content
+     * @param args     render args array
+     * @return a publisher of the render result
+     */
+    public Flow.Publisher<ByteBuffer> renderPublisher(Executor executor, final Charset charset, final String template, final Object... args) {
+        if (null == charset) throw new NullPointerException();
+        final RenderContext context = currentRenderContext();
+        return new RenderPublisher(executor, conf().outputBufferSize()) {
+            @Override
+            protected void render(OutputStream os) {
+                RenderScope scope = enterRender(context, OutputMode.os);
+                try {
+                    RythmEngine.this.render(os, charset, template, args);
+                } finally {
+                    exitRender(scope);
+                }
+            }
+        };
+    }
+
+    /*
+     * The thread local state of the render operation a thread was running
+     * when it entered another one, e.g. when a fork join worker waiting for
+     * a tag segment runs another segment
+     */
+    private static final class RenderScope {
+        private final RythmEngine engine;
+        private final OutputMode mode;
+        private final RenderContext context;
+
+        private RenderScope(RythmEngine engine, OutputMode mode, RenderContext context) {
+            this.engine = engine;
+            this.mode = mode;
+            this.context = context;
+        }
+    }
+
+    /*
+     * Set up the thread local state of a render operation running on an executor
+     * thread. The state inherited from the thread which created the executor
+     * thread, or left by a previous task, is overwritten
+     */
+    private RenderScope enterRender(RenderContext context, OutputMode mode) {
+        RythmEngine prev = _engine.get();
+        RenderScope scope = null == prev ? null : new RenderScope(prev, outputMode.get(), currentRenderContext());
+        _engine.set(this);
+        outputMode.set(mode);
+        renderSettings.init(context.codeType()).init(context.locale()).init(context.userContext());
+        return scope;
+    }
+
+    private void exitRender(RenderScope scope) {
+        renderSettings.clear();
+        if (null == scope) {
+            Rythm.RenderTime.clear();
+            renderCleanUp();
+            _engine.remove();
+        } else {
+            RenderContext context = scope.context;
+            renderSettings.init(context.codeType()).init(context.locale()).init(context.userContext());
+            outputMode.set(scope.mode);
+            _engine.set(scope.engine);
+        }
+    }
+
     /* -----------------------------------------------------------------------------
       Eval
     -------------------------------------------------------------------------------*/
@@ -1647,6 +2002,7 @@ public class RythmEngine implements IEventDispatcher {
 
     public void registerFastTag(JavaTagBase tag) {
         _tags.put(tag.__getName(), tag);
+        tagRegistryChanged();
     }
 
     /**
@@ -1680,8 +2036,7 @@ public class RythmEngine implements IEventDispatcher {
 //        if (_templates.containsKey(name)) {
 //            return false;
 //        }
-        _templates.put(name, template);
-        return;
+        if (_templates.put(name, template) != template) tagRegistryChanged();
     }
 
     /**
@@ -1716,120 +2071,327 @@ public class RythmEngine implements IEventDispatcher {
      * @param ignoreNonExistsTag
      */
     public void invokeTemplate(int line, String name, ITemplate caller, ITag.__ParameterList params, ITag.__Body body, ITag.__Body context, boolean ignoreNonExistsTag) {
+        invokeTemplate(line, name, caller, params, body, context, ignoreNonExistsTag, null);
+    }
+
+    /**
+     * Invoke a template with the tag resolved at the call site cached
+     * <p/>
+     * <p>Not an API for user application</p>
+     *
+     * @param line
+     * @param name
+     * @param caller
+     * @param params
+     * @param body
+     * @param context
+     * @param ignoreNonExistsTag
+     * @param site               the call site cache, could be {@code null}
+     */
+    public void invokeTemplate(int line, String name, ITemplate caller, ITag.__ParameterList params, ITag.__Body body, ITag.__Body context, boolean ignoreNonExistsTag, TagCallSite site) {
         if (_nonExistsTags.contains(name)) return;
 
+        EventBus.Hooks hooks = hooks();
         Sandbox.enterSafeZone(secureCode);
-        RythmEvents.ENTER_INVOKE_TEMPLATE.trigger(this, (TemplateBase) caller);
+        if (null != hooks.enterInvokeTemplate) hooks.enterInvokeTemplate.enterInvokeTemplate((TemplateBase) caller);
         try {
-            // try tag registry first
-            ITemplate t = _tags.get(name);
-            if (null == t) {
-                t = _templates.get(name);
-            }
-            if (null == t && S.isEqual(name, caller.__getName())) {
-                // is calling self
-                t = caller;
-            }
+            ITemplate t = prepareTemplate(name, caller, params, body, ignoreNonExistsTag, site);
+            if (null == t) return;
+            callTemplate(line, t, caller, context, hooks);
+        } finally {
+            if (null != hooks.exitInvokeTemplate) hooks.exitInvokeTemplate.exitInvokeTemplate((TemplateBase) caller);
+            Sandbox.leaveCurZone(secureCode);
+        }
+    }
 
-            if (null == t) {
-                // try imported path
-                TemplateClass tc = caller.__getTemplateClass(true);
-                if (null != tc.importPaths) {
-                    for (String s : tc.importPaths) {
-                        if (s.startsWith("java")) {
-                            continue;
-                        }
-                        String name0 = s + "." + name;
-                        t = _tags.get(name0);
-                        if (null == t) t = _templates.get(name0);
-                        if (null != t) break;
-                    }
-                }
+    /*
+     * Look up the tag by name and return an instance ready to be called with the
+     * params and body set, or null if the tag does not exist and shall be ignored
+     */
+    private ITemplate prepareTemplate(String name, ITemplate caller, ITag.__ParameterList params, ITag.__Body body, boolean ignoreNonExistsTag, TagCallSite site) {
+        ITemplate t = lookupTemplate(name, caller, ignoreNonExistsTag, site);
+        if (null == t) return null;
 
-                // try relative path
-                if (null == t) {
-                    String callerName = tc.getTagName();
-                    int pos = -1;
-                    if (null != callerName) pos = callerName.lastIndexOf(".");
-                    if (-1 != pos) {
-                        String name0 = callerName.substring(0, pos) + "." + name;
-                        t = _tags.get(name0);
-                        if (null == t) t = _templates.get(name0);
+        if (null != params) {
+            if (t instanceof JavaTagBase) {
+                ((JavaTagBase) t).__setRenderArgs0(params);
+            } else {
+                for (int i = 0; i < params.size(); ++i) {
+                    ITag.__Parameter param = params.get(i);
+                    if (null != param.name && null != param.value) {
+                        t.__setRenderArg(param.name, param.value);
+                    } else if (null != param.value) {
+                        t.__setRenderArg(i, param.value);
                     }
                 }
+            }
+        }
+        if (null == body && null != params) {
+            body = (ITag.__Body) params.getByName("__body");
+            if (null == body) {
+                body = (ITag.__Body) params.getByName("_body");
+            }
+        }
+        if (null != body) {
+            t.__setRenderArg("__body", body);
+            t.__setRenderArg("_body", body); // for compatibility
+        }
+        return t;
+    }
 
-                // try load the tag from resource
-                if (null == t) {
-                    tc = resourceManager().tryLoadTemplate(name, tc, caller.__curCodeType());
-                    if (null != tc) t = _templates.get(tc.getTagName());
-                    if (null == t) {
-                        if (ignoreNonExistsTag) {
-                            if (logger.isDebugEnabled()) {
-                                logger.debug("cannot find tag: " + name);
-                            }
-                            _nonExistsTags.add(name);
-                            if (isDevMode() && nonExistsTemplatesChecker == null) {
-                                nonExistsTemplatesChecker = new NonExistsTemplatesChecker();
-                            }
-                            return;
-                        } else {
-                            throw new NullPointerException("cannot find tag: " + name);
-                        }
+    private ITemplate lookupTemplate(String name, ITemplate caller, boolean ignoreNonExistsTag, TagCallSite site) {
+        // the tag is resolved on each call in dev mode, which reloads the tag once changed
+        if (isDevMode()) site = null;
+        ITemplate t = null == site ? null : cachedTemplate(site, name, caller);
+        return null == t ? resolveTemplate(name, caller, ignoreNonExistsTag, site) : t;
+    }
+
+    /**
+     * Link a tag invoked with a constant name. Return a new instance of the tag
+     * to which the caller binds the params directly, or null if the tag does not
+     * exist and shall be ignored. The linked tag shall be invoked with
+     * {@link #invokeLinkedTemplate(int, ITemplate, ITemplate, ITag.__Body)}
+     * <p/>
+     * <p>Not an API for user application</p>
+     *
+     * @param name
+     * @param caller
+     * @param ignoreNonExistsTag
+     * @param site               the call site cache
+     * @return the tag instance
+     */
+    public ITemplate linkTemplate(String name, ITemplate caller, boolean ignoreNonExistsTag, TagCallSite site) {
+        if (_nonExistsTags.contains(name)) return null;
+
+        Sandbox.enterSafeZone(secureCode);
+        try {
+            return lookupTemplate(name, caller, ignoreNonExistsTag, site);
+        } finally {
+            Sandbox.leaveCurZone(secureCode);
+        }
+    }
+
+    /**
+     * Invoke a tag returned by {@link #linkTemplate(String, ITemplate, boolean, TagCallSite)}
+     * <p/>
+     * <p>Not an API for user application</p>
+     *
+     * @param line
+     * @param t       the linked tag with params bound
+     * @param caller
+     * @param context
+     */
+    public void invokeLinkedTemplate(int line, ITemplate t, ITemplate caller, ITag.__Body context) {
+        EventBus.Hooks hooks = hooks();
+        Sandbox.enterSafeZone(secureCode);
+        if (null != hooks.enterInvokeTemplate) hooks.enterInvokeTemplate.enterInvokeTemplate((TemplateBase) caller);
+        try {
+            callTemplate(line, t, caller, context, hooks);
+        } finally {
+            if (null != hooks.exitInvokeTemplate) hooks.exitInvokeTemplate.exitInvokeTemplate((TemplateBase) caller);
+            Sandbox.leaveCurZone(secureCode);
+        }
+    }
+
+    // the version of the tag registry, bumped when a tag is registered
+    private final AtomicInteger tagRegistryVersion = new AtomicInteger();
+
+    private void tagRegistryChanged() {
+        tagRegistryVersion.incrementAndGet();
+    }
+
+    private ITemplate cachedTemplate(TagCallSite site, String name, ITemplate caller) {
+        Object tag = site.lookup(classLoader().currentState, tagRegistryVersion.get(), name, caller.getClass());
+        if (tag instanceof TemplateClass) return ((TemplateClass) tag).asTemplate(caller, this);
+        if (tag instanceof JavaTagBase) return ((JavaTagBase) tag).__cloneMe(this, caller);
+        return null;
+    }
+
+    /*
+     * Resolve the tag by name and return a new instance of the tag, or null if the tag
+     * does not exist and shall be ignored. The tag resolved is cached at the call site
+     * if provided
+     */
+    private ITemplate resolveTemplate(String name, ITemplate caller, boolean ignoreNonExistsTag, TagCallSite site) {
+        // read the epoch before resolving, so that a change during resolving invalidates the cache
+        TemplateClassLoader.TemplateClassloaderState state = classLoader().currentState;
+        int version = tagRegistryVersion.get();
+
+        // try tag registry first
+        ITemplate t = _tags.get(name);
+        if (null == t) {
+            t = _templates.get(name);
+        }
+        if (null == t && S.isEqual(name, caller.__getName())) {
+            // is calling self
+            t = caller;
+        }
+
+        if (null == t) {
+            // try imported path
+            TemplateClass tc = caller.__getTemplateClass(true);
+            if (null != tc.importPaths) {
+                for (String s : tc.importPaths) {
+                    if (s.startsWith("java")) {
+                        continue;
                     }
-                    t = t.__cloneMe(this, caller);
+                    String name0 = s + "." + name;
+                    t = _tags.get(name0);
+                    if (null == t) t = _templates.get(name0);
+                    if (null != t) break;
                 }
             }
 
-            if (!(t instanceof JavaTagBase)) {
-                // try refresh the tag loaded from template file under tag root
-                // note Java source tags are not reloaded here
-                String cn = t.getClass().getName();
-                TemplateClass tc0 = classes().getByClassName(cn);
-                if (null == tc0) {
-                    throw new NullPointerException(String.format("null tc0 found. t.class: %s, name: %s, caller.class: %s", cn, name, caller.getClass()));
+            // try relative path
+            if (null == t) {
+                String callerName = tc.getTagName();
+                int pos = -1;
+                if (null != callerName) pos = callerName.lastIndexOf(".");
+                if (-1 != pos) {
+                    String name0 = callerName.substring(0, pos) + "." + name;
+                    t = _tags.get(name0);
+                    if (null == t) t = _templates.get(name0);
                 }
-                t = tc0.asTemplate(caller, this);
-            } else {
-                t = t.__cloneMe(this, caller);
             }
 
-            if (null != params) {
-                if (t instanceof JavaTagBase) {
-                    ((JavaTagBase) t).__setRenderArgs0(params);
-                } else {
-                    for (int i = 0; i < params.size(); ++i) {
-                        ITag.__Parameter param = params.get(i);
-                        if (null != param.name && null != param.value) {
-                            t.__setRenderArg(param.name, param.value);
-                        } else if (null != param.value) {
-                            t.__setRenderArg(i, param.value);
+            // try load the tag from resource
+            if (null == t) {
+                tc = resourceManager().tryLoadTemplate(name, tc, caller.__curCodeType());
+                if (null != tc) t = _templates.get(tc.getTagName());
+                if (null == t) {
+                    if (ignoreNonExistsTag) {
+                        if (logger.isDebugEnabled()) {
+                            logger.debug("cannot find tag: " + name);
+                        }
+                        _nonExistsTags.add(name);
+                        if (isDevMode() && nonExistsTemplatesChecker == null) {
+                            nonExistsTemplatesChecker = new NonExistsTemplatesChecker();
                         }
+                        return null;
+                    } else {
+                        throw new NullPointerException("cannot find tag: " + name);
                     }
                 }
+                t = t.__cloneMe(this, caller);
             }
-            if (null == body && null != params) {
-                body = (ITag.__Body) params.getByName("__body");
-                if (null == body) {
-                    body = (ITag.__Body) params.getByName("_body");
-                }
+        }
+
+        if (!(t instanceof JavaTagBase)) {
+            // try refresh the tag loaded from template file under tag root
+            // note Java source tags are not reloaded here
+            String cn = t.getClass().getName();
+            TemplateClass tc0 = classes().getByClassName(cn);
+            if (null == tc0) {
+                throw new NullPointerException(String.format("null tc0 found. t.class: %s, name: %s, caller.class: %s", cn, name, caller.getClass()));
             }
-            if (null != body) {
-                t.__setRenderArg("__body", body);
-                t.__setRenderArg("_body", body); // for compatibility
+            if (null != site) site.cache(state, version, name, caller.getClass(), tc0);
+            t = tc0.asTemplate(caller, this);
+        } else {
+            if (null != site) site.cache(state, version, name, caller.getClass(), t);
+            t = t.__cloneMe(this, caller);
+        }
+        return t;
+    }
+
+    private static boolean hasBody(ITag.__ParameterList params) {
+        return null != params && (null != params.getByName("__body") || null != params.getByName("_body"));
+    }
+
+    private void callTemplate(int line, ITemplate t, ITemplate caller, ITag.__Body context, EventBus.Hooks hooks) {
+        if (null != hooks.onInvoke) hooks.onInvoke.onInvoke((ITag) t);
+        try {
+            if (null != context) {
+                t.__setBodyContext(context);
             }
-            RythmEvents.ON_TAG_INVOCATION.trigger(this, F.T2((TemplateBase) caller, t));
+            t.__setSecureCode(secureCode).__call(line);
+        } finally {
+            if (null != hooks.invoked) hooks.invoked.invoked((ITag) t);
+            t.__recycle();
+        }
+    }
+
+    /*
+     * The render listeners compiled per event, the tag invocation events are
+     * dispatched to them directly
+     */
+    private EventBus.Hooks hooks() {
+        return ((EventBus) eventDispatcher()).hooks();
+    }
+
+    /**
+     * Invoke a tag concurrently with the rest of the caller template. The tag is
+     * looked up and its params are bound on the calling thread, it is then rendered
+     * into a separate segment on the fork join pool. The returned task shall be
+     * joined by the caller to get the rendered segment.
+     * <p/>
+     * <p>If the tag cannot be rendered into a separate segment, e.g. a Java tag or a
+     * tag with body, it is invoked in place and {@code null} is returned</p>
+     * <p/>
+     * <p>Not an API for user application</p>
+     *
+     * @param line
+     * @param name
+     * @param caller
+     * @param params
+     * @param ignoreNonExistsTag
+     * @param site               the call site cache, could be {@code null}
+     * @return the task rendering the tag or {@code null} if the tag has been invoked in place
+     */
+    public ForkJoinTask<String> forkTemplate(final int line, String name, final TemplateBase caller, ITag.__ParameterList params, boolean ignoreNonExistsTag, TagCallSite site) {
+        if (_nonExistsTags.contains(name)) return null;
+
+        final ITemplate t;
+        Sandbox.enterSafeZone(secureCode);
+        try {
+            t = prepareTemplate(name, caller, params, null, ignoreNonExistsTag, site);
+        } finally {
+            Sandbox.leaveCurZone(secureCode);
+        }
+        if (null == t) return null;
+        final EventBus.Hooks hooks = hooks();
+        if (!(t instanceof TagBase) || t instanceof JavaTagBase || hasBody(params)) {
+            Sandbox.enterSafeZone(secureCode);
+            if (null != hooks.enterInvokeTemplate) hooks.enterInvokeTemplate.enterInvokeTemplate(caller);
             try {
-                if (null != context) {
-                    t.__setBodyContext(context);
-                }
-                t.__setSecureCode(secureCode).__call(line);
+                callTemplate(line, t, caller, null, hooks);
             } finally {
-                RythmEvents.TAG_INVOKED.trigger(this, F.T2((TemplateBase) caller, t));
+                if (null != hooks.exitInvokeTemplate) hooks.exitInvokeTemplate.exitInvokeTemplate(caller);
+                Sandbox.leaveCurZone(secureCode);
             }
-        } finally {
-            RythmEvents.EXIT_INVOKE_TEMPLATE.trigger(this, (TemplateBase) caller);
-            Sandbox.leaveCurZone(secureCode);
+            return null;
         }
+        final TagBase tag = (TagBase) t;
+        // the caller goes on rendering in this thread
+        tag.__detachCaller();
+        final RenderContext context = new RenderContext(caller.__curCodeType(), caller.__curLocale(), caller.__getUserContext());
+        ForkJoinTask<String> task = new RecursiveTask<String>() {
+            @Override
+            protected String compute() {
+                RenderScope scope = enterRender(context, OutputMode.str);
+                Sandbox.enterSafeZone(secureCode);
+                if (null != hooks.enterInvokeTemplate) hooks.enterInvokeTemplate.enterInvokeTemplate(caller);
+                try {
+                    if (null != hooks.onInvoke) hooks.onInvoke.onInvoke(tag);
+                    try {
+                        tag.__setSecureCode(secureCode);
+                        return tag.__callSegment(line);
+                    } finally {
+                        if (null != hooks.invoked) hooks.invoked.invoked(tag);
+                        tag.__recycle();
+                    }
+                } finally {
+                    if (null != hooks.exitInvokeTemplate) hooks.exitInvokeTemplate.exitInvokeTemplate(caller);
+                    Sandbox.leaveCurZone(secureCode);
+                    exitRender(scope);
+                }
+            }
+        };
+        if (ForkJoinTask.inForkJoinPool()) {
+            task.fork();
+        } else {
+            ForkJoinPool.commonPool().execute(task);
+        }
+        return task;
     }
 
     // -- cache api
@@ -2085,6 +2647,11 @@ public class RythmEngine implements IEventDispatcher {
         TemplateResourceManager.cleanUpTmplBlackList();
     }
 
+    private static void renderCleanUp(ITemplate t) {
+        if (null != t) t.__recycle();
+        renderCleanUp();
+    }
+
     /* -----------------------------------------------------------------------------
       Restart and Shutdown
     -------------------------------------------------------------------------------*/
@@ -2124,6 +2691,7 @@ public class RythmEngine implements IEventDispatcher {
         for (String name : templateTags) {
             _templates.remove(name);
         }
+        tagRegistryChanged();
     }
 
     interface IShutdownListener {
@@ -2177,6 +2745,9 @@ public class RythmEngine implements IEventDispatcher {
         if (null != nonExistsTemplatesChecker) {
             nonExistsTemplatesChecker.onShutdown();
         }
+        if (null != _tieredTemplates) {
+            _tieredTemplates.shutdown();
+        }
         if (null != _templates) _templates.clear();
         if (null != _classes) _classes.clear();
         if (null != _nonExistsTags) _nonExistsTags.clear();
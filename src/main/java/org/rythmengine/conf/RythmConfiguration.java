@@ -415,6 +415,48 @@ public class RythmConfiguration {
         return _compactEnabled;
     }
 
+    private Boolean _directByteCodeEnabled = null;
+
+    /**
+     * Return {@link RythmConfigurationKey#CODEGEN_DIRECT_BYTE_CODE_ENABLED} without look up
+     *
+     * @return true if direct byte code generation is enabled
+     */
+    public boolean directByteCodeEnabled() {
+        if (null == _directByteCodeEnabled) {
+            _directByteCodeEnabled = get(CODEGEN_DIRECT_BYTE_CODE_ENABLED);
+        }
+        return _directByteCodeEnabled;
+    }
+
+    private Integer _inlineTagMaxSize = null;
+
+    /**
+     * Get {@link RythmConfigurationKey#CODEGEN_INLINE_TAG_MAX_SIZE} without lookup
+     *
+     * @return the maximum size of the tag source to be inlined into the caller
+     */
+    public int inlineTagMaxSize() {
+        if (null == _inlineTagMaxSize) {
+            _inlineTagMaxSize = get(CODEGEN_INLINE_TAG_MAX_SIZE);
+        }
+        return _inlineTagMaxSize;
+    }
+
+    private Integer _tieredThreshold = null;
+
+    /**
+     * Get {@link RythmConfigurationKey#ENGINE_TIERED_THRESHOLD} without lookup
+     *
+     * @return the number of interpreted renders before an inline template is compiled
+     */
+    public int tieredThreshold() {
+        if (null == _tieredThreshold) {
+            _tieredThreshold = get(ENGINE_TIERED_THRESHOLD);
+        }
+        return _tieredThreshold;
+    }
+
     private IDurationParser _durationParser = null;
 
     /**
@@ -637,6 +679,48 @@ public class RythmConfiguration {
         return _resourceRefreshInterval.longValue();
     }
 
+    private Integer _outputBufferSize = null;
+
+    /**
+     * Get {@link RythmConfigurationKey#RENDER_OUTPUT_BUFFER_SIZE} without lookup
+     *
+     * @return the output buffer size in bytes
+     */
+    public int outputBufferSize() {
+        if (null == _outputBufferSize) {
+            _outputBufferSize = get(RENDER_OUTPUT_BUFFER_SIZE);
+        }
+        return _outputBufferSize;
+    }
+
+    private Integer _bufferPoolSize = null;
+
+    /**
+     * Get {@link RythmConfigurationKey#RENDER_BUFFER_POOL_SIZE} without lookup
+     *
+     * @return the maximum number of pooled render buffers
+     */
+    public int bufferPoolSize() {
+        if (null == _bufferPoolSize) {
+            _bufferPoolSize = get(RENDER_BUFFER_POOL_SIZE);
+        }
+        return _bufferPoolSize;
+    }
+
+    private Integer _bufferMaxSize = null;
+
+    /**
+     * Get {@link RythmConfigurationKey#RENDER_BUFFER_MAX_SIZE} without lookup
+     *
+     * @return the maximum capacity of a pooled render buffer
+     */
+    public int bufferMaxSize() {
+        if (null == _bufferMaxSize) {
+            _bufferMaxSize = get(RENDER_BUFFER_MAX_SIZE);
+        }
+        return _bufferMaxSize;
+    }
+
     private Boolean _autoScan = null;
 
     public boolean autoScan() {
@@ -646,6 +730,15 @@ public class RythmConfiguration {
         return _autoScan;
     }
 
+    private Integer _autoScanParallelism = null;
+
+    public int autoScanParallelism() {
+        if (null == _autoScanParallelism) {
+            _autoScanParallelism = get(RESOURCE_AUTO_SCAN_PARALLELISM);
+        }
+        return _autoScanParallelism;
+    }
+
     private String _allowedSysProps = null;
 
     public String allowedSystemProperties() {
@@ -134,6 +134,21 @@ public enum RythmConfigurationKey {
      */
     CODEGEN_COMPACT_ENABLED("codegen.compact.enabled", true),
 
+    /**
+     * "codegen.inline_tag.max.size": Set the maximum size in chars of the source of a template tag
+     * or an inline tag defined with <code>@def</code> that could be inlined into the caller class.
+     * An inlined template tag is rendered by a private method of the caller instead of going
+     * through the tag invocation process, thus no tag instance is created. An inlined
+     * <code>@def</code> tag is expanded at the call site. Only tags without layout, section, body
+     * and nested tag invocation are inlined.
+     * <p/>
+     * <p>No tag is inlined into a template compiled while tag invocation
+     * {@link org.rythmengine.extension.IRythmListener listeners} are registered, as the inlined
+     * tags do not trigger the tag invocation events. Set to <code>0</code> to disable tag inlining</p>
+     * <p>Default value: <code>256</code></p>
+     */
+    CODEGEN_INLINE_TAG_MAX_SIZE("codegen.inline_tag.max.size", 256),
+
     /**
      * "codegen.source_code_enhancer.impl": Set template
      * {@link org.rythmengine.extension.ISourceCodeEnhancer source code enhancer}
@@ -149,6 +164,15 @@ public enum RythmConfigurationKey {
      */
     CODEGEN_BYTE_CODE_ENHANCER("codegen.byte_code_enhancer.impl"),
 
+    /**
+     * "codegen.direct_byte_code.enabled": Enable/disable generating the byte code of templates made
+     * of static text, expressions, <code>@if</code>, <code>@for</code> and tag calls straight from the
+     * build code, without compiling the java source with the java compiler. Other templates are
+     * still compiled, and the java source is still generated for debugging
+     * <p>Default value: <code>true</code></p>
+     */
+    CODEGEN_DIRECT_BYTE_CODE_ENABLED("codegen.direct_byte_code.enabled", true),
+
     /**
      * "default.code_type.impl": Set default {@link org.rythmengine.extension.ICodeType code type}
      * <p/>
@@ -301,6 +325,22 @@ public enum RythmConfigurationKey {
      */
     ENGINE_PLUGIN_VERSION("engine.plugin.version", ""),
 
+    /**
+     * "engine.tiered.threshold": Set the number of times an inline template rendered by
+     * {@link org.rythmengine.RythmEngine#substitute(String, Object...) substitute} is executed
+     * by the interpreter before it is compiled into bytecode in background. Templates using
+     * a construct the interpreter does not support are compiled right away. Set it to
+     * <code>0</code> to compile every template on its first render.
+     *
+     * <p>Default value: <code>0</code></p>
+     */
+    ENGINE_TIERED_THRESHOLD("engine.tiered.threshold", 0) {
+        @Override
+        public <T> T getConfiguration(Map<String, ?> configuration) {
+            return (T) getInt(getKey(), configuration, 0);
+        }
+    },
+
     /**
      * "feature.transform.enabled": Enable disable {@link org.rythmengine.extension.Transformer transformer}
      * <p/>
@@ -428,6 +468,21 @@ public enum RythmConfigurationKey {
         }
     },
 
+    /**
+     * "home.precompiled.archive": Set the archive of precompiled template classes built by
+     * {@link org.rythmengine.Precompiler}. The value could be a {@link java.io.File}, a {@link java.net.URL},
+     * a {@link java.net.URI}, or a string which is the path of a file or a classpath resource.
+     * When set, the template classes found in the archive are loaded from the bytecode directly
+     * without being parsed and compiled when running in {@link org.rythmengine.Rythm.Mode#prod prod} mode.
+     * Default value: <code>null</code>
+     */
+    HOME_PRECOMPILED_ARCHIVE("home.precompiled.archive") {
+        @Override
+        protected Object getDefVal(Map<String, ?> configuration) {
+            return null;
+        }
+    },
+
     /**
      * "i18n.locale": the locale for the rythm runtime environment. This configuration
      * return the {@link java.util.Locale} type of instance.
@@ -540,6 +595,29 @@ public enum RythmConfigurationKey {
      */
     RENDER_EXCEPTION_HANDLER("render.exception_handler.impl"),
 
+    /**
+     * "render.output.buffer.size": Set the size in bytes of the buffer used when rendering into
+     * an {@link java.io.OutputStream}. Encoded render result is written to the output stream in bulk
+     * each time the buffer is full, i.e. this is the flush threshold of the output.
+     * <p>Default value: <code>8192</code></p>
+     */
+    RENDER_OUTPUT_BUFFER_SIZE("render.output.buffer.size", 8192),
+
+    /**
+     * "render.buffer.pool.size": Set the maximum number of render buffers, and render contexts,
+     * kept in the pool for reuse by later render processes. Set to <code>0</code> to disable pooling.
+     * <p>Default value: <code>64</code></p>
+     */
+    RENDER_BUFFER_POOL_SIZE("render.buffer.pool.size", 64),
+
+    /**
+     * "render.buffer.max.size": Set the maximum capacity in chars of a render buffer that can be
+     * returned to the pool. Larger buffers are left to the garbage collector so that the memory
+     * used by a very large page is not retained forever.
+     * <p>Default value: <code>262144</code></p>
+     */
+    RENDER_BUFFER_MAX_SIZE("render.buffer.max.size", 256 * 1024),
+
     /**
      * `resource_bundle.encoding` specifies the encoding to load
      * resource bundle.
@@ -609,6 +687,21 @@ public enum RythmConfigurationKey {
      */
     RESOURCE_AUTO_SCAN("resource.autoScan", false),
 
+    /**
+     * "resource.autoScan.parallelism": Set the number of threads loading the resources found by
+     * the {@link #RESOURCE_AUTO_SCAN auto scan} at {@link org.rythmengine.Rythm.Mode#prod prod} mode.
+     * When set to a number larger than <code>1</code>, the templates are parsed in parallel, compiled
+     * in one batch and then loaded in parallel. Otherwise the templates are loaded one by one.
+     *
+     * <p>Default value: <code>0</code></p>
+     */
+    RESOURCE_AUTO_SCAN_PARALLELISM("resource.autoScan.parallelism", 0) {
+        @Override
+        public <T> T getConfiguration(Map<String, ?> configuration) {
+            return (T) getInt(getKey(), configuration, 0);
+        }
+    },
+
     /**
      * "sandbox.security_manager.impl": Set the security manager to be used when running a template in
      * {@link org.rythmengine.Sandbox sandbox} mode.
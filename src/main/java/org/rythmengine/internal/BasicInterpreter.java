@@ -0,0 +1,385 @@
+/**
+ * Copyright (C) 2013-2016 The Rythm Engine project
+ * for LICENSE and other details see:
+ * https://github.com/rythmengine/rythmengine
+ */
+package org.rythmengine.internal;
+
+/*-
+ * #%L
+ * Rythm Template Engine
+ * %%
+ * Copyright (C) 2017 - 2021 OSGL (Open Source General Library)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.rythmengine.internal.parser.Patterns;
+import org.rythmengine.utils.Eval;
+
+import java.util.*;
+
+/**
+ * Execute a {@link org.rythmengine.internal.dialect.BasicRythm basic} template without generating
+ * and compiling java source. Only the part of the dialect which the interpreter can render exactly
+ * like the compiled template is supported:
+ * <ul>
+ * <li>static text, which is compacted like the compiled template does</li>
+ * <li><code>@name</code> expressions</li>
+ * <li><code>@if (name) {...} else {...}</code> blocks</li>
+ * <li><code>@for (x : name) {...}</code> blocks</li>
+ * </ul>
+ * Blocks are supported in single line templates only, as the parsers handle the white spaces and
+ * line breaks around them in many different ways
+ */
+public class BasicInterpreter {
+
+    /**
+     * Thrown when a render arg cannot be handled the way the compiled template does, in which case
+     * the template shall be rendered by the compiled template instead
+     */
+    static class UnsupportedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        UnsupportedException() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final Set<String> JAVA_KEYWORDS = new HashSet<String>(Arrays.asList(("abstract assert boolean break byte case catch char class const continue default do double else enum extends final finally float for goto if implements import instanceof int interface long native new package private protected public return short static strictfp super switch synchronized this throw throws transient try void volatile while true false null").split(" ")));
+
+    private static abstract class Node {
+        abstract void render(TemplateBuilder out, Map<String, Object> vars);
+    }
+
+    private static class Text extends Node {
+        private final String s;
+
+        Text(String s) {
+            this.s = s;
+        }
+
+        @Override
+        void render(TemplateBuilder out, Map<String, Object> vars) {
+            out.p(s);
+        }
+    }
+
+    private static class Expression extends Node {
+        private final String name;
+
+        Expression(String name) {
+            this.name = name;
+        }
+
+        @Override
+        void render(TemplateBuilder out, Map<String, Object> vars) {
+            out.pe(vars.get(name));
+        }
+    }
+
+    private static class If extends Node {
+        private final String condition;
+        private final List<Node> body = new ArrayList<Node>();
+        private List<Node> otherwise = null;
+
+        If(String condition) {
+            this.condition = condition;
+        }
+
+        @Override
+        void render(TemplateBuilder out, Map<String, Object> vars) {
+            List<Node> nodes = Eval.eval(vars.get(condition)) ? body : otherwise;
+            if (null != nodes) {
+                BasicInterpreter.render(nodes, out, vars);
+            }
+        }
+    }
+
+    private static class For extends Node {
+        private final String var;
+        private final String iterable;
+        private final List<Node> body = new ArrayList<Node>();
+
+        For(String var, String iterable) {
+            this.var = var;
+            this.iterable = iterable;
+        }
+
+        @Override
+        void render(TemplateBuilder out, Map<String, Object> vars) {
+            Object o = vars.get(iterable);
+            if (!(o instanceof Iterable)) {
+                throw new UnsupportedException();
+            }
+            boolean shadowed = vars.containsKey(var);
+            Object shadowedValue = vars.get(var);
+            for (Object e : (Iterable<?>) o) {
+                vars.put(var, e);
+                BasicInterpreter.render(body, out, vars);
+            }
+            if (shadowed) {
+                vars.put(var, shadowedValue);
+            } else {
+                vars.remove(var);
+            }
+        }
+    }
+
+    private final List<Node> nodes;
+
+    private BasicInterpreter(List<Node> nodes) {
+        this.nodes = nodes;
+    }
+
+    private static void render(List<Node> nodes, TemplateBuilder out, Map<String, Object> vars) {
+        for (Node node : nodes) {
+            node.render(out, vars);
+        }
+    }
+
+    /**
+     * Render the template with the render args passed by name
+     *
+     * @param args the render args
+     * @return the render result
+     * @throws UnsupportedException if a render arg cannot be rendered by the interpreter
+     */
+    public String render(Map<String, Object> args) {
+        Map<String, Object> vars = null == args ? new HashMap<String, Object>() : new HashMap<String, Object>(args);
+        TemplateBuilder out = new TemplateBuilder();
+        render(nodes, out, vars);
+        return out.toString();
+    }
+
+    /**
+     * Parse the template source
+     *
+     * @param template the template source
+     * @param compact  whether the static text is compacted
+     * @return the interpreter or <code>null</code> if the template uses anything not supported
+     */
+    public static BasicInterpreter parse(String template, boolean compact) {
+        return new Parser(template, compact).parse();
+    }
+
+    private static class Parser {
+        private final String s;
+        private final boolean compact;
+        private int pos = 0;
+        private final StringBuilder text = new StringBuilder();
+        private final Deque<Node> blocks = new ArrayDeque<Node>();
+        private final Deque<List<Node>> nodes = new ArrayDeque<List<Node>>();
+        // render args declared by the compiled template, mapped to whether they are iterable
+        private final Map<String, Boolean> declared = new HashMap<String, Boolean>();
+        private final Set<String> conditions = new HashSet<String>();
+        private boolean hasBlock = false;
+
+        Parser(String s, boolean compact) {
+            this.s = s;
+            this.compact = compact;
+            nodes.push(new ArrayList<Node>());
+        }
+
+        BasicInterpreter parse() {
+            int len = s.length();
+            while (pos < len) {
+                char c = s.charAt(pos);
+                if ('@' == c) {
+                    if (!directive()) return null;
+                } else if ('}' == c) {
+                    if (!closeBlock()) return null;
+                } else if ('{' == c || '\r' == c) {
+                    return null;
+                } else {
+                    text.append(c);
+                    pos++;
+                }
+            }
+            if (!blocks.isEmpty() || (hasBlock && s.indexOf('\n') > -1)) return null;
+            for (String condition : conditions) {
+                // the compiled template fails to compile a condition not declared elsewhere
+                if (!declared.containsKey(condition)) return null;
+            }
+            flushText();
+            return new BasicInterpreter(nodes.pop());
+        }
+
+        private void flushText() {
+            if (text.length() == 0) return;
+            String t = text.toString();
+            text.setLength(0);
+            if (compact) {
+                t = Token.compact_(t);
+            }
+            if (t.length() > 0) {
+                nodes.peek().add(new Text(t));
+            }
+        }
+
+        private boolean directive() {
+            String name = name(pos + 1);
+            if (null == name) return false;
+            int end = pos + 1 + name.length();
+            if ("if".equals(name)) {
+                return openIf(end);
+            } else if ("for".equals(name)) {
+                return openFor(end);
+            }
+            if (end < s.length() && ".([?@{".indexOf(s.charAt(end)) > -1) return false;
+            if (!variable(name)) return false;
+            if (!loopVar(name) && !declared.containsKey(name)) {
+                declared.put(name, false);
+            }
+            flushText();
+            nodes.peek().add(new Expression(name));
+            pos = end;
+            return true;
+        }
+
+        private boolean openIf(int from) {
+            int p = skipSpaces(from, true);
+            if (!at(p, '(')) return false;
+            p = skipSpaces(p + 1, true);
+            String condition = name(p);
+            if (null == condition || !variable(condition)) return false;
+            p = skipSpaces(p + condition.length(), true);
+            if (!at(p, ')')) return false;
+            p = openBrace(p + 1);
+            if (p < 0) return false;
+            if (!loopVar(condition)) {
+                conditions.add(condition);
+            }
+            If block = new If(condition);
+            open(block, block.body);
+            pos = p;
+            return true;
+        }
+
+        private boolean openFor(int from) {
+            int p = skipSpaces(from, true);
+            if (!at(p, '(')) return false;
+            p = skipSpaces(p + 1, true);
+            String var = name(p);
+            if (null == var || !variable(var)) return false;
+            p = skipSpaces(p + var.length(), true);
+            if (!at(p, ':')) return false;
+            p = skipSpaces(p + 1, true);
+            String iterable = name(p);
+            if (null == iterable || !variable(iterable) || iterable.equals(var) || loopVar(iterable)) return false;
+            p = skipSpaces(p + iterable.length(), true);
+            if (!at(p, ')')) return false;
+            p = openBrace(p + 1);
+            if (p < 0) return false;
+            Boolean isIterable = declared.get(iterable);
+            if (null == isIterable) {
+                declared.put(iterable, true);
+            } else if (!isIterable) {
+                // declared as Object, the compiled template iterates it in another way
+                return false;
+            }
+            For block = new For(var, iterable);
+            open(block, block.body);
+            pos = p;
+            return true;
+        }
+
+        private void open(Node block, List<Node> body) {
+            flushText();
+            nodes.peek().add(block);
+            blocks.push(block);
+            nodes.push(body);
+            hasBlock = true;
+        }
+
+        /*
+         * Return the position following the open brace, or -1 if it is not there or followed by
+         * white spaces
+         */
+        private int openBrace(int from) {
+            int p = skipSpaces(from, false);
+            if (!at(p, '{')) return -1;
+            p++;
+            if (p < s.length() && Character.isWhitespace(s.charAt(p))) return -1;
+            return p;
+        }
+
+        private boolean closeBlock() {
+            if (blocks.isEmpty()) return false;
+            if (text.length() > 0 && Character.isWhitespace(text.charAt(text.length() - 1))) return false;
+            flushText();
+            Node block = blocks.pop();
+            nodes.pop();
+            int p = skipSpaces(pos + 1, false);
+            if (s.startsWith("else", p)) {
+                if (!(block instanceof If) || null != ((If) block).otherwise) return false;
+                p = openBrace(p + 4);
+                if (p < 0) return false;
+                If ifBlock = (If) block;
+                ifBlock.otherwise = new ArrayList<Node>();
+                blocks.push(ifBlock);
+                nodes.push(ifBlock.otherwise);
+                pos = p;
+            } else {
+                pos++;
+            }
+            return true;
+        }
+
+        private boolean variable(String name) {
+            if (name.startsWith("_") || JAVA_KEYWORDS.contains(name)) return false;
+            for (Keyword k : Keyword.values()) {
+                if (k.isRegexp() ? name.matches(k.toString()) : name.equals(k.toString())) return false;
+            }
+            for (Node block : blocks) {
+                // loop helpers like x_index are not supported
+                if (block instanceof For && name.startsWith(((For) block).var + "_")) return false;
+            }
+            return true;
+        }
+
+        private boolean loopVar(String name) {
+            for (Node block : blocks) {
+                if (block instanceof For && name.equals(((For) block).var)) return true;
+            }
+            return false;
+        }
+
+        private String name(int from) {
+            int p = from;
+            while (p < s.length() && (Character.isLetterOrDigit(s.charAt(p)) || '_' == s.charAt(p))) {
+                p++;
+            }
+            String name = s.substring(from, p);
+            return Patterns.VarName.matches(name) ? name : null;
+        }
+
+        private int skipSpaces(int from, boolean lineBreak) {
+            int p = from;
+            while (p < s.length()) {
+                char c = s.charAt(p);
+                if (' ' == c || '\t' == c || (lineBreak && '\n' == c)) {
+                    p++;
+                } else {
+                    break;
+                }
+            }
+            return p;
+        }
+
+        private boolean at(int p, char c) {
+            return p < s.length() && s.charAt(p) == c;
+        }
+    }
+}
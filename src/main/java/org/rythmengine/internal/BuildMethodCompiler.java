@@ -0,0 +1,2162 @@
+/**
+ * Copyright (C) 2013-2016 The Rythm Engine project
+ * for LICENSE and other details see:
+ * https://github.com/rythmengine/rythmengine
+ */
+package org.rythmengine.internal;
+
+/*-
+ * #%L
+ * Rythm Template Engine
+ * %%
+ * Copyright (C) 2017 - 2021 OSGL (Open Source General Library)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.rythmengine.template.TemplateBase;
+
+import java.io.IOException;
+import java.lang.reflect.*;
+import java.util.*;
+
+/**
+ * Compile the java code generated by {@link CodeBuilder} for the <code>build()</code> method into
+ * byte code, without the java compiler. Only the subset of java the code generator emits for static
+ * text, expressions, <code>@if</code>, <code>@for</code> and tag calls is supported: local variables,
+ * <code>if</code>, <code>for</code>, <code>try/catch</code>, <code>break</code>, <code>continue</code>,
+ * <code>return</code>, method calls, field access, literals, casts and the arithmetic, comparison,
+ * logical and conditional operators. The names are resolved the way the java compiler does with
+ * reflection on the classes loaded by the template class loader.
+ * <p/>
+ * The compiler rejects what it cannot compile exactly as the java compiler does, including the code
+ * the java compiler would report an error for, by throwing {@link Unsupported}. The template
+ * is then compiled from the java source
+ */
+final class BuildMethodCompiler {
+
+    /**
+     * Raised when the code is not supported by the compiler
+     */
+    static final class Unsupported extends RuntimeException {
+        Unsupported(String reason) {
+            super(reason, null, false, false);
+        }
+    }
+
+    private static final Set<String> KEYWORDS = new HashSet<String>(Arrays.asList(
+            "abstract", "assert", "break", "case", "catch", "class", "const", "continue", "default", "do", "else",
+            "enum", "extends", "final", "finally", "for", "goto", "if", "implements", "import", "instanceof",
+            "interface", "native", "new", "package", "private", "protected", "public", "return", "static", "strictfp",
+            "super", "switch", "synchronized", "this", "throw", "throws", "transient", "try", "void", "volatile",
+            "while", "true", "false", "null"));
+
+    private static final Map<String, Class<?>> PRIMITIVES = new HashMap<String, Class<?>>();
+    private static final Map<Class<?>, Class<?>> BOXES = new HashMap<Class<?>, Class<?>>();
+    private static final Map<Class<?>, Class<?>> UNBOXES = new HashMap<Class<?>, Class<?>>();
+
+    static {
+        Class<?>[][] pairs = {{boolean.class, Boolean.class}, {byte.class, Byte.class}, {char.class, Character.class},
+                {short.class, Short.class}, {int.class, Integer.class}, {long.class, Long.class},
+                {float.class, Float.class}, {double.class, Double.class}};
+        for (Class<?>[] pair : pairs) {
+            PRIMITIVES.put(pair[0].getName(), pair[0]);
+            BOXES.put(pair[0], pair[1]);
+            UNBOXES.put(pair[1], pair[0]);
+        }
+    }
+
+    // the type of the null literal
+    private static final class Null {
+    }
+
+    // the packages imported on demand by the generated source, java.lang included
+    private static final String[] ON_DEMAND_IMPORTS = {"java.lang.", "java.util.", "java.io."};
+
+    private final TemplateClassWriter writer;
+    private final String className;
+    private final Class<?> superClass;
+    private final ClassLoader loader;
+    private final Map<String, OwnField> ownFields = new HashMap<String, OwnField>();
+    private final Map<String, Object> types = new HashMap<String, Object>();
+    private final Map<String, List<Method>> methods = new HashMap<String, List<Method>>();
+
+    // the state of the method being compiled
+    private TemplateClassWriter.Code code;
+    private List<Tok> toks;
+    private int pos;
+    private int lineOffset;
+    private final Deque<Map<String, Local>> scopes = new ArrayDeque<Map<String, Local>>();
+    private final Deque<Loop> loops = new ArrayDeque<Loop>();
+    private int nextSlot;
+
+    BuildMethodCompiler(TemplateClassWriter writer, String className, Class<?> superClass, ClassLoader loader) {
+        this.writer = writer;
+        this.className = className;
+        this.superClass = superClass;
+        this.loader = loader;
+    }
+
+    /**
+     * Declare a field of the template class, which could be referenced by the code compiled
+     *
+     * @param name     the field name
+     * @param type     the field type as in the java source
+     * @param isStatic whether it is a static field
+     * @return the class of the field type
+     */
+    Class<?> field(String name, String type, boolean isStatic) {
+        TypeRef ref = parseType(type);
+        OwnField f = new OwnField(resolve(ref), ref, isStatic);
+        ownFields.put(name, f);
+        return f.type;
+    }
+
+    /**
+     * Resolve a type in the java source of the template class
+     */
+    Class<?> type(String type) {
+        return resolve(parseType(type));
+    }
+
+    /**
+     * Returns the generic signature of a type in the java source of the template class,
+     * or <code>null</code> if the type is not generic
+     */
+    String signature(String type) {
+        TypeRef ref = parseType(type);
+        return null == ref.args ? null : signature(ref);
+    }
+
+    /**
+     * Compile the statements of the <code>build()</code> method
+     *
+     * @param c      the code to write to
+     * @param body   the java source of the statements
+     * @param line   the java source line the statements start from
+     * @param locals the slots used by the method params
+     */
+    void compileStatements(TemplateClassWriter.Code c, String body, int line, int locals) throws IOException {
+        start(c, body, line, locals);
+        boolean alive = true;
+        while (!peekEof()) {
+            if (!alive) throw new Unsupported("unreachable statement");
+            alive = statement();
+        }
+        if (alive) throw new Unsupported("missing return statement");
+    }
+
+    /**
+     * Compile a field initializer: <code>this.name = init;</code>
+     */
+    void compileFieldInit(TemplateClassWriter.Code c, String name, String init) throws IOException {
+        start(c, init, 1, 1);
+        OwnField f = ownFields.get(name);
+        Expr e = expression();
+        if (!peekEof()) throw new Unsupported("bad field initializer: " + init);
+        attr(e);
+        checkAssignable(e, f.type);
+        op(TemplateClassWriter.ALOAD_0, 1);
+        genValue(e);
+        coerce(e, f.type);
+        code.op(TemplateClassWriter.PUTFIELD).u2(writer.fieldRef(className, name, desc(f.type)));
+        code.stack(-1 - size(f.type));
+    }
+
+    /**
+     * Returns the number of local variable slots used by the code compiled
+     */
+    int maxLocals() {
+        return nextSlot;
+    }
+
+    private void start(TemplateClassWriter.Code c, String src, int line, int locals) {
+        code = c;
+        toks = lex(src);
+        pos = 0;
+        lineOffset = line - 1;
+        scopes.clear();
+        scopes.push(new HashMap<String, Local>());
+        loops.clear();
+        nextSlot = locals;
+    }
+
+    // ---------------------------------------------------------------- lexer
+
+    private static final int IDENT = 1;
+    private static final int LITERAL = 2;
+    private static final int OP = 3;
+    private static final int EOF = 4;
+
+    private static final class Tok {
+        final int kind;
+        final String text;
+        final Object value;
+        final int line;
+
+        Tok(int kind, String text, Object value, int line) {
+            this.kind = kind;
+            this.text = text;
+            this.value = value;
+            this.line = line;
+        }
+    }
+
+    // shifts are not lexed, so that the angle brackets of nested type arguments are closed one by one
+    private static final String[] OPS = {"...", "++", "--", "&&", "||", "==", "!=", "<=", ">=", "+=", "-=", "*=",
+            "/=", "%=", "&=", "|=", "^=", "->", "::"};
+
+    private static List<Tok> lex(String s) {
+        List<Tok> list = new ArrayList<Tok>();
+        int line = 1, i = 0, len = s.length();
+        while (i < len) {
+            char c = s.charAt(i);
+            if (c == '\n') {
+                line++;
+                i++;
+            } else if (Character.isWhitespace(c)) {
+                i++;
+            } else if (s.startsWith("//", i)) {
+                while (i < len && s.charAt(i) != '\n') i++;
+            } else if (s.startsWith("/*", i)) {
+                int end = s.indexOf("*/", i + 2);
+                if (end < 0) throw new Unsupported("unclosed comment");
+                for (; i < end + 2; ++i) {
+                    if (s.charAt(i) == '\n') line++;
+                }
+            } else if (Character.isJavaIdentifierStart(c)) {
+                int start = i++;
+                while (i < len && Character.isJavaIdentifierPart(s.charAt(i))) i++;
+                String id = s.substring(start, i);
+                list.add(new Tok(IDENT, id, null, line));
+            } else if (Character.isDigit(c) || (c == '.' && i + 1 < len && Character.isDigit(s.charAt(i + 1)))) {
+                int start = i;
+                while (i < len && (Character.isLetterOrDigit(s.charAt(i)) || s.charAt(i) == '.'
+                        || ((s.charAt(i) == '+' || s.charAt(i) == '-') && (s.charAt(i - 1) == 'e' || s.charAt(i - 1) == 'E')))) {
+                    i++;
+                }
+                String n = s.substring(start, i);
+                list.add(new Tok(LITERAL, n, number(n), line));
+            } else if (c == '"' || c == '\'') {
+                StringBuilder sb = new StringBuilder();
+                int start = i++;
+                while (true) {
+                    if (i >= len || s.charAt(i) == '\n') throw new Unsupported("unclosed literal");
+                    char ch = s.charAt(i++);
+                    if (ch == c) break;
+                    if (ch == '\\') {
+                        i = escape(s, i, sb);
+                    } else {
+                        sb.append(ch);
+                    }
+                }
+                Object value = sb.toString();
+                if (c == '\'') {
+                    if (sb.length() != 1) throw new Unsupported("bad char literal");
+                    value = sb.charAt(0);
+                }
+                list.add(new Tok(LITERAL, s.substring(start, i), value, line));
+            } else {
+                String op = String.valueOf(c);
+                for (String o : OPS) {
+                    if (s.startsWith(o, i)) {
+                        op = o;
+                        break;
+                    }
+                }
+                if ("\\#`@".indexOf(c) > -1) throw new Unsupported("unexpected char: " + c);
+                i += op.length();
+                list.add(new Tok(OP, op, null, line));
+            }
+        }
+        list.add(new Tok(EOF, "", null, line));
+        return list;
+    }
+
+    private static int escape(String s, int i, StringBuilder sb) {
+        if (i >= s.length()) throw new Unsupported("bad escape");
+        char c = s.charAt(i++);
+        switch (c) {
+            case 'b': sb.append('\b'); return i;
+            case 't': sb.append('\t'); return i;
+            case 'n': sb.append('\n'); return i;
+            case 'f': sb.append('\f'); return i;
+            case 'r': sb.append('\r'); return i;
+            case '"': sb.append('"'); return i;
+            case '\'': sb.append('\''); return i;
+            case '\\': sb.append('\\'); return i;
+            case 'u':
+                while (i < s.length() && s.charAt(i) == 'u') i++;
+                if (i + 4 > s.length()) throw new Unsupported("bad unicode escape");
+                try {
+                    sb.append((char) Integer.parseInt(s.substring(i, i + 4), 16));
+                } catch (NumberFormatException e) {
+                    throw new Unsupported("bad unicode escape");
+                }
+                return i + 4;
+            default:
+                if (c < '0' || c > '7') throw new Unsupported("bad escape");
+                int n = c - '0';
+                int max = c <= '3' ? 2 : 1;
+                for (int k = 0; k < max && i < s.length() && s.charAt(i) >= '0' && s.charAt(i) <= '7'; ++k) {
+                    n = n * 8 + s.charAt(i++) - '0';
+                }
+                sb.append((char) n);
+                return i;
+        }
+    }
+
+    private static Object number(String n) {
+        String lower = n.toLowerCase(Locale.US);
+        try {
+            if (lower.indexOf('_') > -1) throw new Unsupported("underscore in number");
+            if (lower.startsWith("0x")) {
+                boolean isLong = lower.endsWith("l");
+                long l = Long.parseLong(lower.substring(2, lower.length() - (isLong ? 1 : 0)), 16);
+                if (isLong) return l;
+                if (l > 0xffffffffL) throw new Unsupported("int literal out of range");
+                return (int) l;
+            }
+            if (lower.endsWith("f")) return Float.parseFloat(lower);
+            if (lower.endsWith("d") || lower.indexOf('.') > -1 || lower.indexOf('e') > -1) return Double.parseDouble(lower);
+            boolean isLong = lower.endsWith("l");
+            String digits = isLong ? lower.substring(0, lower.length() - 1) : lower;
+            boolean octal = digits.length() > 1 && digits.charAt(0) == '0';
+            long l = Long.parseLong(digits, octal ? 8 : 10);
+            if (isLong) return l;
+            if (l > (octal ? 0xffffffffL : Integer.MAX_VALUE)) throw new Unsupported("int literal out of range");
+            return (int) l;
+        } catch (NumberFormatException e) {
+            throw new Unsupported("bad number: " + n);
+        }
+    }
+
+    // ---------------------------------------------------------------- token helpers
+
+    private Tok peek() {
+        return toks.get(pos);
+    }
+
+    private Tok peek(int ahead) {
+        return toks.get(Math.min(pos + ahead, toks.size() - 1));
+    }
+
+    private boolean peekEof() {
+        return peek().kind == EOF;
+    }
+
+    private boolean isOp(String op) {
+        Tok t = peek();
+        return t.kind == OP && t.text.equals(op);
+    }
+
+    private boolean isWord(String word) {
+        Tok t = peek();
+        return t.kind == IDENT && t.text.equals(word);
+    }
+
+    private boolean acceptOp(String op) {
+        if (isOp(op)) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    private boolean acceptWord(String word) {
+        if (isWord(word)) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expectOp(String op) {
+        if (!acceptOp(op)) throw new Unsupported("expected " + op + " but found " + peek().text);
+    }
+
+    private void expectWord(String word) {
+        if (!acceptWord(word)) throw new Unsupported("expected " + word + " but found " + peek().text);
+    }
+
+    private boolean isName(Tok t) {
+        return t.kind == IDENT && !KEYWORDS.contains(t.text) && !PRIMITIVES.containsKey(t.text);
+    }
+
+    private String name() {
+        Tok t = peek();
+        if (!isName(t)) throw new Unsupported("expected name but found " + t.text);
+        pos++;
+        return t.text;
+    }
+
+    private int line() {
+        return peek().line + lineOffset;
+    }
+
+    // ---------------------------------------------------------------- types
+
+    /**
+     * A type as written in the java source
+     */
+    private static final class TypeRef {
+        // the dotted name, a primitive or "?" for a wildcard
+        String name;
+        List<TypeRef> args;
+        int dims;
+        // '*' for unbounded wildcard, '+' for extends, '-' for super
+        char wildcard;
+        TypeRef bound;
+    }
+
+    private TypeRef parseType(String type) {
+        List<Tok> saved = toks;
+        int savedPos = pos;
+        toks = lex(type);
+        pos = 0;
+        try {
+            TypeRef ref = typeRef(false);
+            if (null == ref || !peekEof()) throw new Unsupported("bad type: " + type);
+            return ref;
+        } finally {
+            toks = saved;
+            pos = savedPos;
+        }
+    }
+
+    /*
+     * Parse a type, returns null if it is not a type
+     */
+    private TypeRef typeRef(boolean typeArg) {
+        TypeRef ref = new TypeRef();
+        Tok t = peek();
+        if (typeArg && isOp("?")) {
+            pos++;
+            ref.name = "?";
+            ref.wildcard = '*';
+            if (acceptWord("extends")) ref.wildcard = '+';
+            else if (acceptWord("super")) ref.wildcard = '-';
+            if ('*' != ref.wildcard) {
+                ref.bound = typeRef(false);
+                if (null == ref.bound) return null;
+            }
+            return ref;
+        }
+        if (t.kind == IDENT && PRIMITIVES.containsKey(t.text)) {
+            pos++;
+            ref.name = t.text;
+        } else if (isName(t)) {
+            pos++;
+            StringBuilder sb = new StringBuilder(t.text);
+            while (true) {
+                if (isOp("<")) {
+                    if (null != ref.args) return null;
+                    pos++;
+                    ref.args = new ArrayList<TypeRef>();
+                    do {
+                        TypeRef arg = typeRef(true);
+                        if (null == arg) return null;
+                        ref.args.add(arg);
+                    } while (acceptOp(","));
+                    if (!acceptOp(">")) return null;
+                } else if (isOp(".") && isName(peek(1))) {
+                    // the type arguments of an outer class is not supported
+                    if (null != ref.args) return null;
+                    pos++;
+                    sb.append('.').append(peek().text);
+                    pos++;
+                } else {
+                    break;
+                }
+            }
+            ref.name = sb.toString();
+        } else {
+            return null;
+        }
+        while (isOp("[") && peek(1).kind == OP && "]".equals(peek(1).text)) {
+            pos += 2;
+            ref.dims++;
+        }
+        return ref;
+    }
+
+    private Class<?> resolve(TypeRef ref) {
+        if (null != ref.args) {
+            for (TypeRef arg : ref.args) {
+                if ('*' != arg.wildcard) resolve(null == arg.bound ? arg : arg.bound);
+            }
+        }
+        Class<?> c = PRIMITIVES.get(ref.name);
+        if (null == c) {
+            c = typeName(ref.name);
+            if (null == c) throw new Unsupported("cannot resolve type: " + ref.name);
+        }
+        for (int i = 0; i < ref.dims; ++i) {
+            c = Array.newInstance(c, 0).getClass();
+        }
+        return c;
+    }
+
+    private String signature(TypeRef ref) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < ref.dims; ++i) {
+            sb.append('[');
+        }
+        if ('*' == ref.wildcard) return "*";
+        if (0 != ref.wildcard) return sb.append(ref.wildcard).append(signature(ref.bound)).toString();
+        Class<?> c = PRIMITIVES.get(ref.name);
+        if (null == c) c = typeName(ref.name);
+        if (null == ref.args) return sb.append(desc(c)).toString();
+        sb.append('L').append(internalName(c)).append('<');
+        for (TypeRef arg : ref.args) {
+            sb.append(signature(arg));
+        }
+        return sb.append(">;").toString();
+    }
+
+    /*
+     * Resolve a dotted type name, returns null if it is not a type
+     */
+    private Class<?> typeName(String name) {
+        Object o = types.get(name);
+        if (null == o) {
+            String[] parts = name.split("\\.");
+            Class<?> c = simpleTypeName(parts[0]);
+            int i = 1;
+            if (null == c) {
+                // a package name prefix
+                for (; i < parts.length && null == c; ++i) {
+                    StringBuilder sb = new StringBuilder(parts[0]);
+                    for (int k = 1; k <= i; ++k) {
+                        sb.append('.').append(parts[k]);
+                    }
+                    c = load(sb.toString());
+                }
+            }
+            for (; i < parts.length && null != c; ++i) {
+                c = memberType(c, parts[i]);
+            }
+            o = null == c ? Boolean.FALSE : c;
+            types.put(name, o);
+        }
+        return o instanceof Class ? (Class<?>) o : null;
+    }
+
+    private Class<?> simpleTypeName(String name) {
+        Class<?> member = memberType(superClass, name);
+        if (null != member) return member;
+        if (TemplateBase.class.getSimpleName().equals(name)) return TemplateBase.class;
+        Class<?> found = null;
+        for (String pkg : ON_DEMAND_IMPORTS) {
+            Class<?> c = load(pkg + name);
+            if (null != c && Modifier.isPublic(c.getModifiers())) {
+                if (null != found) throw new Unsupported("ambiguous type: " + name);
+                found = c;
+            }
+        }
+        return found;
+    }
+
+    private static Class<?> memberType(Class<?> owner, String name) {
+        for (Class<?> c = owner; null != c; c = c.getSuperclass()) {
+            for (Class<?> member : c.getDeclaredClasses()) {
+                if (member.getSimpleName().equals(name) && !Modifier.isPrivate(member.getModifiers())) {
+                    return member;
+                }
+            }
+        }
+        return null;
+    }
+
+    private Class<?> load(String name) {
+        try {
+            return Class.forName(name, false, loader);
+        } catch (ClassNotFoundException e) {
+            return null;
+        } catch (LinkageError e) {
+            return null;
+        }
+    }
+
+    /*
+     * Whether the class can be referenced by the template class
+     */
+    private boolean accessible(Class<?> c) {
+        while (c.isArray()) c = c.getComponentType();
+        if (c.isPrimitive()) return true;
+        int mod = c.getModifiers();
+        if (null == c.getDeclaringClass()) return Modifier.isPublic(mod);
+        if (!accessible(c.getDeclaringClass())) return false;
+        return Modifier.isPublic(mod) || (Modifier.isProtected(mod) && c.getDeclaringClass().isAssignableFrom(superClass));
+    }
+
+    static String internalName(Class<?> c) {
+        return c.getName().replace('.', '/');
+    }
+
+    static String desc(Class<?> c) {
+        if (c.isPrimitive()) {
+            if (c == void.class) return "V";
+            if (c == boolean.class) return "Z";
+            if (c == long.class) return "J";
+            return String.valueOf(Character.toUpperCase(c.getName().charAt(0)));
+        }
+        return c.isArray() ? internalName(c) : "L" + internalName(c) + ";";
+    }
+
+    static Class<?> boxOf(Class<?> prim) {
+        return BOXES.get(prim);
+    }
+
+    static Class<?> primitiveOf(Class<?> box) {
+        return UNBOXES.get(box);
+    }
+
+    static String desc(Method m) {
+        StringBuilder sb = new StringBuilder("(");
+        for (Class<?> p : m.getParameterTypes()) {
+            sb.append(desc(p));
+        }
+        return sb.append(')').append(desc(m.getReturnType())).toString();
+    }
+
+    static int size(Class<?> c) {
+        return c == void.class ? 0 : (c == long.class || c == double.class) ? 2 : 1;
+    }
+
+    // ---------------------------------------------------------------- statements
+
+    private static final class Local {
+        final Class<?> type;
+        final TypeRef ref;
+        final int slot;
+
+        Local(Class<?> type, TypeRef ref, int slot) {
+            this.type = type;
+            this.ref = ref;
+            this.slot = slot;
+        }
+    }
+
+    private static final class OwnField {
+        final Class<?> type;
+        final TypeRef ref;
+        final boolean isStatic;
+
+        OwnField(Class<?> type, TypeRef ref, boolean isStatic) {
+            this.type = type;
+            this.ref = ref;
+            this.isStatic = isStatic;
+        }
+    }
+
+    private static final class Loop {
+        final List<Integer> breaks = new ArrayList<Integer>();
+        final List<Integer> continues = new ArrayList<Integer>();
+    }
+
+    private Local local(String name) {
+        for (Map<String, Local> scope : scopes) {
+            Local l = scope.get(name);
+            if (null != l) return l;
+        }
+        return null;
+    }
+
+    private Local declare(String name, Class<?> type, TypeRef ref) {
+        if (null != local(name)) throw new Unsupported("duplicate variable: " + name);
+        Local l = new Local(type, ref, nextSlot);
+        nextSlot += size(type);
+        scopes.peek().put(name, l);
+        return l;
+    }
+
+    /*
+     * Compile a statement
+     *
+     * @return whether the statement can complete normally
+     */
+    private boolean statement() throws IOException {
+        code.line(line());
+        if (isOp("{")) return block();
+        if (acceptOp(";")) return true;
+        if (acceptWord("if")) return ifStatement();
+        if (acceptWord("for")) return forStatement();
+        if (acceptWord("try")) return tryStatement();
+        if (isWord("break") || isWord("continue")) {
+            boolean isBreak = peek().text.equals("break");
+            pos++;
+            expectOp(";");
+            Loop loop = loops.peek();
+            if (null == loop) throw new Unsupported("break outside of loop");
+            (isBreak ? loop.breaks : loop.continues).add(code.jump(TemplateClassWriter.GOTO));
+            return false;
+        }
+        if (acceptWord("return")) {
+            Expr e = expression();
+            expectOp(";");
+            attr(e);
+            checkAssignable(e, org.rythmengine.utils.TextBuilder.class);
+            genValue(e);
+            op(TemplateClassWriter.ARETURN, -1);
+            return false;
+        }
+        if (declaration()) return true;
+        Expr e = expression();
+        expectOp(";");
+        expressionStatement(e);
+        return true;
+    }
+
+    private boolean block() throws IOException {
+        expectOp("{");
+        scopes.push(new HashMap<String, Local>());
+        boolean alive = true;
+        while (!acceptOp("}")) {
+            if (peekEof()) throw new Unsupported("unclosed block");
+            if (!alive) throw new Unsupported("unreachable statement");
+            alive = statement();
+        }
+        scopes.pop();
+        return alive;
+    }
+
+    /*
+     * A statement in the body of if or for, which is not a declaration
+     */
+    private boolean subStatement() throws IOException {
+        scopes.push(new HashMap<String, Local>());
+        int start = pos;
+        if (!isOp("{") && declaration(false)) throw new Unsupported("declaration not allowed here");
+        pos = start;
+        boolean alive = statement();
+        scopes.pop();
+        return alive;
+    }
+
+    private boolean declaration() throws IOException {
+        return declaration(true);
+    }
+
+    /*
+     * Compile a local variable declaration if the statement is a declaration
+     */
+    private boolean declaration(boolean compile) throws IOException {
+        int start = pos;
+        acceptWord("final");
+        TypeRef ref = typeRef(false);
+        if (null == ref || !isName(peek()) || !(peek(1).kind == OP && "=".equals(peek(1).text))) {
+            pos = start;
+            return false;
+        }
+        if (!compile) return true;
+        Class<?> type = resolve(ref);
+        if (!accessible(type)) throw new Unsupported("inaccessible type: " + type);
+        String name = name();
+        expectOp("=");
+        Expr init = expression();
+        expectOp(";");
+        attr(init);
+        checkAssignable(init, type);
+        genValue(init);
+        coerce(init, type);
+        store(declare(name, type, ref));
+        return true;
+    }
+
+    private void expressionStatement(Expr e) throws IOException {
+        if (e instanceof IncDec) {
+            IncDec id = (IncDec) e;
+            attr(id);
+            code.op(TemplateClassWriter.IINC).u1(id.local.slot).u1("++".equals(id.op) ? 1 : 255);
+            return;
+        }
+        if (!(e instanceof Call) && !(e instanceof Assign)) throw new Unsupported("not a statement");
+        attr(e);
+        genValue(e);
+        int size = size(e.type);
+        if (size > 0) op(size == 2 ? TemplateClassWriter.POP2 : TemplateClassWriter.POP, -size);
+    }
+
+    private boolean ifStatement() throws IOException {
+        expectOp("(");
+        Expr cond = expression();
+        expectOp(")");
+        attr(cond);
+        checkBoolean(cond);
+        List<Integer> otherwise = new ArrayList<Integer>();
+        branch(cond, false, otherwise);
+        boolean alive = subStatement();
+        if (acceptWord("else")) {
+            int end = alive ? code.jump(TemplateClassWriter.GOTO) : -1;
+            land(otherwise);
+            boolean elseAlive = subStatement();
+            if (end > -1) code.land(end);
+            return alive || elseAlive;
+        }
+        land(otherwise);
+        return true;
+    }
+
+    private boolean forStatement() throws IOException {
+        expectOp("(");
+        scopes.push(new HashMap<String, Local>());
+        int start = pos;
+        acceptWord("final");
+        TypeRef ref = typeRef(false);
+        if (null != ref && isName(peek()) && peek(1).kind == OP && ":".equals(peek(1).text)) {
+            forEach(ref);
+        } else {
+            pos = start;
+            forLoop();
+        }
+        scopes.pop();
+        return true;
+    }
+
+    private void forEach(TypeRef ref) throws IOException {
+        Class<?> type = resolve(ref);
+        if (!accessible(type)) throw new Unsupported("inaccessible type: " + type);
+        String name = name();
+        expectOp(":");
+        Expr iterable = expression();
+        expectOp(")");
+        attr(iterable);
+        valueOnly(iterable);
+        Loop loop = new Loop();
+        loops.push(loop);
+        if (iterable.type.isArray()) {
+            Class<?> component = iterable.type.getComponentType();
+            Expr element = new Expr();
+            element.type = component;
+            checkAssignable(element, type);
+            genValue(iterable);
+            Local array = declare("  array", iterable.type, null);
+            store(array);
+            load(array);
+            op(TemplateClassWriter.ARRAYLENGTH, 0);
+            Local length = declare("  length", int.class, null);
+            store(length);
+            op(TemplateClassWriter.ICONST_0, 1);
+            Local index = declare("  index", int.class, null);
+            store(index);
+            int top = code.size();
+            load(index);
+            load(length);
+            int end = code.jump(TemplateClassWriter.IF_ICMPGE);
+            code.stack(-2);
+            load(array);
+            load(index);
+            arrayLoad(component);
+            coerce(element, type);
+            store(declare(name, type, ref));
+            subStatement();
+            land(loop.continues);
+            code.op(TemplateClassWriter.IINC).u1(index.slot).u1(1);
+            code.jumpTo(TemplateClassWriter.GOTO, top);
+            code.land(end);
+        } else {
+            if (!Iterable.class.isAssignableFrom(iterable.type)) throw new Unsupported("not iterable: " + iterable.type);
+            Class<?> elementType = elementType(iterable);
+            Expr element = new Expr();
+            element.type = elementType;
+            checkAssignable(element, type);
+            genValue(iterable);
+            Method m = method(iterable.type, "iterator", Collections.<Expr>emptyList(), false);
+            invoke(iterable.type, m, false);
+            Local itr = declare("  itr", Iterator.class, null);
+            store(itr);
+            int top = code.size();
+            load(itr);
+            code.op(TemplateClassWriter.INVOKEINTERFACE).u2(writer.interfaceMethodRef("java/util/Iterator", "hasNext", "()Z")).u1(1).u1(0);
+            int end = code.jump(TemplateClassWriter.IFEQ);
+            code.stack(-1);
+            load(itr);
+            code.op(TemplateClassWriter.INVOKEINTERFACE).u2(writer.interfaceMethodRef("java/util/Iterator", "next", "()Ljava/lang/Object;")).u1(1).u1(0);
+            if (elementType != Object.class) code.op(TemplateClassWriter.CHECKCAST).u2(writer.classRef(internalName(elementType)));
+            coerce(element, type);
+            store(declare(name, type, ref));
+            subStatement();
+            land(loop.continues);
+            code.jumpTo(TemplateClassWriter.GOTO, top);
+            code.land(end);
+        }
+        loops.pop();
+        land(loop.breaks);
+    }
+
+    /*
+     * The element type of an iterable known from the type arguments of the variable declared
+     */
+    private Class<?> elementType(Expr iterable) {
+        Type arg = iterableArg(iterable.type);
+        if (arg instanceof Class) return (Class<?>) arg;
+        TypeRef ref = null;
+        if (iterable instanceof Name) {
+            Name n = (Name) iterable;
+            ref = null != n.local ? n.local.ref : null != n.field ? n.field.ref : null;
+        }
+        TypeVariable<?>[] params = iterable.type.getTypeParameters();
+        if (arg instanceof TypeVariable && null != ref && null != ref.args && ref.args.size() == params.length) {
+            TypeRef t = ref.args.get(Arrays.asList(params).indexOf(arg));
+            if (0 == t.wildcard) return resolve(t);
+            if ('+' == t.wildcard) return resolve(t.bound);
+        }
+        return Object.class;
+    }
+
+    /*
+     * Returns the type argument of Iterable in terms of the type parameters of the class
+     */
+    private static Type iterableArg(Class<?> c) {
+        if (c == Iterable.class) return c.getTypeParameters()[0];
+        List<Type> supers = new ArrayList<Type>(Arrays.asList(c.getGenericInterfaces()));
+        if (null != c.getGenericSuperclass()) supers.add(c.getGenericSuperclass());
+        for (Type t : supers) {
+            Class<?> raw = (Class<?>) (t instanceof ParameterizedType ? ((ParameterizedType) t).getRawType() : t);
+            if (!Iterable.class.isAssignableFrom(raw)) continue;
+            Type arg = iterableArg(raw);
+            if (arg instanceof TypeVariable) {
+                if (!(t instanceof ParameterizedType)) return null;
+                int i = Arrays.asList(raw.getTypeParameters()).indexOf(arg);
+                return ((ParameterizedType) t).getActualTypeArguments()[i];
+            }
+            return arg;
+        }
+        return null;
+    }
+
+    private void forLoop() throws IOException {
+        if (!acceptOp(";")) {
+            if (!declaration()) {
+                expressionStatement(expression());
+                expectOp(";");
+            }
+        }
+        Loop loop = new Loop();
+        loops.push(loop);
+        int top = code.size();
+        if (isOp(";")) throw new Unsupported("infinite loop");
+        Expr cond = expression();
+        expectOp(";");
+        attr(cond);
+        checkBoolean(cond);
+        List<Integer> end = new ArrayList<Integer>();
+        branch(cond, false, end);
+        List<Expr> updates = new ArrayList<Expr>();
+        if (!isOp(")")) {
+            do {
+                updates.add(expression());
+            } while (acceptOp(","));
+        }
+        expectOp(")");
+        subStatement();
+        land(loop.continues);
+        for (Expr update : updates) {
+            expressionStatement(update);
+        }
+        code.jumpTo(TemplateClassWriter.GOTO, top);
+        land(end);
+        loops.pop();
+        land(loop.breaks);
+    }
+
+    private boolean tryStatement() throws IOException {
+        int start = code.size();
+        boolean alive = block();
+        int end = code.size();
+        if (start == end) throw new Unsupported("empty try block");
+        List<Integer> exits = new ArrayList<Integer>();
+        if (alive) exits.add(code.jump(TemplateClassWriter.GOTO));
+        boolean caught = false;
+        while (acceptWord("catch")) {
+            caught = true;
+            expectOp("(");
+            acceptWord("final");
+            TypeRef ref = typeRef(false);
+            if (null == ref) throw new Unsupported("bad catch clause");
+            Class<?> type = resolve(ref);
+            if (!Throwable.class.isAssignableFrom(type) || !accessible(type) || (type != Exception.class && type != Throwable.class
+                    && !RuntimeException.class.isAssignableFrom(type) && !Error.class.isAssignableFrom(type))) {
+                throw new Unsupported("checked exception caught: " + type);
+            }
+            String name = name();
+            expectOp(")");
+            code.handler(start, end, writer.classRef(internalName(type)));
+            int depth = code.stack();
+            code.stack(1);
+            scopes.push(new HashMap<String, Local>());
+            store(declare(name, type, ref));
+            boolean catchAlive = block();
+            scopes.pop();
+            code.stack(depth - code.stack());
+            if (catchAlive) exits.add(code.jump(TemplateClassWriter.GOTO));
+            alive |= catchAlive;
+        }
+        if (!caught || isWord("finally")) throw new Unsupported("try without catch");
+        land(exits);
+        return alive;
+    }
+
+    private void land(List<Integer> jumps) {
+        for (int jump : jumps) {
+            code.land(jump);
+        }
+        jumps.clear();
+    }
+
+    // ---------------------------------------------------------------- expressions
+
+    private static class Expr {
+        Class<?> type;
+        // the erasure of a type variable, the type the java compiler infers is unknown
+        boolean erased;
+        // the value of a constant expression of an integral type
+        Integer constant;
+        // the type or package a name refers to
+        Class<?> typeName;
+        String packageName;
+    }
+
+    private static final class Lit extends Expr {
+        final Object value;
+
+        Lit(Object value) {
+            this.value = value;
+        }
+    }
+
+    private static final class This extends Expr {
+    }
+
+    private static final class Name extends Expr {
+        final String name;
+        Local local;
+        OwnField field;
+        Field inherited;
+
+        Name(String name) {
+            this.name = name;
+        }
+    }
+
+    private static final class Select extends Expr {
+        final Expr target;
+        final String name;
+        Field field;
+        // the field of this
+        Name member;
+
+        Select(Expr target, String name) {
+            this.target = target;
+            this.name = name;
+        }
+    }
+
+    private static final class Call extends Expr {
+        final Expr target;
+        final String name;
+        final List<Expr> args;
+        Method method;
+        Class<?> owner;
+
+        Call(Expr target, String name, List<Expr> args) {
+            this.target = target;
+            this.name = name;
+            this.args = args;
+        }
+    }
+
+    private static final class Index extends Expr {
+        final Expr array;
+        final Expr index;
+
+        Index(Expr array, Expr index) {
+            this.array = array;
+            this.index = index;
+        }
+    }
+
+    private static final class Unary extends Expr {
+        final String op;
+        final Expr e;
+
+        Unary(String op, Expr e) {
+            this.op = op;
+            this.e = e;
+        }
+    }
+
+    private static final class IncDec extends Expr {
+        final String op;
+        final boolean prefix;
+        final Expr target;
+        Local local;
+
+        IncDec(String op, boolean prefix, Expr target) {
+            this.op = op;
+            this.prefix = prefix;
+            this.target = target;
+        }
+    }
+
+    private static final class Binary extends Expr {
+        final String op;
+        final Expr l;
+        final Expr r;
+        // the type the operands are promoted to
+        Class<?> operand;
+
+        Binary(String op, Expr l, Expr r) {
+            this.op = op;
+            this.l = l;
+            this.r = r;
+        }
+    }
+
+    private static final class Conditional extends Expr {
+        final Expr cond;
+        final Expr a;
+        final Expr b;
+
+        Conditional(Expr cond, Expr a, Expr b) {
+            this.cond = cond;
+            this.a = a;
+            this.b = b;
+        }
+    }
+
+    private static final class Cast extends Expr {
+        final TypeRef ref;
+        final Expr e;
+
+        Cast(TypeRef ref, Expr e) {
+            this.ref = ref;
+            this.e = e;
+        }
+    }
+
+    private static final class Assign extends Expr {
+        final Name target;
+        final Expr value;
+
+        Assign(Name target, Expr value) {
+            this.target = target;
+            this.value = value;
+        }
+    }
+
+    private Expr expression() {
+        Expr e = conditional();
+        if (isOp("=")) {
+            if (!(e instanceof Name)) throw new Unsupported("bad assignment");
+            pos++;
+            return new Assign((Name) e, expression());
+        }
+        Tok t = peek();
+        if (t.kind == OP && t.text.length() > 1 && t.text.endsWith("=") && !"==".equals(t.text) && !"!=".equals(t.text)
+                && !"<=".equals(t.text) && !">=".equals(t.text)) {
+            throw new Unsupported("compound assignment");
+        }
+        return e;
+    }
+
+    private Expr conditional() {
+        Expr e = binary(0);
+        if (acceptOp("?")) {
+            Expr a = expression();
+            expectOp(":");
+            Expr b = conditional();
+            e = new Conditional(e, a, b);
+        }
+        return e;
+    }
+
+    private static final String[][] BINARY_OPS = {{"||"}, {"&&"}, {"==", "!="}, {"<", ">", "<=", ">="}, {"+", "-"},
+            {"*", "/", "%"}};
+
+    private Expr binary(int level) {
+        if (level == BINARY_OPS.length) return unary();
+        Expr e = binary(level + 1);
+        while (true) {
+            Tok t = peek();
+            if (t.kind != OP) break;
+            boolean found = false;
+            for (String op : BINARY_OPS[level]) {
+                if (op.equals(t.text)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) break;
+            pos++;
+            e = new Binary(t.text, e, binary(level + 1));
+        }
+        if (isWord("instanceof") || isOp("&") || isOp("|") || isOp("^")) throw new Unsupported("operator not supported");
+        return e;
+    }
+
+    private Expr unary() {
+        if (acceptOp("!")) return new Unary("!", unary());
+        if (acceptOp("-")) return new Unary("-", unary());
+        if (acceptOp("+")) return new Unary("+", unary());
+        if (isOp("++") || isOp("--")) {
+            String op = peek().text;
+            pos++;
+            return new IncDec(op, true, unary());
+        }
+        if (isOp("~")) throw new Unsupported("operator not supported");
+        if (isOp("(")) {
+            // a cast to a primitive type, or to a reference type followed by a name or parenthesized expression
+            int start = pos;
+            pos++;
+            TypeRef ref = typeRef(false);
+            if (null != ref && acceptOp(")")) {
+                Tok t = peek();
+                boolean primitive = PRIMITIVES.containsKey(ref.name) && 0 == ref.dims;
+                if (primitive || isName(t) || t.kind == LITERAL || (t.kind == OP && "(".equals(t.text))
+                        || (t.kind == IDENT && ("this".equals(t.text) || "true".equals(t.text) || "false".equals(t.text)))) {
+                    return new Cast(ref, unary());
+                }
+            }
+            pos = start;
+        }
+        return postfix(primary());
+    }
+
+    private Expr primary() {
+        Tok t = peek();
+        if (acceptOp("(")) {
+            Expr e = expression();
+            expectOp(")");
+            return e;
+        }
+        if (t.kind == LITERAL) {
+            pos++;
+            return new Lit(t.value);
+        }
+        if (acceptWord("true")) return new Lit(Boolean.TRUE);
+        if (acceptWord("false")) return new Lit(Boolean.FALSE);
+        if (acceptWord("null")) return new Lit(null);
+        if (acceptWord("this")) return new This();
+        String name = name();
+        if (isOp("(")) return new Call(null, name, args());
+        return new Name(name);
+    }
+
+    private Expr postfix(Expr e) {
+        while (true) {
+            if (acceptOp(".")) {
+                String name = name();
+                e = isOp("(") ? new Call(e, name, args()) : new Select(e, name);
+            } else if (acceptOp("[")) {
+                Expr index = expression();
+                expectOp("]");
+                e = new Index(e, index);
+            } else if (isOp("++") || isOp("--")) {
+                String op = peek().text;
+                pos++;
+                e = new IncDec(op, false, e);
+            } else {
+                return e;
+            }
+        }
+    }
+
+    private List<Expr> args() {
+        expectOp("(");
+        List<Expr> args = new ArrayList<Expr>();
+        if (!acceptOp(")")) {
+            do {
+                args.add(expression());
+            } while (acceptOp(","));
+            expectOp(")");
+        }
+        return args;
+    }
+
+    // ---------------------------------------------------------------- attribution
+
+    /*
+     * Resolve the names and work out the type of the expression
+     */
+    private void attr(Expr e) {
+        if (e instanceof Lit) {
+            Object v = ((Lit) e).value;
+            if (null == v) e.type = Null.class;
+            else {
+                e.type = v instanceof String ? String.class : UNBOXES.get(v.getClass());
+                if (v instanceof Integer) e.constant = (Integer) v;
+                else if (v instanceof Character) e.constant = (int) (Character) v;
+            }
+        } else if (e instanceof This) {
+            e.type = superClass;
+        } else if (e instanceof Name) {
+            attrName((Name) e, true);
+        } else if (e instanceof Select) {
+            attrSelect((Select) e);
+        } else if (e instanceof Call) {
+            attrCall((Call) e);
+        } else if (e instanceof Index) {
+            Index i = (Index) e;
+            attr(i.array);
+            valueOnly(i.array);
+            attr(i.index);
+            if (!i.array.type.isArray() || promoteUnary(i.index) != int.class) throw new Unsupported("bad array access");
+            e.type = i.array.type.getComponentType();
+        } else if (e instanceof Unary) {
+            Unary u = (Unary) e;
+            attr(u.e);
+            if ("!".equals(u.op)) {
+                checkBoolean(u.e);
+                e.type = boolean.class;
+            } else {
+                e.type = promoteUnary(u.e);
+                if (null != u.e.constant && e.type == int.class) {
+                    e.constant = "-".equals(u.op) ? -u.e.constant : u.e.constant;
+                }
+            }
+        } else if (e instanceof IncDec) {
+            IncDec id = (IncDec) e;
+            attr(id.target);
+            if (!(id.target instanceof Name) || null == ((Name) id.target).local || id.target.type != int.class) {
+                throw new Unsupported("increment not supported");
+            }
+            id.local = ((Name) id.target).local;
+            e.type = int.class;
+        } else if (e instanceof Binary) {
+            attrBinary((Binary) e);
+        } else if (e instanceof Conditional) {
+            Conditional c = (Conditional) e;
+            attr(c.cond);
+            checkBoolean(c.cond);
+            attr(c.a);
+            valueOnly(c.a);
+            attr(c.b);
+            valueOnly(c.b);
+            Class<?> a = c.a.type, b = c.b.type;
+            if (a == b && a != Null.class) e.type = a;
+            else if (a == Null.class && !b.isPrimitive()) e.type = b;
+            else if (b == Null.class && !a.isPrimitive()) e.type = a;
+            else if (!a.isPrimitive() && !b.isPrimitive() && b.isAssignableFrom(a)) e.type = b;
+            else if (!a.isPrimitive() && !b.isPrimitive() && a.isAssignableFrom(b)) e.type = a;
+            else throw new Unsupported("conditional operands not supported");
+            e.erased = c.a.erased || c.b.erased;
+        } else if (e instanceof Cast) {
+            attrCast((Cast) e);
+        } else if (e instanceof Assign) {
+            Assign a = (Assign) e;
+            attr(a.target);
+            if (null == a.target.local && (null == a.target.field || a.target.field.isStatic)) {
+                throw new Unsupported("assignment not supported");
+            }
+            attr(a.value);
+            checkAssignable(a.value, a.target.type);
+            e.type = a.target.type;
+        } else {
+            throw new Unsupported("expression not supported");
+        }
+    }
+
+    private void attrName(Name n, boolean locals) {
+        Local l = locals ? local(n.name) : null;
+        if (null != l) {
+            n.local = l;
+            n.type = l.type;
+            return;
+        }
+        OwnField f = ownFields.get(n.name);
+        if (null != f) {
+            n.field = f;
+            n.type = f.type;
+            return;
+        }
+        Field inherited = inheritedField(superClass, n.name, true);
+        if (null != inherited) {
+            n.inherited = inherited;
+            fieldType(n, inherited);
+            return;
+        }
+        Class<?> c = typeName(n.name);
+        if (null != c) n.typeName = c;
+        else n.packageName = n.name;
+    }
+
+    private void attrSelect(Select s) {
+        Expr target = s.target;
+        if (target instanceof This) {
+            Name n = new Name(s.name);
+            attrName(n, false);
+            if (null == n.field && null == n.inherited) throw new Unsupported("unknown field: " + s.name);
+            s.member = n;
+            s.type = n.type;
+            s.erased = n.erased;
+            return;
+        }
+        attr(target);
+        if (null != target.packageName) {
+            String name = target.packageName + "." + s.name;
+            Class<?> c = typeName(name);
+            if (null != c) s.typeName = c;
+            else s.packageName = name;
+            return;
+        }
+        if (null != target.typeName) {
+            Field f = null;
+            try {
+                f = target.typeName.getField(s.name);
+            } catch (NoSuchFieldException e) {
+                // not a public field
+            }
+            if (null == f && target.typeName.isAssignableFrom(superClass)) {
+                f = inheritedField(target.typeName, s.name, true);
+            }
+            if (null != f) {
+                if (!Modifier.isStatic(f.getModifiers()) || !accessible(target.typeName)) throw new Unsupported("bad static field: " + s.name);
+                s.field = f;
+                fieldType(s, f);
+                return;
+            }
+            Class<?> member = memberType(target.typeName, s.name);
+            if (null == member) throw new Unsupported("unknown member: " + s.name);
+            s.typeName = member;
+            return;
+        }
+        if (target.type.isArray() && "length".equals(s.name)) {
+            s.type = int.class;
+            return;
+        }
+        if (target.type.isPrimitive() || target.type == Null.class || target.erased) throw new Unsupported("bad field access");
+        Field f;
+        try {
+            f = target.type.getField(s.name);
+        } catch (NoSuchFieldException e) {
+            throw new Unsupported("unknown field: " + s.name);
+        }
+        if (Modifier.isStatic(f.getModifiers()) || !accessible(target.type)) throw new Unsupported("bad field access: " + s.name);
+        s.field = f;
+        fieldType(s, f);
+    }
+
+    private static Field inheritedField(Class<?> owner, String name, boolean protectedOk) {
+        for (Class<?> c = owner; null != c; c = c.getSuperclass()) {
+            for (Field f : c.getDeclaredFields()) {
+                if (f.getName().equals(name)) {
+                    int mod = f.getModifiers();
+                    if (Modifier.isPublic(mod) || (protectedOk && Modifier.isProtected(mod))) return f;
+                    if (!Modifier.isPrivate(mod)) throw new Unsupported("inaccessible field: " + name);
+                }
+            }
+        }
+        return null;
+    }
+
+    private static void fieldType(Expr e, Field f) {
+        e.type = f.getType();
+        e.erased = !(f.getGenericType() instanceof Class) && !(f.getGenericType() instanceof ParameterizedType);
+    }
+
+    private void attrCall(Call c) {
+        boolean protectedOk;
+        boolean isStatic;
+        Class<?> owner;
+        if (null == c.target || c.target instanceof This) {
+            owner = superClass;
+            protectedOk = true;
+            isStatic = false;
+        } else {
+            attr(c.target);
+            if (null != c.target.packageName) throw new Unsupported("unknown name: " + c.target.packageName);
+            if (null != c.target.typeName) {
+                owner = c.target.typeName;
+                if (owner.isInterface() || !accessible(owner)) throw new Unsupported("static method not supported");
+                protectedOk = owner.isAssignableFrom(superClass);
+                isStatic = true;
+            } else {
+                owner = c.target.type;
+                if (owner.isPrimitive() || owner.isArray() || owner == Null.class || c.target.erased || !accessible(owner)) {
+                    throw new Unsupported("bad method call: " + c.name);
+                }
+                protectedOk = false;
+                isStatic = false;
+            }
+        }
+        for (Expr arg : c.args) {
+            attr(arg);
+            valueOnly(arg);
+        }
+        Method m = method(owner, c.name, c.args, protectedOk);
+        if (isStatic && !Modifier.isStatic(m.getModifiers())) throw new Unsupported("non-static method " + c.name);
+        if (!isStatic && null != c.target && !(c.target instanceof This) && Modifier.isStatic(m.getModifiers())) {
+            throw new Unsupported("static method called on instance: " + c.name);
+        }
+        c.method = m;
+        c.owner = owner;
+        c.type = m.getReturnType();
+        Type t = m.getGenericReturnType();
+        c.erased = !(t instanceof Class) && !(t instanceof ParameterizedType);
+    }
+
+    /*
+     * Resolve the method the java compiler chooses for the invocation
+     */
+    private Method method(Class<?> owner, String name, List<Expr> args, boolean protectedOk) {
+        List<Method> candidates = new ArrayList<Method>();
+        boolean erasedArg = false;
+        for (Expr arg : args) {
+            erasedArg |= arg.erased;
+        }
+        for (Method m : methods(owner, name, protectedOk)) {
+            if (m.getParameterTypes().length == args.size()) candidates.add(m);
+        }
+        if (erasedArg && candidates.size() > 1) throw new Unsupported("ambiguous erased argument");
+        for (int phase = 1; phase <= 2; ++phase) {
+            List<Method> applicable = new ArrayList<Method>();
+            for (Method m : candidates) {
+                Class<?>[] params = m.getParameterTypes();
+                boolean ok = true;
+                for (int i = 0; i < params.length && ok; ++i) {
+                    ok = convertible(args.get(i).type, params[i], phase == 2);
+                }
+                if (ok) applicable.add(m);
+            }
+            if (applicable.isEmpty()) continue;
+            Method best = mostSpecific(applicable);
+            for (Class<?> e : best.getExceptionTypes()) {
+                if (!RuntimeException.class.isAssignableFrom(e) && !Error.class.isAssignableFrom(e)) {
+                    throw new Unsupported("checked exception thrown by " + name);
+                }
+            }
+            return best;
+        }
+        throw new Unsupported("cannot resolve method " + name);
+    }
+
+    private List<Method> methods(Class<?> owner, String name, boolean protectedOk) {
+        String key = owner.getName() + "." + name + ":" + protectedOk;
+        List<Method> list = methods.get(key);
+        if (null == list) {
+            Map<String, Method> found = new LinkedHashMap<String, Method>();
+            if (protectedOk) {
+                for (Class<?> c = owner; null != c; c = c.getSuperclass()) {
+                    for (Method m : c.getDeclaredMethods()) {
+                        if (m.getName().equals(name) && Modifier.isProtected(m.getModifiers())) add(found, m);
+                    }
+                }
+            }
+            List<Method> publicMethods = new ArrayList<Method>(Arrays.asList(owner.getMethods()));
+            if (owner.isInterface()) publicMethods.addAll(Arrays.asList(Object.class.getMethods()));
+            for (Method m : publicMethods) {
+                if (m.getName().equals(name)) add(found, m);
+            }
+            if (protectedOk) {
+                // package private methods are not accessible, but they hide nothing
+                for (Class<?> c = owner; null != c; c = c.getSuperclass()) {
+                    for (Method m : c.getDeclaredMethods()) {
+                        int mod = m.getModifiers();
+                        if (m.getName().equals(name) && !Modifier.isPublic(mod) && !Modifier.isProtected(mod)
+                                && !Modifier.isPrivate(mod) && !m.isSynthetic()) {
+                            throw new Unsupported("package private method: " + name);
+                        }
+                    }
+                }
+            }
+            list = new ArrayList<Method>(found.values());
+            methods.put(key, list);
+        }
+        return list;
+    }
+
+    private static void add(Map<String, Method> found, Method m) {
+        if (m.isBridge() || m.isSynthetic()) return;
+        String key = Arrays.toString(m.getParameterTypes());
+        Method existing = found.get(key);
+        if (null == existing || (existing.getReturnType() != m.getReturnType() && existing.getReturnType().isAssignableFrom(m.getReturnType()))) {
+            found.put(key, m);
+        }
+    }
+
+    private static Method mostSpecific(List<Method> applicable) {
+        List<Method> maximal = new ArrayList<Method>();
+        for (Method m : applicable) {
+            boolean max = true;
+            for (Method other : applicable) {
+                if (other != m && moreSpecific(other, m) && !moreSpecific(m, other)) {
+                    max = false;
+                    break;
+                }
+            }
+            if (max) maximal.add(m);
+        }
+        if (maximal.size() != 1) throw new Unsupported("ambiguous method " + applicable.get(0).getName());
+        return maximal.get(0);
+    }
+
+    private static boolean moreSpecific(Method m1, Method m2) {
+        Class<?>[] p1 = m1.getParameterTypes(), p2 = m2.getParameterTypes();
+        for (int i = 0; i < p1.length; ++i) {
+            if (!subtype(p1[i], p2[i])) return false;
+        }
+        return true;
+    }
+
+    private static boolean subtype(Class<?> s, Class<?> t) {
+        if (s.isPrimitive() != t.isPrimitive()) return false;
+        return s.isPrimitive() ? widening(s, t) : t.isAssignableFrom(s);
+    }
+
+    private static final String WIDENING = "byte:short,int,long,float,double;short:int,long,float,double;"
+            + "char:int,long,float,double;int:long,float,double;long:float,double;float:double;";
+
+    private static boolean widening(Class<?> from, Class<?> to) {
+        if (from == to) return true;
+        int i = WIDENING.indexOf(from.getName() + ":");
+        if (i < 0) return false;
+        String targets = WIDENING.substring(i, WIDENING.indexOf(';', i));
+        return ("," + targets.substring(targets.indexOf(':') + 1) + ",").contains("," + to.getName() + ",");
+    }
+
+    /*
+     * Whether the method invocation conversion applies
+     */
+    private static boolean convertible(Class<?> from, Class<?> to, boolean boxing) {
+        if (from == Null.class) return !to.isPrimitive();
+        if (from.isPrimitive() && to.isPrimitive()) return widening(from, to);
+        if (!from.isPrimitive() && !to.isPrimitive()) return to.isAssignableFrom(from);
+        if (!boxing || from == void.class) return false;
+        if (from.isPrimitive()) return to.isAssignableFrom(BOXES.get(from));
+        Class<?> unboxed = UNBOXES.get(from);
+        return null != unboxed && widening(unboxed, to);
+    }
+
+    private void checkAssignable(Expr e, Class<?> to) {
+        valueOnly(e);
+        if (convertible(e.type, to, true)) return;
+        // the narrowing of a constant
+        if (null != e.constant && e.type == int.class) {
+            int v = e.constant;
+            Class<?> target = to.isPrimitive() ? to : UNBOXES.get(to);
+            if ((target == byte.class && v == (byte) v) || (target == short.class && v == (short) v)
+                    || (target == char.class && v == (char) v)) {
+                e.type = target;
+                return;
+            }
+        }
+        throw new Unsupported("incompatible types: " + e.type + " to " + to);
+    }
+
+    private static void valueOnly(Expr e) {
+        if (null != e.typeName || null != e.packageName || null == e.type || e.type == void.class) {
+            throw new Unsupported("not a value");
+        }
+    }
+
+    private static void checkBoolean(Expr e) {
+        valueOnly(e);
+        if (e.type != boolean.class && e.type != Boolean.class) throw new Unsupported("not a boolean");
+    }
+
+    private static Class<?> unboxed(Class<?> c) {
+        Class<?> u = UNBOXES.get(c);
+        return null == u ? c : u;
+    }
+
+    private static boolean numeric(Class<?> c) {
+        return c.isPrimitive() && c != boolean.class && c != void.class;
+    }
+
+    private static Class<?> promoteUnary(Expr e) {
+        valueOnly(e);
+        Class<?> c = unboxed(e.type);
+        if (!numeric(c)) throw new Unsupported("not a number");
+        return c == byte.class || c == short.class || c == char.class ? int.class : c;
+    }
+
+    private static Class<?> promoteBinary(Class<?> a, Class<?> b) {
+        a = unboxed(a);
+        b = unboxed(b);
+        if (!numeric(a) || !numeric(b)) return null;
+        if (a == double.class || b == double.class) return double.class;
+        if (a == float.class || b == float.class) return float.class;
+        if (a == long.class || b == long.class) return long.class;
+        return int.class;
+    }
+
+    private void attrBinary(Binary b) {
+        attr(b.l);
+        attr(b.r);
+        valueOnly(b.l);
+        valueOnly(b.r);
+        String op = b.op;
+        Class<?> l = b.l.type, r = b.r.type;
+        if ("&&".equals(op) || "||".equals(op)) {
+            checkBoolean(b.l);
+            checkBoolean(b.r);
+            b.type = boolean.class;
+        } else if ("==".equals(op) || "!=".equals(op)) {
+            b.type = boolean.class;
+            if ((l.isPrimitive() || r.isPrimitive()) && null != (b.operand = promoteBinary(l, r))) {
+                return;
+            }
+            if (unboxed(l) == boolean.class && unboxed(r) == boolean.class && (l.isPrimitive() || r.isPrimitive())) {
+                b.operand = boolean.class;
+                return;
+            }
+            if (l.isPrimitive() || r.isPrimitive()) throw new Unsupported("incomparable types");
+            if (l != Null.class && r != Null.class && !l.isAssignableFrom(r) && !r.isAssignableFrom(l)
+                    && !(l.isInterface() && !Modifier.isFinal(r.getModifiers()))
+                    && !(r.isInterface() && !Modifier.isFinal(l.getModifiers()))) {
+                throw new Unsupported("incomparable types");
+            }
+            b.operand = Object.class;
+        } else if ("<".equals(op) || ">".equals(op) || "<=".equals(op) || ">=".equals(op)) {
+            b.operand = promoteBinary(l, r);
+            if (null == b.operand) throw new Unsupported("not a number");
+            b.type = boolean.class;
+        } else if ("+".equals(op) && (l == String.class || r == String.class)) {
+            if (l == void.class || r == void.class) throw new Unsupported("void in concatenation");
+            b.type = String.class;
+        } else {
+            b.operand = promoteBinary(l, r);
+            if (null == b.operand) throw new Unsupported("not a number");
+            b.type = b.operand;
+        }
+    }
+
+    private void attrCast(Cast c) {
+        Class<?> to = resolve(c.ref);
+        if (!accessible(to)) throw new Unsupported("inaccessible type: " + to);
+        attr(c.e);
+        valueOnly(c.e);
+        Class<?> from = c.e.type;
+        c.type = to;
+        if (to.isPrimitive()) {
+            Class<?> f = from.isPrimitive() ? from : UNBOXES.get(from);
+            if (null == f || (to == boolean.class) != (f == boolean.class)) throw new Unsupported("bad cast");
+            if (!from.isPrimitive() && f != to && !widening(f, to)) throw new Unsupported("bad cast");
+            if (null != c.e.constant && from == int.class) {
+                int v = c.e.constant;
+                if (to == byte.class) c.constant = (int) (byte) v;
+                else if (to == short.class) c.constant = (int) (short) v;
+                else if (to == char.class) c.constant = (int) (char) v;
+                else if (to == int.class) c.constant = v;
+            }
+        } else if (from.isPrimitive()) {
+            if (!to.isAssignableFrom(BOXES.get(from))) throw new Unsupported("bad cast");
+        } else if (from != Null.class && !to.isAssignableFrom(from) && !from.isAssignableFrom(to)
+                && !(to.isInterface() && !Modifier.isFinal(from.getModifiers()))
+                && !(from.isInterface() && !Modifier.isFinal(to.getModifiers()))) {
+            throw new Unsupported("bad cast");
+        }
+    }
+
+    // ---------------------------------------------------------------- code generation
+
+    private void op(int opcode, int delta) {
+        code.op(opcode);
+        code.stack(delta);
+    }
+
+    private void load(Local l) {
+        code.op(typed(TemplateClassWriter.ILOAD, l.type)).u1(l.slot);
+        code.stack(size(l.type));
+    }
+
+    private void store(Local l) {
+        code.op(typed(TemplateClassWriter.ISTORE, l.type)).u1(l.slot);
+        code.stack(-size(l.type));
+        if (l.slot > 255) throw new Unsupported("too many local variables");
+    }
+
+    /*
+     * The variant of the load, store or return instruction for the type, which come in the order of
+     * int, long, float, double and reference
+     */
+    private static int typed(int intOpcode, Class<?> type) {
+        if (!type.isPrimitive()) return intOpcode + 4;
+        if (type == long.class) return intOpcode + 1;
+        if (type == float.class) return intOpcode + 2;
+        if (type == double.class) return intOpcode + 3;
+        return intOpcode;
+    }
+
+    private void arrayLoad(Class<?> component) {
+        int opcode;
+        if (!component.isPrimitive()) opcode = TemplateClassWriter.AALOAD;
+        else if (component == int.class) opcode = TemplateClassWriter.IALOAD;
+        else if (component == long.class) opcode = TemplateClassWriter.LALOAD;
+        else if (component == float.class) opcode = TemplateClassWriter.FALOAD;
+        else if (component == double.class) opcode = TemplateClassWriter.DALOAD;
+        else if (component == char.class) opcode = TemplateClassWriter.CALOAD;
+        else if (component == short.class) opcode = TemplateClassWriter.SALOAD;
+        else opcode = TemplateClassWriter.BALOAD;
+        op(opcode, size(component) - 2);
+    }
+
+    private void genLiteral(Object v) throws IOException {
+        if (null == v) op(TemplateClassWriter.ACONST_NULL, 1);
+        else if (v instanceof String) {
+            code.op(TemplateClassWriter.LDC_W).u2(writer.string((String) v));
+            code.stack(1);
+        } else if (v instanceof Integer) code.pushInt((Integer) v);
+        else if (v instanceof Character) code.pushInt((Character) v);
+        else if (v instanceof Boolean) code.pushInt((Boolean) v ? 1 : 0);
+        else if (v instanceof Long) {
+            code.op(TemplateClassWriter.LDC2_W).u2(writer.longConst((Long) v));
+            code.stack(2);
+        } else if (v instanceof Float) {
+            code.op(TemplateClassWriter.LDC_W).u2(writer.floatConst((Float) v));
+            code.stack(1);
+        } else {
+            code.op(TemplateClassWriter.LDC2_W).u2(writer.doubleConst((Double) v));
+            code.stack(2);
+        }
+    }
+
+    /*
+     * Generate the code leaving the value of the expression on the stack
+     */
+    private void genValue(Expr e) throws IOException {
+        if (e instanceof Lit) {
+            genLiteral(((Lit) e).value);
+        } else if (e instanceof This) {
+            op(TemplateClassWriter.ALOAD_0, 1);
+        } else if (e instanceof Name) {
+            Name n = (Name) e;
+            if (null != n.local) load(n.local);
+            else if (null != n.field) {
+                if (n.field.isStatic) {
+                    code.op(TemplateClassWriter.GETSTATIC).u2(writer.fieldRef(className, n.name, desc(n.type)));
+                } else {
+                    op(TemplateClassWriter.ALOAD_0, 1);
+                    code.op(TemplateClassWriter.GETFIELD).u2(writer.fieldRef(className, n.name, desc(n.type)));
+                    code.stack(-1);
+                }
+                code.stack(size(n.type));
+            } else {
+                getField(n.inherited, className);
+            }
+        } else if (e instanceof Select) {
+            Select s = (Select) e;
+            if (null != s.member) {
+                genValue(s.member);
+            } else if (null == s.field) {
+                genValue(s.target);
+                op(TemplateClassWriter.ARRAYLENGTH, 0);
+            } else if (Modifier.isStatic(s.field.getModifiers())) {
+                getField(s.field, internalName(s.target.typeName));
+            } else {
+                genValue(s.target);
+                code.op(TemplateClassWriter.GETFIELD).u2(writer.fieldRef(internalName(s.target.type), s.name, desc(s.field.getType())));
+                code.stack(size(s.type) - 1);
+            }
+        } else if (e instanceof Call) {
+            genCall((Call) e);
+        } else if (e instanceof Index) {
+            Index i = (Index) e;
+            genValue(i.array);
+            genValue(i.index);
+            coerce(i.index, int.class);
+            arrayLoad(e.type);
+        } else if (e instanceof Unary) {
+            Unary u = (Unary) e;
+            if ("!".equals(u.op)) {
+                genCondition(e);
+            } else {
+                genValue(u.e);
+                coerce(u.e, e.type);
+                if ("-".equals(u.op)) op(typed(TemplateClassWriter.INEG, e.type), 0);
+            }
+        } else if (e instanceof IncDec) {
+            IncDec id = (IncDec) e;
+            if (!id.prefix) load(id.local);
+            code.op(TemplateClassWriter.IINC).u1(id.local.slot).u1("++".equals(id.op) ? 1 : 255);
+            if (id.prefix) load(id.local);
+        } else if (e instanceof Binary) {
+            genBinary((Binary) e);
+        } else if (e instanceof Conditional) {
+            Conditional c = (Conditional) e;
+            List<Integer> otherwise = new ArrayList<Integer>();
+            branch(c.cond, false, otherwise);
+            int depth = code.stack();
+            genValue(c.a);
+            coerce(c.a, e.type);
+            int end = code.jump(TemplateClassWriter.GOTO);
+            code.stack(depth - code.stack());
+            land(otherwise);
+            genValue(c.b);
+            coerce(c.b, e.type);
+            code.land(end);
+        } else if (e instanceof Cast) {
+            genCast((Cast) e);
+        } else if (e instanceof Assign) {
+            Assign a = (Assign) e;
+            Name n = a.target;
+            if (null != n.local) {
+                genValue(a.value);
+                coerce(a.value, n.type);
+                op(size(n.type) == 2 ? TemplateClassWriter.DUP2 : TemplateClassWriter.DUP, size(n.type));
+                store(n.local);
+            } else {
+                op(TemplateClassWriter.ALOAD_0, 1);
+                genValue(a.value);
+                coerce(a.value, n.type);
+                op(size(n.type) == 2 ? TemplateClassWriter.DUP2_X1 : TemplateClassWriter.DUP_X1, size(n.type));
+                code.op(TemplateClassWriter.PUTFIELD).u2(writer.fieldRef(className, n.name, desc(n.type)));
+                code.stack(-1 - size(n.type));
+            }
+        }
+    }
+
+    private void getField(Field f, String owner) throws IOException {
+        boolean isStatic = Modifier.isStatic(f.getModifiers());
+        if (!isStatic) {
+            op(TemplateClassWriter.ALOAD_0, 1);
+            code.op(TemplateClassWriter.GETFIELD);
+            code.stack(-1);
+        } else {
+            code.op(TemplateClassWriter.GETSTATIC);
+        }
+        code.u2(writer.fieldRef(owner, f.getName(), desc(f.getType())));
+        code.stack(size(f.getType()));
+    }
+
+    private void genCall(Call c) throws IOException {
+        Method m = c.method;
+        boolean isStatic = Modifier.isStatic(m.getModifiers());
+        boolean implicit = null == c.target || c.target instanceof This;
+        if (!isStatic) {
+            if (implicit) op(TemplateClassWriter.ALOAD_0, 1);
+            else genValue(c.target);
+        }
+        Class<?>[] params = m.getParameterTypes();
+        for (int i = 0; i < params.length; ++i) {
+            Expr arg = c.args.get(i);
+            genValue(arg);
+            coerce(arg, params[i]);
+        }
+        invoke(implicit ? null : c.owner, m, isStatic);
+    }
+
+    /*
+     * Invoke the method
+     *
+     * @param owner the type qualifying the invocation, or null for the template class itself
+     */
+    private void invoke(Class<?> owner, Method m, boolean isStatic) throws IOException {
+        String desc = desc(m);
+        int argSize = 0;
+        for (Class<?> p : m.getParameterTypes()) {
+            argSize += size(p);
+        }
+        String ownerName = null == owner ? className : internalName(owner);
+        if (isStatic) {
+            code.op(TemplateClassWriter.INVOKESTATIC).u2(writer.methodRef(ownerName, m.getName(), desc));
+        } else if (null != owner && owner.isInterface()) {
+            if (m.getDeclaringClass() == Object.class) {
+                code.op(TemplateClassWriter.INVOKEVIRTUAL).u2(writer.methodRef("java/lang/Object", m.getName(), desc));
+            } else {
+                code.op(TemplateClassWriter.INVOKEINTERFACE).u2(writer.interfaceMethodRef(ownerName, m.getName(), desc)).u1(argSize + 1).u1(0);
+            }
+        } else {
+            code.op(TemplateClassWriter.INVOKEVIRTUAL).u2(writer.methodRef(ownerName, m.getName(), desc));
+        }
+        code.stack(size(m.getReturnType()) - argSize - (isStatic ? 0 : 1));
+    }
+
+    private void genBinary(Binary b) throws IOException {
+        String op = b.op;
+        if (b.type == boolean.class) {
+            genCondition(b);
+        } else if (b.type == String.class && "+".equals(op)) {
+            // "a" + b + c is ((("a" + b) + c), append the operands of the concatenations from the left most
+            List<Expr> operands = new ArrayList<Expr>();
+            Expr e = b;
+            while (e instanceof Binary && "+".equals(((Binary) e).op) && e.type == String.class) {
+                operands.add(0, ((Binary) e).r);
+                e = ((Binary) e).l;
+            }
+            operands.add(0, e);
+            String sb = "java/lang/StringBuilder";
+            code.op(TemplateClassWriter.NEW).u2(writer.classRef(sb));
+            op(TemplateClassWriter.DUP, 2);
+            code.op(TemplateClassWriter.INVOKESPECIAL).u2(writer.methodRef(sb, "<init>", "()V"));
+            code.stack(-1);
+            for (Expr operand : operands) {
+                genValue(operand);
+                Class<?> t = operand.type;
+                if (t == byte.class || t == short.class) t = int.class;
+                else if (!t.isPrimitive() && t != String.class) t = Object.class;
+                code.op(TemplateClassWriter.INVOKEVIRTUAL).u2(writer.methodRef(sb, "append", "(" + desc(t) + ")L" + sb + ";"));
+                code.stack(-size(t));
+            }
+            code.op(TemplateClassWriter.INVOKEVIRTUAL).u2(writer.methodRef(sb, "toString", "()Ljava/lang/String;"));
+        } else {
+            genValue(b.l);
+            coerce(b.l, b.operand);
+            genValue(b.r);
+            coerce(b.r, b.operand);
+            int base = "+".equals(op) ? TemplateClassWriter.IADD : "-".equals(op) ? TemplateClassWriter.ISUB
+                    : "*".equals(op) ? TemplateClassWriter.IMUL : "/".equals(op) ? TemplateClassWriter.IDIV : TemplateClassWriter.IREM;
+            op(typed(base, b.operand), -size(b.operand));
+        }
+    }
+
+    private void genCast(Cast c) throws IOException {
+        Class<?> from = c.e.type, to = c.type;
+        genValue(c.e);
+        if (to.isPrimitive()) {
+            if (!from.isPrimitive()) {
+                code.unbox(from);
+                from = UNBOXES.get(from);
+            }
+            convert(from, to);
+        } else if (from.isPrimitive()) {
+            code.box(from);
+        } else if (from != Null.class && !to.isAssignableFrom(from)) {
+            code.op(TemplateClassWriter.CHECKCAST).u2(writer.classRef(internalName(to)));
+        }
+    }
+
+    /*
+     * Generate the code of a boolean expression leaving 1 or 0 on the stack
+     */
+    private void genCondition(Expr e) throws IOException {
+        List<Integer> otherwise = new ArrayList<Integer>();
+        branch(e, false, otherwise);
+        int depth = code.stack();
+        op(TemplateClassWriter.ICONST_1, 1);
+        int end = code.jump(TemplateClassWriter.GOTO);
+        code.stack(depth - code.stack());
+        land(otherwise);
+        op(TemplateClassWriter.ICONST_0, 1);
+        code.land(end);
+    }
+
+    /*
+     * Generate the code jumping when the boolean expression evaluates to the given value, and
+     * falling through otherwise
+     */
+    private void branch(Expr e, boolean jumpIf, List<Integer> jumps) throws IOException {
+        if (e instanceof Unary && "!".equals(((Unary) e).op)) {
+            branch(((Unary) e).e, !jumpIf, jumps);
+            return;
+        }
+        if (e instanceof Lit && e.type == boolean.class) {
+            if (((Lit) e).value == Boolean.valueOf(jumpIf)) jumps.add(code.jump(TemplateClassWriter.GOTO));
+            return;
+        }
+        if (e instanceof Binary && e.type == boolean.class) {
+            Binary b = (Binary) e;
+            String op = b.op;
+            if ("&&".equals(op) || "||".equals(op)) {
+                boolean and = "&&".equals(op);
+                if (and != jumpIf) {
+                    // jump if the first one decides the value, then the second one decides the value
+                    branch(b.l, jumpIf, jumps);
+                    branch(b.r, jumpIf, jumps);
+                } else {
+                    List<Integer> skip = new ArrayList<Integer>();
+                    branch(b.l, !jumpIf, skip);
+                    branch(b.r, jumpIf, jumps);
+                    land(skip);
+                }
+                return;
+            }
+            compare(b, jumpIf, jumps);
+            return;
+        }
+        genValue(e);
+        coerce(e, boolean.class);
+        jumps.add(code.jump(jumpIf ? TemplateClassWriter.IFNE : TemplateClassWriter.IFEQ));
+        code.stack(-1);
+    }
+
+    private static final String[] COMPARISONS = {"==", "!=", "<", ">=", ">", "<="};
+
+    private void compare(Binary b, boolean jumpIf, List<Integer> jumps) throws IOException {
+        int cmp = Arrays.asList(COMPARISONS).indexOf(b.op);
+        if (!jumpIf) cmp ^= 1;
+        Class<?> operand = b.operand;
+        if (operand == Object.class) {
+            if (b.l.type == Null.class || b.r.type == Null.class) {
+                Expr other = b.l.type == Null.class ? b.r : b.l;
+                genValue(other);
+                jumps.add(code.jump(cmp == 0 ? TemplateClassWriter.IFNULL : TemplateClassWriter.IFNONNULL));
+                code.stack(-1);
+            } else {
+                genValue(b.l);
+                genValue(b.r);
+                jumps.add(code.jump(cmp == 0 ? TemplateClassWriter.IF_ACMPEQ : TemplateClassWriter.IF_ACMPNE));
+                code.stack(-2);
+            }
+            return;
+        }
+        genValue(b.l);
+        coerce(b.l, operand);
+        genValue(b.r);
+        coerce(b.r, operand);
+        if (operand == int.class || operand == boolean.class) {
+            jumps.add(code.jump(TemplateClassWriter.IF_ICMPEQ + cmp));
+            code.stack(-2);
+            return;
+        }
+        if (operand == long.class) op(TemplateClassWriter.LCMP, -3);
+        else if (operand == float.class) op(b.op.startsWith("<") ? TemplateClassWriter.FCMPG : TemplateClassWriter.FCMPL, -1);
+        else op(b.op.startsWith("<") ? TemplateClassWriter.DCMPG : TemplateClassWriter.DCMPL, -3);
+        jumps.add(code.jump(TemplateClassWriter.IFEQ + cmp));
+        code.stack(-1);
+    }
+
+    /*
+     * Convert the value of the expression on the stack to the type
+     */
+    private void coerce(Expr e, Class<?> to) throws IOException {
+        Class<?> from = e.type;
+        if (from == to || from == Null.class) return;
+        if (from.isPrimitive() && to.isPrimitive()) {
+            convert(from, to);
+        } else if (from.isPrimitive()) {
+            code.box(from);
+        } else if (to.isPrimitive()) {
+            Class<?> unboxed = UNBOXES.get(from);
+            code.unbox(from);
+            convert(unboxed, to);
+        }
+    }
+
+    private static final String CONVERSIONS = "int>long:133,int>float:134,int>double:135,long>int:136,long>float:137,"
+            + "long>double:138,float>int:139,float>long:140,float>double:141,double>int:142,double>long:143,"
+            + "double>float:144,int>byte:145,int>char:146,int>short:147,";
+
+    /*
+     * Convert between primitive types
+     */
+    private void convert(Class<?> from, Class<?> to) {
+        if (from == to) return;
+        if (from == byte.class || from == short.class || from == char.class) {
+            if (to == int.class || (to == short.class && from == byte.class)) return;
+            from = int.class;
+        }
+        if (to == byte.class || to == short.class || to == char.class) {
+            if (from != int.class) convert(from, int.class);
+            from = int.class;
+        }
+        String key = from.getName() + ">" + to.getName() + ":";
+        int i = CONVERSIONS.indexOf(key);
+        if (i < 0) throw new Unsupported("cannot convert " + from + " to " + to);
+        int opcode = Integer.parseInt(CONVERSIONS.substring(i + key.length(), CONVERSIONS.indexOf(',', i)));
+        op(opcode, size(to) - size(from));
+    }
+}
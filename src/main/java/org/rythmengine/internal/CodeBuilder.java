@@ -44,6 +44,8 @@ import org.rythmengine.internal.parser.CodeToken;
 import org.rythmengine.internal.parser.NotRythmTemplateException;
 import org.rythmengine.internal.parser.build_in.BlockToken;
 import org.rythmengine.internal.parser.build_in.CompactStateToken;
+import org.rythmengine.internal.parser.build_in.ForEachCodeToken;
+import org.rythmengine.internal.parser.build_in.IfThenToken;
 import org.rythmengine.internal.parser.build_in.InvokeTemplateParser;
 import org.rythmengine.logger.ILogger;
 import org.rythmengine.logger.Logger;
@@ -56,6 +58,9 @@ import org.rythmengine.utils.HashCode;
 import org.rythmengine.utils.S;
 import org.rythmengine.utils.TextBuilder;
 
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedDeque;
@@ -349,11 +354,19 @@ public class CodeBuilder extends TextBuilder {
         this.inlineClasses.clear();
         this.inlineTags.clear();
         this.inlineTagBodies.clear();
+        this.openLoops.clear();
         this.importLineMap.clear();
         this.logTime = false;
+        this.parallelTagInvocation = false;
+        this.tagCallSites.clear();
+        this.includedConsts.clear();
+        this.inlinedTags.clear();
+        this.tagCallSiteCounter = 0;
         this.macros.clear();
         this.macroStack.clear();
         this.buildBody = null;
+        this.buildTokens = null;
+        this.constValues.clear();
         this.templateDefLang = null;
         this.staticCodes.clear();
     }
@@ -377,9 +390,16 @@ public class CodeBuilder extends TextBuilder {
         this.inlineTagBodies.clear();
         this.importLineMap.clear();
         this.logTime = false;
+        this.parallelTagInvocation = false;
+        this.tagCallSites.clear();
+        this.includedConsts.clear();
+        this.inlinedTags.clear();
+        this.tagCallSiteCounter = 0;
         this.macros.clear();
         this.macroStack.clear();
         this.buildBody = null;
+        this.buildTokens = null;
+        this.constValues.clear();
         this.staticCodes.clear();
     }
 
@@ -397,6 +417,14 @@ public class CodeBuilder extends TextBuilder {
         this.renderArgs.putAll(codeBuilder.renderArgs);
         this.importLineMap.putAll(codeBuilder.importLineMap);
         this.staticCodes.addAll(codeBuilder.staticCodes);
+        for (String name : codeBuilder.tagCallSites) {
+            if (!tagCallSites.contains(name)) tagCallSites.add(name);
+        }
+        // the build body of the included template refers to its string consts
+        for (Map.Entry<Token.StringToken, String> entry : codeBuilder.consts.entrySet()) {
+            includedConsts.put(entry.getValue(), entry.getKey());
+        }
+        includedConsts.putAll(codeBuilder.includedConsts);
         renderArgCounter += codeBuilder.renderArgCounter;
     }
 
@@ -412,6 +440,18 @@ public class CodeBuilder extends TextBuilder {
         return null == includingCName ? cName : includingCName;
     }
 
+    /**
+     * Prepare this builder to build a template included by the given builder. The names of
+     * vars and string consts are allocated from the including builder, as the build body
+     * of this builder is merged into the class of the including builder
+     *
+     * @param includer the builder of the including template
+     */
+    public void includedBy(CodeBuilder includer) {
+        includingCName = includer.includingClassName();
+        varNames = includer.varNames;
+    }
+
     private Map<String, Integer> importLineMap = new ConcurrentHashMap<String, Integer>();
 
     /**
@@ -466,6 +506,12 @@ public class CodeBuilder extends TextBuilder {
         String body;
         boolean autoRet = false;
         List<Token> builders = new ArrayList<Token>();
+        // the length of the tag source
+        int size;
+        // the code expanding the tag at the call site once checked, see #expandDefTag
+        String expansion;
+        boolean expansionChecked = false;
+        List<String[]> params;
 
         InlineTag(String name, String ret, String sig, String body) {
             tagName = name;
@@ -486,6 +532,7 @@ public class CodeBuilder extends TextBuilder {
                 tag.builders.add(newTb);
             }
             tag.autoRet = autoRet;
+            tag.size = size;
             return tag;
         }
 
@@ -545,6 +592,7 @@ public class CodeBuilder extends TextBuilder {
         inlineTags.add(tag);
         inlineTagBodies.push(builders);
         builders = tag.builders;
+        tag.size = parser.cursor();
         if ("void".equals(tag.retType)) {
             tag.retType = "org.rythmengine.utils.RawData";
             tag.autoRet = true;
@@ -561,9 +609,130 @@ public class CodeBuilder extends TextBuilder {
         if (tag.autoRet) {
             builders.add(new CodeToken("String __s = toString();this.setSelfOut(__sb);return s().raw(__s);", parser));
         }
+        tag.size = parser.cursor() - tag.size;
         builders = inlineTagBodies.pop();
     }
 
+    private boolean tagInvocationListened() {
+        return ((EventBus) engine.eventDispatcher()).hooks().tagInvocationListened();
+    }
+
+    /**
+     * Expand the call to a small <code>@def</code> tag in place if the tag body consists of text,
+     * expressions and <code>@if</code> blocks only. The args are assigned to new local vars, which
+     * replace the param names in the tag body.
+     * See {@link RythmConfigurationKey#CODEGEN_INLINE_TAG_MAX_SIZE}
+     *
+     * @param expression the expression calling the tag, e.g. <code>hi(name, 1)</code>
+     * @param lineNo the line of the tag invocation
+     * @return the code rendering the tag, or null if the call is not expanded
+     */
+    public String expandDefTag(String expression, int lineNo) {
+        if (conf.inlineTagMaxSize() <= 0 || !expression.endsWith(")")) return null;
+        int pos = expression.indexOf('(');
+        if (pos < 1) return null;
+        String tagName = expression.substring(0, pos).trim();
+        List<String> vals = splitArgs(expression.substring(pos + 1, expression.length() - 1), false);
+        if (null == vals) return null;
+        InlineTag tag = null;
+        for (InlineTag t : inlineTags) {
+            if (!t.tagName.equals(tagName)) continue;
+            // overloaded tags are left to the java compiler
+            if (null != tag) return null;
+            tag = t;
+        }
+        if (null == tag || !tag.autoRet || tag.size > conf.inlineTagMaxSize()) return null;
+        if (!tag.expansionChecked) {
+            // the tag calling itself is not expanded within its own expansion
+            tag.expansionChecked = true;
+            tag.params = defTagParams(tag.signature);
+            tag.expansion = null == tag.params ? null : defTagExpansion(tag);
+        }
+        if (null == tag.expansion || tag.params.size() != vals.size()) return null;
+        String line = " //line: " + lineNo;
+        StringBuilder sb = new StringBuilder("\ntry{").append(line);
+        Map<String, String> names = new HashMap<String, String>();
+        for (int i = 0; i < vals.size(); ++i) {
+            String[] param = tag.params.get(i);
+            String var = newVarName();
+            names.put(param[1], var);
+            sb.append("\n").append(param[0]).append(" ").append(var).append(" = ").append(vals.get(i)).append(";").append(line);
+        }
+        sb.append("\n").append(renameVars(tag.expansion, names));
+        sb.append("\n} catch (RuntimeException e) {__handleTemplateExecutionException(e);} ");
+        return sb.append("catch (Exception e) {__handleTemplateExecutionException(new RuntimeException(e));}").toString();
+    }
+
+    /*
+     * Return the body code of the tag, without the code redirecting the output, or null if
+     * the tag body declares local vars, changes the flow or refers to the tag method
+     */
+    private String defTagExpansion(InlineTag tag) {
+        List<Token> merged = mergeStringTokens(tag.builders.subList(1, tag.builders.size() - 1));
+        for (Token tk : merged) {
+            if (!tk.inlinable() || tk instanceof ForEachCodeToken || tk instanceof IfThenToken) return null;
+            // the code closing the @if blocks
+            if (tk.getClass() == CodeToken.class && null != tk.s && !tk.s.matches("[\\}\\s]*")) return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        StringBuilder old = buffer();
+        __setBuffer(sb);
+        try {
+            for (Token tk : merged) {
+                tk.build(parser);
+            }
+        } finally {
+            __setBuffer(old);
+        }
+        String code = sb.toString();
+        return refersToTagInstance(code) ? null : code;
+    }
+
+    /*
+     * Return the type and the name of the params in the signature of a @def tag, or null
+     * if the params can not be assigned to local vars, e.g. varargs
+     */
+    private static List<String[]> defTagParams(String signature) {
+        List<String> decls = splitArgs(S.strip(signature.trim(), "(", ")"), true);
+        if (null == decls) return null;
+        List<String[]> params = new ArrayList<String[]>();
+        for (String decl : decls) {
+            decl = decl.replaceFirst("^final\\s+", "");
+            int pos = decl.lastIndexOf(' ');
+            if (pos < 0 || decl.contains("...") || decl.contains("@")) return null;
+            params.add(new String[]{decl.substring(0, pos).trim(), decl.substring(pos + 1)});
+        }
+        return params;
+    }
+
+    /*
+     * Split the comma separated args of a call, or the params of a method if the type args
+     * shall be matched too. Return null if the brackets do not match
+     */
+    private static List<String> splitArgs(String args, boolean typeArgs) {
+        List<String> list = new ArrayList<String>();
+        if (S.isEmpty(args.trim())) return list;
+        int depth = 0, start = 0, len = args.length();
+        for (int i = 0; i < len; ++i) {
+            char c = args.charAt(i);
+            if (c == '"' || c == '\'') {
+                for (++i; i < len && args.charAt(i) != c; ++i) {
+                    if (args.charAt(i) == '\\') ++i;
+                }
+            } else if (c == '(' || c == '[' || c == '{' || (typeArgs && c == '<')) {
+                depth++;
+            } else if (c == ')' || c == ']' || c == '}' || (typeArgs && c == '>')) {
+                if (--depth < 0) return null;
+            } else if (c == ',' && depth == 0) {
+                list.add(args.substring(start, i).trim());
+                start = i + 1;
+            }
+        }
+        if (depth != 0) return null;
+        list.add(args.substring(start).trim());
+        return list;
+    }
+
     public String addIncludes(String includes, int lineNo, ICodeType codeType) {
         StringBuilder sb = new StringBuilder();
         for (String s : includes.split("[\\s,;:]+")) {
@@ -600,7 +769,7 @@ public class CodeBuilder extends TextBuilder {
             throw new ParseException(engine, templateClass, lineNo, "include for template failed: %s ", include);
         }
         TemplateClass includeTc = includeTmpl.__getTemplateClass(false);
-        includeTc.buildSourceCode(includingClassName());
+        includeTc.buildSourceCode(this);
         merge(includeTc.codeBuilder);
         templateClass.addIncludeTemplateClass(includeTc);
         return includeTc.codeBuilder.buildBody;
@@ -608,11 +777,235 @@ public class CodeBuilder extends TextBuilder {
     
     public String addInlineInclude(String inlineTemplate, int lineNo) {
         TemplateClass includeTc = new TemplateClass(new StringTemplateResource(inlineTemplate), engine, false);
-        includeTc.buildSourceCode(includingClassName());
+        includeTc.buildSourceCode(this);
         merge(includeTc.codeBuilder);
         return includeTc.codeBuilder.buildBody;
     }
 
+    // the tags inlined into this class. A null value marks a tag that has been checked
+    // and cannot be inlined
+    private Map<String, InlinedTag> inlinedTags = new LinkedHashMap<String, InlinedTag>();
+
+    // the members of the tag instance, which the build body of an inlined tag must not refer to
+    // as it is run by the caller. The output and the escape helpers work the same on the caller
+    private static final Set<String> TAG_MEMBERS = tagMembers();
+
+    private static Set<String> tagMembers() {
+        Set<String> names = new HashSet<String>();
+        names.add("this");
+        names.add("super");
+        for (Class<?> c = TagBase.class; c != TemplateBuilder.class; c = c.getSuperclass()) {
+            for (Field f : c.getDeclaredFields()) {
+                int mod = f.getModifiers();
+                if (!Modifier.isStatic(mod) && !Modifier.isPrivate(mod)) names.add(f.getName());
+            }
+            for (Method m : c.getDeclaredMethods()) {
+                int mod = m.getModifiers();
+                if (!Modifier.isStatic(mod) && !Modifier.isPrivate(mod)) names.add(m.getName());
+            }
+        }
+        names.removeAll(Arrays.asList("p", "pe", "s", "__ctx", "__template", "__handleTemplateExecutionException"));
+        return names;
+    }
+
+    /*
+     * Whether the java code refers to the tag instance, e.g. "this" or "_body", as opposed to a
+     * local var or a member of another object, e.g. "user_body" or "item.thisWeek"
+     */
+    private static boolean refersToTagInstance(String code) {
+        int len = code.length();
+        // the last char which is not white space
+        char last = 0;
+        for (int i = 0; i < len; ) {
+            char c = code.charAt(i);
+            if (c == '"' || c == '\'') {
+                for (++i; i < len && code.charAt(i) != c; ++i) {
+                    if (code.charAt(i) == '\\') ++i;
+                }
+                ++i;
+                last = c;
+            } else if (c == '/' && i + 1 < len && code.charAt(i + 1) == '/') {
+                while (i < len && code.charAt(i) != '\n') ++i;
+            } else if (Character.isJavaIdentifierStart(c)) {
+                int start = i;
+                while (i < len && Character.isJavaIdentifierPart(code.charAt(i))) ++i;
+                if (last != '.' && TAG_MEMBERS.contains(code.substring(start, i))) return true;
+                last = c;
+            } else {
+                if (!Character.isWhitespace(c)) last = c;
+                ++i;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * Replace the local vars in the java code with the names mapped, see #refersToTagInstance
+     */
+    private static String renameVars(String code, Map<String, String> names) {
+        StringBuilder sb = new StringBuilder(code.length());
+        int len = code.length();
+        char last = 0;
+        for (int i = 0; i < len; ) {
+            char c = code.charAt(i);
+            int start = i;
+            if (c == '"' || c == '\'') {
+                for (++i; i < len && code.charAt(i) != c; ++i) {
+                    if (code.charAt(i) == '\\') ++i;
+                }
+                ++i;
+                last = c;
+            } else if (c == '/' && i + 1 < len && code.charAt(i + 1) == '/') {
+                while (i < len && code.charAt(i) != '\n') ++i;
+            } else if (Character.isJavaIdentifierStart(c)) {
+                while (i < len && Character.isJavaIdentifierPart(code.charAt(i))) ++i;
+                String name = names.get(code.substring(start, i));
+                int next = i;
+                while (next < len && Character.isWhitespace(code.charAt(next))) ++next;
+                if (null != name && last != '.' && (next == len || code.charAt(next) != '(')) {
+                    sb.append(name);
+                    start = i;
+                }
+                last = c;
+            } else {
+                if (!Character.isWhitespace(c)) last = c;
+                ++i;
+            }
+            sb.append(code, start, Math.min(i, len));
+        }
+        return sb.toString();
+    }
+
+    private static class InlinedTag {
+        String method;
+        // the positioned render args of the tag, which are the params of the method
+        List<RenderArgDeclaration> args;
+        String source;
+
+        /*
+         * Return the call to the method with the params of the tag invocation, or null
+         * if the params could not be bound to the method params
+         */
+        String call(InvokeTemplateParser.ParameterDeclarationList params) {
+            int n = args.size();
+            String[] vals = new String[n];
+            for (int i = 0; i < params.pl.size(); ++i) {
+                InvokeTemplateParser.ParameterDeclaration pd = params.pl.get(i);
+                int pos = -1;
+                if (S.empty(pd.nameDef)) {
+                    pos = i;
+                } else {
+                    for (int j = 0; j < n; ++j) {
+                        if (pd.nameDef.equals(args.get(j).name)) {
+                            pos = j;
+                            break;
+                        }
+                    }
+                }
+                if (pos < 0 || pos >= n) return null;
+                // the same cast applied when the param is bound to the tag
+                vals[pos] = "__safeCast(" + pd.valDef + ", " + args.get(pos).objectType() + ".class)";
+            }
+            StringBuilder sb = new StringBuilder(method).append("(");
+            for (int i = 0; i < n; ++i) {
+                if (i > 0) sb.append(", ");
+                String val = vals[i];
+                if (null == val) {
+                    RenderArgDeclaration arg = args.get(i);
+                    val = null != arg.defVal ? arg.defVal : defaultValue(arg.type);
+                }
+                sb.append(val);
+            }
+            return sb.append(");").toString();
+        }
+
+        private static String defaultValue(String type) {
+            if ("boolean".equals(type)) return "false";
+            if (RenderArgDeclaration.byPrimitive.containsKey(type)) return "(" + type + ") 0";
+            return "null";
+        }
+    }
+
+    /**
+     * Inline the tag into this class if it is small enough and does not depend on the tag instance.
+     * See {@link RythmConfigurationKey#CODEGEN_INLINE_TAG_MAX_SIZE}
+     *
+     * @param tagName the full name of the tag
+     * @param params the params of the tag invocation
+     * @param lineNo the line of the tag invocation
+     * @return the statement calling the method rendering the tag, or null if the tag is not inlined
+     */
+    public String inlineTag(String tagName, InvokeTemplateParser.ParameterDeclarationList params, int lineNo) {
+        InlinedTag tag;
+        if (inlinedTags.containsKey(tagName)) {
+            tag = inlinedTags.get(tagName);
+        } else {
+            tag = inlinedTag(tagName, lineNo);
+            inlinedTags.put(tagName, tag);
+        }
+        return null == tag ? null : tag.call(params);
+    }
+
+    private InlinedTag inlinedTag(String tagName, int lineNo) {
+        int maxSize = conf.inlineTagMaxSize();
+        // the type of inferenced args is not known until the class is printed out
+        if (maxSize <= 0 || null != includingCName || conf.typeInferenceEnabled() || tagInvocationListened()) return null;
+        TemplateBase tmpl = (TemplateBase) engine.getRegisteredTemplate(tagName);
+        if (null == tmpl || tmpl instanceof JavaTagBase) return null;
+        TemplateClass tc = tmpl.__getTemplateClass(false);
+        if (null == tc || tc == templateClass || null == tc.templateResource) return null;
+        String content = tc.templateResource.asTemplateContent();
+        if (null == content || content.length() > maxSize) return null;
+        CodeBuilder cb = tc.buildInlineSourceCode(this);
+        if (null == cb || null == cb.buildBody || null != cb.extended || cb.logTime) return null;
+        if (!cb.inlineTags.isEmpty() || !cb.inlineClasses.isEmpty() || !cb.staticCodes.isEmpty()) return null;
+        if (!S.empty(cb.initCode) || !S.empty(cb.finalCode)) return null;
+        if (!cb.inlinable) return null;
+        String body = cb.buildBody;
+        ISourceCodeEnhancer ce = conf.get(RythmConfigurationKey.CODEGEN_SOURCE_CODE_ENHANCER);
+        Map<String, ?> map = null == ce ? null : ce.getRenderArgDescriptions();
+        Set<String> implicitVarNames = null == map ? Collections.EMPTY_SET : map.keySet();
+        List<RenderArgDeclaration> args = new ArrayList<RenderArgDeclaration>();
+        for (RenderArgDeclaration arg : cb.renderArgs.values()) {
+            if (implicitVarNames.contains(arg.name)) {
+                // the inlined body refers to the implicit var of this class
+                if (!renderArgs.containsKey(arg.name)) return null;
+            } else {
+                args.add(arg);
+            }
+        }
+
+        InlinedTag tag = new InlinedTag();
+        tag.method = "__inl" + Integer.toHexString(tagName.hashCode()) + "_" + tagName.replaceAll("[^a-zA-Z0-9_]", "_");
+        tag.args = args;
+        StringBuilder sb = new StringBuilder("\n//tag: ").append(tagName).append(", line: ").append(lineNo);
+        sb.append("\nprivate void ").append(tag.method).append("(");
+        for (int i = 0; i < args.size(); ++i) {
+            RenderArgDeclaration arg = args.get(i);
+            if (i > 0) sb.append(", ");
+            sb.append(arg.type).append(" ").append(arg.name);
+        }
+        sb.append(") {");
+        // the tag looks up the caller for the args not set, see pSetup
+        for (RenderArgDeclaration arg : args) {
+            sb.append("\n\tif (__isDefVal(").append(arg.name).append(")) {").append(arg.name).append(" = __get(\"")
+                    .append(arg.name).append("\",").append(arg.objectType()).append(".class) ;}");
+        }
+        sb.append(body).append("\n}\n");
+        tag.source = sb.toString();
+
+        // the same as an include, except the render args which are the method params
+        imports.addAll(cb.imports);
+        importLineMap.putAll(cb.importLineMap);
+        for (Map.Entry<Token.StringToken, String> entry : cb.consts.entrySet()) {
+            includedConsts.put(entry.getValue(), entry.getKey());
+        }
+        includedConsts.putAll(cb.includedConsts);
+        // recompile this class once the tag is changed
+        templateClass.addIncludeTemplateClass(tc);
+        return tag;
+    }
+
     public void setExtended(Class<? extends TemplateBase> c) {
         this.extended = c.getName();
     }
@@ -690,6 +1083,19 @@ public class CodeBuilder extends TextBuilder {
         logTime = true;
     }
 
+    protected boolean parallelTagInvocation = false;
+
+    /**
+     * Mark the tag invocations of this template to be rendered in parallel
+     */
+    public void setParallelTagInvocation() {
+        parallelTagInvocation = true;
+    }
+
+    public boolean parallelTagInvocation() {
+        return parallelTagInvocation;
+    }
+
     public String getRenderArgType(String name) {
         addInferencedRenderArgs();
         RenderArgDeclaration rad = renderArgs.get(name);
@@ -992,6 +1398,60 @@ public class CodeBuilder extends TextBuilder {
         return regex.search(type);
     }
     
+    /**
+     * Returns the class of the render arg registered in the render arg index
+     */
+    static String renderArgClass(RenderArgDeclaration arg) {
+        String type = isGeneric(arg.type) ? toNonGeneric(arg.type) : arg.type;
+        if ("?".equals(type)) type = "Object";
+        return type;
+    }
+
+    /**
+     * Returns the types put into the map returned by <code>__renderArgTypeMap()</code>, the type
+     * params of a generic render arg <code>x</code> are put with the keys <code>x__0, x__1 ...</code>
+     */
+    static Map<String, String> renderArgTypeMap(Collection<RenderArgDeclaration> args) {
+        Map<String, String> m = new LinkedHashMap<String, String>();
+        for (RenderArgDeclaration arg : args) {
+            String argType = arg.type;
+            boolean isGeneric = isGeneric(argType);
+            if (isGeneric) {
+                m.put(arg.name, toNonGeneric(argType));
+                Regex regex = new Regex(".*((?@<>))");
+                regex.search(argType);
+                String s = regex.stringMatched(1);
+                s = S.strip(s, "<", ">");
+                if (s.contains("<")) {
+                    // not support embedded <> yet
+                } else {
+                    String[] sa = s.split(",");
+                    for (int i = 0; i < sa.length; ++i) {
+                        String type = sa[i];
+                        if ("?".equals(type)) {
+                            type = "Object";
+                        }
+                        m.put(arg.name + "__" + i, type);
+                    }
+                }
+            } else {
+                String type = argType;
+                if ("?".equals(type)) {
+                    type = "Object";
+                }
+                m.put(arg.name, type);
+//                int lvl = 0;
+//                if (isArray(type)) {
+//                    int pos = type.lastIndexOf("[");
+//                    type = type.substring(0, pos);
+//                    m.put(arg.name + "__" + lvl, type);
+//                    //lvl++;
+//                }
+            }
+        }
+        return m;
+    }
+
     @SuppressWarnings("unused")
     private static boolean isArray(String type) {
         Regex regex = new Regex(".*(?@[])");
@@ -1053,55 +1513,98 @@ public class CodeBuilder extends TextBuilder {
         pn();
         ptn("protected java.util.Map<java.lang.String, java.lang.Class> __renderArgTypeMap() {");
         p2tn("java.util.Map<java.lang.String, java.lang.Class> __m = new java.util.HashMap<String, Class>();");
-        for (Map.Entry<String, RenderArgDeclaration> entry : renderArgs.entrySet()) {
-            RenderArgDeclaration arg = entry.getValue();
-            String argType = arg.type;
-            boolean isGeneric = isGeneric(argType);
-            if (isGeneric) {
-                p2t("__m.put(\"").p(entry.getKey()).p("\", ").p(toNonGeneric(argType)).pn(".class);");
-                Regex regex = new Regex(".*((?@<>))");
-                regex.search(argType);
-                String s = regex.stringMatched(1);
-                s = S.strip(s, "<", ">");
-                if (s.contains("<")) {
-                    // not support embedded <> yet
-                } else {
-                    String[] sa = s.split(",");
-                    for (int i = 0; i < sa.length; ++i) {
-                        String type = sa[i];
-                        if ("?".equals(type)) {
-                            type = "Object";
-                        }
-                        p2t("__m.put(\"").p(entry.getKey()).p("__").p(i).p("\", ").p(type).pn(".class);");
-                    }
-                }
-            } else {
-                String type = argType;
-                if ("?".equals(type)) {
-                    type = "Object";
-                }
-                p2t("__m.put(\"").p(entry.getKey()).p("\", ").p(type).pn(".class);");
-//                int lvl = 0;
-//                if (isArray(type)) {
-//                    int pos = type.lastIndexOf("[");
-//                    type = type.substring(0, pos);
-//                    p2t("__m.put(\"").p(argName).p("__").p(lvl).p("\", ").p(type).pn(".class);");
-//                    //lvl++;
-//                }
-            }
+        for (Map.Entry<String, String> entry : renderArgTypeMap(renderArgs.values()).entrySet()) {
+            p2t("__m.put(\"").p(entry.getKey()).p("\", ").p(entry.getValue()).pn(".class);");
         }
         p2tn("return __m;");
         ptn("}");
 
+        ISourceCodeEnhancer ce = engine.conf().get(RythmConfigurationKey.CODEGEN_SOURCE_CODE_ENHANCER);
+        Map<String, ?> map = null == ce ? null : ce.getRenderArgDescriptions();
+        Set<String> implicitVarNames = null == map ? Collections.EMPTY_SET : map.keySet();
+
+        // -- output the render arg index: the slot of an arg is its position in renderArgList
+        pn();
+        pt("private static final org.rythmengine.template.RenderArgIndex __argIndex = new org.rythmengine.template.RenderArgIndex(new java.lang.String[]{");
+        first = true;
+        for (RenderArgDeclaration arg : renderArgList) {
+            if (first) first = false;
+            else p(", ");
+            p("\"").p(arg.name).p("\"");
+        }
+        p("}, new java.lang.Class[]{");
+        first = true;
+        for (RenderArgDeclaration arg : renderArgList) {
+            if (first) first = false;
+            else p(", ");
+            p(renderArgClass(arg)).p(".class");
+        }
+        pn("});");
+        // -- output the slots of positioned args
+        pt("private static final int[] __argPosSlots = new int[]{");
+        first = true;
+        for (int i = 0; i < renderArgList.size(); ++i) {
+            if (implicitVarNames.contains(renderArgList.get(i).name)) continue;
+            if (first) first = false;
+            else p(", ");
+            p(i);
+        }
+        pn("};");
+        ptn("protected org.rythmengine.template.RenderArgIndex __renderArgIndex() {");
+        p2tn("return __argIndex;");
+        ptn("}");
+
+        // -- output render arg slot getter and setter. The private versions are bound to the
+        // slots of this class, while the protected ones serve the class of the running instance,
+        // which could be a sub class (a template extending this one) with its own slots
+        pn();
+        ptn("private java.lang.Object __getArgSlot_(int __slot) {");
+        p2tn("switch (__slot) {");
+        for (int i = 0; i < renderArgList.size(); ++i) {
+            p3t("case ").p(i).p(": return ").p(renderArgList.get(i).name).pn(";");
+        }
+        p3tn("default: throw new ArrayIndexOutOfBoundsException(__slot);");
+        p2tn("}");
+        ptn("}");
+        pn();
+        ptn("@SuppressWarnings(\"unchecked\") private void __setArgSlot_(int __slot, java.lang.Object __arg) {");
+        p2tn("switch (__slot) {");
+        for (int i = 0; i < renderArgList.size(); ++i) {
+            RenderArgDeclaration arg = renderArgList.get(i);
+            p3t("case ").p(i).p(": ").p(arg.name).p(" = __safeCast(__arg, ").p(arg.objectType()).pn(".class); break;");
+        }
+        p3tn("default: throw new ArrayIndexOutOfBoundsException(__slot);");
+        p2tn("}");
+        ptn("}");
+        pn();
+        ptn("private void __bindArgSlot_(int __slot, java.lang.Object __arg) {");
+        p2tn("__setArgSlot_(__slot, __arg);");
+        p2tn("if (__argIndex == __renderArgIndex()) __markRenderArgBound(__slot);");
+        p2tn("else __renderArgs.put(__argIndex.name(__slot), __arg);");
+        ptn("}");
+        pn();
+        ptn("protected java.lang.Object __getRenderArgSlot(int __slot) {");
+        p2tn("return __getArgSlot_(__slot);");
+        ptn("}");
+        pn();
+        ptn("protected void __setRenderArgSlot(int __slot, java.lang.Object __arg) {");
+        p2tn("__setArgSlot_(__slot, __arg);");
+        p2tn("__markRenderArgBound(__slot);");
+        ptn("}");
+
         // -- output __setRenderArgs method
         pn();
         ptn("@SuppressWarnings(\"unchecked\")\n\tpublic TemplateBase __setRenderArgs(java.util.Map<java.lang.String, java.lang.Object> __args) {");
         p2tn("if (null == __args) throw new NullPointerException();\n\t\tif (__args.isEmpty()) return this;");
         p2tn("super.__setRenderArgs(__args);");
-        first = true;
-        for (Map.Entry<String, RenderArgDeclaration> entry : renderArgs.entrySet()) {
-            RenderArgDeclaration arg = entry.getValue();
-            p2t("if (__args.containsKey(\"").p(entry.getKey()).p("\")) this.").p(entry.getKey()).p(" = __get(__args,\"").p(entry.getKey()).p("\",").p(arg.objectType()).pn(".class);");
+        if (!renderArgList.isEmpty()) {
+            p2tn("boolean __own = __argIndex == __renderArgIndex();");
+            p2tn("for (java.util.Map.Entry<java.lang.String, java.lang.Object> __e : __args.entrySet()) {");
+            p3tn("int __i = __argIndex.slot(__e.getKey());");
+            p3tn("if (__i < 0) continue;");
+            p3tn("__setArgSlot_(__i, __e.getValue());");
+            p3tn("if (__own) __markRenderArgBound(__i);");
+            p2tn("}");
         }
         p2tn("return this;");
 //        for (String argName : renderArgs.keySet()) {
@@ -1109,24 +1612,16 @@ public class CodeBuilder extends TextBuilder {
 //        }
         ptn("}");
 
-        ISourceCodeEnhancer ce = engine.conf().get(RythmConfigurationKey.CODEGEN_SOURCE_CODE_ENHANCER);
-        Map<String, ?> map = null == ce ? null : ce.getRenderArgDescriptions();
-        Set<String> implicitVarNames = null == map ? Collections.EMPTY_SET : map.keySet();
         int userDefinedArgNumber = basicTemplate() ? renderArgs.size() : (renderArgs.size() - ((null == ce) ? 0 : ce.getRenderArgDescriptions().size()));
         if (0 < userDefinedArgNumber) {
             // -- output __setRenderArgs method with args passed in positioned order
             pn();
             ptn("@SuppressWarnings(\"unchecked\") public TemplateBase __setRenderArgs(java.lang.Object... __args) {");
             {
-                p2tn("int __p = 0, __l = __args.length;");
-                int i = userDefinedArgNumber;
-                for (RenderArgDeclaration arg : renderArgList) {
-                    if (implicitVarNames.contains(arg.name)) {
-                        continue;
-                    }
-                    p2t("if (__p < __l) { \n\t\t\tObject v = __args[__p++]; if (null != v) {\n\t\t\t").p(arg.name).p(" = __safeCast(v, ").p(arg.objectType()).p(".class); \n\t\t\t__renderArgs.put(\"").p(arg.name).p("\",").p(arg.name).p(");\n\t\t}}\n");
-                    if (--i == 0) break;
-                }
+                p2t("int __l = java.lang.Math.min(__args.length, ").p(userDefinedArgNumber).pn(");");
+                p2tn("for (int __p = 0; __p < __l && __p < __argPosSlots.length; ++__p) {");
+                p3tn("Object v = __args[__p]; if (null != v) __bindArgSlot_(__argPosSlots[__p], v);");
+                p2tn("}");
             }
             p2tn("return this;");
             ptn("}");
@@ -1152,40 +1647,19 @@ public class CodeBuilder extends TextBuilder {
         // -- output __setRenderArg by name
         pn();
         ptn("@SuppressWarnings(\"unchecked\") @Override public TemplateBase __setRenderArg(java.lang.String __name, java.lang.Object __arg) {");
-        if (true) {
-            first = true;
-            for (RenderArgDeclaration arg : renderArgList) {
-                if (first) {
-                    first = false;
-                    p2t("");
-                } else {
-                    p2t("else ");
-                }
-                String argName = arg.name;
-                p("if (\"").p(argName).p("\".equals(__name)) this.").p(argName).p(" = __safeCast(__arg, ").p(arg.objectType()).pn(".class);");
-            }
+        if (!renderArgList.isEmpty()) {
+            p2tn("int __i = __argIndex.slot(__name);");
+            p2tn("if (__i > -1) {");
+            p3tn("__setArgSlot_(__i, __arg);");
+            p3tn("if (__argIndex == __renderArgIndex()) {\n\t\t\t\t__markRenderArgBound(__i);\n\t\t\t\treturn this;\n\t\t\t}");
+            p2tn("}");
         }
         p2t("super.__setRenderArg(__name, __arg);\n\t\treturn this;\n\t}\n");
 
         // -- output __setRenderArg by position
         pn();
         ptn("@SuppressWarnings(\"unchecked\") public TemplateBase __setRenderArg(int __pos, java.lang.Object __arg) {");
-        p2tn("int __p = 0;");
-        if (true) {
-            first = true;
-            for (RenderArgDeclaration arg : renderArgList) {
-                if (implicitVarNames.contains(arg.name)) {
-                    continue;
-                }
-                if (first) {
-                    first = false;
-                    p2t("");
-                } else {
-                    p2t("else ");
-                }
-                p2t("if (__p++ == __pos) { \n\t\t\tObject v = __arg; \n\t\t\t").p(arg.name).p(" = __safeCast(v, ").p(arg.objectType()).p(".class); \n\t\t\t__renderArgs.put(\"").p(arg.name).p("\", ").p(arg.name).p(");\n\t\t}\n"); 
-            }
-        }
+        p2tn("if (__pos > -1 && __pos < __argPosSlots.length) __bindArgSlot_(__argPosSlots[__pos], __arg);");
         // the first argument has a default name "arg"
         p2tn("if(0 == __pos) __setRenderArg(\"arg\", __arg);");
         p2tn("return this;");
@@ -1246,12 +1720,23 @@ public class CodeBuilder extends TextBuilder {
 
     public String buildBody = null;
 
+    // the tokens output by the build method
+    private List<Token> buildTokens = null;
+
+    // whether the build body can be inlined into the caller, see #inlineTag
+    private boolean inlinable = false;
+
+    // the values of the string consts mapped by const id, unless the java source
+    // of the const would not be read back as the same string
+    private Map<String, String> constValues = new LinkedHashMap<String, String>();
+
     transient Map<Token.StringToken, String> consts = new ConcurrentHashMap<Token.StringToken, String>();
 
-    private RythmEngine.OutputMode outputMode = RythmEngine.outputMode();
+    // the string consts of the included templates mapped by const id
+    transient Map<String, Token.StringToken> includedConsts = new ConcurrentHashMap<String, Token.StringToken>();
 
     private Token.StringToken addConst(Token.StringToken st) {
-        if (!outputMode.writeOutput()) return st;
+        st.freezeCompactMode();
         if (consts.containsKey(st)) {
             st.constId = consts.get(st);
             return st;
@@ -1306,8 +1791,25 @@ public class CodeBuilder extends TextBuilder {
         return merged;
     }
 
+    // @for loops whose body code is being generated, see ForEachCodeToken
+    private final Deque<ForEachCodeToken.LoopBody> openLoops = new ArrayDeque<ForEachCodeToken.LoopBody>();
+
+    public Deque<ForEachCodeToken.LoopBody> openLoops() {
+        return openLoops;
+    }
+
+    // whether an inline tag might evaluate dynamic expressions, which read the
+    // iterator variables of the calling loop
+    private boolean inlineTagsMayEval = true;
+
+    public boolean inlineTagsMayEval() {
+        return inlineTagsMayEval;
+    }
+
     protected void pInlineTags() {
         pn();
+        int start = buffer().length();
+        inlineTagsMayEval = !inlineTags.isEmpty();
         for (InlineTag tag : inlineTags) {
             p("\npublic ").p(tag.retType).p(" ").p(tag.tagName).p(tag.signature);
             p("{\norg.rythmengine.template.TemplateBase oldParent = this.__parent;\ntry{\nthis.__parent = this;\n");
@@ -1322,6 +1824,10 @@ public class CodeBuilder extends TextBuilder {
             }
             p("\n}catch(RuntimeException __e){\n throw __e;\n}catch(Exception __e){\nthrow new java.lang.RuntimeException(__e);\n} finally {this.__parent = oldParent;}\n}");
         }
+        for (InlinedTag tag : inlinedTags.values()) {
+            if (null != tag) p(tag.source);
+        }
+        inlineTagsMayEval = buffer().indexOf("__eval", start) > -1;
     }
 
     protected void pStaticCodes() {
@@ -1348,10 +1854,14 @@ public class CodeBuilder extends TextBuilder {
         __setBuffer(sb);
         // try merge strings
         List<Token> merged = mergeStringTokens(this.builders);
+        boolean inlinable = true;
         for (Token b : merged) {
             b.build();
+            inlinable = inlinable && b.inlinable();
         }
+        buildTokens = merged;
         buildBody = sb.toString();
+        this.inlinable = inlinable && !refersToTagInstance(buildBody);
         __setBuffer(old);
         p(buildBody);
         p("\n\t\treturn this;\n\t}\n");
@@ -1360,31 +1870,113 @@ public class CodeBuilder extends TextBuilder {
         for (Token.StringToken st : consts.keySet()) {
             pConst(st);
         }
+        for (Map.Entry<String, Token.StringToken> entry : includedConsts.entrySet()) {
+            if (!consts.containsValue(entry.getKey())) pConst(entry.getKey(), entry.getValue());
+        }
+        pTagCallSites();
+    }
+
+    /**
+     * Generate the byte code of the template class straight from the java code of the build tokens,
+     * so that the java compiler is not needed. This works for templates made of static text,
+     * expressions, <code>@if</code>, <code>@for</code> and tag calls, see {@link BuildMethodCompiler}.
+     * Templates which extend a layout, import classes, or have inline tags, inline classes, static
+     * code, init or final code shall be compiled from the java source, which is generated anyway
+     * for debugging and error reporting.
+     * <p/>
+     * Must be called after {@link #build()}
+     *
+     * @return the byte code or <code>null</code> if the template is not supported
+     */
+    public byte[] directByteCode() {
+        if (getClass() != CodeBuilder.class || null == buildTokens || !conf.directByteCodeEnabled()) {
+            // sub classes might generate different source code
+            return null;
+        }
+        if (null != extended || logTime || !S.isEmpty(initCode) || !S.isEmpty(finalCode) || !staticCodes.isEmpty()
+                || !inlineClasses.isEmpty() || !inlineTags.isEmpty() || Rythm.insideSandbox()) {
+            return null;
+        }
+        for (InlinedTag tag : inlinedTags.values()) {
+            if (null != tag) {
+                // the tags which are not inlined are cached as null
+                return null;
+            }
+        }
+        if (!imports.isEmpty() || !importLineMap.isEmpty()) {
+            // the imports shall be checked by the java compiler
+            return null;
+        }
+        if (null != conf.sourceEnhancer() && (!basicTemplate() || !renderArgs.isEmpty())) {
+            // the source code enhancer adds common code and implicit render args to the template class
+            return null;
+        }
+        if (tagName.indexOf('\\') > -1 || tagName.indexOf('"') > -1) {
+            return null;
+        }
+        for (String constId : consts.values()) {
+            if (!constValues.containsKey(constId)) {
+                return null;
+            }
+        }
+        for (String constId : includedConsts.keySet()) {
+            if (!constValues.containsKey(constId)) {
+                return null;
+            }
+        }
+        String src = toString();
+        // the java source line of the buffer().ensureCapacity() call, the build body starts from the next line
+        int line = 1, pos = src.indexOf("buffer().ensureCapacity(", src.indexOf("public org.rythmengine.utils.TextBuilder build(){"));
+        for (int i = src.indexOf('\n'); i > -1 && i < pos; i = src.indexOf('\n', i + 1)) {
+            line++;
+        }
+        String className = S.isEmpty(pName) ? cName : pName + "." + cName;
+        TemplateClassWriter writer = new TemplateClassWriter(className, extended(), TagBase.class, engine.classLoader());
+        return writer.write(tagName, tmpl.length(), constValues, new ArrayList<RenderArgDeclaration>(renderArgs.values()),
+                renderArgTypeMap(renderArgs.values()), tagCallSites, buildBody + "\n\t\treturn this;", line);
+    }
+
+    // the static fields caching the tags resolved at the tag invocation sites, including
+    // the ones in the included templates
+    private List<String> tagCallSites = new ArrayList<String>();
+    private int tagCallSiteCounter = 0;
+
+    /**
+     * Allocate a static field to cache the tag resolved at a tag invocation site
+     *
+     * @return the name of the field
+     */
+    public String newTagCallSite() {
+        // the class name makes the field distinct from the ones merged from included templates
+        String name = "__tcs" + Integer.toHexString(S.str(cName).hashCode()) + "_" + tagCallSiteCounter++;
+        tagCallSites.add(name);
+        return name;
+    }
+
+    private void pTagCallSites() {
+        for (String name : tagCallSites) {
+            np("private static final org.rythmengine.template.TagCallSite ").p(name).p(" = new org.rythmengine.template.TagCallSite();").pn();
+        }
     }
 
     private void pConst(Token.StringToken st) {
-        String constId = st.constId;
+        pConst(st.constId, st);
+    }
+
+    private void pConst(String constId, Token.StringToken st) {
         String s = st.s(), s0;
         if (st.compactMode()) {
             s0 = s.replaceAll("(\\r?\\n)+", "\\\\n").replaceAll("\"", "\\\\\"");
         } else {
             s0 = s.replaceAll("(\\r?\\n)", "\\\\n").replaceAll("\"", "\\\\\"");
         }
-        np("private static final org.rythmengine.utils.TextBuilder.StrBuf ").p(constId).p(" = new org.rythmengine.utils.TextBuilder.StrBuf(\"").p(s0);
-        StrBuf sw = new StrBuf(s);
-        if (outputMode == RythmEngine.OutputMode.os) {
-            p("\", new byte[]{");
-            byte[] ba = sw.toBinary();
-            for (int i = 0; i < ba.length; ++i) {
-                p(String.valueOf(ba[i]));
-                if (i < ba.length - 1) p(",");
-            }
-            p("});");
-        } else if (outputMode == RythmEngine.OutputMode.writer) {
-            p("\", null);");
-        } else {
-            throw new AssertionError("should not go here");
+        if (s.indexOf('\\') < 0 && s0.indexOf('\r') < 0) {
+            // the line breaks and quotes are the only escaped chars
+            constValues.put(constId, s0.replace("\\n", "\n").replace("\\\"", "\""));
         }
+        // the encoded bytes are cached lazily per charset by StrBuf, so the same
+        // const serves string, writer and output stream rendering
+        np("private static final org.rythmengine.utils.TextBuilder.StrBuf ").p(constId).p(" = new org.rythmengine.utils.TextBuilder.StrBuf(\"").p(s0).p("\");");
         p("// line:").pn(st.getLineNo());
     }
 
@@ -42,7 +42,7 @@ import org.rythmengine.template.TemplateBase;
 import org.rythmengine.utils.F;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -57,7 +57,11 @@ public class EventBus implements IEventDispatcher {
     private final IRenderExceptionHandler exceptionHandler;
 
     private static class RythmListenerDispatcher implements IRythmListener {
-        private List<IRythmListener> listeners = new ArrayList<IRythmListener>();
+        private final IRythmListener[] listeners;
+
+        RythmListenerDispatcher(List<IRythmListener> listeners) {
+            this.listeners = listeners.toArray(new IRythmListener[listeners.size()]);
+        }
 
         @Override
         public void onRender(ITemplate template) {
@@ -126,14 +130,79 @@ public class EventBus implements IEventDispatcher {
         }
     }
 
-    private final RythmListenerDispatcher renderListener = new RythmListenerDispatcher();
+    /**
+     * The render listeners compiled per event. A field is the dispatcher of the
+     * listeners interested in the event, or <code>null</code> if there is none,
+     * so that triggering an event without listener is a single null check.
+     * <p/>
+     * <p>Note this is not an API for user application</p>
+     */
+    public static final class Hooks {
+        private static final Hooks NONE = new Hooks(Collections.<IRythmListener>emptyList());
+
+        public final IRythmListener onRender;
+        public final IRythmListener rendered;
+        public final IRythmListener enterInvokeTemplate;
+        public final IRythmListener exitInvokeTemplate;
+        public final IRythmListener onInvoke;
+        public final IRythmListener invoked;
+
+        private Hooks(List<IRythmListener> listeners) {
+            onRender = dispatcher(listeners, "onRender", ITemplate.class);
+            rendered = dispatcher(listeners, "rendered", ITemplate.class);
+            enterInvokeTemplate = dispatcher(listeners, "enterInvokeTemplate", TemplateBase.class);
+            exitInvokeTemplate = dispatcher(listeners, "exitInvokeTemplate", TemplateBase.class);
+            onInvoke = dispatcher(listeners, "onInvoke", ITag.class);
+            invoked = dispatcher(listeners, "invoked", ITag.class);
+        }
+
+        /**
+         * Whether any listener is notified of the tag invocations, which do not happen for
+         * the tags inlined into the caller. Not an API for user application
+         *
+         * @return <code>true</code> if the tag invocations are listened to
+         */
+        public boolean tagInvocationListened() {
+            return null != enterInvokeTemplate || null != exitInvokeTemplate || null != onInvoke || null != invoked;
+        }
+
+        private static IRythmListener dispatcher(List<IRythmListener> listeners, String method, Class<?> paramType) {
+            List<IRythmListener> l0 = new ArrayList<IRythmListener>();
+            for (IRythmListener l : listeners) {
+                if (overrides(l, method, paramType)) l0.add(l);
+            }
+            return l0.isEmpty() ? null : new RythmListenerDispatcher(l0);
+        }
+
+        // listeners extending the adaptor are only interested in the methods they override
+        private static boolean overrides(IRythmListener l, String method, Class<?> paramType) {
+            try {
+                return l.getClass().getMethod(method, paramType).getDeclaringClass() != IRythmListener.ListenerAdaptor.class;
+            } catch (NoSuchMethodException e) {
+                return true;
+            }
+        }
+    }
+
+    private final List<IRythmListener> listeners = new ArrayList<IRythmListener>();
+    private volatile Hooks hooks = Hooks.NONE;
+
+    /**
+     * Return the render listeners compiled per event. Not an API for user application
+     *
+     * @return the hooks
+     */
+    public final Hooks hooks() {
+        return hooks;
+    }
 
-    public final void registerRenderListener(IRythmListener l) {
-        renderListener.listeners.add(l);
+    public final synchronized void registerRenderListener(IRythmListener l) {
+        listeners.add(l);
+        hooks = new Hooks(listeners);
     }
 
-    public final void unregisterRenderListener(IRythmListener l) {
-        renderListener.listeners.remove(l);
+    public final synchronized void unregisterRenderListener(IRythmListener l) {
+        if (listeners.remove(l)) hooks = new Hooks(listeners);
     }
 
     public EventBus(RythmEngine engine) {
@@ -153,20 +222,25 @@ public class EventBus implements IEventDispatcher {
         RETURN handleEvent(RythmEngine engine, PARAM param);
     }
 
-    private Map<IEvent<?, ?>, IEventHandler<?, ?>> dispatcher = new HashMap<IEvent<?, ?>, IEventHandler<?, ?>>();
+    // the handlers indexed by the id of the built-in events
+    private final IEventHandler<?, ?>[] dispatcher = new IEventHandler<?, ?>[RythmEvents.count()];
 
     @Override
     public Object accept(IEvent event, Object param) {
-        IEventHandler handler = dispatcher.get(event);
+        if (!(event instanceof RythmEvents)) return null;
+        IEventHandler handler = dispatcher[((RythmEvents) event).id()];
         if (null != handler) {
             return handler.handleEvent(engine, param);
         }
         return null;
     }
 
+    private void put(IEvent<?, ?> event, IEventHandler<?, ?> handler) {
+        dispatcher[((RythmEvents) event).id()] = handler;
+    }
+
     private void registerHandlers() {
-        Map<IEvent<?, ?>, IEventHandler<?, ?>> m = dispatcher;
-        m.put(RythmEvents.ON_PARSE, new IEventHandler<String, CodeBuilder>() {
+        put(RythmEvents.ON_PARSE, new IEventHandler<String, CodeBuilder>() {
             @Override
             public String handleEvent(RythmEngine engine, CodeBuilder c) {
                 // pre process template source
@@ -180,14 +254,14 @@ public class EventBus implements IEventDispatcher {
                 return tmpl;
             }
         });
-        m.put(RythmEvents.PARSE_FAILED, new IEventHandler<Void, TemplateClass>() {
+        put(RythmEvents.PARSE_FAILED, new IEventHandler<Void, TemplateClass>() {
             @Override
             public Void handleEvent(RythmEngine engine, TemplateClass tc) {
                 TemplateResourceManager.rollbackTmpBlackList();
                 return null;
             }
         });
-        m.put(RythmEvents.ON_BUILD_JAVA_SOURCE, new IEventHandler<Void, CodeBuilder>() {
+        put(RythmEvents.ON_BUILD_JAVA_SOURCE, new IEventHandler<Void, CodeBuilder>() {
             @Override
             public Void handleEvent(RythmEngine engine, CodeBuilder cb) {
                 ISourceCodeEnhancer ce = sourceCodeEnhancer;
@@ -210,21 +284,21 @@ public class EventBus implements IEventDispatcher {
                 return null;
             }
         });
-        m.put(RythmEvents.COMPILED, new IEventHandler<byte[], byte[]>() {
+        put(RythmEvents.COMPILED, new IEventHandler<byte[], byte[]>() {
             @Override
             public byte[] handleEvent(RythmEngine engine, byte[] bytes) {
                 TemplateResourceManager.commitTmpBlackList();
                 return bytes;
             }
         });
-        m.put(RythmEvents.COMPILE_FAILED, new IEventHandler<Void, TemplateClass>() {
+        put(RythmEvents.COMPILE_FAILED, new IEventHandler<Void, TemplateClass>() {
             @Override
             public Void handleEvent(RythmEngine engine, TemplateClass tc) {
                 TemplateResourceManager.rollbackTmpBlackList();
                 return null;
             }
         });
-        m.put(RythmEvents.ON_CLOSING_JAVA_CLASS, new IEventHandler<Void, CodeBuilder>() {
+        put(RythmEvents.ON_CLOSING_JAVA_CLASS, new IEventHandler<Void, CodeBuilder>() {
             @Override
             public Void handleEvent(RythmEngine engine, CodeBuilder cb) {
                 // add common source code
@@ -241,55 +315,61 @@ public class EventBus implements IEventDispatcher {
                 return null;
             }
         });
-        m.put(RythmEvents.ON_RENDER, new IEventHandler<Void, ITemplate>() {
+        put(RythmEvents.ON_RENDER, new IEventHandler<Void, ITemplate>() {
             @Override
             public Void handleEvent(RythmEngine engine, ITemplate template) {
                 ISourceCodeEnhancer ce = engine.conf().sourceEnhancer();
                 if (null != ce) {
                     ce.setRenderArgs(template);
                 }
-                renderListener.onRender(template);
+                IRythmListener l = hooks.onRender;
+                if (null != l) l.onRender(template);
                 return null;
             }
         });
-        m.put(RythmEvents.RENDERED, new IEventHandler<Void, ITemplate>() {
+        put(RythmEvents.RENDERED, new IEventHandler<Void, ITemplate>() {
             @Override
             public Void handleEvent(RythmEngine engine, ITemplate template) {
                 engine.renderSettings.clear();
                 Rythm.RenderTime.clear();
-                renderListener.rendered(template);
+                IRythmListener l = hooks.rendered;
+                if (null != l) l.rendered(template);
                 return null;
             }
         });
-        m.put(RythmEvents.ON_TAG_INVOCATION, new IEventHandler<Void, F.T2<ITemplate, ITag>>() {
+        put(RythmEvents.ON_TAG_INVOCATION, new IEventHandler<Void, F.T2<ITemplate, ITag>>() {
             @Override
             public Void handleEvent(RythmEngine engine, F.T2<ITemplate, ITag> param) {
-                renderListener.onInvoke(param._2);
+                IRythmListener l = hooks.onInvoke;
+                if (null != l) l.onInvoke(param._2);
                 return null;
             }
         });
-        m.put(RythmEvents.TAG_INVOKED, new IEventHandler<Void, F.T2<TemplateBase, ITag>>() {
+        put(RythmEvents.TAG_INVOKED, new IEventHandler<Void, F.T2<TemplateBase, ITag>>() {
             @Override
             public Void handleEvent(RythmEngine engine, F.T2<TemplateBase, ITag> param) {
-                renderListener.invoked(param._2);
+                IRythmListener l = hooks.invoked;
+                if (null != l) l.invoked(param._2);
                 return null;
             }
         });
-        m.put(RythmEvents.ENTER_INVOKE_TEMPLATE, new IEventHandler<Void, TemplateBase>() {
+        put(RythmEvents.ENTER_INVOKE_TEMPLATE, new IEventHandler<Void, TemplateBase>() {
             @Override
             public Void handleEvent(RythmEngine engine, TemplateBase caller) {
-                renderListener.enterInvokeTemplate(caller);
+                IRythmListener l = hooks.enterInvokeTemplate;
+                if (null != l) l.enterInvokeTemplate(caller);
                 return null;
             }
         });
-        m.put(RythmEvents.EXIT_INVOKE_TEMPLATE, new IEventHandler<Void, TemplateBase>() {
+        put(RythmEvents.EXIT_INVOKE_TEMPLATE, new IEventHandler<Void, TemplateBase>() {
             @Override
             public Void handleEvent(RythmEngine engine, TemplateBase caller) {
-                renderListener.exitInvokeTemplate(caller);
+                IRythmListener l = hooks.exitInvokeTemplate;
+                if (null != l) l.exitInvokeTemplate(caller);
                 return null;
             }
         });
-        m.put(RythmEvents.ON_RENDER_EXCEPTION, new IEventHandler<Boolean, F.T2<TemplateBase, Exception>>() {
+        put(RythmEvents.ON_RENDER_EXCEPTION, new IEventHandler<Boolean, F.T2<TemplateBase, Exception>>() {
             @Override
             public Boolean handleEvent(RythmEngine engine, F.T2<TemplateBase, Exception> param) {
                 if (null == exceptionHandler) return false;
@@ -139,6 +139,10 @@ public enum Keyword implements IKeyword {
      * Indicate this is not a SIM template
      */
     NOSIM,
+    /**
+     * Render the tag invocations of the template in parallel
+     */
+    PARALLEL,
     /**
      * Mark a section that expression should be output as raw data
      */
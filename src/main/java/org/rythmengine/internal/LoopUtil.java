@@ -32,6 +32,16 @@ import org.rythmengine.utils.S;
  * Used to help track loop state
  */
 public class LoopUtil {
+    /**
+     * The separator of all but the last item of a loop
+     */
+    public static final RawData SEP = new RawData(",");
+
+    private static final LoopUtil[] SHARED = {
+            new LoopUtil(false, false), new LoopUtil(false, true),
+            new LoopUtil(true, false), new LoopUtil(true, true)
+    };
+
     private final Object obj;
     private final boolean isFirst;
     private final boolean isLast;
@@ -48,6 +58,15 @@ public class LoopUtil {
         this.obj = obj;
     }
 
+    /**
+     * Returns a shared instance for the given loop state. Instances without
+     * a loop object are immutable, so there is no need to create one per
+     * iteration
+     */
+    public static LoopUtil valueOf(boolean isFirst, boolean isLast) {
+        return SHARED[(isFirst ? 2 : 0) + (isLast ? 1 : 0)];
+    }
+
     public RawData sep(String sep) {
         return postSep(sep);
     }
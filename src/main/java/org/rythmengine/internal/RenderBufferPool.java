@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2013-2016 The Rythm Engine project
+ * for LICENSE and other details see:
+ * https://github.com/rythmengine/rythmengine
+ */
+package org.rythmengine.internal;
+
+/*-
+ * #%L
+ * Rythm Template Engine
+ * %%
+ * Copyright (C) 2017 - 2021 OSGL (Open Source General Library)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * A bounded pool of render buffers shared by the render processes of an engine.
+ *
+ * @see SlotPool
+ */
+public class RenderBufferPool {
+
+    private final SlotPool<StringBuilder> pool;
+    private final int maxSize;
+
+    /**
+     * Construct a render buffer pool
+     *
+     * @param poolSize the number of buffers could be kept in the pool
+     * @param maxSize  the maximum capacity of a buffer that could be returned to the pool
+     */
+    public RenderBufferPool(int poolSize, int maxSize) {
+        this.pool = new SlotPool<StringBuilder>(poolSize);
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Borrow a buffer from the pool. A new buffer is created if there is no
+     * buffer available in the pool
+     *
+     * @param sizeHint the expected size of the content to be written into the buffer
+     * @return an empty buffer with capacity no less than the size hint
+     */
+    public StringBuilder borrow(int sizeHint) {
+        StringBuilder sb = pool.borrow();
+        if (null != sb) {
+            sb.ensureCapacity(sizeHint);
+            return sb;
+        }
+        return new StringBuilder(sizeHint < 16 ? 16 : sizeHint);
+    }
+
+    /**
+     * Return a buffer to the pool. The buffer is dropped if it is larger than
+     * the maximum buffer size or the pool is full
+     *
+     * @param sb the buffer to be returned. Must not be used by the caller after this call
+     */
+    public void release(StringBuilder sb) {
+        if (null == sb || sb.capacity() > maxSize) return;
+        sb.setLength(0);
+        pool.release(sb);
+    }
+}
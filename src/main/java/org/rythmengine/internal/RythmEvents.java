@@ -129,10 +129,32 @@ public class RythmEvents<RETURN, PARAM> implements IEvent<RETURN, PARAM> {
     IEvent<Boolean, F.T2<TemplateBase, Exception>> ON_RENDER_EXCEPTION = new RythmEvents<Boolean, F.T2<TemplateBase, Exception>>(true);
     
     private boolean safe = false;
+
+    // the id of the event, the events are dispatched by id instead of hash lookup
+    private final int id;
     
-    private RythmEvents() {}
+    private RythmEvents() {
+        this(false);
+    }
     private RythmEvents(boolean isSafe) {
         safe = isSafe;
+        id = Counter.next++;
+    }
+
+    // static fields initialized in textual order, hence the counter in a holder class
+    private static final class Counter {
+        private static int next = 0;
+    }
+
+    /**
+     * @return the number of built-in events
+     */
+    static int count() {
+        return Counter.next;
+    }
+
+    int id() {
+        return id;
     }
     
     public boolean isSafe() {
@@ -0,0 +1,92 @@
+/**
+ * Copyright (C) 2013-2016 The Rythm Engine project
+ * for LICENSE and other details see:
+ * https://github.com/rythmengine/rythmengine
+ */
+package org.rythmengine.internal;
+
+/*-
+ * #%L
+ * Rythm Template Engine
+ * %%
+ * Copyright (C) 2017 - 2021 OSGL (Open Source General Library)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded lock free object pool backed by a fixed array of slots.
+ * <p/>
+ * <p>A thread always starts looking from the slot picked by its id, so a thread
+ * usually gets back the object it returned last time, while no object is pinned
+ * to a thread. This makes the pool friendly to a large number of short living
+ * (virtual) threads, where a {@link ThreadLocal} cache would keep one object per
+ * thread</p>
+ *
+ * @param <T> the pooled object type
+ */
+public class SlotPool<T> {
+
+    // the number of slots probed on borrow and release
+    private static final int PROBE = 4;
+
+    private final AtomicReferenceArray<T> slots;
+
+    /**
+     * Construct a slot pool
+     *
+     * @param size the number of objects could be kept in the pool. <code>0</code> disables the pool
+     */
+    public SlotPool(int size) {
+        this.slots = size > 0 ? new AtomicReferenceArray<T>(size) : null;
+    }
+
+    /**
+     * Take an object out from the pool
+     *
+     * @return a pooled object or <code>null</code> if there is no object available
+     */
+    public T borrow() {
+        if (null == slots) return null;
+        int len = slots.length(), start = start(len);
+        for (int i = 0, n = Math.min(PROBE, len); i < n; ++i) {
+            int idx = (start + i) % len;
+            if (null == slots.get(idx)) continue;
+            T t = slots.getAndSet(idx, null);
+            if (null != t) return t;
+        }
+        return null;
+    }
+
+    /**
+     * Put an object into the pool. The object is dropped if the pool is full
+     *
+     * @param t the object to be pooled. Must not be used by the caller after this call
+     */
+    public void release(T t) {
+        if (null == slots || null == t) return;
+        int len = slots.length(), start = start(len);
+        for (int i = 0, n = Math.min(PROBE, len); i < n; ++i) {
+            int idx = (start + i) % len;
+            if (null == slots.get(idx) && slots.compareAndSet(idx, null, t)) return;
+        }
+    }
+
+    private static int start(int len) {
+        long id = Thread.currentThread().getId();
+        return (int) ((id ^ (id >>> 16)) & 0x7fffffff) % len;
+    }
+}
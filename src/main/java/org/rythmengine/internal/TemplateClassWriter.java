@@ -0,0 +1,922 @@
+/**
+ * Copyright (C) 2013-2016 The Rythm Engine project
+ * for LICENSE and other details see:
+ * https://github.com/rythmengine/rythmengine
+ */
+package org.rythmengine.internal;
+
+/*-
+ * #%L
+ * Rythm Template Engine
+ * %%
+ * Copyright (C) 2017 - 2021 OSGL (Open Source General Library)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Write the class file of a template without going through the java compiler. The class written
+ * is equivalent to the one compiled from the java source generated by {@link CodeBuilder} for the
+ * same template: it has the string const and tag call site fields, the render arg members generated
+ * by <code>CodeBuilder.pRenderArgs()</code> and <code>CodeBuilder.pSetup()</code>, including the
+ * bridge methods and the generic signatures the java compiler adds, and the <code>build()</code>
+ * method compiled by {@link BuildMethodCompiler}. Any change to the members generated shall be made
+ * here as well, <code>CompactModeTest</code> compares the members of both classes.
+ * <p/>
+ * The class file version is 49, which does not need stack map frames, so the branches can be
+ * written as they are
+ */
+final class TemplateClassWriter {
+
+    private static final int VERSION = 49;
+
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_PRIVATE = 0x0002;
+    private static final int ACC_PROTECTED = 0x0004;
+    private static final int ACC_STATIC = 0x0008;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+    private static final int ACC_BRIDGE = 0x0040;
+    private static final int ACC_VARARGS = 0x0080;
+    private static final int ACC_SYNTHETIC = 0x1000;
+
+    static final int ACONST_NULL = 0x01;
+    static final int ICONST_M1 = 0x02;
+    static final int ICONST_0 = 0x03;
+    static final int ICONST_1 = 0x04;
+    static final int BIPUSH = 0x10;
+    static final int SIPUSH = 0x11;
+    static final int LDC_W = 0x13;
+    static final int LDC2_W = 0x14;
+    static final int ILOAD = 0x15;
+    static final int ALOAD = 0x19;
+    static final int ILOAD_1 = 0x1b;
+    static final int ILOAD_2 = 0x1c;
+    static final int ILOAD_3 = 0x1d;
+    static final int ALOAD_0 = 0x2a;
+    static final int ALOAD_1 = 0x2b;
+    static final int ALOAD_2 = 0x2c;
+    static final int ALOAD_3 = 0x2d;
+    static final int IALOAD = 0x2e;
+    static final int LALOAD = 0x2f;
+    static final int FALOAD = 0x30;
+    static final int DALOAD = 0x31;
+    static final int AALOAD = 0x32;
+    static final int BALOAD = 0x33;
+    static final int CALOAD = 0x34;
+    static final int SALOAD = 0x35;
+    static final int ISTORE = 0x36;
+    static final int ASTORE = 0x3a;
+    static final int ISTORE_2 = 0x3d;
+    static final int ISTORE_3 = 0x3e;
+    static final int ASTORE_1 = 0x4c;
+    static final int ASTORE_3 = 0x4e;
+    static final int IASTORE = 0x4f;
+    static final int AASTORE = 0x53;
+    static final int POP = 0x57;
+    static final int POP2 = 0x58;
+    static final int DUP = 0x59;
+    static final int DUP_X1 = 0x5a;
+    static final int DUP2 = 0x5c;
+    static final int DUP2_X1 = 0x5d;
+    static final int IADD = 0x60;
+    static final int ISUB = 0x64;
+    static final int IMUL = 0x68;
+    static final int IDIV = 0x6c;
+    static final int IREM = 0x70;
+    static final int INEG = 0x74;
+    static final int IINC = 0x84;
+    static final int LCMP = 0x94;
+    static final int FCMPL = 0x95;
+    static final int FCMPG = 0x96;
+    static final int DCMPL = 0x97;
+    static final int DCMPG = 0x98;
+    static final int IFEQ = 0x99;
+    static final int IFNE = 0x9a;
+    static final int IFLT = 0x9b;
+    static final int IF_ICMPEQ = 0x9f;
+    static final int IF_ICMPNE = 0xa0;
+    static final int IF_ICMPGE = 0xa2;
+    static final int IF_ICMPLE = 0xa4;
+    static final int IF_ACMPEQ = 0xa5;
+    static final int IF_ACMPNE = 0xa6;
+    static final int GOTO = 0xa7;
+    static final int ARETURN = 0xb0;
+    static final int RETURN = 0xb1;
+    static final int GETSTATIC = 0xb2;
+    static final int PUTSTATIC = 0xb3;
+    static final int GETFIELD = 0xb4;
+    static final int PUTFIELD = 0xb5;
+    static final int INVOKEVIRTUAL = 0xb6;
+    static final int INVOKESPECIAL = 0xb7;
+    static final int INVOKESTATIC = 0xb8;
+    static final int INVOKEINTERFACE = 0xb9;
+    static final int NEW = 0xbb;
+    static final int NEWARRAY = 0xbc;
+    static final int ANEWARRAY = 0xbd;
+    static final int ARRAYLENGTH = 0xbe;
+    static final int ATHROW = 0xbf;
+    static final int CHECKCAST = 0xc0;
+    static final int IFNULL = 0xc6;
+    static final int IFNONNULL = 0xc7;
+
+    private static final int T_INT = 10;
+
+    private static final String TEXT_BUILDER = "org/rythmengine/utils/TextBuilder";
+    private static final String STR_BUF = "org/rythmengine/utils/TextBuilder$StrBuf";
+    private static final String STR_BUF_DESC = "L" + STR_BUF + ";";
+    private static final String TAG_CALL_SITE = "org/rythmengine/template/TagCallSite";
+    private static final String TEMPLATE_DESC = "Lorg/rythmengine/template/ITemplate;";
+    private static final String TEMPLATE_BASE_DESC = "Lorg/rythmengine/template/TemplateBase;";
+    private static final String ARG_INDEX = "org/rythmengine/template/RenderArgIndex";
+    private static final String ARG_INDEX_DESC = "L" + ARG_INDEX + ";";
+    private static final String ARG_INDEX_FIELD = "__argIndex";
+    private static final String ARG_POS_SLOTS_FIELD = "__argPosSlots";
+    private static final String AIOOBE = "java/lang/ArrayIndexOutOfBoundsException";
+    private static final String GET_SLOT = "__getArgSlot_";
+    private static final String SET_SLOT = "__setArgSlot_";
+    private static final String BIND_SLOT = "__bindArgSlot_";
+    private static final String SLOT_GETTER_DESC = "(I)Ljava/lang/Object;";
+    private static final String SLOT_SETTER_DESC = "(ILjava/lang/Object;)V";
+    private static final String MAP = "java/util/Map";
+    private static final String ITERATOR = "java/util/Iterator";
+
+    // the constant pool entries mapped to their indexes
+    private final Map<String, Integer> constIndexes = new HashMap<String, Integer>();
+    private final ByteArrayOutputStream constBytes = new ByteArrayOutputStream();
+    private final DataOutputStream constPool = new DataOutputStream(constBytes);
+    private int constCount = 1;
+
+    private final ByteArrayOutputStream fieldBytes = new ByteArrayOutputStream();
+    private final DataOutputStream fields = new DataOutputStream(fieldBytes);
+    private int fieldCount = 0;
+
+    private final ByteArrayOutputStream methodBytes = new ByteArrayOutputStream();
+    private final DataOutputStream methods = new DataOutputStream(methodBytes);
+    private int methodCount = 0;
+
+    private final String className;
+    private final String superName;
+    private final BuildMethodCompiler compiler;
+
+    /**
+     * The render arg members as the java compiler sees them
+     */
+    private static final class Arg {
+        final String name;
+        final Class<?> type;
+        // the class the arg values are cast to
+        final Class<?> objectType;
+        // the class registered in the render arg index
+        final Class<?> indexType;
+        final String defVal;
+
+        Arg(String name, Class<?> type, Class<?> objectType, Class<?> indexType, String defVal) {
+            this.name = name;
+            this.type = type;
+            this.objectType = objectType;
+            this.indexType = indexType;
+            this.defVal = defVal;
+        }
+    }
+
+    /**
+     * Construct a writer
+     *
+     * @param className  the name of the template class
+     * @param superName  the name of the class the template class extends
+     * @param superClass the class the template class extends
+     * @param loader     the class loader of the template class
+     */
+    TemplateClassWriter(String className, String superName, Class<?> superClass, ClassLoader loader) {
+        this.className = className.replace('.', '/');
+        this.superName = superName.replace('.', '/');
+        this.compiler = new BuildMethodCompiler(this, this.className, superClass, loader);
+    }
+
+    /**
+     * Write the template class
+     *
+     * @param tagName    the value returned by <code>__getName()</code>
+     * @param capacity   the buffer capacity ensured by <code>build()</code>
+     * @param consts     the string consts mapped by the field names
+     * @param renderArgs the render args declared
+     * @param typeMap    the types put into the map returned by <code>__renderArgTypeMap()</code>
+     * @param callSites  the names of the tag call site fields
+     * @param body       the java source of the statements of <code>build()</code> following the
+     *                   <code>buffer().ensureCapacity()</code> call
+     * @param line       the java source line of the <code>buffer().ensureCapacity()</code> call
+     * @return the class file bytes, or <code>null</code> if the template is not supported
+     */
+    byte[] write(String tagName, int capacity, Map<String, String> consts, List<CodeBuilder.RenderArgDeclaration> renderArgs,
+                 Map<String, String> typeMap, List<String> callSites, String body, int line) {
+        try {
+            List<Arg> args = new ArrayList<Arg>();
+            for (CodeBuilder.RenderArgDeclaration arg : renderArgs) {
+                Class<?> type = compiler.field(arg.name, arg.type, false);
+                args.add(new Arg(arg.name, type, compiler.type(arg.objectType()),
+                        compiler.type(CodeBuilder.renderArgClass(arg)), arg.defVal));
+            }
+            for (String id : consts.keySet()) {
+                compiler.field(id, "org.rythmengine.utils.TextBuilder.StrBuf", true);
+            }
+            for (String site : callSites) {
+                compiler.field(site, "org.rythmengine.template.TagCallSite", true);
+            }
+
+            field(ACC_PRIVATE | ACC_STATIC | ACC_FINAL, ARG_INDEX_FIELD, ARG_INDEX_DESC, null);
+            field(ACC_PRIVATE | ACC_STATIC | ACC_FINAL, ARG_POS_SLOTS_FIELD, "[I", null);
+            for (String id : consts.keySet()) {
+                field(ACC_PRIVATE | ACC_STATIC | ACC_FINAL, id, STR_BUF_DESC, null);
+            }
+            for (String site : callSites) {
+                field(ACC_PRIVATE | ACC_STATIC | ACC_FINAL, site, "L" + TAG_CALL_SITE + ";", null);
+            }
+            for (CodeBuilder.RenderArgDeclaration arg : renderArgs) {
+                field(ACC_PROTECTED, arg.name, BuildMethodCompiler.desc(compiler.type(arg.type)), compiler.signature(arg.type));
+            }
+
+            Code c = new Code();
+            c.op(ALOAD_0).op(INVOKESPECIAL).u2(methodRef(superName, "<init>", "()V"));
+            for (Arg arg : args) {
+                if (null != arg.defVal) compiler.compileFieldInit(c, arg.name, arg.defVal);
+            }
+            c.op(RETURN);
+            method(ACC_PUBLIC, "<init>", "()V", null, c, Math.max(1, c.maxStack()), 1);
+
+            // __argIndex = new RenderArgIndex(new String[]{names}, new Class[]{types});
+            // __argPosSlots = new int[]{slots};
+            c = new Code();
+            c.op(NEW).u2(classRef(ARG_INDEX)).op(DUP);
+            c.pushInt(args.size()).op(ANEWARRAY).u2(classRef("java/lang/String"));
+            for (int i = 0; i < args.size(); ++i) {
+                c.op(DUP).pushInt(i).op(LDC_W).u2(string(args.get(i).name)).op(AASTORE);
+            }
+            c.pushInt(args.size()).op(ANEWARRAY).u2(classRef("java/lang/Class"));
+            for (int i = 0; i < args.size(); ++i) {
+                c.op(DUP).pushInt(i).classLiteral(args.get(i).indexType).op(AASTORE);
+            }
+            c.op(INVOKESPECIAL).u2(methodRef(ARG_INDEX, "<init>", "([Ljava/lang/String;[Ljava/lang/Class;)V"));
+            c.op(PUTSTATIC).u2(fieldRef(className, ARG_INDEX_FIELD, ARG_INDEX_DESC));
+            c.pushInt(args.size()).op(NEWARRAY).u1(T_INT);
+            for (int i = 0; i < args.size(); ++i) {
+                c.op(DUP).pushInt(i).pushInt(i).op(IASTORE);
+            }
+            c.op(PUTSTATIC).u2(fieldRef(className, ARG_POS_SLOTS_FIELD, "[I"));
+            for (Map.Entry<String, String> entry : consts.entrySet()) {
+                c.op(NEW).u2(classRef(STR_BUF)).op(DUP).op(LDC_W).u2(string(entry.getValue()));
+                c.op(INVOKESPECIAL).u2(methodRef(STR_BUF, "<init>", "(Ljava/lang/String;)V"));
+                c.op(PUTSTATIC).u2(fieldRef(className, entry.getKey(), STR_BUF_DESC));
+            }
+            for (String site : callSites) {
+                c.op(NEW).u2(classRef(TAG_CALL_SITE)).op(DUP);
+                c.op(INVOKESPECIAL).u2(methodRef(TAG_CALL_SITE, "<init>", "()V"));
+                c.op(PUTSTATIC).u2(fieldRef(className, site, "L" + TAG_CALL_SITE + ";"));
+            }
+            c.op(RETURN);
+            method(ACC_STATIC, "<clinit>", "()V", null, c, 7, 0);
+
+            c = new Code();
+            c.op(LDC_W).u2(string(tagName)).op(ARETURN);
+            method(ACC_PUBLIC, "__getName", "()Ljava/lang/String;", null, c, 1, 1);
+
+            c = new Code();
+            c.line(line);
+            c.op(ALOAD_0).op(INVOKEVIRTUAL).u2(methodRef(className, "buffer", "()Ljava/lang/StringBuilder;"));
+            c.op(LDC_W).u2(integer(capacity));
+            c.op(INVOKEVIRTUAL).u2(methodRef("java/lang/StringBuilder", "ensureCapacity", "(I)V"));
+            compiler.compileStatements(c, body, line + 1, 1);
+            method(ACC_PUBLIC, "build", "()L" + TEXT_BUILDER + ";", null, c, Math.max(2, c.maxStack()), compiler.maxLocals());
+
+            writeRenderArgMembers(args, typeMap);
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(constBytes.size() + fieldBytes.size() + methodBytes.size() + 32);
+            DataOutputStream out = new DataOutputStream(bytes);
+            int thisIndex = classRef(className);
+            int superIndex = classRef(superName);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            out.writeShort(constCount);
+            constBytes.writeTo(out);
+            out.writeShort(ACC_PUBLIC | ACC_SUPER);
+            out.writeShort(thisIndex);
+            out.writeShort(superIndex);
+            out.writeShort(0);
+            out.writeShort(fieldCount);
+            fieldBytes.writeTo(out);
+            out.writeShort(methodCount);
+            methodBytes.writeTo(out);
+            out.writeShort(0);
+            return bytes.toByteArray();
+        } catch (BuildMethodCompiler.Unsupported e) {
+            return null;
+        } catch (UTFDataFormatException e) {
+            return null;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void writeRenderArgMembers(List<Arg> args, Map<String, String> typeMap) throws IOException {
+        int argCount = args.size();
+
+        // if (__pos == 0) return "a"; if (__pos == 1) return "b"; ...
+        // throw new ArrayIndexOutOfBoundsException();
+        Code c = new Code();
+        for (int i = 0; i < argCount; ++i) {
+            int jump = c.op(ILOAD_1).pushInt(i).jump(IF_ICMPNE);
+            c.op(LDC_W).u2(string(args.get(i).name)).op(ARETURN);
+            c.land(jump);
+        }
+        throwNew(c, AIOOBE);
+        method(ACC_PROTECTED, "__renderArgName", "(I)Ljava/lang/String;", null, c, 2, 2);
+
+        // java.util.Map<String, Class> __m = new HashMap(); __m.put(name, type.class); ... return __m;
+        c = new Code();
+        c.op(NEW).u2(classRef("java/util/HashMap")).op(DUP);
+        c.op(INVOKESPECIAL).u2(methodRef("java/util/HashMap", "<init>", "()V"));
+        c.op(ASTORE_1);
+        for (Map.Entry<String, String> entry : typeMap.entrySet()) {
+            c.op(ALOAD_1).op(LDC_W).u2(string(entry.getKey())).classLiteral(compiler.type(entry.getValue().trim()));
+            c.op(INVOKEINTERFACE).u2(interfaceMethodRef(MAP, "put", "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;")).u1(3).u1(0);
+            c.op(POP);
+        }
+        c.op(ALOAD_1).op(ARETURN);
+        method(ACC_PROTECTED, "__renderArgTypeMap", "()Ljava/util/Map;",
+                "()Ljava/util/Map<Ljava/lang/String;Ljava/lang/Class;>;", c, 3, 2);
+
+        c = new Code();
+        c.op(GETSTATIC).u2(fieldRef(className, ARG_INDEX_FIELD, ARG_INDEX_DESC)).op(ARETURN);
+        method(ACC_PROTECTED, "__renderArgIndex", "()" + ARG_INDEX_DESC, null, c, 1, 1);
+
+        // switch (__slot) {case 0: return a; ... default: throw new ArrayIndexOutOfBoundsException(__slot);}
+        c = new Code();
+        for (int i = 0; i < argCount; ++i) {
+            Arg arg = args.get(i);
+            int jump = c.op(ILOAD_1).pushInt(i).jump(IF_ICMPNE);
+            c.op(ALOAD_0).op(GETFIELD).u2(fieldRef(className, arg.name, BuildMethodCompiler.desc(arg.type)));
+            if (arg.type.isPrimitive()) c.box(arg.type);
+            c.op(ARETURN);
+            c.land(jump);
+        }
+        throwNew(c, AIOOBE, ILOAD_1);
+        method(ACC_PRIVATE, GET_SLOT, SLOT_GETTER_DESC, null, c, 3, 2);
+
+        // switch (__slot) {case 0: a = __safeCast(__arg, A.class); break; ...
+        // default: throw new ArrayIndexOutOfBoundsException(__slot);}
+        c = new Code();
+        for (int i = 0; i < argCount; ++i) {
+            Arg arg = args.get(i);
+            int jump = c.op(ILOAD_1).pushInt(i).jump(IF_ICMPNE);
+            c.op(ALOAD_0).op(ALOAD_2).classLiteral(arg.objectType);
+            c.op(INVOKESTATIC).u2(methodRef(className, "__safeCast", "(Ljava/lang/Object;Ljava/lang/Class;)Ljava/lang/Object;"));
+            cast(c, arg);
+            c.op(PUTFIELD).u2(fieldRef(className, arg.name, BuildMethodCompiler.desc(arg.type))).op(RETURN);
+            c.land(jump);
+        }
+        throwNew(c, AIOOBE, ILOAD_1);
+        method(ACC_PRIVATE, SET_SLOT, SLOT_SETTER_DESC, null, c, 4, 3);
+
+        // __setArgSlot_(slot, arg); if (__argIndex == __renderArgIndex()) __markRenderArgBound(slot);
+        // else __renderArgs.put(__argIndex.name(slot), arg);
+        c = new Code();
+        c.op(ALOAD_0).op(ILOAD_1).op(ALOAD_2).op(INVOKESPECIAL).u2(methodRef(className, SET_SLOT, SLOT_SETTER_DESC));
+        c.op(GETSTATIC).u2(fieldRef(className, ARG_INDEX_FIELD, ARG_INDEX_DESC));
+        c.op(ALOAD_0).op(INVOKEVIRTUAL).u2(methodRef(className, "__renderArgIndex", "()" + ARG_INDEX_DESC));
+        int jump = c.jump(IF_ACMPNE);
+        c.op(ALOAD_0).op(ILOAD_1).op(INVOKEVIRTUAL).u2(methodRef(className, "__markRenderArgBound", "(I)V")).op(RETURN);
+        c.land(jump);
+        c.op(ALOAD_0).op(GETFIELD).u2(fieldRef(className, "__renderArgs", "Ljava/util/Map;"));
+        c.op(GETSTATIC).u2(fieldRef(className, ARG_INDEX_FIELD, ARG_INDEX_DESC)).op(ILOAD_1);
+        c.op(INVOKEVIRTUAL).u2(methodRef(ARG_INDEX, "name", "(I)Ljava/lang/String;")).op(ALOAD_2);
+        c.op(INVOKEINTERFACE).u2(interfaceMethodRef(MAP, "put", "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;")).u1(3).u1(0);
+        c.op(POP).op(RETURN);
+        method(ACC_PRIVATE, BIND_SLOT, SLOT_SETTER_DESC, null, c, 3, 3);
+
+        c = new Code();
+        c.op(ALOAD_0).op(ILOAD_1).op(INVOKESPECIAL).u2(methodRef(className, GET_SLOT, SLOT_GETTER_DESC)).op(ARETURN);
+        method(ACC_PROTECTED, "__getRenderArgSlot", SLOT_GETTER_DESC, null, c, 2, 2);
+
+        c = new Code();
+        c.op(ALOAD_0).op(ILOAD_1).op(ALOAD_2).op(INVOKESPECIAL).u2(methodRef(className, SET_SLOT, SLOT_SETTER_DESC));
+        c.op(ALOAD_0).op(ILOAD_1).op(INVOKEVIRTUAL).u2(methodRef(className, "__markRenderArgBound", "(I)V")).op(RETURN);
+        method(ACC_PROTECTED, "__setRenderArgSlot", SLOT_SETTER_DESC, null, c, 3, 3);
+
+        // if (null == args) throw new NullPointerException(); if (args.isEmpty()) return this;
+        // super.__setRenderArgs(args); then bind the args to the slots; return this;
+        String params = "(Ljava/util/Map;)";
+        c = new Code();
+        jump = c.op(ALOAD_1).jump(IFNONNULL);
+        throwNew(c, "java/lang/NullPointerException");
+        c.land(jump);
+        c.op(ALOAD_1).op(INVOKEINTERFACE).u2(interfaceMethodRef(MAP, "isEmpty", "()Z")).u1(1).u1(0);
+        jump = c.jump(IFEQ);
+        c.op(ALOAD_0).op(ARETURN);
+        c.land(jump);
+        c.op(ALOAD_0).op(ALOAD_1).op(INVOKESPECIAL).u2(methodRef(superName, "__setRenderArgs", params + TEMPLATE_DESC)).op(POP);
+        if (argCount > 0) {
+            // boolean __own = __argIndex == __renderArgIndex();
+            c.op(GETSTATIC).u2(fieldRef(className, ARG_INDEX_FIELD, ARG_INDEX_DESC));
+            c.op(ALOAD_0).op(INVOKEVIRTUAL).u2(methodRef(className, "__renderArgIndex", "()" + ARG_INDEX_DESC));
+            jump = c.jump(IF_ACMPNE);
+            c.op(ICONST_1);
+            int end = c.jump(GOTO);
+            c.land(jump);
+            c.op(ICONST_0);
+            c.land(end);
+            c.op(ISTORE_2);
+            // for (Map.Entry __e : __args.entrySet()) {int __i = __argIndex.slot(__e.getKey()); if (__i < 0) continue;
+            // __setArgSlot_(__i, __e.getValue()); if (__own) __markRenderArgBound(__i);}
+            c.op(ALOAD_1).op(INVOKEINTERFACE).u2(interfaceMethodRef(MAP, "entrySet", "()Ljava/util/Set;")).u1(1).u1(0);
+            c.op(INVOKEINTERFACE).u2(interfaceMethodRef("java/util/Set", "iterator", "()Ljava/util/Iterator;")).u1(1).u1(0);
+            c.op(ASTORE_3);
+            int top = c.size();
+            c.op(ALOAD_3).op(INVOKEINTERFACE).u2(interfaceMethodRef(ITERATOR, "hasNext", "()Z")).u1(1).u1(0);
+            end = c.jump(IFEQ);
+            c.op(ALOAD_3).op(INVOKEINTERFACE).u2(interfaceMethodRef(ITERATOR, "next", "()Ljava/lang/Object;")).u1(1).u1(0);
+            c.op(CHECKCAST).u2(classRef("java/util/Map$Entry")).op(ASTORE).u1(4);
+            c.op(GETSTATIC).u2(fieldRef(className, ARG_INDEX_FIELD, ARG_INDEX_DESC));
+            c.op(ALOAD).u1(4).op(INVOKEINTERFACE).u2(interfaceMethodRef("java/util/Map$Entry", "getKey", "()Ljava/lang/Object;")).u1(1).u1(0);
+            c.op(CHECKCAST).u2(classRef("java/lang/String"));
+            c.op(INVOKEVIRTUAL).u2(methodRef(ARG_INDEX, "slot", "(Ljava/lang/String;)I")).op(ISTORE).u1(5);
+            c.op(ILOAD).u1(5).jumpTo(IFLT, top);
+            c.op(ALOAD_0).op(ILOAD).u1(5);
+            c.op(ALOAD).u1(4).op(INVOKEINTERFACE).u2(interfaceMethodRef("java/util/Map$Entry", "getValue", "()Ljava/lang/Object;")).u1(1).u1(0);
+            c.op(INVOKESPECIAL).u2(methodRef(className, SET_SLOT, SLOT_SETTER_DESC));
+            c.op(ILOAD_2).jumpTo(IFEQ, top);
+            c.op(ALOAD_0).op(ILOAD).u1(5).op(INVOKEVIRTUAL).u2(methodRef(className, "__markRenderArgBound", "(I)V"));
+            c.jumpTo(GOTO, top);
+            c.land(end);
+        }
+        c.op(ALOAD_0).op(ARETURN);
+        method(ACC_PUBLIC, "__setRenderArgs", params + TEMPLATE_BASE_DESC,
+                "(Ljava/util/Map<Ljava/lang/String;Ljava/lang/Object;>;)" + TEMPLATE_BASE_DESC, c, 3, argCount > 0 ? 6 : 2);
+        bridge(0, "__setRenderArgs", params, ALOAD_1);
+
+        if (argCount > 0) {
+            // int __l = Math.min(__args.length, argCount);
+            // for (int __p = 0; __p < __l && __p < __argPosSlots.length; ++__p) {
+            // Object v = __args[__p]; if (null != v) __bindArgSlot_(__argPosSlots[__p], v);}
+            // return this;
+            params = "([Ljava/lang/Object;)";
+            c = new Code();
+            c.op(ALOAD_1).op(ARRAYLENGTH).pushInt(argCount);
+            c.op(INVOKESTATIC).u2(methodRef("java/lang/Math", "min", "(II)I")).op(ISTORE_2);
+            c.op(ICONST_0).op(ISTORE_3);
+            int top = c.size();
+            int end = c.op(ILOAD_3).op(ILOAD_2).jump(IF_ICMPGE);
+            int end2 = c.op(ILOAD_3).op(GETSTATIC).u2(fieldRef(className, ARG_POS_SLOTS_FIELD, "[I")).op(ARRAYLENGTH).jump(IF_ICMPGE);
+            c.op(ALOAD_1).op(ILOAD_3).op(AALOAD).op(ASTORE).u1(4);
+            jump = c.op(ALOAD).u1(4).jump(IFNULL);
+            c.op(ALOAD_0).op(GETSTATIC).u2(fieldRef(className, ARG_POS_SLOTS_FIELD, "[I")).op(ILOAD_3).op(IALOAD);
+            c.op(ALOAD).u1(4).op(INVOKESPECIAL).u2(methodRef(className, BIND_SLOT, SLOT_SETTER_DESC));
+            c.land(jump);
+            c.op(IINC).u1(3).u1(1);
+            c.jumpTo(GOTO, top);
+            c.land(end);
+            c.land(end2);
+            c.op(ALOAD_0).op(ARETURN);
+            method(ACC_PUBLIC | ACC_VARARGS, "__setRenderArgs", params + TEMPLATE_BASE_DESC, null, c, 3, 5);
+            bridge(ACC_VARARGS, "__setRenderArgs", params, ALOAD_1);
+
+            // return new Class[]{A.class, B.class, ...};
+            c = new Code();
+            c.pushInt(argCount).op(ANEWARRAY).u2(classRef("java/lang/Class"));
+            for (int i = 0; i < argCount; ++i) {
+                c.op(DUP).pushInt(i).classLiteral(args.get(i).indexType).op(AASTORE);
+            }
+            c.op(ARETURN);
+            method(ACC_PROTECTED, "__renderArgTypeArray", "()[Ljava/lang/Class;", null, c, 4, 1);
+
+            // if (__isDefVal(a)) {a = __get("a", A.class);} ...
+            c = new Code();
+            for (Arg arg : args) {
+                c.op(ALOAD_0).op(GETFIELD).u2(fieldRef(className, arg.name, BuildMethodCompiler.desc(arg.type)));
+                if (arg.type.isPrimitive()) c.box(arg.type);
+                c.op(INVOKESTATIC).u2(methodRef(className, "__isDefVal", "(Ljava/lang/Object;)Z"));
+                jump = c.jump(IFEQ);
+                c.op(ALOAD_0).op(ALOAD_0).op(LDC_W).u2(string(arg.name)).classLiteral(arg.objectType);
+                c.op(INVOKEVIRTUAL).u2(methodRef(className, "__get", "(Ljava/lang/String;Ljava/lang/Class;)Ljava/lang/Object;"));
+                cast(c, arg);
+                c.op(PUTFIELD).u2(fieldRef(className, arg.name, BuildMethodCompiler.desc(arg.type)));
+                c.land(jump);
+            }
+            c.op(RETURN);
+            method(ACC_PROTECTED, "__setup", "()V", null, c, 4, 1);
+        }
+
+        // int __i = __argIndex.slot(__name); if (__i > -1) {__setArgSlot_(__i, __arg);
+        // if (__argIndex == __renderArgIndex()) {__markRenderArgBound(__i); return this;}}
+        // super.__setRenderArg(name, arg); return this;
+        params = "(Ljava/lang/String;Ljava/lang/Object;)";
+        c = new Code();
+        if (argCount > 0) {
+            c.op(GETSTATIC).u2(fieldRef(className, ARG_INDEX_FIELD, ARG_INDEX_DESC)).op(ALOAD_1);
+            c.op(INVOKEVIRTUAL).u2(methodRef(ARG_INDEX, "slot", "(Ljava/lang/String;)I")).op(ISTORE_3);
+            jump = c.op(ILOAD_3).jump(IFLT);
+            c.op(ALOAD_0).op(ILOAD_3).op(ALOAD_2).op(INVOKESPECIAL).u2(methodRef(className, SET_SLOT, SLOT_SETTER_DESC));
+            c.op(GETSTATIC).u2(fieldRef(className, ARG_INDEX_FIELD, ARG_INDEX_DESC));
+            c.op(ALOAD_0).op(INVOKEVIRTUAL).u2(methodRef(className, "__renderArgIndex", "()" + ARG_INDEX_DESC));
+            int jump2 = c.jump(IF_ACMPNE);
+            c.op(ALOAD_0).op(ILOAD_3).op(INVOKEVIRTUAL).u2(methodRef(className, "__markRenderArgBound", "(I)V"));
+            c.op(ALOAD_0).op(ARETURN);
+            c.land(jump);
+            c.land(jump2);
+        }
+        c.op(ALOAD_0).op(ALOAD_1).op(ALOAD_2).op(INVOKESPECIAL).u2(methodRef(superName, "__setRenderArg", params + TEMPLATE_DESC)).op(POP);
+        c.op(ALOAD_0).op(ARETURN);
+        method(ACC_PUBLIC, "__setRenderArg", params + TEMPLATE_BASE_DESC, null, c, 3, argCount > 0 ? 4 : 3);
+        bridge(0, "__setRenderArg", params, ALOAD_1, ALOAD_2);
+
+        // if (pos > -1 && pos < __argPosSlots.length) __bindArgSlot_(__argPosSlots[pos], arg);
+        // the first argument has a default name "arg":
+        // if (0 == pos) __setRenderArg("arg", arg); return this;
+        c = new Code();
+        int jump2 = c.op(ILOAD_1).op(ICONST_M1).jump(IF_ICMPLE);
+        jump = c.op(ILOAD_1).op(GETSTATIC).u2(fieldRef(className, ARG_POS_SLOTS_FIELD, "[I")).op(ARRAYLENGTH).jump(IF_ICMPGE);
+        c.op(ALOAD_0).op(GETSTATIC).u2(fieldRef(className, ARG_POS_SLOTS_FIELD, "[I")).op(ILOAD_1).op(IALOAD).op(ALOAD_2);
+        c.op(INVOKESPECIAL).u2(methodRef(className, BIND_SLOT, SLOT_SETTER_DESC));
+        c.land(jump);
+        c.land(jump2);
+        jump = c.op(ILOAD_1).jump(IFNE);
+        c.op(ALOAD_0).op(LDC_W).u2(string("arg")).op(ALOAD_2);
+        c.op(INVOKEVIRTUAL).u2(methodRef(className, "__setRenderArg", params + TEMPLATE_BASE_DESC)).op(POP);
+        c.land(jump);
+        c.op(ALOAD_0).op(ARETURN);
+        params = "(ILjava/lang/Object;)";
+        method(ACC_PUBLIC, "__setRenderArg", params + TEMPLATE_BASE_DESC, null, c, 3, 3);
+        bridge(0, "__setRenderArg", params, ILOAD_1, ALOAD_2);
+    }
+
+    /*
+     * Cast the object on the stack to the type of the arg field
+     */
+    private void cast(Code c, Arg arg) throws IOException {
+        c.op(CHECKCAST).u2(classRef(BuildMethodCompiler.internalName(arg.objectType)));
+        if (arg.type.isPrimitive()) c.unbox(arg.objectType);
+    }
+
+    /*
+     * Write the bridge method returning ITemplate, which the java compiler adds for a method
+     * overridden with the TemplateBase return type
+     *
+     * @param loads the instructions loading the params
+     */
+    private void bridge(int access, String name, String params, int... loads) throws IOException {
+        Code c = new Code();
+        c.op(ALOAD_0);
+        for (int load : loads) {
+            c.op(load);
+        }
+        c.op(INVOKEVIRTUAL).u2(methodRef(className, name, params + TEMPLATE_BASE_DESC)).op(ARETURN);
+        method(access | ACC_PUBLIC | ACC_BRIDGE | ACC_SYNTHETIC, name, params + TEMPLATE_DESC, null, c, loads.length + 1, loads.length + 1);
+    }
+
+    /*
+     * throw new exception(), or new exception(int) if the instruction loading the int is given
+     */
+    private void throwNew(Code c, String exception, int... load) throws IOException {
+        c.op(NEW).u2(classRef(exception)).op(DUP);
+        if (load.length > 0) c.op(load[0]);
+        c.op(INVOKESPECIAL).u2(methodRef(exception, "<init>", load.length > 0 ? "(I)V" : "()V")).op(ATHROW);
+    }
+
+    private void field(int access, String name, String desc, String signature) throws IOException {
+        fields.writeShort(access);
+        fields.writeShort(utf8(name));
+        fields.writeShort(utf8(desc));
+        if (null == signature) {
+            fields.writeShort(0);
+        } else {
+            fields.writeShort(1);
+            signature(fields, signature);
+        }
+        fieldCount++;
+    }
+
+    private void signature(DataOutputStream out, String signature) throws IOException {
+        out.writeShort(utf8("Signature"));
+        out.writeInt(2);
+        out.writeShort(utf8(signature));
+    }
+
+    private void method(int access, String name, String desc, String signature, Code code, int maxStack, int maxLocals) throws IOException {
+        methods.writeShort(access);
+        methods.writeShort(utf8(name));
+        methods.writeShort(utf8(desc));
+        methods.writeShort(null == signature ? 1 : 2);
+        if (null != signature) {
+            signature(methods, signature);
+        }
+        if (code.size() > 0xffff) {
+            throw new BuildMethodCompiler.Unsupported("code too large");
+        }
+        List<int[]> lines = code.lines;
+        methods.writeShort(utf8("Code"));
+        // max stack, max locals, code length, code, exception table and attributes
+        int lineTable = lines.isEmpty() ? 0 : 8 + 4 * lines.size();
+        methods.writeInt(12 + code.size() + 8 * code.handlers.size() + lineTable);
+        methods.writeShort(maxStack);
+        methods.writeShort(maxLocals);
+        methods.writeInt(code.size());
+        code.writeTo(methods);
+        methods.writeShort(code.handlers.size());
+        for (int[] handler : code.handlers) {
+            for (int i : handler) {
+                methods.writeShort(i);
+            }
+        }
+        if (lines.isEmpty()) {
+            methods.writeShort(0);
+        } else {
+            methods.writeShort(1);
+            methods.writeShort(utf8("LineNumberTable"));
+            methods.writeInt(2 + 4 * lines.size());
+            methods.writeShort(lines.size());
+            for (int[] line : lines) {
+                methods.writeShort(line[0]);
+                methods.writeShort(line[1]);
+            }
+        }
+        methodCount++;
+    }
+
+    private int constant(String key) {
+        Integer i = constIndexes.get(key);
+        return null == i ? -1 : i;
+    }
+
+    private int addConstant(String key) {
+        int i = constCount++;
+        constIndexes.put(key, i);
+        return i;
+    }
+
+    private int utf8(String s) throws IOException {
+        String key = "U" + s;
+        int i = constant(key);
+        if (i < 0) {
+            // throws UTFDataFormatException if the string is too long
+            byte[] ba = modifiedUtf8(s);
+            constPool.writeByte(1);
+            constPool.write(ba);
+            i = addConstant(key);
+        }
+        return i;
+    }
+
+    private static byte[] modifiedUtf8(String s) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(s.length() + 2);
+        new DataOutputStream(bytes).writeUTF(s);
+        return bytes.toByteArray();
+    }
+
+    int integer(int value) throws IOException {
+        String key = "I" + value;
+        int i = constant(key);
+        if (i < 0) {
+            constPool.writeByte(3);
+            constPool.writeInt(value);
+            i = addConstant(key);
+        }
+        return i;
+    }
+
+    int floatConst(float value) throws IOException {
+        String key = "F" + Float.floatToIntBits(value);
+        int i = constant(key);
+        if (i < 0) {
+            constPool.writeByte(4);
+            constPool.writeFloat(value);
+            i = addConstant(key);
+        }
+        return i;
+    }
+
+    int longConst(long value) throws IOException {
+        String key = "J" + value;
+        int i = constant(key);
+        if (i < 0) {
+            constPool.writeByte(5);
+            constPool.writeLong(value);
+            i = addConstant(key);
+            // a long takes two entries
+            constCount++;
+        }
+        return i;
+    }
+
+    int doubleConst(double value) throws IOException {
+        String key = "D" + Double.doubleToLongBits(value);
+        int i = constant(key);
+        if (i < 0) {
+            constPool.writeByte(6);
+            constPool.writeDouble(value);
+            i = addConstant(key);
+            // a double takes two entries
+            constCount++;
+        }
+        return i;
+    }
+
+    private int ref(int tag, String key, int index) throws IOException {
+        int i = constant(key);
+        if (i < 0) {
+            constPool.writeByte(tag);
+            constPool.writeShort(index);
+            i = addConstant(key);
+        }
+        return i;
+    }
+
+    private int ref(int tag, String key, int index1, int index2) throws IOException {
+        int i = constant(key);
+        if (i < 0) {
+            constPool.writeByte(tag);
+            constPool.writeShort(index1);
+            constPool.writeShort(index2);
+            i = addConstant(key);
+        }
+        return i;
+    }
+
+    int classRef(String name) throws IOException {
+        return ref(7, "C" + name, utf8(name));
+    }
+
+    int string(String s) throws IOException {
+        return ref(8, "S" + s, utf8(s));
+    }
+
+    private int nameAndType(String name, String desc) throws IOException {
+        return ref(12, "N" + name + ":" + desc, utf8(name), utf8(desc));
+    }
+
+    int fieldRef(String owner, String name, String desc) throws IOException {
+        return ref(9, "F" + owner + "." + name + ":" + desc, classRef(owner), nameAndType(name, desc));
+    }
+
+    int methodRef(String owner, String name, String desc) throws IOException {
+        return ref(10, "M" + owner + "." + name + desc, classRef(owner), nameAndType(name, desc));
+    }
+
+    int interfaceMethodRef(String owner, String name, String desc) throws IOException {
+        return ref(11, "T" + owner + "." + name + desc, classRef(owner), nameAndType(name, desc));
+    }
+
+    /**
+     * The byte code of a method. The stack depth is tracked by the callers with {@link #stack(int)}
+     * where the max stack is not known
+     */
+    final class Code extends ByteArrayOutputStream {
+
+        // the pc and source line pairs of the line number table
+        private final List<int[]> lines = new ArrayList<int[]>();
+        // the start pc, end pc, handler pc and catch type of the exception table
+        private final List<int[]> handlers = new ArrayList<int[]>();
+        private int depth;
+        private int maxDepth;
+
+        Code op(int opcode) {
+            write(opcode);
+            return this;
+        }
+
+        Code u1(int i) {
+            write(i);
+            return this;
+        }
+
+        Code u2(int i) {
+            write(i >>> 8);
+            write(i);
+            return this;
+        }
+
+        /**
+         * Write a branch instruction, the offset of which is set by {@link #land(int)}
+         *
+         * @return the position of the instruction
+         */
+        int jump(int opcode) {
+            int pos = count;
+            op(opcode).u2(0);
+            return pos;
+        }
+
+        /**
+         * Write a branch instruction jumping back to the position
+         */
+        Code jumpTo(int opcode, int target) {
+            int offset = target - count;
+            if (offset < Short.MIN_VALUE) throw new BuildMethodCompiler.Unsupported("jump too far");
+            return op(opcode).u2(offset);
+        }
+
+        /**
+         * Make the branch instruction at the position jump to the current position
+         */
+        void land(int pos) {
+            int offset = count - pos;
+            if (offset > Short.MAX_VALUE) throw new BuildMethodCompiler.Unsupported("jump too far");
+            buf[pos + 1] = (byte) (offset >>> 8);
+            buf[pos + 2] = (byte) offset;
+        }
+
+        /**
+         * Push the int constant
+         */
+        Code pushInt(int v) throws IOException {
+            stack(1);
+            if (v >= -1 && v <= 5) return op(ICONST_0 + v);
+            if (v == (byte) v) return op(BIPUSH).u1(v);
+            if (v == (short) v) return op(SIPUSH).u2(v);
+            return op(LDC_W).u2(integer(v));
+        }
+
+        /**
+         * Push the class literal, <code>int.class</code> is <code>Integer.TYPE</code>
+         */
+        Code classLiteral(Class<?> c) throws IOException {
+            stack(1);
+            if (c.isPrimitive()) {
+                String box = BuildMethodCompiler.internalName(BuildMethodCompiler.boxOf(c));
+                return op(GETSTATIC).u2(fieldRef(box, "TYPE", "Ljava/lang/Class;"));
+            }
+            return op(LDC_W).u2(classRef(BuildMethodCompiler.internalName(c)));
+        }
+
+        /**
+         * Box the primitive value on the stack
+         */
+        Code box(Class<?> prim) throws IOException {
+            Class<?> box = BuildMethodCompiler.boxOf(prim);
+            stack(1 - BuildMethodCompiler.size(prim));
+            String desc = "(" + BuildMethodCompiler.desc(prim) + ")" + BuildMethodCompiler.desc(box);
+            return op(INVOKESTATIC).u2(methodRef(BuildMethodCompiler.internalName(box), "valueOf", desc));
+        }
+
+        /**
+         * Unbox the value on the stack
+         */
+        Code unbox(Class<?> box) throws IOException {
+            Class<?> prim = BuildMethodCompiler.primitiveOf(box);
+            stack(BuildMethodCompiler.size(prim) - 1);
+            String desc = "()" + BuildMethodCompiler.desc(prim);
+            return op(INVOKEVIRTUAL).u2(methodRef(BuildMethodCompiler.internalName(box), prim.getName() + "Value", desc));
+        }
+
+        /**
+         * Mark the start of the code of the java source line
+         */
+        void line(int line) {
+            if (lines.isEmpty() || lines.get(lines.size() - 1)[1] != line) {
+                if (!lines.isEmpty() && lines.get(lines.size() - 1)[0] == count) {
+                    lines.remove(lines.size() - 1);
+                }
+                lines.add(new int[]{count, line});
+            }
+        }
+
+        /**
+         * Add an exception handler at the current position for the code in the range
+         */
+        void handler(int start, int end, int catchType) {
+            handlers.add(new int[]{start, end, count, catchType});
+        }
+
+        void stack(int delta) {
+            depth += delta;
+            if (depth > maxDepth) maxDepth = depth;
+        }
+
+        int stack() {
+            return depth;
+        }
+
+        int maxStack() {
+            return maxDepth;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/**
+ * Copyright (C) 2013-2016 The Rythm Engine project
+ * for LICENSE and other details see:
+ * https://github.com/rythmengine/rythmengine
+ */
+package org.rythmengine.internal;
+
+/*-
+ * #%L
+ * Rythm Template Engine
+ * %%
+ * Copyright (C) 2017 - 2021 OSGL (Open Source General Library)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.rythmengine.RythmEngine;
+import org.rythmengine.extension.ICodeType;
+import org.rythmengine.internal.compiler.TemplateClass;
+import org.rythmengine.internal.dialect.BasicRythm;
+import org.rythmengine.logger.ILogger;
+import org.rythmengine.logger.Logger;
+import org.rythmengine.resource.TemplateResourceBase;
+import org.rythmengine.utils.Escape;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Render inline templates of the {@link RythmEngine#substitute(String, Object...) substitute}
+ * mode with the {@link BasicInterpreter interpreter} until they have been rendered
+ * {@link org.rythmengine.conf.RythmConfigurationKey#ENGINE_TIERED_THRESHOLD threshold} times,
+ * when they are compiled in background. Once compiled, a template is removed from this manager
+ * and rendered by the compiled template class.
+ */
+public class TieredTemplateManager {
+
+    private static final ILogger logger = Logger.get(TieredTemplateManager.class);
+
+    private static class Entry {
+        final BasicInterpreter interpreter;
+        final AtomicInteger renders = new AtomicInteger();
+
+        Entry(BasicInterpreter interpreter) {
+            this.interpreter = interpreter;
+        }
+    }
+
+    private final RythmEngine engine;
+    private final int threshold;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private volatile ExecutorService executor = null;
+
+    public TieredTemplateManager(RythmEngine engine) {
+        if (null == engine) throw new NullPointerException();
+        this.engine = engine;
+        this.threshold = engine.conf().tieredThreshold();
+    }
+
+    /**
+     * Render the inline template with the interpreter if it has not been compiled
+     *
+     * @param template the inline template content
+     * @param args     the render args
+     * @return the render result, or <code>null</code> if the template shall be rendered by
+     * the compiled template class
+     */
+    public String render(String template, Object... args) {
+        Map<String, Object> params = params(args);
+        if (null == params) {
+            return null;
+        }
+        Entry entry = entries.get(template);
+        if (null == entry) {
+            if (null != engine.classes().getByTemplate(template, false) || engine.resourceManager().getResource(template).isValid()) {
+                return null;
+            }
+            BasicInterpreter interpreter = BasicInterpreter.parse(template, engine.conf().compactModeEnabled());
+            if (null == interpreter) {
+                return null;
+            }
+            Entry newEntry = new Entry(interpreter);
+            entry = entries.putIfAbsent(template, newEntry);
+            if (null == entry) {
+                entry = newEntry;
+            }
+        }
+        try {
+            if (!rawOutput(template)) {
+                throw new BasicInterpreter.UnsupportedException();
+            }
+            String result = entry.interpreter.render(params);
+            if (entry.renders.incrementAndGet() == threshold) {
+                compile(template, entry);
+            }
+            return result;
+        } catch (BasicInterpreter.UnsupportedException e) {
+            // the template is compiled by the caller, use it from now on
+            entries.remove(template, entry);
+            return null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> params(Object... args) {
+        if (null == args || 0 == args.length) {
+            return Collections.emptyMap();
+        }
+        if (1 == args.length && args[0] instanceof Map) {
+            return (Map<String, Object>) args[0];
+        }
+        // the compiled template maps positional args in the order they are declared
+        return null;
+    }
+
+    /*
+     * The interpreter does not escape expressions
+     */
+    private boolean rawOutput(String template) {
+        ICodeType type = engine.renderSettings.codeType();
+        if (null == type) {
+            type = TemplateResourceBase.getTypeOfPath(engine, template);
+        }
+        if (null == type || ICodeType.DefImpl.RAW == type) {
+            type = engine.conf().defaultCodeType();
+        }
+        return Escape.RAW == type.escape();
+    }
+
+    private void compile(final String template, final Entry entry) {
+        executor().execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean engineSet = RythmEngine.set(engine);
+                try {
+                    TemplateClass tc = engine.classes().getByTemplate(template, false);
+                    if (null == tc) {
+                        tc = new TemplateClass(template, engine, BasicRythm.INSTANCE);
+                    }
+                    tc.asTemplate(engine);
+                } catch (RuntimeException e) {
+                    logger.warn(e, "Error compiling template in background: %s", template);
+                } finally {
+                    // render with the compiled template from now on, which reports the error if any
+                    entries.remove(template, entry);
+                    if (engineSet) {
+                        RythmEngine.clear();
+                    }
+                }
+            }
+        });
+    }
+
+    private ExecutorService executor() {
+        if (null == executor) {
+            synchronized (this) {
+                if (null == executor) {
+                    executor = Executors.newSingleThreadExecutor(new RythmThreadFactory("rythm-tiered") {});
+                }
+            }
+        }
+        return executor;
+    }
+
+    public void shutdown() {
+        ExecutorService executor = this.executor;
+        if (null != executor) {
+            executor.shutdownNow();
+        }
+        entries.clear();
+    }
+}
@@ -50,6 +50,9 @@ public class Token extends TextBuilder {
     public static class StringToken extends Token {
         public String constId = null;
 
+        // the compact mode in effect at the position of the text, see #freezeCompactMode()
+        private Boolean compact = null;
+
         public StringToken(String s, IContext ctx) {
             super(s, ctx);
         }
@@ -85,6 +88,25 @@ public class Token extends TextBuilder {
             return line;
         }
 
+        @Override
+        public boolean inlinable() {
+            return true;
+        }
+
+        /**
+         * Capture the compact mode in effect now. The compact state of the context is pushed
+         * and popped when the tokens are walked through, so it must be captured before the
+         * text is printed out somewhere else, e.g. as a string const
+         */
+        public void freezeCompactMode() {
+            compact = super.compactMode();
+        }
+
+        @Override
+        protected boolean compactMode() {
+            return null == compact ? super.compactMode() : compact;
+        }
+
         public String s() {
             return s;
         }
@@ -96,12 +118,10 @@ public class Token extends TextBuilder {
 
         @Override
         protected void output() {
-            RythmEngine.OutputMode mode = RythmEngine.outputMode();
-            if (mode.writeOutput()) {
-                if (null == constId) return;
+            if (null != constId) {
                 p("p(").p(constId).p(");");
                 pline();
-            } else {
+            } else if (!RythmEngine.outputMode().writeOutput()) {
                 super.output();
             }
         }
@@ -137,6 +157,17 @@ public class Token extends TextBuilder {
         return false;
     }
 
+    /**
+     * Whether the code of this token might be moved into the class of the caller template,
+     * i.e. it does not depend on the template instance like sections, layouts, the tag body
+     * and tag calls do. See {@link CodeBuilder#inlineTag}
+     *
+     * @return <code>true</code> if the token can be inlined
+     */
+    public boolean inlinable() {
+        return false;
+    }
+
     protected boolean compactMode() {
         if (disableCompactMode) return false;
         return (null == ctx ? true : ctx.compactMode());
@@ -477,7 +508,7 @@ public class Token extends TextBuilder {
     private static final Pattern P_C2 = Pattern.compile("[ \\t\\x0B\\f]+", Pattern.DOTALL);
     private static final Pattern P_C3 = Pattern.compile("[ \\t\\x0B\\f]+\\n", Pattern.DOTALL);
     private static final Pattern P_C4 = Pattern.compile("\\n[ \\t\\x0B\\f]+", Pattern.DOTALL);
-    private static String compact_(String s) {
+    static String compact_(String s) {
         if (s.matches("(\\n\\r|\\r\\n|[\\r\\n])+")) {
             return "\n";
         }
@@ -0,0 +1,185 @@
+/**
+ * Copyright (C) 2013-2016 The Rythm Engine project
+ * for LICENSE and other details see:
+ * https://github.com/rythmengine/rythmengine
+ */
+package org.rythmengine.internal.compiler;
+
+/*-
+ * #%L
+ * Rythm Template Engine
+ * %%
+ * Copyright (C) 2017 - 2021 OSGL (Open Source General Library)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.rythmengine.RythmEngine;
+import org.rythmengine.exception.ConfigurationException;
+import org.rythmengine.logger.ILogger;
+import org.rythmengine.logger.Logger;
+
+import java.io.*;
+import java.net.URI;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * An archive of precompiled template classes. The archive is a zip file with an entry
+ * for each template class, which holds the same content as the bytecode cache file of
+ * the class written by {@link TemplateClassCache}, plus a properties entry recording
+ * the version of the engine built the archive.
+ */
+public class TemplateArchive {
+    private static final ILogger logger = Logger.get(TemplateArchive.class);
+
+    static final String PROPERTIES = "META-INF/rythm/archive.properties";
+    static final String CLASS_PREFIX = "classes/";
+
+    private final Map<String, byte[]> entries;
+
+    private TemplateArchive(Map<String, byte[]> entries) {
+        this.entries = entries;
+    }
+
+    /**
+     * Return the content of the cache file of a template class
+     *
+     * @param fileName the name of the cache file
+     * @return the content or null if the class is not in the archive
+     */
+    byte[] get(String fileName) {
+        return entries.get(fileName);
+    }
+
+    /**
+     * Write all template classes loaded by the engine into an archive
+     *
+     * @param engine the engine
+     * @param os the output stream to write the archive into
+     * @return the number of template classes written
+     * @throws IOException
+     */
+    public static int write(RythmEngine engine, OutputStream os) throws IOException {
+        TemplateClassCache cache = engine.classCache();
+        List<TemplateClass> classes = new ArrayList<TemplateClass>();
+        for (TemplateClass tc : engine.classes().all()) {
+            if (null != tc.enhancedByteCode) {
+                classes.add(tc);
+            }
+        }
+        ZipOutputStream zos = new ZipOutputStream(new BufferedOutputStream(os));
+        Properties props = new Properties();
+        props.setProperty("version", engine.version());
+        props.setProperty("classes", String.valueOf(classes.size()));
+        zos.putNextEntry(new ZipEntry(PROPERTIES));
+        props.store(zos, "Rythm precompiled templates");
+        zos.closeEntry();
+        for (TemplateClass tc : classes) {
+            zos.putNextEntry(new ZipEntry(CLASS_PREFIX + cache.cacheFileName(tc, ".rythm")));
+            zos.write(cache.serialize(tc));
+            zos.closeEntry();
+        }
+        zos.finish();
+        zos.flush();
+        return classes.size();
+    }
+
+    /**
+     * Read the archive at the given location. See
+     * {@link org.rythmengine.conf.RythmConfigurationKey#HOME_PRECOMPILED_ARCHIVE}
+     *
+     * @param engine the engine
+     * @param location the location of the archive
+     * @return the archive or null if the location is null or the archive is built by another version
+     */
+    static TemplateArchive read(RythmEngine engine, Object location) {
+        if (null == location) {
+            return null;
+        }
+        long start = System.currentTimeMillis();
+        InputStream is = null;
+        try {
+            is = open(location);
+            ZipInputStream zis = new ZipInputStream(new BufferedInputStream(is));
+            Properties props = new Properties();
+            Map<String, byte[]> entries = new HashMap<String, byte[]>();
+            ZipEntry entry;
+            while (null != (entry = zis.getNextEntry())) {
+                String name = entry.getName();
+                if (PROPERTIES.equals(name)) {
+                    props.load(zis);
+                } else if (name.startsWith(CLASS_PREFIX)) {
+                    entries.put(name.substring(CLASS_PREFIX.length()), readAll(zis));
+                }
+            }
+            String version = props.getProperty("version");
+            if (!engine.version().equals(version)) {
+                logger.warn("Ignore precompiled archive %s built by rythm-%s", location, version);
+                return null;
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("%sms to read %s precompiled template classes", System.currentTimeMillis() - start, entries.size());
+            }
+            return new TemplateArchive(entries);
+        } catch (IOException e) {
+            throw new ConfigurationException(e, "Error reading precompiled archive: %s", location);
+        } finally {
+            if (null != is) {
+                try {
+                    is.close();
+                } catch (IOException e) {
+                    logger.error(e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    private static InputStream open(Object location) throws IOException {
+        if (location instanceof File) {
+            return new FileInputStream((File) location);
+        } else if (location instanceof URL) {
+            return ((URL) location).openStream();
+        } else if (location instanceof URI) {
+            return ((URI) location).toURL().openStream();
+        }
+        String s = location.toString();
+        File file = new File(s);
+        if (file.isFile()) {
+            return new FileInputStream(file);
+        }
+        InputStream is = Thread.currentThread().getContextClassLoader().getResourceAsStream(s);
+        if (null == is) {
+            throw new ConfigurationException("Precompiled archive not found: %s", s);
+        }
+        return is;
+    }
+
+    private static byte[] readAll(InputStream is) throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int read;
+        while ((read = is.read(buf)) > 0) {
+            os.write(buf, 0, read);
+        }
+        return os.toByteArray();
+    }
+}
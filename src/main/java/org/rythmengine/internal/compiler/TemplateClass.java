@@ -35,8 +35,6 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.rythmengine.Rythm;
 import org.rythmengine.RythmEngine;
@@ -88,6 +86,11 @@ public class TemplateClass {
      */
     private String name;
     public TemplateClass extendedTemplateClass;
+    /*
+     * The class name and resource key of the extended template, read from the class cache
+     */
+    String extendedClassName;
+    String extendedResourceKey;
     private Set<TemplateClass> includedTemplateClasses = new CopyOnWriteArraySet<TemplateClass>();
     private String includeTemplateClassNames = null;
     private Map<String, String> includeTagTypes = new ConcurrentHashMap<String, String>();
@@ -147,6 +150,36 @@ public class TemplateClass {
      */
     private TemplateBase templateInstance;
 
+    /**
+     * The moving high-water mark of the render output size
+     */
+    private volatile int renderSizeHint;
+
+    /**
+     * Return the expected render output size of this template, which is used
+     * as the initial capacity of the render buffer
+     *
+     * @return the render size hint
+     */
+    public int renderSizeHint() {
+        return renderSizeHint;
+    }
+
+    /**
+     * Record the size of a render output. The hint jumps to a larger size
+     * immediately and decays slowly towards smaller sizes
+     *
+     * @param size the render output size
+     */
+    public void recordRenderSize(int size) {
+        int hint = renderSizeHint;
+        if (size > hint) {
+            renderSizeHint = size;
+        } else if (size < hint) {
+            renderSizeHint = hint - ((hint - size) >> 3);
+        }
+    }
+
     /**
      * Store the resource loader class name
      */
@@ -467,13 +500,13 @@ public class TemplateClass {
         return refresh(false);
     }
 
-    public void buildSourceCode(String includingClassName) {
+    public void buildSourceCode(CodeBuilder includingBuilder) {
         long start = System.currentTimeMillis();
         importPaths = new CopyOnWriteArraySet<String>();
         // Possible bug here?
         if (null != codeBuilder) codeBuilder.clear();
         codeBuilder = new CodeBuilder(templateResource.asTemplateContent(), name(), tagName, this, engine, dialect);
-        codeBuilder.includingCName = includingClassName;
+        codeBuilder.includedBy(includingBuilder);
         codeBuilder.build();
         extendedTemplateClass = codeBuilder.getExtendedTemplateClass();
         javaSource = codeBuilder.toString();
@@ -482,6 +515,20 @@ public class TemplateClass {
         }
     }
 
+    /**
+     * Build the source code of this template into a new code builder, which is not kept by this
+     * class, so that a caller inlining the template doesn't interfere with other builds of it
+     *
+     * @param includingBuilder the builder of the class the template is inlined into
+     * @return the new code builder
+     */
+    public CodeBuilder buildInlineSourceCode(CodeBuilder includingBuilder) {
+        CodeBuilder cb = new CodeBuilder(templateResource.asTemplateContent(), name(), tagName, this, engine, dialect);
+        cb.includedBy(includingBuilder);
+        cb.build();
+        return cb;
+    }
+
     public void buildSourceCode() {
         long start = System.currentTimeMillis();
         importPaths = new CopyOnWriteArraySet<String>();
@@ -561,14 +608,10 @@ public class TemplateClass {
             engine.classCache().loadTemplateClass(this);
             if (null != javaSource) {
                 // try refresh extended template class if there is
-                Pattern p = Pattern.compile(".*extends\\s+([a-zA-Z0-9_]+)\\s*\\{\\s*\\/\\/<extended_resource_key\\>(.*)\\<\\/extended_resource_key\\>.*", Pattern.DOTALL);
-                Matcher m = p.matcher(javaSource);
-                if (m.matches()) {
-                    String extended = m.group(1);
+                if (null != extendedClassName) {
                     TemplateClassManager tcm = engine().classes();
-                    extendedTemplateClass = tcm.getByClassName(extended);
+                    extendedTemplateClass = tcm.getByClassName(extendedClassName);
                     if (null == extendedTemplateClass) {
-                        String extendedResourceKey = m.group(2);
                         extendedTemplateClass = tcm.getByTemplate(extendedResourceKey);
                         if (null == extendedTemplateClass) {
                             extendedTemplateClass = new TemplateClass(extendedResourceKey, engine());
@@ -690,7 +733,10 @@ public class TemplateClass {
             if (null == javaSource) {
                 throw new IllegalStateException("Cannot find java source when compiling " + getKey());
             }
-            engine().classes().compiler.compile(new String[]{name});
+            if (emitByteCode()) {
+                return javaByteCode;
+            }
+            engine().classes().compiler().compile(new String[]{name});
             if (logger.isTraceEnabled()) {
                 logger.trace("%sms to compile template: %s", System.currentTimeMillis() - start, getKey());
             }
@@ -726,6 +772,21 @@ public class TemplateClass {
         }
     }
 
+    /**
+     * Generate the byte code from the build code directly if the template is supported
+     * by {@link CodeBuilder#directByteCode()}, which saves the java compiler from compiling the source
+     *
+     * @return true if the byte code has been generated
+     */
+    boolean emitByteCode() {
+        byte[] code = null == codeBuilder ? null : codeBuilder.directByteCode();
+        if (null == code) {
+            return false;
+        }
+        compiled(code);
+        return true;
+    }
+
     /**
      * Used to instruct embedded class byte code needs to be enhanced, but for now
      * let's just use the java byte code as the enhanced bytecode
@@ -31,11 +31,11 @@ import org.rythmengine.conf.RythmConfiguration;
 import org.rythmengine.conf.RythmConfigurationKey;
 import org.rythmengine.logger.ILogger;
 import org.rythmengine.logger.Logger;
-import org.rythmengine.utils.TextBuilder;
+import org.rythmengine.resource.ITemplateResource;
+import org.rythmengine.resource.TemplateResourceBase;
 
 import java.io.*;
 import java.net.URI;
-import java.security.MessageDigest;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
 
@@ -45,6 +45,25 @@ import java.util.concurrent.CopyOnWriteArraySet;
 public class TemplateClassCache {
     private static final ILogger logger = Logger.get(TemplateClassCache.class);
 
+    /**
+     * The first four bytes of a cache file: "RYTC"
+     */
+    static final int MAGIC = 0x52595443;
+
+    /**
+     * The version of the cache file layout, bump it when the layout changes
+     */
+    static final int FORMAT_VERSION = 2;
+
+    /*
+     * A source modified within this interval before it is cached could be modified again
+     * without changing its last modified time, thus its last modified time is not recorded
+     */
+    private static final long RACY_INTERVAL = 2000;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
     private final RythmEngine engine;
     private final RythmConfiguration conf;
     private final Rythm.Mode mode;
@@ -87,85 +106,117 @@ public class TemplateClassCache {
      * @param tc
      */
     public void loadTemplateClass(TemplateClass tc) {
+        TemplateArchive archive = archive();
+        if (null != archive) {
+            byte[] data = archive.get(cacheFileName(tc, ".rythm"));
+            if (null != data) {
+                load(tc, data, false);
+                return;
+            }
+        }
         if (!readEnabled()) {
             return;
         }
-        InputStream is = null;
+        RandomAccessFile raf = null;
         try {
             File f = getCacheFile(tc);
             if (!f.exists() || !f.canRead()) return;
-            is = new BufferedInputStream(new FileInputStream(f));
-
-            // --- check hash
-            int offset = 0;
-            int read;
-            StringBuilder hash = new StringBuilder();
-            while ((read = is.read()) != 0) {
-                if (read == -1) {
-                    logger.error("Failed to read cache file for template class: %s", tc);
-                    return;
+            raf = new RandomAccessFile(f, "r");
+            byte[] data = new byte[(int) raf.length()];
+            raf.readFully(data);
+            //check hash only in non precompiled mode
+            load(tc, data, !conf.loadPrecompiled());
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }finally {
+            if(raf != null)
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    logger.error(e.getMessage(), e);
                 }
-                hash.append((char) read);
-                offset++;
-            }
+        }
+    }
 
-            //check hash only in non precompiled mode
-            if (!conf.loadPrecompiled()) {
-                String curHash = hash(tc);
-                if (!curHash.equals(hash.toString())) {
-                    if (logger.isTraceEnabled()) {
-                        logger.trace("Bytecode too old (%s != %s)", hash, curHash);
-                    }
-                    return;
+    /*
+     * Load the java source and bytecode from the content of a cache file. A cache file
+     * starts with the {@link #MAGIC} number and the {@link #FORMAT_VERSION}, the last
+     * modified time, the length and the hash of the template source, followed by
+     * length prefixed sections: the java source, the extended template,
+     * the include tag types, the included template class names, the import paths and
+     * the bytecode. The metadata sections are absent when the java source is absent,
+     * which is the case of an inner class
+     */
+    private void load(TemplateClass tc, byte[] data, boolean checkHash) {
+        try {
+            DataInputStream is = new DataInputStream(new ByteArrayInputStream(data));
+            if (data.length < 8 || MAGIC != is.readInt() || FORMAT_VERSION != is.readInt()) {
+                // written in another format, it will be replaced once the template is compiled
+                if (logger.isTraceEnabled()) {
+                    logger.trace("Unknown cache format for template class: %s", tc);
                 }
+                return;
             }
 
-            // --- load java source
-            read = -1;
-            StringBuilder source = new StringBuilder();
-            while ((read = is.read()) != 0) {
-                source.append((char) read);
-                offset++;
+            // --- check template source
+            long lastModified = is.readLong();
+            int sourceLength = is.readInt();
+            long hash = is.readLong();
+            if (checkHash && !upToDate(tc, lastModified, sourceLength, hash)) {
+                if (logger.isTraceEnabled()) {
+                    logger.trace("Bytecode too old: %s", tc);
+                }
+                return;
             }
-            if (source.length() != 0) {
-                String s = source.toString();
-                String[] sa = s.split("__INCLUDED_TAG_TYPES__");
-                tc.javaSource = sa[0];
-                s = sa[1];
-                sa = s.split("__INCULDED_TEMPLATE_CLASS_NAME_LIST__");
-                tc.deserializeIncludeTagTypes(sa[0]);
-                s = sa[1];
-                sa = s.split("__IMPORT_PATH_LIST__");
-                tc.setIncludeTemplateClassNames(sa[0]);
-                if (sa.length > 1) {
-                    s = sa[1];
-                    sa = s.split(";");
-                    Set<String> importPaths = new CopyOnWriteArraySet<String>();
-                    for (String path : sa) {
-                        if ("java.lang".equals(path)) continue;
-                        importPaths.add(path);
-                    }
-                    tc.replaceImportPath(importPaths);
+
+            // --- load java source and metadata
+            String javaSource = readString(is);
+            String extendedClassName = null, extendedResourceKey = null;
+            String includeTagTypes = null, includeTemplateClassNames = null;
+            Set<String> importPaths = null;
+            if (null != javaSource) {
+                extendedClassName = readString(is);
+                extendedResourceKey = readString(is);
+                includeTagTypes = readString(is);
+                includeTemplateClassNames = readString(is);
+                int n = is.readInt();
+                importPaths = new CopyOnWriteArraySet<String>();
+                for (int i = 0; i < n; ++i) {
+                    importPaths.add(readString(is));
                 }
             } // else it must be an inner class
 
             // --- load byte code
-            byte[] byteCode = new byte[(int) f.length() - (offset + 2)];
-            is.read(byteCode);
-            tc.loadCachedByteCode(byteCode);
+            byte[] byteCode = readBytes(is);
 
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }finally {
-            if(is != null)
-                try {
-                    is.close();
-                } catch (IOException e) {
-                    logger.error(e.getMessage(), e);
-                }
+            // the template class is updated only when the whole content has been read
+            if (null != javaSource) {
+                tc.javaSource = javaSource;
+                tc.extendedClassName = extendedClassName;
+                tc.extendedResourceKey = extendedResourceKey;
+                tc.deserializeIncludeTagTypes(includeTagTypes);
+                tc.setIncludeTemplateClassNames(includeTemplateClassNames);
+                tc.replaceImportPath(importPaths);
+            }
+            tc.loadCachedByteCode(byteCode);
+        } catch (IOException e) {
+            logger.error("Failed to read cache file for template class: %s", tc);
         }
     }
 
+    private static String readString(DataInputStream is) throws IOException {
+        byte[] ba = readBytes(is);
+        return null == ba ? null : new String(ba, "utf-8");
+    }
+
+    private static byte[] readBytes(DataInputStream is) throws IOException {
+        int len = is.readInt();
+        if (len < 0) return null;
+        byte[] ba = new byte[len];
+        is.readFully(ba);
+        return ba;
+    }
+
     public void cacheTemplateClassSource(TemplateClass tc) {
         if (!writeEnabled()) {
             return;
@@ -184,73 +235,131 @@ public class TemplateClassCache {
         if (!writeEnabled()) {
             return;
         }
-        String hash = hash(tc);
         try {
+            byte[] data = serialize(tc);
             File f = getCacheFile(tc);
-            // --- write hash value
             OutputStream os = new BufferedOutputStream(new FileOutputStream(f));
-            os.write(hash.getBytes("utf-8"));
-
-            // --- cache java source
-            os.write(0);
-            if (null != tc.javaSource) {
-                TextBuilder tb = new TextBuilder();
-                tb.p(tc.javaSource);
-                tb.p("__INCLUDED_TAG_TYPES__").p(tc.serializeIncludeTagTypes());
-                tb.p("__INCULDED_TEMPLATE_CLASS_NAME_LIST__").p(tc.refreshIncludeTemplateClassNames())
-                        .p("__IMPORT_PATH_LIST__");
-                if (tc.importPaths == null) {
-                    tc.importPaths = new CopyOnWriteArraySet<String>();
-                }
-                if (tc.importPaths.isEmpty()) {
-                    tc.importPaths.add("java.lang");
+            os.write(data);
+            os.close();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /*
+     * Return the content of the cache file of the template class, see
+     * {@link #load(TemplateClass, byte[], boolean)} for the layout
+     */
+    byte[] serialize(TemplateClass tc) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream os = new DataOutputStream(bos);
+        os.writeInt(MAGIC);
+        os.writeInt(FORMAT_VERSION);
+        String source = tc.getTemplateSource(true);
+        long lastModified = lastModified(tc);
+        if (lastModified > System.currentTimeMillis() - RACY_INTERVAL) {
+            lastModified = 0;
+        }
+        os.writeLong(lastModified);
+        os.writeInt(source.length());
+        os.writeLong(hash(source));
+
+        // --- cache java source and metadata
+        writeString(os, tc.javaSource);
+        if (null != tc.javaSource) {
+            TemplateClass extended = tc.extendedTemplateClass;
+            writeString(os, null == extended ? null : extended.name());
+            writeString(os, null == extended ? null : extended.getKey());
+            writeString(os, tc.serializeIncludeTagTypes());
+            writeString(os, tc.refreshIncludeTemplateClassNames());
+            Set<String> importPaths = tc.importPaths;
+            if (null == importPaths) {
+                os.writeInt(0);
+            } else {
+                os.writeInt(importPaths.size());
+                for (String s : importPaths) {
+                    writeString(os, s);
                 }
-                boolean first = true;
-                for (String s : tc.importPaths) {
-                    if (!first) {
-                        tb.p(";");
-                    } else {
-                        first = false;
+            }
+        } // else the tc is an inner class thus we don't have javaSource at all
+
+        // --- cache byte code
+        writeBytes(os, tc.enhancedByteCode);
+        os.flush();
+        return bos.toByteArray();
+    }
+
+    private static void writeString(DataOutputStream os, String s) throws IOException {
+        writeBytes(os, null == s ? null : s.getBytes("utf-8"));
+    }
+
+    private static void writeBytes(DataOutputStream os, byte[] ba) throws IOException {
+        if (null == ba) {
+            os.writeInt(-1);
+        } else {
+            os.writeInt(ba.length);
+            os.write(ba);
+        }
+    }
+
+    private volatile TemplateArchive archive = null;
+    private volatile boolean archiveLoaded = false;
+
+    /*
+     * Return the configured archive of precompiled templates, which is read at prod mode only
+     */
+    private TemplateArchive archive() {
+        if (!archiveLoaded) {
+            synchronized (this) {
+                if (!archiveLoaded) {
+                    if (mode.isProd()) {
+                        archive = TemplateArchive.read(engine, conf.get(RythmConfigurationKey.HOME_PRECOMPILED_ARCHIVE));
                     }
-                    tb.p(s);
+                    archiveLoaded = true;
                 }
-                os.write(tb.toString().getBytes("utf-8"));
-            } // else the tc is an inner class thus we don't have javaSource at all
-
-            // --- cache byte code
-            os.write(0);
-            //if (null != tc.enhancedByteCode) {
-            os.write(tc.enhancedByteCode);
+            }
+        }
+        return RythmEngine.insideSandbox() ? null : archive;
+    }
 
-            os.close();
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+    /*
+     * Check if the template source has not changed since it was cached. The source is hashed
+     * only when its last modified time is unknown or has changed. The source is loaded in any
+     * case, as the resource records its last modified time when it loads the content
+     */
+    boolean upToDate(TemplateClass tc, long lastModified, int sourceLength, long hash) {
+        String source = tc.getTemplateSource(true);
+        if (source.length() != sourceLength) {
+            return false;
+        }
+        if (0 != lastModified && lastModified == lastModified(tc)) {
+            return true;
         }
+        return hash == hash(source);
+    }
+
+    /*
+     * Return the last modified time of the template source when it was read, or 0 if it is unknown
+     */
+    private static long lastModified(TemplateClass tc) {
+        ITemplateResource resource = tc.templateResource;
+        return resource instanceof TemplateResourceBase ? ((TemplateResourceBase) resource).timestamp() : 0;
     }
 
     /**
-     * Build a hash of the source code.
+     * Build a 64-bit FNV-1a hash of the engine version and the template source.
      * To efficiently track source code modifications.
      */
-    String hash(TemplateClass tc) {
-        try {
-            //Object enhancer = engine.conf().byteCodeEnhancer();
-            MessageDigest messageDigest = MessageDigest.getInstance("MD5");
-            messageDigest.reset();
-            messageDigest.update((engine.version() + tc.getTemplateSource(true)).getBytes("utf-8"));
-            byte[] digest = messageDigest.digest();
-            StringBuilder builder = new StringBuilder();
-            for (int i = 0; i < digest.length; ++i) {
-                int value = digest[i];
-                if (value < 0) {
-                    value += 256;
-                }
-                builder.append(Integer.toHexString(value));
-            }
-            return builder.toString();
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+    long hash(String source) {
+        return hash(hash(FNV_OFFSET, engine.version()), source);
+    }
+
+    private static long hash(long h, String s) {
+        for (int i = 0, len = s.length(); i < len; ++i) {
+            h ^= s.charAt(i);
+            h *= FNV_PRIME;
         }
+        return h;
     }
 
     String cacheFileName(TemplateClass tc, String suffix) {
@@ -390,19 +390,13 @@ public class TemplateClassLoader extends ClassLoader {
         }
     }
 
-    private Set<String> notFoundTypes = null;
+    private final Set<String> notFoundTypes = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
     private boolean typeNotFound(String name) {
-        if (null == notFoundTypes) {
-            notFoundTypes = engine.classes().compiler.notFoundTypes;
-        }
         return notFoundTypes.contains(name);
     }
 
     private void setTypeNotFound(String name) {
-        if (null == notFoundTypes) {
-            notFoundTypes = engine.classes().compiler.notFoundTypes;
-        }
         if (engine.isProdMode()) {
             notFoundTypes.add(name);
         } else if (name.matches("^(java\\.|play\\.|com\\.greenlaw110\\.).*")) {
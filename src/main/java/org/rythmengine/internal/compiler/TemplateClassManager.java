@@ -32,7 +32,7 @@ import org.rythmengine.resource.ClasspathTemplateResource;
 import org.rythmengine.resource.ITemplateResource;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -55,7 +55,7 @@ public class TemplateClassManager {
     /**
      * Reference to the eclipse compiler.
      */
-    TemplateCompiler compiler = null;
+    private volatile TemplateCompiler compiler = null;
     /**
      * Index template class with class name
      */
@@ -63,12 +63,28 @@ public class TemplateClassManager {
     /**
      * Index template class with inline template content or template file name
      */
-    public Map<Object, TemplateClass> tmplIdx = new HashMap<Object, TemplateClass>();
+    public Map<Object, TemplateClass> tmplIdx = new ConcurrentHashMap<Object, TemplateClass>();
 
     public TemplateClassManager(RythmEngine engine) {
         if (null == engine) throw new NullPointerException();
         this.engine = engine;
-        this.compiler = new TemplateCompiler(this);
+    }
+
+    /**
+     * Return the eclipse compiler. It is created on demand, so the compiler is not
+     * needed when all templates are loaded from the precompiled bytecode
+     *
+     * @return the compiler
+     */
+    TemplateCompiler compiler() {
+        if (null == compiler) {
+            synchronized (this) {
+                if (null == compiler) {
+                    compiler = new TemplateCompiler(this);
+                }
+            }
+        }
+        return compiler;
     }
 
     /**
@@ -76,7 +92,7 @@ public class TemplateClassManager {
      */
     public void clear() {
         clsNameIdx = new ConcurrentHashMap<String, TemplateClass>();
-        tmplIdx = new HashMap<Object, TemplateClass>();
+        tmplIdx = new ConcurrentHashMap<Object, TemplateClass>();
     }
 
     /**
@@ -132,6 +148,36 @@ public class TemplateClassManager {
         }
     }
 
+    /**
+     * Compile the given template classes in one batch. The classes failed in the batch
+     * are left to be compiled one by one when they are loaded
+     *
+     * @param classes the template classes with java source generated
+     */
+    public void compile(Collection<TemplateClass> classes) {
+        List<String> names = new ArrayList<String>();
+        for (TemplateClass tc : classes) {
+            if (null != tc.javaSource && null == tc.javaByteCode && tc == clsNameIdx.get(tc.name()) && !tc.emitByteCode()) {
+                names.add(tc.name());
+            }
+        }
+        if (names.isEmpty()) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        // the compiler is shared with the class loader
+        synchronized (engine.classLoader()) {
+            try {
+                compiler().compile(names.toArray(new String[names.size()]));
+            } catch (RuntimeException e) {
+                logger.warn(e, "failed to compile %s templates in batch", names.size());
+            }
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("%sms to compile %s templates in batch", System.currentTimeMillis() - start, names.size());
+        }
+    }
+
     List<TemplateClass> getEmbeddedClasses(String name) {
         List<TemplateClass> l = new ArrayList<TemplateClass>();
         for (Map.Entry<String, TemplateClass> entry : clsNameIdx.entrySet()) {
@@ -156,7 +202,7 @@ public class TemplateClassManager {
             tmplIdx.put(key, templateClass);
             if (rsrc instanceof ClasspathTemplateResource) {
                 String key2 = ((ClasspathTemplateResource) rsrc).getKey2();
-                if (key != key2) {
+                if (null != key2 && key != key2) {
                     tmplIdx.put(key2, templateClass);
                 }
             }
@@ -42,6 +42,9 @@ import org.eclipse.jdt.internal.compiler.impl.CompilerOptions;
 import org.eclipse.jdt.internal.compiler.problem.DefaultProblemFactory;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
 
 /**
  * Created by IntelliJ IDEA.
@@ -58,7 +61,49 @@ public class TemplateCompiler {
         return classCache.engine;
     }
 
-    Map<String, Boolean> packagesCache = new HashMap<String, Boolean>();
+    /*
+     * The maximum number of entries kept in each map of the type cache
+     */
+    private static final int TYPE_CACHE_SIZE = 8192;
+
+    /*
+     * Types which cannot change while the class loader lives, even in dev mode
+     */
+    private static final Pattern STABLE_TYPES = Pattern.compile("^(java\\.|javax\\.|play\\.|com\\.greenlaw110\\.).*");
+
+    /*
+     * The results of the type and package lookups of the compiler. It is shared by
+     * all compilations and dropped when the class loader is restarted
+     */
+    private static final class TypeCache {
+        final TemplateClassLoader classLoader;
+        final ConcurrentMap<String, ClassFileReader> types = new ConcurrentHashMap<String, ClassFileReader>();
+        final ConcurrentMap<String, Boolean> notFoundTypes = new ConcurrentHashMap<String, Boolean>();
+        final ConcurrentMap<String, Boolean> packages = new ConcurrentHashMap<String, Boolean>();
+
+        TypeCache(TemplateClassLoader classLoader) {
+            this.classLoader = classLoader;
+        }
+
+        static <V> void put(ConcurrentMap<String, V> map, String key, V value) {
+            if (map.size() >= TYPE_CACHE_SIZE) {
+                map.clear();
+            }
+            map.put(key, value);
+        }
+    }
+
+    private volatile TypeCache typeCache = null;
+
+    private TypeCache typeCache() {
+        TemplateClassLoader classLoader = engine().classLoader();
+        TypeCache cache = typeCache;
+        if (null == cache || cache.classLoader != classLoader) {
+            cache = new TypeCache(classLoader);
+            typeCache = cache;
+        }
+        return cache;
+    }
 
     // -- util methods
     private String getTemplateByClassName(String className) {
@@ -158,8 +203,6 @@ public class TemplateCompiler {
         }
     }
 
-    final Set<String> notFoundTypes = new HashSet<String>();
-
     /**
      * Please compile this className
      */
@@ -172,6 +215,8 @@ public class TemplateCompiler {
         }
         IErrorHandlingPolicy policy = DefaultErrorHandlingPolicies.exitOnFirstError();
         IProblemFactory problemFactory = new DefaultProblemFactory(Locale.ENGLISH);
+        final TypeCache cache = typeCache();
+        final boolean prod = engine().isProdMode();
 
         /**
          * To find types ...
@@ -200,19 +245,25 @@ public class TemplateCompiler {
             }
 
             private NameEnvironmentAnswer findStandType(final String name) throws ClassFormatException {
-                if (notFoundTypes.contains(name)) {
+                ClassFileReader classFileReader = cache.types.get(name);
+                if (null != classFileReader) {
+                    return new NameEnvironmentAnswer(classFileReader, null);
+                }
+                if (cache.notFoundTypes.containsKey(name)) {
                     return null;
                 }
-                RythmEngine engine = engine();
-                byte[] bytes = engine.classLoader().getClassDefinition(name);
+                // application classes could be changed without restarting the class loader in dev mode
+                boolean cacheable = prod || STABLE_TYPES.matcher(name).matches();
+                byte[] bytes = cache.classLoader.getClassDefinition(name);
                 if (bytes != null) {
-                    ClassFileReader classFileReader = new ClassFileReader(bytes, name.toCharArray(), true);
+                    classFileReader = new ClassFileReader(bytes, name.toCharArray(), true);
+                    if (cacheable) {
+                        TypeCache.put(cache.types, name, classFileReader);
+                    }
                     return new NameEnvironmentAnswer(classFileReader, null);
                 }
-                if (engine.isProdMode()) {
-                    notFoundTypes.add(name);
-                } else if (name.matches("^(java\\.|play\\.|com\\.greenlaw110\\.).*")) {
-                    notFoundTypes.add(name);
+                if (cacheable) {
+                    TypeCache.put(cache.notFoundTypes, name, Boolean.TRUE);
                 }
                 return null;
             }
@@ -257,19 +308,20 @@ public class TemplateCompiler {
                 }
                 sb.append(new String(packageName));
                 String name = sb.toString();
-                if (packagesCache.containsKey(name)) {
-                    return packagesCache.get(name).booleanValue();
+                Boolean isPackage = cache.packages.get(name);
+                if (null != isPackage) {
+                    return isPackage.booleanValue();
                 }
                 // Check if thera a .java or .class for this resource
-                if (engine().classLoader().getClassDefinition(name) != null) {
-                    packagesCache.put(name, false);
+                if (cache.classLoader.getClassDefinition(name) != null) {
+                    TypeCache.put(cache.packages, name, Boolean.FALSE);
                     return false;
                 }
                 if (engine().classes().getByClassName(name) != null) {
-                    packagesCache.put(name, false);
+                    TypeCache.put(cache.packages, name, Boolean.FALSE);
                     return false;
                 }
-                packagesCache.put(name, true);
+                TypeCache.put(cache.packages, name, Boolean.TRUE);
                 return true;
             }
 
@@ -76,7 +76,8 @@ public class SimpleRythm extends DialectBase {
                 "@get",
                 "@init",
                 "@finally",
-                "@nosim"
+                "@nosim",
+                "@parallel"
         };
         for (String s : forbidden) {
             if (template.contains(s)) return false;
@@ -44,4 +44,9 @@ public class BlockCodeToken extends CodeToken implements IBlockHandler {
         return "}";
     }
 
+    @Override
+    public boolean inlinable() {
+        return getClass() == BlockCodeToken.class;
+    }
+
 }
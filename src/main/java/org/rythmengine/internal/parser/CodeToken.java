@@ -45,4 +45,10 @@ public class CodeToken extends Token {
         p(s);
         pline();
     }
+
+    @Override
+    public boolean inlinable() {
+        // the sub classes might output code depending on the template instance
+        return getClass() == CodeToken.class;
+    }
 }
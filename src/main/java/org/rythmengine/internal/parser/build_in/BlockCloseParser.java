@@ -75,7 +75,7 @@ public class BlockCloseParser extends ParserBase {
         } catch (ParseException e) {
             throw new RuntimeException(e);
         }
-        CodeToken ct = new CodeToken(s, ctx);
+        CodeToken ct = ForEachCodeToken.closeToken(bh, s, ctx);
         if (!(bh instanceof BlockToken.LiteralBlock)) {
             String bhCls = bh.getClass().getName();
             if (bhCls.contains("ForEach") || bhCls.contains("ElseFor") || bhCls.contains("Assign")) {
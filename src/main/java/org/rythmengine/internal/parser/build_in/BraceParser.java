@@ -90,7 +90,7 @@ public class BraceParser implements IParserFactory {
                                 return new Token.StringToken(s, ctx());
                             }
                         } else {
-                            CodeToken ct = new CodeToken(s, ctx());
+                            CodeToken ct = ForEachCodeToken.closeToken(bh, s, ctx());
                             String bhCls = bh.getClass().getName();
                             if (bhCls.contains("For")) {
                                 ctx.getCodeBuilder().removeSpaceTillLastLineBreak(ctx);
@@ -126,7 +126,7 @@ public class BraceParser implements IParserFactory {
                                 }
                             }
                             ctx.step(s.length());
-                            CodeToken ct = new CodeToken(ctx.closeBlock(), ctx);
+                            CodeToken ct = ForEachCodeToken.closeToken(bh, ctx.closeBlock(), ctx);
                             return ct;
                         }
                     }
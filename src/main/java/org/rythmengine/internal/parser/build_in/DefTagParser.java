@@ -92,6 +92,12 @@ public class DefTagParser extends KeywordParserFactory {
             ctx.getCodeBuilder().endTag(tag);
             return "";
         }
+
+        @Override
+        public boolean inlinable() {
+            // the token heading the tag body outputs nothing
+            return true;
+        }
     }
 
     @Override
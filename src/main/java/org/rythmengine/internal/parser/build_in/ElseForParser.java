@@ -67,12 +67,18 @@ public class ElseForParser extends CaretParserFactoryBase {
 
                 try {
                     ctx.closeBlock();
-                    s1 = "\n\t__popItrVar();\n\t}\n} else {\n";
+                    s1 = "\n\t}\n} else {\n";
                 } catch (ParseException e) {
                     throw new RuntimeException(e);
                 }
                 processFollowingOpenBraceAndLineBreak(false);
                 BlockCodeToken tk = new BlockCodeToken(s1, ctx) {
+                    @Override
+                    public void output() {
+                        p(ForEachCodeToken.endBody(ctx.getCodeBuilder()));
+                        super.output();
+                    }
+
                     @Override
                     public String closeBlock() {
                         return "}}";
@@ -100,10 +100,21 @@ public class ExpressionParser extends CaretParserFactoryBase {
                 String tagName = s.substring(0, pos).trim();
                 if (!S.isEmpty(tagName)) {
                     needsPrint = ctx.getCodeBuilder().needsPrint(tagName);
+                    String expanded = needsPrint ? ctx.getCodeBuilder().expandDefTag(s.trim(), line) : null;
+                    if (null != expanded) {
+                        p(expanded);
+                        pline();
+                        return;
+                    }
                 }
             }
             outputExpression(needsPrint);
         }
+
+        @Override
+        public boolean inlinable() {
+            return true;
+        }
     }
 
     public static String processPositionPlaceHolder(String s) {
@@ -27,14 +27,19 @@ package org.rythmengine.internal.parser.build_in;
 
 import org.rythmengine.exception.ParseException;
 import org.rythmengine.internal.CodeBuilder;
+import org.rythmengine.internal.IBlockHandler;
 import org.rythmengine.internal.IContext;
 import org.rythmengine.internal.TemplateParser;
 import org.rythmengine.internal.Token;
 import org.rythmengine.internal.dialect.BasicRythm;
 import org.rythmengine.internal.parser.BlockCodeToken;
+import org.rythmengine.internal.parser.CodeToken;
+import org.rythmengine.utils.Range;
 import org.rythmengine.utils.S;
 import com.stevesoft.pat.Regex;
 
+import java.util.regex.Pattern;
+
 public class ForEachCodeToken extends BlockCodeToken {
 
     private String type;
@@ -42,6 +47,13 @@ public class ForEachCodeToken extends BlockCodeToken {
     private String varname;
     private String iterable;
     private String joinSep;
+    // the declared type of the loop variable
+    private String declaredType;
+    // the element type of a loop lowered into a primitive loop, e.g. int
+    private String primitive;
+    private boolean primitiveArray;
+    private int rangeMin;
+    private int rangeMax;
 //    private int openPos;
 //    private int closePos;
 
@@ -64,9 +76,11 @@ public class ForEachCodeToken extends BlockCodeToken {
         iterable = ExpressionParser.processPositionPlaceHolder(iterable);
         iterable = Token.processRythmExpression(iterable, context);
         if (null != type) type = type.trim();
+        this.declaredType = type;
         this.type = objectType(type);
         this.varname = null == varname ? "_" : varname.trim();
         if (iterable.contains("..") || iterable.contains(" to ") || iterable.contains(" till ")) {
+            lowerRange(iterable);
             iterable = "org.rythmengine.utils.Range.valueOf(\"" + iterable + "\")";
             iterableType = "Range";
         }
@@ -114,6 +128,58 @@ public class ForEachCodeToken extends BlockCodeToken {
             ExpressionParser.assertBasic(iterable, context);
             context.getCodeBuilder().addRenderArgsIfNotDeclared(line, "Iterable<?>", iterable);
         }
+        if (null == primitive) {
+            String itrType = cb.getRenderArgType(iterable);
+            if (null != itrType && P_PRIMITIVE_ARRAY.matcher(itrType).matches()) {
+                primitive = itrType.substring(0, itrType.indexOf('[')).trim();
+                primitiveArray = true;
+            }
+        }
+    }
+
+    private static final Pattern P_PRIMITIVE_ARRAY = Pattern.compile("(int|long|float|double|short|byte|char|boolean)\\s*\\[\\s*\\]");
+
+    /**
+     * A range with constant bounds, e.g. 1..100, is iterated with a counted
+     * loop instead of parsing the range expression on each rendering
+     */
+    private void lowerRange(String iterable) {
+        Range<?> r;
+        try {
+            r = Range.valueOf(iterable);
+        } catch (IllegalArgumentException e) {
+            // not a constant range, leave it to runtime
+            return;
+        }
+        Object min = r.min(), max = r.max();
+        if (min instanceof Character) {
+            primitive = "char";
+            rangeMin = (Character) min;
+            rangeMax = (Character) max;
+        } else {
+            primitive = "int";
+            rangeMin = (Integer) min;
+            rangeMax = (Integer) max;
+        }
+    }
+
+    private static String boxedType(String primitive) {
+        if ("int".equals(primitive)) return "java.lang.Integer";
+        if ("char".equals(primitive)) return "java.lang.Character";
+        return "java.lang." + Character.toUpperCase(primitive.charAt(0)) + primitive.substring(1);
+    }
+
+    /**
+     * Returns the type to declare the loop variable of a primitive loop with.
+     * Unless the type is declared the loop variable is not boxed, provided
+     * the body does not dereference it or compare it with null
+     */
+    private String elementType(boolean boxedUse) {
+        String t = declaredType;
+        if (S.isEmpty(t) || "Object".equals(t) || "java.lang.Object".equals(t)) {
+            return boxedUse ? boxedType(primitive) : primitive;
+        }
+        return t;
     }
 
     private String objectType(String type) {
@@ -129,22 +195,23 @@ public class ForEachCodeToken extends BlockCodeToken {
         return type;
     }
 
+    @Override
+    public boolean inlinable() {
+        return true;
+    }
+
     @Override
     public void output() {
         String prefix = "_".equals(varname) ? "" : varname + "";
         CodeBuilder cb = ctx.getCodeBuilder();
         String varId = prefix + "_index";
-        String varIsOdd = prefix + "_isOdd";
         String varSize = prefix + "_size";
-        String varParity = prefix + "_parity";
-        String varIsFirst = prefix + "_isFirst";
-        String varIsLast = prefix + "_isLast";
-        String varSep = prefix + "_sep";
-        String varWithSep = prefix + "__sep";
-        String varUtils = prefix + "_utils";
-        String varWithUtils = prefix + "__utils";
 
         String varItr = cb.newVarName();
+        if (null != primitive) {
+            outputPrimitiveLoop(cb, varItr, varId, varSize);
+            return;
+        }
         if ("java.lang.Object".equals(type)) {
             p("{\n__Itr ").p(varItr).p(" = __Itr.of(").p(iterable).p(");");
         } else {
@@ -169,30 +236,168 @@ public class ForEachCodeToken extends BlockCodeToken {
             p(varId).p("++;");
         }
         pline();
-        p("boolean ").p(varIsOdd).p(" = ").p(varId).p(" % 2 == 1;");
-        pline();
-        p("java.lang.String ").p(varParity).p(" = ").p(varIsOdd).p(" ? \"odd\" : \"even\";");
-        pline();
-        p("boolean ").p(varIsFirst).p(" = ").p(varId).p(" == 1;");
-        pline();
-        p("boolean ").p(varIsLast).p(" = ").p(varId).p(" >= ").p(varSize).p(";");
-        pline();
-        p("org.rythmengine.utils.RawData ").p(varSep).p(" = new org.rythmengine.utils.RawData(").p(varIsLast).p(" ? \"\" : \",\");");
-        pline();
-        /*p("org.rythmengine.utils.RawData ").p(varWithSep).p(" = new org.rythmengine.utils.RawData(org.rythmengine.utils.S.escape(").p(varname).p(")+(").p(varIsLast).p(" ? \"\" : \",\"));");
-        pline();
-        */
-        p("org.rythmengine.internal.LoopUtil ").p(varUtils).p(" = new org.rythmengine.internal.LoopUtil(").p(varIsFirst).p(", ").p(varIsLast).p(");");
-        pline();
-        /*
-        p("org.rythmengine.internal.LoopUtil ").p(varWithUtils).p(" = new org.rythmengine.internal.LoopUtil(").p(varIsFirst).p(", ").p(varIsLast).p(", ").p(varname).p(");");
+        // loop helpers are inserted here once the body is generated, see #endBody
+        cb.openLoops().push(new LoopBody(this, buffer(), null));
+    }
+
+    private void outputPrimitiveLoop(CodeBuilder cb, String varElem, String varId, String varSize) {
+        if (primitiveArray) {
+            String varArray = cb.newVarName();
+            p("{\n").p(primitive).p("[] ").p(varArray).p(" = ").p(iterable).p(";");
+            pline();
+            p("int ").p(varSize).p(" = null == ").p(varArray).p(" ? 0 : ").p(varArray).p(".length;");
+            pline();
+            p("if (").p(varSize).p(" > 0) {");
+            pline();
+            p("int ").p(varId).p(" = 0;");
+            pline();
+            p("for(").p(primitive).p(" ").p(varElem).p(" : ").p(varArray).p(") {");
+        } else {
+            String cast = "char".equals(primitive) ? "(char) " : "";
+            p("{\nint ").p(varSize).p(" = ").p(String.valueOf(rangeMax - rangeMin)).p(";");
+            pline();
+            p("if (").p(varSize).p(" > 0) {");
+            pline();
+            p("int ").p(varId).p(" = 0;");
+            pline();
+            p("for(").p(primitive).p(" ").p(varElem).p(" = ").p(cast).p(String.valueOf(rangeMin)).p("; ").p(varElem).p(" < ").p(String.valueOf(rangeMax)).p("; ++").p(varElem).p(") {");
+        }
         pline();
-        */
-        p("__pushItrVar(\"").p(varname).p("\", ").p(varname).p(");");
+        if (null != joinSep) {
+            p("if (").p(varId).p("++ > 0) {p(").p(joinSep).p(");}");
+        } else {
+            p(varId).p("++;");
+        }
         pline();
+        // the loop variable is declared along with the loop helpers, see #endBody
+        cb.openLoops().push(new LoopBody(this, buffer(), varElem));
     }
+
     @Override
     public String closeBlock() {
-        return "\n\t__popItrVar();\n\t}\n}\n}\n";
+        return "\n\t}\n}\n}\n";
+    }
+
+    /**
+     * Called when the code of the loop body has been generated. Inserts
+     * the declaration of the loop helper variables the body references
+     * and returns the code to be emitted before the end of the iteration
+     */
+    static String endBody(CodeBuilder cb) {
+        LoopBody body = cb.openLoops().poll();
+        return null == body ? "" : body.end(cb);
+    }
+
+    /**
+     * The generated code of a loop body, used to find out the helper
+     * variables that are needed by the body
+     */
+    public static class LoopBody {
+        private final ForEachCodeToken loop;
+        private final StringBuilder buf;
+        private final int start;
+        // the primitive loop element to initialize the loop variable with
+        private final String varElem;
+
+        LoopBody(ForEachCodeToken loop, StringBuilder buf, String varElem) {
+            this.loop = loop;
+            this.buf = buf;
+            this.start = buf.length();
+            this.varElem = varElem;
+        }
+
+        private boolean uses(String var) {
+            int len = var.length();
+            for (int pos = buf.indexOf(var, start); pos > -1; pos = buf.indexOf(var, pos + len)) {
+                boolean atStart = pos == 0 || !Character.isJavaIdentifierPart(buf.charAt(pos - 1));
+                int end = pos + len;
+                boolean atEnd = end == buf.length() || !Character.isJavaIdentifierPart(buf.charAt(end));
+                if (atStart && atEnd) return true;
+            }
+            return false;
+        }
+
+        private boolean boxedUse(String var) {
+            String v = Pattern.quote(var);
+            Pattern p = Pattern.compile("(?<![\\w$])" + v + "\\s*(\\.|[=!]=|instanceof\\b)|[=!]=\\s*" + v + "(?![\\w$])");
+            return p.matcher(buf).region(start, buf.length()).find();
+        }
+
+        String end(CodeBuilder cb) {
+            String varname = loop.varname;
+            String prefix = "_".equals(varname) ? "" : varname + "";
+            String varId = prefix + "_index";
+            String varSize = prefix + "_size";
+            String varIsOdd = prefix + "_isOdd";
+            String varParity = prefix + "_parity";
+            String varIsFirst = prefix + "_isFirst";
+            String varIsLast = prefix + "_isLast";
+            String varSep = prefix + "_sep";
+            String varUtils = prefix + "_utils";
+
+            boolean utils = uses(varUtils);
+            boolean sep = uses(varSep);
+            boolean parity = uses(varParity);
+            boolean isOdd = parity || uses(varIsOdd);
+            boolean isFirst = utils || uses(varIsFirst);
+            boolean isLast = utils || sep || uses(varIsLast);
+            // __eval() is the only reader of iterator variables. Inline tags
+            // are methods of the same template, thus could read them as well
+            boolean pushItrVar = uses("__eval") || cb.inlineTagsMayEval();
+
+            String line = " //line: " + loop.line + "\n";
+            StringBuilder sb = new StringBuilder();
+            if (null != varElem) {
+                sb.append(loop.elementType(boxedUse(varname))).append(" ").append(varname).append(" = ").append(varElem).append(";").append(line);
+            }
+            if (isOdd) {
+                sb.append("boolean ").append(varIsOdd).append(" = ").append(varId).append(" % 2 == 1;").append(line);
+            }
+            if (parity) {
+                sb.append("java.lang.String ").append(varParity).append(" = ").append(varIsOdd).append(" ? \"odd\" : \"even\";").append(line);
+            }
+            if (isFirst) {
+                sb.append("boolean ").append(varIsFirst).append(" = ").append(varId).append(" == 1;").append(line);
+            }
+            if (isLast) {
+                sb.append("boolean ").append(varIsLast).append(" = ").append(varId).append(" >= ").append(varSize).append(";").append(line);
+            }
+            if (sep) {
+                sb.append("org.rythmengine.utils.RawData ").append(varSep).append(" = ").append(varIsLast).append(" ? org.rythmengine.utils.RawData.NULL : org.rythmengine.internal.LoopUtil.SEP;").append(line);
+            }
+            if (utils) {
+                sb.append("org.rythmengine.internal.LoopUtil ").append(varUtils).append(" = org.rythmengine.internal.LoopUtil.valueOf(").append(varIsFirst).append(", ").append(varIsLast).append(");").append(line);
+            }
+            if (pushItrVar) {
+                sb.append("__pushItrVar(\"").append(varname).append("\", ").append(varname).append(");").append(line);
+            }
+            buf.insert(start, sb);
+            return pushItrVar ? "\n\t__popItrVar();" : "";
+        }
+    }
+
+    /**
+     * Create the token that closes the given block. The body of a @for loop
+     * needs to be ended before the code is closed
+     */
+    static CodeToken closeToken(IBlockHandler bh, String s, IContext context) {
+        return bh instanceof ForEachCodeToken ? new CloseToken(s, context) : new CodeToken(s, context);
+    }
+
+    private static class CloseToken extends CodeToken {
+        CloseToken(String s, IContext context) {
+            super(s, context);
+        }
+
+        @Override
+        public void output() {
+            p(endBody(ctx.getCodeBuilder()));
+            super.output();
+        }
+
+        @Override
+        public boolean inlinable() {
+            return true;
+        }
     }
 }
@@ -41,6 +41,11 @@ public class IfParser extends KeywordParserFactory {
             super(s, context);
             this.line = line;
         }
+
+        @Override
+        public boolean inlinable() {
+            return true;
+        }
     }
     
     @Override
@@ -75,4 +75,9 @@ public class IfThenToken extends CodeToken {
             pline();
         }
     }
+
+    @Override
+    public boolean inlinable() {
+        return true;
+    }
 }
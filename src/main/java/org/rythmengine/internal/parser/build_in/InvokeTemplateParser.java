@@ -94,9 +94,14 @@ public class InvokeTemplateParser extends CaretParserFactoryBase {
         protected String cacheArgs = null;
         protected Escape escape = null;
         protected boolean ignoreNonExistsTag = false;
+        protected boolean parallel = false;
         protected String assignTo = null;
         protected boolean assignToFinal = false;
         protected List<CodeBuilder.RenderArgDeclaration> argList = null;
+        // the static field caching the tag resolved at this call site
+        protected final String callSite;
+        // the statement rendering the tag inlined into the caller class
+        protected String inlineCall = null;
 
         static InvokeTagToken dynamicTagToken(String tagName, String paramLine, String extLine, IContext context) {
             InvokeTagToken t = new InvokeTagToken(tagName, paramLine, extLine, context);
@@ -118,6 +123,7 @@ public class InvokeTemplateParser extends CaretParserFactoryBase {
             super(null, context);
             this.tagName = tagName;
             this.enableCallback = enableCallback;
+            this.callSite = context.getCodeBuilder().newTagCallSite();
             parseParams(paramLine);
             parseExtension(extLine);
         }
@@ -164,12 +170,14 @@ public class InvokeTemplateParser extends CaretParserFactoryBase {
                     parseCallback(param);
                 } else if ("ignoreNonExistsTag".equals(extension)) {
                     ignoreNonExistsTag = true;
+                } else if ("parallel".equals(extension)) {
+                    parallel = true;
                 } else if ("assign".equals(extension)) {
                     parseAssign(param);
                     ctx.getCodeBuilder().removeNextLF = true;
                 } else {
                     //TODO enable transformer apply to tag invocation result
-                    raiseParseException(ctx, "Unknown template invocation extension: %s. Currently supported extension: cache, escape, raw, callback, ignoreNonExistsTag", extension);
+                    raiseParseException(ctx, "Unknown template invocation extension: %s. Currently supported extension: cache, escape, raw, callback, ignoreNonExistsTag, parallel", extension);
                 }
             }
         }
@@ -239,6 +247,28 @@ public class InvokeTemplateParser extends CaretParserFactoryBase {
             return cacheKey;
         }
 
+        /*
+         * Check if the tag could be linked at the call site, i.e. the tag name is a constant and
+         * the params could be bound to the tag one by one instead of being passed in a parameter list
+         */
+        protected boolean linkable() {
+            if (isDynamic && !P_CONST_TAG_NAME.matcher(tagName).matches()) return false;
+            // the cache key is built from the parameter list, and the parallel invocation forks with it
+            if (enableCache || parallel || ctx.getCodeBuilder().parallelTagInvocation()) return false;
+            for (ParameterDeclaration pd : params.pl) {
+                if ("__body".equals(pd.nameDef) || "_body".equals(pd.nameDef)) return false;
+            }
+            return true;
+        }
+
+        /*
+         * Try to inline the tag into the caller class, see CodeBuilder.inlineTag
+         */
+        void inline() {
+            if (isDynamic || !linkable() || ctx.peekInsideBody()) return;
+            inlineCall = ctx.getCodeBuilder().inlineTag(S.stripQuotation(tagName.trim()), params, line);
+        }
+
         protected boolean needsNewOut() {
             return (assignTo != null) || (escape != null) || enableCache;
         }
@@ -254,14 +284,38 @@ public class InvokeTemplateParser extends CaretParserFactoryBase {
                 pline();
             }
             pline("{");
-            ptline("org.rythmengine.template.ITag.__ParameterList _pl = null; ");
-            if (!params.pl.isEmpty()) {
-                ptline("_pl = new org.rythmengine.template.ITag.__ParameterList();");
-                for (int i = 0; i < params.pl.size(); ++i) {
-                    ParameterDeclaration pd = params.pl.get(i);
-                    //if (i == 0 && pd.nameDef == null) pd.nameDef = "arg";
-                    pt("_pl.add(\"").p(pd.nameDef == null ? "" : pd.nameDef).p("\",").p(pd.valDef).p(");");
-                    pline();
+            boolean link = linkable();
+            String inlined = link ? inlineCall : null;
+            if (null != inlined) {
+                // the tag is rendered by a method of this class, no tag instance is needed
+            } else if (link) {
+                pt("org.rythmengine.template.TemplateBase __tag = __linkTag(").p(tagName.trim()).p(", ").p(ignoreNonExistsTag).p(", ").p(callSite).p(");");
+                pline();
+                if (!params.pl.isEmpty()) {
+                    ptline("if (null != __tag) {");
+                    for (int i = 0; i < params.pl.size(); ++i) {
+                        ParameterDeclaration pd = params.pl.get(i);
+                        p2t("__tag.__bindTagArg(").p(i).p(", ");
+                        if (S.empty(pd.nameDef)) {
+                            p("null");
+                        } else {
+                            p("\"").p(pd.nameDef).p("\"");
+                        }
+                        p(", ").p(pd.valDef).p(");");
+                        pline();
+                    }
+                    ptline("}");
+                }
+            } else {
+                ptline("org.rythmengine.template.ITag.__ParameterList _pl = null; ");
+                if (!params.pl.isEmpty()) {
+                    ptline("_pl = new org.rythmengine.template.ITag.__ParameterList();");
+                    for (int i = 0; i < params.pl.size(); ++i) {
+                        ParameterDeclaration pd = params.pl.get(i);
+                        //if (i == 0 && pd.nameDef == null) pd.nameDef = "arg";
+                        pt("_pl.add(\"").p(pd.nameDef == null ? "" : pd.nameDef).p("\",").p(pd.valDef).p(");");
+                        pline();
+                    }
                 }
             }
             if (needsNewOut()) {
@@ -275,10 +329,14 @@ public class InvokeTemplateParser extends CaretParserFactoryBase {
                 p2tline("StringBuilder sbOld = __getBuffer();");
                 p2tline("StringBuilder sbNew = new StringBuilder();");
                 p2tline("setSelfOut(sbNew);");
-                if (ctx.peekInsideBody()) {
-                    p2t("__invokeTag(").p(line).p(", ").p(tagName).p(", _pl, null, __self, ").p(ignoreNonExistsTag).p(");");
+                if (null != inlined) {
+                    p2t(inlined);
+                } else if (link) {
+                    p2t("if (null != __tag) __callTag(").p(line).p(", __tag, ").p(ctx.peekInsideBody() ? "__self" : "null").p(");");
+                } else if (ctx.peekInsideBody()) {
+                    p2t("__invokeTag(").p(line).p(", ").p(tagName).p(", _pl, null, __self, ").p(ignoreNonExistsTag).p(", ").p(callSite).p(");");
                 } else {
-                    p2t("__invokeTag(").p(line).p(", ").p(tagName).p(", _pl, ").p(ignoreNonExistsTag).p(");");
+                    p2t("__invokeTag(").p(line).p(", ").p(tagName).p(", _pl, null, null, ").p(ignoreNonExistsTag).p(", ").p(callSite).p(");");
                 }
                 pline();
                 p2tline("_r_s = sbNew.toString();");
@@ -302,10 +360,16 @@ public class InvokeTemplateParser extends CaretParserFactoryBase {
                     ptline("p(_r_s);");
                 }
             } else {
-                if (ctx.peekInsideBody()) {
-                    p2t("__invokeTag(").p(line).p(", ").p(tagName).p(", _pl, null, __self, ").p(ignoreNonExistsTag).p(");");
+                if (null != inlined) {
+                    p2t(inlined);
+                } else if (link) {
+                    p2t("if (null != __tag) __callTag(").p(line).p(", __tag, ").p(ctx.peekInsideBody() ? "__self" : "null").p(");");
+                } else if (ctx.peekInsideBody()) {
+                    p2t("__invokeTag(").p(line).p(", ").p(tagName).p(", _pl, null, __self, ").p(ignoreNonExistsTag).p(", ").p(callSite).p(");");
+                } else if (parallel || ctx.getCodeBuilder().parallelTagInvocation()) {
+                    p2t("__invokeTagParallel(").p(line).p(", ").p(tagName).p(", _pl, ").p(ignoreNonExistsTag).p(", ").p(callSite).p(");");
                 } else {
-                    p2t("__invokeTag(").p(line).p(", ").p(tagName).p(", _pl, ").p(ignoreNonExistsTag).p(");");
+                    p2t("__invokeTag(").p(line).p(", ").p(tagName).p(", _pl, null, null, ").p(ignoreNonExistsTag).p(", ").p(callSite).p(");");
                 }
                 pline();
             }
@@ -449,9 +513,9 @@ public class InvokeTemplateParser extends CaretParserFactoryBase {
             });
             if (!needsNewOut()) {
                 if (ctx.peekInsideBody2()) {
-                    return "\n\t\t}\n\t}, __self);\n}";
+                    return "\n\t\t}\n\t}, __self, " + ignoreNonExistsTag + ", " + callSite + ");\n}";
                 } else {
-                    return "\n\t\t}\n\t});\n}";
+                    return "\n\t\t}\n\t}, null, " + ignoreNonExistsTag + ", " + callSite + ");\n}";
                 }
             }
             if (enableCache) {
@@ -464,9 +528,9 @@ public class InvokeTemplateParser extends CaretParserFactoryBase {
             __setBuffer(sbNew);
             p3tline("}");
             if (ctx.peekInsideBody2()) {
-                p2t("}, __self, ").p(ignoreNonExistsTag).p(");");
+                p2t("}, __self, ").p(ignoreNonExistsTag).p(", ").p(callSite).p(");");
             } else {
-                p2t("}, ").p(ignoreNonExistsTag).p(");");
+                p2t("}, null, ").p(ignoreNonExistsTag).p(", ").p(callSite).p(");");
             }
             pline();
             p2tline("_r_s = sbNew.toString();");
@@ -493,6 +557,7 @@ public class InvokeTemplateParser extends CaretParserFactoryBase {
         }
     }
 
+    static final Pattern P_CONST_TAG_NAME = Pattern.compile("\\s*\"[a-zA-Z_$][a-zA-Z0-9_$\\.]*\"\\s*");
     static final Pattern P_HEREDOC_SIMBOL = Pattern.compile("(\\s*<<).*", Pattern.DOTALL);
     static final Pattern P_STANDARD_BLOCK = Pattern.compile("(\\s*\\{).*", Pattern.DOTALL);
 
@@ -536,7 +601,9 @@ public class InvokeTemplateParser extends CaretParserFactoryBase {
                     ctx().step(m1.group(1).length());
                     return new InvokeTagWithBodyToken(tagName, r.stringMatched(3), r.stringMatched(4), ctx());
                 } else {
-                    return new InvokeTagToken(tagName, r.stringMatched(3), r.stringMatched(4), ctx());
+                    InvokeTagToken tk = new InvokeTagToken(tagName, r.stringMatched(3), r.stringMatched(4), ctx());
+                    tk.inline();
+                    return tk;
                 }
             }
         };
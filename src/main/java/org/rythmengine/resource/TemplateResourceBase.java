@@ -134,6 +134,16 @@ public abstract class TemplateResourceBase implements ITemplateResource {
         return cache;
     }
 
+    /**
+     * Returns the last modified time of the resource when the content was loaded, or
+     * {@code 0} if the content has not been loaded or the resource does not track it
+     *
+     * @return the timestamp of the loaded content
+     */
+    public long timestamp() {
+        return null == cache ? 0 : timestamp;
+    }
+
     @Override
     /**
      * Refresh the product is modified.
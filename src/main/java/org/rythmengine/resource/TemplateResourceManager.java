@@ -46,6 +46,10 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 
@@ -174,6 +178,19 @@ public class TemplateResourceManager {
         }
     }
 
+    /*
+     * Remove the tmp black lists left on this thread and return the strings they hold. Used
+     * when the templates parsed on this thread are compiled on another one
+     */
+    private static Set<String> detachTmpBlackList() {
+        Set<String> ss = new HashSet<String>();
+        for (Set<String> s : tmpBlackList.get()) {
+            ss.addAll(s);
+        }
+        tmpBlackList.remove();
+        return ss;
+    }
+
     public static void cleanUpTmplBlackList() {
 //        Stack<Set<String>> ss = tmpBlackList.get();
 //        if (null != ss) {
@@ -301,15 +318,135 @@ public class TemplateResourceManager {
         return null == resource ? NULL : cache(key, resource);
     }
     
+    // the resources found by the loaders when scanning in parallel
+    private volatile List<ITemplateResource> scanned = null;
+
     public void scan() {
-        for (ITemplateResourceLoader loader : loaders) {
-            loader.scan(this);
+        int parallelism = engine.conf().autoScanParallelism();
+        if (parallelism < 2 || !engine.isProdMode()) {
+            for (ITemplateResourceLoader loader : loaders) {
+                loader.scan(this);
+            }
+            return;
         }
+        List<ITemplateResource> resources = new ArrayList<ITemplateResource>();
+        scanned = resources;
+        try {
+            for (ITemplateResourceLoader loader : loaders) {
+                loader.scan(this);
+            }
+        } finally {
+            scanned = null;
+        }
+        loadInParallel(resources, parallelism);
     }
 
     public void resourceLoaded(final ITemplateResource resource) {
+        List<ITemplateResource> scanned = this.scanned;
+        if (null != scanned) {
+            whichLoader.put(resource.getKey(), resource.getLoader());
+            scanned.add(resource);
+            return;
+        }
         resourceLoaded(resource, true);
     }
+
+    /*
+     * Load the scanned resources in three steps: generate the java source of all templates in
+     * parallel, compile them in one batch, and then load the classes in parallel
+     */
+    private void loadInParallel(List<ITemplateResource> resources, int parallelism) {
+        long start = System.currentTimeMillis();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        // the strings reported as non resources when parsing a template, black listed once it compiles
+        final ConcurrentMap<TemplateClass, Set<String>> nonResources = new ConcurrentHashMap<TemplateClass, Set<String>>();
+        try {
+            List<Callable<TemplateClass>> tasks = new ArrayList<Callable<TemplateClass>>();
+            for (final ITemplateResource resource : resources) {
+                tasks.add(new EngineTask<TemplateClass>() {
+                    @Override
+                    TemplateClass run() {
+                        TemplateClass tc = null;
+                        try {
+                            tc = templateClass(resource);
+                            return tc;
+                        } finally {
+                            // the tmp black list set up by the parser is not committed by the batch
+                            // compile on the scanning thread, take it off this worker thread here
+                            Set<String> ss = detachTmpBlackList();
+                            if (null != tc && !ss.isEmpty()) {
+                                nonResources.put(tc, ss);
+                            }
+                        }
+                    }
+                });
+            }
+            Set<TemplateClass> classes = new LinkedHashSet<TemplateClass>();
+            for (Future<TemplateClass> f : pool.invokeAll(tasks)) {
+                TemplateClass tc = result(f);
+                if (null != tc) {
+                    classes.add(tc);
+                }
+            }
+            engine.classes().compile(classes);
+            tasks.clear();
+            for (final TemplateClass tc : classes) {
+                tasks.add(new EngineTask<TemplateClass>() {
+                    @Override
+                    TemplateClass run() {
+                        tc.asTemplate(engine);
+                        Set<String> ss = nonResources.get(tc);
+                        if (null != ss) {
+                            blackList.addAll(ss);
+                        }
+                        return tc;
+                    }
+                });
+            }
+            for (Future<TemplateClass> f : pool.invokeAll(tasks)) {
+                result(f);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } finally {
+            pool.shutdown();
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("%sms to load %s scanned templates", System.currentTimeMillis() - start, resources.size());
+        }
+    }
+
+    private static <T> T result(Future<T> f) throws InterruptedException {
+        try {
+            return f.get();
+        } catch (ExecutionException e) {
+            Throwable t = e.getCause();
+            if (t instanceof RuntimeException) {
+                throw (RuntimeException) t;
+            }
+            if (t instanceof Error) {
+                throw (Error) t;
+            }
+            throw new RuntimeException(t);
+        }
+    }
+
+    private abstract class EngineTask<T> implements Callable<T> {
+        abstract T run();
+
+        @Override
+        public T call() throws Exception {
+            boolean engineSet = RythmEngine.set(engine);
+            try {
+                return run();
+            } finally {
+                if (engineSet) {
+                    RythmEngine.clear();
+                }
+            }
+        }
+    }
     
     public TemplateClass resourceLoaded(final ITemplateResource resource, boolean async) {
         final ITemplateResourceLoader loader = resource.getLoader();
@@ -331,6 +468,21 @@ public class TemplateResourceManager {
     }
     
     private TemplateClass _resourceLoaded(ITemplateResource resource) {
+        TemplateClass tc = templateClass(resource);
+        if (null != tc) {
+            tc.asTemplate(engine);
+        }
+        return tc;
+    }
+
+    // the template classes being created, so that a template is parsed only once
+    // when it is loaded by more than one thread
+    private final ConcurrentMap<String, TemplateClass> creating = new ConcurrentHashMap<String, TemplateClass>();
+
+    /*
+     * Get the template class of the resource, or create it with the java source generated
+     */
+    private TemplateClass templateClass(ITemplateResource resource) {
         if (!resource.isValid()) return null;
         String key = S.str(resource.getKey());
         if (typeInference) {
@@ -339,9 +491,23 @@ public class TemplateResourceManager {
         RythmEngine engine = this.engine;
         TemplateClass tc = engine.classes().getByTemplate(key);
         if (null == tc) {
-            tc = new TemplateClass(resource, engine);
+            TemplateClass newTc = new TemplateClass(resource, engine, true);
+            tc = creating.putIfAbsent(key, newTc);
+            if (null == tc) {
+                tc = newTc;
+                try {
+                    tc.refresh(false);
+                } finally {
+                    creating.remove(key);
+                }
+            } else {
+                // another thread is creating the template class, and might not even have started
+                // the refresh yet. TemplateClass.refresh is synchronized on the template class, so
+                // this waits for the refresh in flight, or does it in place of the other thread
+                // whose refresh then finds the java source up to date
+                tc.refresh(false);
+            }
         }
-        tc.asTemplate(engine);
         return tc;
     }
 
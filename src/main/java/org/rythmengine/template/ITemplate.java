@@ -35,8 +35,8 @@ import org.rythmengine.utils.JSONWrapper;
 
 import java.io.OutputStream;
 import java.io.Writer;
+import java.nio.charset.Charset;
 import java.util.*;
-import java.util.concurrent.ConcurrentLinkedDeque;
 
 /**
  * Define a template instance API
@@ -69,6 +69,19 @@ public interface ITemplate extends ITag, Cloneable {
      */
     ITemplate __setOutputStream(OutputStream os);
 
+    /**
+     * Set binary output stream to the template instance along with the charset
+     * used to encode the render result
+     *
+     * @param os
+     * @param charset
+     * @throws NullPointerException  if os or charset specified is null
+     * @throws IllegalStateException if output stream or {@link #__setWriter(java.io.Writer) writer}
+     *                               is already set
+     * @return this template instance
+     */
+    ITemplate __setOutputStream(OutputStream os, Charset charset);
+
     /**
      * Set a character based writer to the template instance
      *
@@ -161,6 +174,15 @@ public interface ITemplate extends ITag, Cloneable {
      */
     void render(OutputStream os);
 
+    /**
+     * Render the template and put the result into outputstream encoded
+     * with the charset specified
+     *
+     * @param os
+     * @param charset
+     */
+    void render(OutputStream os, Charset charset);
+
     /**
      * Render the template and put the result into writer
      *
@@ -182,6 +204,15 @@ public interface ITemplate extends ITag, Cloneable {
      */
     StringBuilder __getBuffer();
 
+    /**
+     * Return the resources held by this template instance, e.g. the render
+     * buffer, once the render process is finished. The instance must not be
+     * used after this call
+     * <p/>
+     * <p>Note this is not an API to be called by user application</p>
+     */
+    void __recycle();
+
     /**
      * Set secure code (for sandbox purpse)
      * 
@@ -227,6 +258,8 @@ public interface ITemplate extends ITag, Cloneable {
 
     /**
      * The render time context. Not to be used in user application or template
+     * <p/>
+     * <p>A context is confined to the thread running the render process</p>
      */
     public static class __Context {
 
@@ -236,18 +269,18 @@ public interface ITemplate extends ITag, Cloneable {
          * 
          * @see {@link #localeStack}
          */
-        private Deque<ICodeType> codeTypeStack = new ConcurrentLinkedDeque<ICodeType>();
+        private final Deque<ICodeType> codeTypeStack = new ArrayDeque<ICodeType>(4);
 
         /**
          * template escape stack. Used to enable the
          * {@link org.rythmengine.conf.RythmConfigurationKey#FEATURE_SMART_ESCAPE_ENABLED}
          */
-        private Deque<Escape> escapeStack = new ConcurrentLinkedDeque<Escape>();
+        private final Deque<Escape> escapeStack = new ArrayDeque<Escape>(4);
 
         /**
          * template locale stack. Used to track the locale in the current context.
          */
-        private Deque<Locale> localeStack = new ConcurrentLinkedDeque<Locale>();
+        private final Deque<Locale> localeStack = new ArrayDeque<Locale>(4);
 
         private TemplateBase tmpl;
         
@@ -278,6 +311,17 @@ public interface ITemplate extends ITag, Cloneable {
             setTemplate(templateBase, engine.conf());
         }
 
+        /**
+         * Clear the context so that it can be reused by another render process
+         */
+        public void reset() {
+            codeTypeStack.clear();
+            escapeStack.clear();
+            localeStack.clear();
+            tmpl = null;
+            conf = null;
+        }
+
         public ICodeType currentCodeType() {
             if (codeTypeStack.isEmpty()) {
                 return conf.defaultCodeType();
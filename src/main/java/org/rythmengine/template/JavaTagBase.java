@@ -40,6 +40,14 @@ public abstract class JavaTagBase extends TagBase {
         return this;
     }
 
+    @Override
+    public void __bindTagArg(int pos, String name, Object value) {
+        // the first param starts a new list, never add to the one shared with the prototype
+        if (0 == pos || null == _params) _params = new __ParameterList();
+        _params.add(name, value);
+        if (null != name) __renderArgs.put(name, value);
+    }
+
     @Override
     public ITemplate __setRenderArg(String name, Object val) {
         if ("__body".equals(name)) _body = (__Body) val;
@@ -0,0 +1,212 @@
+/**
+ * Copyright (C) 2013-2016 The Rythm Engine project
+ * for LICENSE and other details see:
+ * https://github.com/rythmengine/rythmengine
+ */
+package org.rythmengine.template;
+
+/*-
+ * #%L
+ * Rythm Template Engine
+ * %%
+ * Copyright (C) 2017 - 2021 OSGL (Open Source General Library)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The compiled index of the render arguments declared in a template, mapping
+ * argument name to the slot number. Generated template classes use it to bind
+ * render arguments to the argument fields directly.
+ * <p/>
+ * <p>Note this is not an API for user application</p>
+ */
+public final class RenderArgIndex {
+
+    /**
+     * The index of a template without declared render arguments
+     */
+    public static final RenderArgIndex EMPTY = new RenderArgIndex(new String[0], new Class<?>[0]);
+
+    private final String[] names;
+    private final Class<?>[] types;
+    // open addressing hash table of names, with the slot numbers in parallel
+    private final String[] table;
+    private final int[] slots;
+    private final int mask;
+
+    /**
+     * Construct a render argument index
+     *
+     * @param names the argument names, the position of a name is the slot number of the argument
+     * @param types the argument types in slot order
+     */
+    public RenderArgIndex(String[] names, Class<?>[] types) {
+        if (names.length != types.length) throw new IllegalArgumentException("names and types mismatch");
+        this.names = names;
+        this.types = types;
+        int cap = 2;
+        while (cap < names.length * 2) cap <<= 1;
+        this.table = new String[cap];
+        this.slots = new int[cap];
+        this.mask = cap - 1;
+        for (int i = 0; i < names.length; ++i) {
+            String name = names[i];
+            int h = hash(name) & mask;
+            while (null != table[h]) {
+                if (table[h].equals(name)) throw new IllegalArgumentException("duplicate render arg: " + name);
+                h = (h + 1) & mask;
+            }
+            table[h] = name;
+            slots[h] = i;
+        }
+    }
+
+    /**
+     * Return the slot number of the argument by name
+     *
+     * @param name the argument name
+     * @return the slot number or <code>-1</code> if no argument declared with the name
+     */
+    public int slot(String name) {
+        if (null == name) return -1;
+        int h = hash(name) & mask;
+        while (true) {
+            String s = table[h];
+            if (null == s) return -1;
+            // argument names in generated code are literals, thus the identity check usually hits
+            if (s == name || s.equals(name)) return slots[h];
+            h = (h + 1) & mask;
+        }
+    }
+
+    /**
+     * @return the number of declared arguments
+     */
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * @param slot
+     * @return the name of the argument at the slot
+     */
+    public String name(int slot) {
+        return names[slot];
+    }
+
+    /**
+     * @param slot
+     * @return the type of the argument at the slot
+     */
+    public Class<?> type(int slot) {
+        return types[slot];
+    }
+
+    // the propagation plans from the caller indexes, keyed by identity as the index does not override equals
+    private final ConcurrentMap<RenderArgIndex, Propagation> plans = new ConcurrentHashMap<RenderArgIndex, Propagation>();
+    private volatile Propagation lastPlan;
+
+    /**
+     * Return the plan to propagate the render args declared in a caller template
+     * to the template with this index. The plan is computed once per caller index
+     *
+     * @param caller the render arg index of the caller template
+     * @return the propagation plan
+     */
+    public Propagation propagationFrom(RenderArgIndex caller) {
+        Propagation plan = lastPlan;
+        if (null != plan && plan.caller == caller) return plan;
+        plan = plans.get(caller);
+        if (null == plan) {
+            plan = new Propagation(caller, this);
+            Propagation p0 = plans.putIfAbsent(caller, plan);
+            if (null != p0) plan = p0;
+        }
+        lastPlan = plan;
+        return plan;
+    }
+
+    /**
+     * The precomputed mapping from the slots of a caller template to the
+     * slots of a callee template, with the type checks resolved ahead of
+     * time where the declared types allow it
+     */
+    public static final class Propagation {
+        /**
+         * The caller arg is not declared in the callee and goes to the render arg map
+         */
+        public static final int UNDECLARED = -1;
+
+        private final RenderArgIndex caller;
+        private final int[] slots;
+        private final Class<?>[] checks;
+
+        private Propagation(RenderArgIndex caller, RenderArgIndex callee) {
+            this.caller = caller;
+            int n = caller.size();
+            this.slots = new int[n];
+            this.checks = new Class<?>[n];
+            for (int i = 0; i < n; ++i) {
+                int j = callee.slot(caller.name(i));
+                if (j < 0) {
+                    slots[i] = UNDECLARED;
+                    continue;
+                }
+                // the value is boxed, and unboxed when it is set to a slot of primitive type
+                Class<?> type = boxed(callee.type(j));
+                slots[i] = j;
+                // the value is assignable if the declared type in caller is, otherwise check at runtime
+                checks[i] = type.isAssignableFrom(caller.type(i)) ? null : type;
+            }
+        }
+
+        /**
+         * @param slot the caller slot
+         * @return the callee slot, or {@link #UNDECLARED}
+         */
+        public int slot(int slot) {
+            return slots[slot];
+        }
+
+        /**
+         * @param slot the caller slot
+         * @return the type to check the value against at runtime, or <code>null</code> if no check needed
+         */
+        public Class<?> check(int slot) {
+            return checks[slot];
+        }
+    }
+
+    private static Class<?> boxed(Class<?> type) {
+        if (!type.isPrimitive()) return type;
+        if (int.class == type) return Integer.class;
+        if (long.class == type) return Long.class;
+        if (boolean.class == type) return Boolean.class;
+        if (double.class == type) return Double.class;
+        if (float.class == type) return Float.class;
+        if (char.class == type) return Character.class;
+        if (byte.class == type) return Byte.class;
+        if (short.class == type) return Short.class;
+        return type;
+    }
+
+    private static int hash(String s) {
+        int h = s.hashCode();
+        return h ^ (h >>> 16);
+    }
+}
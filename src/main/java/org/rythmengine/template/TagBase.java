@@ -105,7 +105,12 @@ public abstract class TagBase extends TemplateBase implements ITag {
         calling = true;
         try {
             if (null != __context) {
-                __buffer = new StringBuilder();
+                if (null == __buffer) {
+                    __buffer = new StringBuilder();
+                } else {
+                    // keep the buffer borrowed from the render buffer pool
+                    __buffer.setLength(0);
+                }
                 __context.p(S.raw(renderWithParent()));
             } else if (null != __caller && null != __buffer) {
                 __caller.p(S.raw(renderWithParent())); // a real tag
@@ -117,6 +122,24 @@ public abstract class TagBase extends TemplateBase implements ITag {
         }
     }
 
+    /**
+     * Render this tag into a separate segment instead of the caller's buffer.
+     * Used when the tag is invoked in parallel with the rest of the caller template.
+     * Not to be used in user application or template
+     *
+     * @param line
+     * @return the rendered segment
+     */
+    public String __callSegment(int line) {
+        __line = line;
+        calling = true;
+        try {
+            return renderWithParent();
+        } finally {
+            calling = false;
+        }
+    }
+
     // make sure it does not write to OutputStream or Writer
     private String renderWithParent() {
         if (null != __parent) return render();
@@ -0,0 +1,89 @@
+/**
+ * Copyright (C) 2013-2016 The Rythm Engine project
+ * for LICENSE and other details see:
+ * https://github.com/rythmengine/rythmengine
+ */
+package org.rythmengine.template;
+
+/*-
+ * #%L
+ * Rythm Template Engine
+ * %%
+ * Copyright (C) 2017 - 2021 OSGL (Open Source General Library)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import org.rythmengine.internal.compiler.TemplateClassLoader.TemplateClassloaderState;
+
+/**
+ * The cache of the tag resolved at a tag invocation site in a generated template
+ * class. It keeps the last tag resolved, which is either the {@link org.rythmengine.internal.compiler.TemplateClass}
+ * of a template tag or a {@link JavaTagBase} instance, together with the epoch at
+ * resolving time, i.e. the state of the template class loader and the version of
+ * the tag registry. The cached tag is used only when the tag name, the caller class
+ * and the epoch all match.
+ * <p/>
+ * <p>Note this is not an API for user application</p>
+ */
+public final class TagCallSite {
+
+    private static final class Entry {
+        private final TemplateClassloaderState state;
+        private final int version;
+        private final String name;
+        private final Class<?> callerClass;
+        private final Object tag;
+
+        private Entry(TemplateClassloaderState state, int version, String name, Class<?> callerClass, Object tag) {
+            this.state = state;
+            this.version = version;
+            this.name = name;
+            this.callerClass = callerClass;
+            this.tag = tag;
+        }
+    }
+
+    private volatile Entry entry;
+
+    /**
+     * Return the tag cached at this site
+     *
+     * @param state       the current state of the template class loader
+     * @param version     the current version of the tag registry
+     * @param name        the tag name
+     * @param callerClass the class of the caller template
+     * @return the cached template class or java tag, or <code>null</code> if not cached
+     */
+    public Object lookup(TemplateClassloaderState state, int version, String name, Class<?> callerClass) {
+        Entry e = entry;
+        if (null == e || e.state != state || e.version != version || e.callerClass != callerClass) return null;
+        // the name is a literal in most call sites, thus the identity check usually hits
+        return (e.name == name || e.name.equals(name)) ? e.tag : null;
+    }
+
+    /**
+     * Cache the tag resolved at this site
+     *
+     * @param state       the state of the template class loader when the tag was resolved
+     * @param version     the version of the tag registry when the tag was resolved
+     * @param name        the tag name
+     * @param callerClass the class of the caller template
+     * @param tag         the template class or java tag resolved
+     */
+    public void cache(TemplateClassloaderState state, int version, String name, Class<?> callerClass, Object tag) {
+        entry = new Entry(state, version, name, callerClass, tag);
+    }
+}
@@ -47,9 +47,9 @@ import org.rythmengine.utils.*;
 import java.io.*;
 import java.lang.reflect.Array;
 import java.lang.reflect.Modifier;
+import java.nio.charset.Charset;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * The base class of template implementation. It provides a set of
@@ -121,7 +121,7 @@ public abstract class TemplateBase extends TemplateBuilder implements ITemplate
     }
 
     private Writer w;
-    private OutputStream os;
+    private ByteSink os;
 
     @Override
     public ITemplate __setWriter(Writer writer) {
@@ -135,11 +135,16 @@ public abstract class TemplateBase extends TemplateBuilder implements ITemplate
 
     @Override
     public ITemplate __setOutputStream(OutputStream os) {
-        if (null == os) throw new NullPointerException();
+        return __setOutputStream(os, Charset.defaultCharset());
+    }
+
+    @Override
+    public ITemplate __setOutputStream(OutputStream os, Charset charset) {
+        if (null == os || null == charset) throw new NullPointerException();
         if (null != w) throw new IllegalStateException("Cannot set output stream to template when writer is presented");
         if (null != this.os)
             throw new IllegalStateException("Cannot set output stream to template when an outputstream is presented");
-        this.os = os;
+        this.os = new ByteSink(os, charset, __engine().conf().outputBufferSize());
         return this;
     }
 
@@ -148,7 +153,7 @@ public abstract class TemplateBase extends TemplateBuilder implements ITemplate
      * will also declare render args as separate protected field while keeping
      * a copy inside this Map data structure
      */
-    protected Map<String, Object> __renderArgs = new ConcurrentHashMap<String, Object>();
+    protected Map<String, Object> __renderArgs = new HashMap<String, Object>();
 
     /**
      * Return the {@link RythmEngine engine} running this template
@@ -264,13 +269,178 @@ public abstract class TemplateBase extends TemplateBuilder implements ITemplate
         __engine.invokeTemplate(line, name, this, params, body, context, ignoreNonExistsTag);
     }
 
+    /**
+     * Invoke a tag with the tag resolved cached at the call site. Usually should not used directly in user template
+     *
+     * @param line
+     * @param name
+     * @param params
+     * @param body
+     * @param context
+     * @param ignoreNonExistsTag
+     * @param site
+     */
+    protected void __invokeTag(int line, String name, ITag.__ParameterList params, ITag.__Body body, ITag.__Body context, boolean ignoreNonExistsTag, TagCallSite site) {
+        __engine.invokeTemplate(line, name, this, params, body, context, ignoreNonExistsTag, site);
+    }
+
+    /**
+     * Link a tag invoked with a constant name. Usually should not used directly in user template
+     *
+     * @param name
+     * @param ignoreNonExistsTag
+     * @param site
+     * @return the tag instance to bind params to, or <code>null</code> if the tag does not exist and shall be ignored
+     */
+    protected TemplateBase __linkTag(String name, boolean ignoreNonExistsTag, TagCallSite site) {
+        return (TemplateBase) __engine.linkTemplate(name, this, ignoreNonExistsTag, site);
+    }
+
+    /**
+     * Call a tag returned by {@link #__linkTag(String, boolean, TagCallSite)}. Usually should not used directly in user template
+     *
+     * @param line
+     * @param tag
+     * @param context
+     */
+    protected void __callTag(int line, TemplateBase tag, ITag.__Body context) {
+        __engine.invokeLinkedTemplate(line, tag, this, context);
+    }
+
+    /**
+     * Bind a param of a tag invocation to this template when it is called as a linked tag.
+     * <p/>
+     * <p>Not to be used in user application or template</p>
+     *
+     * @param pos   the position of the param in the invocation
+     * @param name  the param name, or <code>null</code> if the param is passed by position
+     * @param value the param value
+     */
+    public void __bindTagArg(int pos, String name, Object value) {
+        if (null == value) return;
+        if (null != name) {
+            __setRenderArg(name, value);
+        } else {
+            __setRenderArg(pos, value);
+        }
+    }
+
+    /**
+     * Invoke a tag in parallel with the rest of this template. The tag is rendered into
+     * a separate segment which is spliced into the buffer at the current position once
+     * the template or the enclosing section is built. The tag is invoked in place when
+     * this template is writing to an output stream or writer, or when the buffer has
+     * been redirected, e.g. by an {@code @assign} block.
+     * Usually should not used directly in user template
+     *
+     * @param line
+     * @param name
+     * @param params
+     * @param ignoreNonExistsTag
+     */
+    protected void __invokeTagParallel(int line, String name, ITag.__ParameterList params, boolean ignoreNonExistsTag) {
+        __invokeTagParallel(line, name, params, ignoreNonExistsTag, null);
+    }
+
+    /**
+     * Invoke a tag in parallel with the tag resolved cached at the call site.
+     * Usually should not used directly in user template
+     *
+     * @param line
+     * @param name
+     * @param params
+     * @param ignoreNonExistsTag
+     * @param site
+     */
+    protected void __invokeTagParallel(int line, String name, ITag.__ParameterList params, boolean ignoreNonExistsTag, TagCallSite site) {
+        StringBuilder target = __buffer;
+        if (null == target || target != segmentTarget || (null == __parent && (null != os || null != w))) {
+            __invokeTag(line, name, params, null, null, ignoreNonExistsTag, site);
+            return;
+        }
+        ForkJoinTask<String> task = __engine.forkTemplate(line, name, this, params, ignoreNonExistsTag, site);
+        if (null == task) return;
+        if (null == segments) segments = new ArrayList<Segment>();
+        segments.add(new Segment(target, target.length(), task));
+    }
+
+    private static final class Segment {
+        private final StringBuilder target;
+        private final int pos;
+        private final ForkJoinTask<String> task;
+
+        private Segment(StringBuilder target, int pos, ForkJoinTask<String> task) {
+            this.target = target;
+            this.pos = pos;
+            this.task = task;
+        }
+    }
+
+    // the buffer parallel tag invocations are allowed to write into
+    private StringBuilder segmentTarget = null;
+    // the pending parallel tag invocations in document order
+    private List<Segment> segments = null;
+
+    /*
+     * Wait for the pending segments written into the target buffer and splice them in.
+     * The content is rebuilt once in document order from the positions recorded, instead
+     * of inserting the segments one by one
+     */
+    private void __joinSegments(StringBuilder target) {
+        List<Segment> l = segments;
+        if (null == l) return;
+        List<Segment> joined = new ArrayList<Segment>(l.size());
+        List<String> contents = new ArrayList<String>(l.size());
+        int len = target.length();
+        for (Segment seg : l) {
+            if (seg.target != target) continue;
+            String s = seg.task.join();
+            joined.add(seg);
+            contents.add(s);
+            if (null != s) len += s.length();
+        }
+        if (joined.isEmpty()) return;
+        // the failed segments are left to __discardSegments
+        l.removeAll(joined);
+        if (len == target.length()) return;
+        StringBuilder sb = new StringBuilder(len);
+        int from = 0;
+        for (int i = 0, n = joined.size(); i < n; ++i) {
+            String s = contents.get(i);
+            if (null == s) continue;
+            int pos = joined.get(i).pos;
+            sb.append(target, from, pos).append(s);
+            from = pos;
+        }
+        sb.append(target, from, target.length());
+        target.setLength(0);
+        target.append(sb);
+    }
+
+    /*
+     * Make sure none of the parallel tag invocations is still running, e.g. when the
+     * build failed, before the buffer and context of this template are released
+     */
+    private void __discardSegments() {
+        List<Segment> l = segments;
+        segments = null;
+        if (null == l) return;
+        for (Segment seg : l) {
+            if (!seg.task.tryUnfork()) seg.task.quietlyJoin();
+        }
+    }
+
     /* to be used by dynamic generated sub classes */
-    private String layoutContent = "";
+    // layout content and sections are kept as the buffers they were rendered into,
+    // so that they are spliced into the layout template by reference
+    private CharSequence layoutContent = "";
+    // a template instance is confined to the render thread, the maps below
+    // are plain maps created on demand
     // store the current template section content
-    private Map<String, String> layoutSections = new ConcurrentHashMap<String, String>();
+    private Map<String, CharSequence> layoutSections = null;
     // store the parent default section content
-    private Map<String, String> layoutSections0 = new ConcurrentHashMap<String, String>();
-    private Map<String, Object> renderProperties = new ConcurrentHashMap<String, Object>();
+    private Map<String, CharSequence> layoutSections0 = null;
+    private Map<String, Object> renderProperties = null;
 
     /**
      * The parent template (layout template)
@@ -314,7 +484,7 @@ public abstract class TemplateBase extends TemplateBuilder implements ITemplate
      */
     protected RawData __render(String template) {
         if (null == template) return new RawData("");
-        return S.raw(__engine.sandbox().render(template, __renderArgs));
+        return S.raw(__engine.sandbox().render(template, __renderArgMap()));
     }
 
     /**
@@ -322,7 +492,7 @@ public abstract class TemplateBase extends TemplateBuilder implements ITemplate
      *
      * @param body
      */
-    protected final void __setLayoutContent(String body) {
+    protected final void __setLayoutContent(CharSequence body) {
         layoutContent = body;
     }
 
@@ -332,12 +502,23 @@ public abstract class TemplateBase extends TemplateBuilder implements ITemplate
      * @param name
      * @param section
      */
-    private void __addLayoutSection(String name, String section, boolean def) {
-        Map<String, String> m = def ? layoutSections0 : layoutSections;
+    private void __addLayoutSection(String name, CharSequence section, boolean def) {
+        Map<String, CharSequence> m;
+        if (def) {
+            if (null == layoutSections0) layoutSections0 = new HashMap<String, CharSequence>();
+            m = layoutSections0;
+        } else {
+            if (null == layoutSections) layoutSections = new HashMap<String, CharSequence>();
+            m = layoutSections;
+        }
         if (m.containsKey(name)) return;
         m.put(name, section);
     }
 
+    private static CharSequence section(Map<String, CharSequence> sections, String name) {
+        return null == sections ? null : sections.get(name);
+    }
+
     private StringBuilder tmpOut = null;
     private String section = null;
     private TextBuilder tmpCaller = null;
@@ -354,6 +535,7 @@ public abstract class TemplateBase extends TemplateBuilder implements ITemplate
         __caller = null;
         tmpOut = __buffer;
         __buffer = new StringBuilder();
+        segmentTarget = __buffer;
         section = name;
     }
 
@@ -372,11 +554,15 @@ public abstract class TemplateBase extends TemplateBuilder implements ITemplate
      */
     protected void __endSection(boolean def) {
         if (null == tmpOut && null == tmpCaller) throw new IllegalStateException("section has not been started");
-        __addLayoutSection(section, __buffer.toString(), def);
+        __joinSegments(__buffer);
+        // the section buffer is not used after this point, no need to copy it
+        __addLayoutSection(section, __buffer, def);
         __buffer = tmpOut;
+        segmentTarget = __buffer;
         __caller = tmpCaller;
         tmpOut = null;
         tmpCaller = null;
+        section = null;
     }
 
     /**
@@ -385,16 +571,22 @@ public abstract class TemplateBase extends TemplateBuilder implements ITemplate
      * @param name
      */
     protected void __pLayoutSection(String name) {
-        String s = layoutSections.get(name);
-        if (null == s) s = layoutSections0.get(name);
-        else {
-            String s0 = layoutSections0.get(name);
-            if (s0 == null) s0 = "";
-            s = s.replace("\u0000\u0000inherited\u0000\u0000", s0);
+        CharSequence s = section(layoutSections, name);
+        if (null == s) s = section(layoutSections0, name);
+        else if (hasInherited(s)) {
+            CharSequence s0 = section(layoutSections0, name);
+            s = s.toString().replace(INHERITED, null == s0 ? "" : s0);
         }
         p(s);
     }
 
+    private static final String INHERITED = "\u0000\u0000inherited\u0000\u0000";
+
+    private static boolean hasInherited(CharSequence s) {
+        if (s instanceof StringBuilder) return ((StringBuilder) s).indexOf(INHERITED) > -1;
+        return s.toString().contains(INHERITED);
+    }
+
     /**
      * Print default section content inside child template
      * section content.
@@ -402,7 +594,7 @@ public abstract class TemplateBase extends TemplateBuilder implements ITemplate
      * @param name
      */
     protected void __pLayoutSectionInherited(String name) {
-        p("\u0000\u0000inherited\u0000\u0000");
+        p(INHERITED);
     }
 
     /**
@@ -412,7 +604,7 @@ public abstract class TemplateBase extends TemplateBuilder implements ITemplate
      * @return section data by name
      */
     protected RawData __getSection(String name) {
-        return S.raw(layoutSections.get(name));
+        return S.raw(section(layoutSections, name));
     }
 
     /**
@@ -421,22 +613,30 @@ public abstract class TemplateBase extends TemplateBuilder implements ITemplate
      * @return layout content
      */
     protected RawData __getSection() {
-        return S.raw(S.isEmpty(layoutContent) ? layoutSections.get("__CONTENT__") : layoutContent);
+        return S.raw(layoutContent());
+    }
+
+    private CharSequence layoutContent() {
+        return null == layoutContent || layoutContent.length() == 0 ? section(layoutSections, "__CONTENT__") : layoutContent;
     }
 
     /**
      * Print the layout content. Not to be used in user application or template
      */
     protected void __pLayoutContent() {
-        p(__getSection());
+        p(layoutContent());
     }
 
-    private void addAllLayoutSections(Map<String, String> sections) {
-        if (null != sections) layoutSections.putAll(sections);
+    private void addAllLayoutSections(Map<String, CharSequence> sections) {
+        if (null == sections || sections.isEmpty()) return;
+        if (null == layoutSections) layoutSections = new HashMap<String, CharSequence>(sections);
+        else layoutSections.putAll(sections);
     }
 
     private void addAllRenderProperties(Map<String, Object> properties) {
-        if (null != properties) renderProperties.putAll(properties);
+        if (null == properties || properties.isEmpty()) return;
+        if (null == renderProperties) renderProperties = new HashMap<String, Object>(properties);
+        else renderProperties.putAll(properties);
     }
 
     /**
@@ -468,14 +668,22 @@ public abstract class TemplateBase extends TemplateBuilder implements ITemplate
         }
         tmpl.__engine = engine;
         //tmpl.__templateClass = __templateClass;
-        tmpl.__ctx = new __Context();
+        __Context ctx = engine.renderContextPool().borrow();
+        tmpl.__ctx = null == ctx ? new __Context() : ctx;
         //if (null != buffer) tmpl.__buffer = buffer;
-        if (null != __buffer) tmpl.__buffer = new StringBuilder();
-        tmpl.__renderArgs = new ConcurrentHashMap<String, Object>(__renderArgs.size());
+        if (null != __buffer) {
+            TemplateClass tc = __templateClass;
+            tmpl.__buffer = engine.renderBufferPool().borrow(null == tc ? 0 : tc.renderSizeHint());
+        }
+        tmpl.__renderArgs = new HashMap<String, Object>();
+        tmpl.__boundArgs = 0L;
         //tmpl.layoutContent = "";
-        tmpl.layoutSections = new ConcurrentHashMap<String, String>();
-        tmpl.layoutSections0 = new ConcurrentHashMap<String, String>();
-        tmpl.renderProperties = new ConcurrentHashMap<String, Object>();
+        tmpl.layoutSections = null;
+        tmpl.layoutSections0 = null;
+        tmpl.renderProperties = null;
+        tmpl.segmentTarget = null;
+        tmpl.segments = null;
+        tmpl.__callerArgs = null;
         //tmpl.section = null;
         //tmpl.tmpCaller = null;
         //tmpl.tmpOut = null;
@@ -484,26 +692,74 @@ public abstract class TemplateBase extends TemplateBuilder implements ITemplate
         //tmpl.os = null;
         if (null != caller) {
             tmpl.__caller = (TextBuilder) caller;
-            Map<String, Object> callerRenderArgs = new HashMap<String, Object>(((TemplateBase) caller).__renderArgs);
-            Map<String, Class> types = tmpl.__renderArgTypeMap();
-            for (Map.Entry<String, Object> entry : callerRenderArgs.entrySet()) {
-                if (tmpl.__renderArgs.containsKey(entry.getKey())) continue;
-                Object o = entry.getValue();
-                if (null == o || __isDefVal(o)) continue;
-                Class<?> c = types.get(entry.getKey());
-
-                if (null == c || c.isAssignableFrom(o.getClass())) {
-                    tmpl.__setRenderArg(entry.getKey(), o);
-                }
+            // the caller is rendering in the current thread, no need to copy its render args
+            TemplateBase c = (TemplateBase) caller;
+            tmpl.__inheritDeclaredRenderArgs(c);
+            for (Map.Entry<String, Object> entry : c.__renderArgs.entrySet()) {
+                tmpl.__inheritRenderArg(entry.getKey(), entry.getValue());
             }
         }
         tmpl.__setUserContext(engine.renderSettings.userContext());
 
-        tmpl.itrVars = new ConcurrentLinkedDeque<>();
+        tmpl.itrVars = null;
 
         return tmpl;
     }
 
+    @Override
+    public void __recycle() {
+        segmentTarget = null;
+        __discardSegments();
+        StringBuilder sb = __buffer;
+        if (null != sb) {
+            __buffer = null;
+            int len = sb.length();
+            // nothing is buffered when rendering into writer or output stream
+            if (len > 0 && null != __templateClass) __templateClass.recordRenderSize(len);
+            __engine().renderBufferPool().release(sb);
+        }
+        __Context ctx = __ctx;
+        if (null != ctx) {
+            __ctx = null;
+            ctx.reset();
+            __engine().renderContextPool().release(ctx);
+        }
+        if (__hasParent()) __parent.__recycle();
+    }
+
+    private void __inheritDeclaredRenderArgs(TemplateBase c) {
+        RenderArgIndex from = c.__renderArgIndex();
+        int n = from.size();
+        if (0 == n || (0L == c.__boundArgs && n <= 64)) return;
+        RenderArgIndex.Propagation plan = __renderArgIndex().propagationFrom(from);
+        for (int i = 0; i < n; ++i) {
+            if (!c.__renderArgBound(i)) continue;
+            int j = plan.slot(i);
+            Object o = c.__getRenderArgSlot(i);
+            if (null == o || __isDefVal(o)) continue;
+            if (RenderArgIndex.Propagation.UNDECLARED == j) {
+                String name = from.name(i);
+                if (!__renderArgs.containsKey(name)) __setRenderArg(name, o);
+            } else if (!__renderArgBound(j)) {
+                Class<?> type = plan.check(i);
+                if (null == type || type.isAssignableFrom(o.getClass())) __setRenderArgSlot(j, o);
+            }
+        }
+    }
+
+    private void __inheritRenderArg(String name, Object o) {
+        if (null == o || __isDefVal(o)) return;
+        RenderArgIndex idx = __renderArgIndex();
+        int i = idx.slot(name);
+        if (i > -1) {
+            if (__renderArgBound(i)) return;
+            Class<?> c = idx.type(i);
+            if (c.isAssignableFrom(o.getClass())) __setRenderArgSlot(i, o);
+        } else if (!__renderArgs.containsKey(name)) {
+            __setRenderArg(name, o);
+        }
+    }
+
     /**
      * Not to be used in user application or template
      */
@@ -561,8 +817,33 @@ public abstract class TemplateBase extends TemplateBuilder implements ITemplate
      */
     @Override
     public final void render(OutputStream os) {
-        __setOutputStream(os);
-        render();
+        render(os, Charset.defaultCharset());
+    }
+
+    /**
+     * Render to binary output stream using the charset specified to encode the
+     * render result. This method is usually called from API defined in
+     * {@link RythmEngine}
+     *
+     * @param os
+     * @param charset
+     */
+    @Override
+    public final void render(OutputStream os, Charset charset) {
+        __setOutputStream(os, charset);
+        ByteSink sink = this.os;
+        boolean ok = false;
+        try {
+            render();
+            ok = true;
+        } finally {
+            this.os = null;
+            if (ok) {
+                sink.close();
+            } else {
+                sink.discard();
+            }
+        }
     }
 
     /**
@@ -761,10 +1042,13 @@ public abstract class TemplateBase extends TemplateBuilder implements ITemplate
             }
             final String code = secureCode;
             Sandbox.enterRestrictedZone(code);
+            segmentTarget = __buffer;
             try {
                 __internalInit();
                 build();
+                __joinSegments(__buffer);
             } finally {
+                __discardSegments();
                 __finally();
                 Sandbox.leaveCurZone(code);
             }
@@ -796,11 +1080,14 @@ public abstract class TemplateBase extends TemplateBuilder implements ITemplate
     protected String __internalRender() {
         __internalBuild();
         if (__hasParent()) {
-            __parent.__setLayoutContent(toString());
+            __parent.__setLayoutContent(null != __buffer ? __buffer : toString());
             __parent.addAllLayoutSections(layoutSections);
             __parent.addAllRenderProperties(renderProperties);
-            __parent.__setRenderArgs(__renderArgs);
+            __parent.__setRenderArgs(__renderArgMap());
             //__parent.__renderArgs.putAll(__renderArgs);
+            // the layout template writes the final result to the output destination
+            __parent.os = os;
+            __parent.w = w;
             return __parent.render();
         } else {
             return toString();
@@ -854,6 +1141,87 @@ public abstract class TemplateBase extends TemplateBuilder implements ITemplate
         return null;
     }
 
+    /**
+     * Return the render args declared in this template, e.g. to look up the
+     * values of the declared args only. Not to be used in user application or template
+     *
+     * @return the render arg index
+     */
+    public final RenderArgIndex __declaredRenderArgs() {
+        return __renderArgIndex();
+    }
+
+    /**
+     * Return the compiled index of the render args declared in this template.
+     * Not to be used in user application or template
+     *
+     * @return the render arg index
+     */
+    protected RenderArgIndex __renderArgIndex() {
+        return RenderArgIndex.EMPTY;
+    }
+
+    /**
+     * Return the value of the declared render arg at the slot. Not to be used in user application or template
+     *
+     * @param slot
+     * @return the render arg value
+     */
+    protected Object __getRenderArgSlot(int slot) {
+        throw new ArrayIndexOutOfBoundsException(slot);
+    }
+
+    /**
+     * Set the declared render arg at the slot. Not to be used in user application or template
+     *
+     * @param slot
+     * @param arg
+     */
+    protected void __setRenderArgSlot(int slot, Object arg) {
+        throw new ArrayIndexOutOfBoundsException(slot);
+    }
+
+    // the declared render args that have been set, one bit per slot
+    private long __boundArgs = 0L;
+
+    /**
+     * Mark the declared render arg at the slot has been set. Not to be used in user application or template
+     *
+     * @param slot
+     */
+    protected final void __markRenderArgBound(int slot) {
+        if (slot < 64) __boundArgs |= 1L << slot;
+    }
+
+    private boolean __renderArgBound(int slot) {
+        // slots beyond the bit mask are always treated as set
+        return slot >= 64 || 0L != (__boundArgs & (1L << slot));
+    }
+
+    private Object __renderArgValue(String name) {
+        int i = __renderArgIndex().slot(name);
+        if (i > -1 && __renderArgBound(i)) return __getRenderArgSlot(i);
+        return __renderArgs.get(name);
+    }
+
+    /**
+     * Return all render args set to this template in a map. The declared render args
+     * are kept in fields, so the map is built on demand. Not to be used in user application or template
+     *
+     * @return the render args map
+     */
+    protected Map<String, Object> __renderArgMap() {
+        RenderArgIndex idx = __renderArgIndex();
+        if (0L == __boundArgs && idx.size() <= 64) return __renderArgs;
+        Map<String, Object> m = new HashMap<String, Object>(__renderArgs);
+        for (int i = 0, n = idx.size(); i < n; ++i) {
+            if (!__renderArgBound(i)) continue;
+            Object o = __getRenderArgSlot(i);
+            if (null != o) m.put(idx.name(i), o);
+        }
+        return m;
+    }
+
     /**
      * Return render arg type in Map. Not to be used in user application or template
      *
@@ -1005,16 +1373,53 @@ public abstract class TemplateBase extends TemplateBuilder implements ITemplate
 
     @Override
     public <T> T __getRenderArg(String name) {
-        Object val = __renderArgs.get(name);
+        Object val = __renderArgValue(name);
         //if (null == val) return null;
         if (null != __caller) {
             if (!__isDefVal(val)) return (T) val;
             else return caller().__getRenderArg(name);
+        } else if (null != __callerArgs) {
+            if (!__isDefVal(val)) return (T) val;
+            else return (T) __callerArgs.get(name);
         } else {
             return (T) val;
         }
     }
 
+    // the render args of the caller chain, looked up instead of the caller by a tag rendered
+    // in parallel with its caller
+    private Map<String, Object> __callerArgs = null;
+
+    // the nearest caller wins unless its value is a default one, like __getRenderArg does
+    private static void __mergeCallerArgs(Map<String, Object> m, Map<String, Object> args) {
+        for (Map.Entry<String, Object> entry : args.entrySet()) {
+            Object o = m.get(entry.getKey());
+            if (null == o || __isDefVal(o)) m.put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Detach this tag from its caller before it is rendered in parallel with the caller.
+     * The caller keeps rendering and changing its render args in its own thread, so the
+     * render args this tag could look up through the caller chain are copied at this point
+     * and the tag reads the copy instead. Must be called in the caller's thread.
+     * Not to be used in user application or template
+     */
+    public final void __detachCaller() {
+        TemplateBase c = __caller();
+        if (null == c) return;
+        Map<String, Object> m = new HashMap<String, Object>();
+        TemplateBase top = c;
+        for (; null != c; c = c.__caller()) {
+            __mergeCallerArgs(m, c.__renderArgMap());
+            top = c;
+        }
+        // the top caller could be a tag rendered in parallel itself
+        if (null != top.__callerArgs) __mergeCallerArgs(m, top.__callerArgs);
+        __callerArgs = m;
+        __caller = null;
+    }
+
     protected final static <T> T __get(Map<String, Object> map, String name, Class<T> cls) {
         Object o = map.get(name);
         return (null != o) ? (T) o : __transNull(cls);
@@ -1104,7 +1509,7 @@ public abstract class TemplateBase extends TemplateBuilder implements ITemplate
      * @return a render property
      */
     protected final <T> T __getRenderProperty(String name, T def) {
-        Object o = __renderArgs.get(name);
+        Object o = __renderArgValue(name);
         return (T) (__isDefVal(o) ? def : o);
     }
 
@@ -1189,16 +1594,18 @@ public abstract class TemplateBase extends TemplateBuilder implements ITemplate
         return __ctx.currentEscape();
     }
 
+    // the content of a section is captured in the section buffer, even if the template
+    // renders into a writer or output stream
     private boolean appendToBuffer() {
-        return null != __parent || (null == w && null == os);
+        return null != __parent || null != section || (null == w && null == os);
     }
 
     private boolean appendToWriter() {
-        return (null == __parent && null != w);
+        return (null == __parent && null == section && null != w);
     }
 
     private boolean appendToOutputStream() {
-        return (null == __parent && null != os);
+        return (null == __parent && null == section && null != os);
     }
 
     @Override
@@ -1209,11 +1616,7 @@ public abstract class TemplateBase extends TemplateBuilder implements ITemplate
         if (null == os && null == w) return;
 
         if (appendToOutputStream()) {
-            try {
-                os.write(wrapper.toBinary());
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
+            os.write(wrapper);
         } else if (appendToWriter()) {
             try {
                 w.write(wrapper.toString());
@@ -1225,37 +1628,44 @@ public abstract class TemplateBase extends TemplateBuilder implements ITemplate
 
     @Override
     protected void __append(Object o) {
-        String oStr = o.toString();
+        CharSequence oStr = o instanceof CharSequence ? (CharSequence) o : o.toString();
         if (appendToBuffer()) super.__append(oStr);
         if (null == os && null == w) return;
 
-        StrBuf wrapper = new StrBuf(oStr);
         if (appendToOutputStream()) {
-            try {
-                os.write(wrapper.toBinary());
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
+            os.write(oStr);
         } else if (appendToWriter()) {
             try {
-                w.write(wrapper.toString());
+                write(w, oStr);
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
         }
     }
 
+    private static void write(Writer w, CharSequence s) throws IOException {
+        if (s instanceof StringBuilder) {
+            // write in chunks instead of copying the whole buffer into a String
+            StringBuilder sb = (StringBuilder) s;
+            int len = sb.length();
+            char[] cbuf = new char[Math.min(len, 4096)];
+            for (int i = 0; i < len; i += cbuf.length) {
+                int n = Math.min(cbuf.length, len - i);
+                sb.getChars(i, i + n, cbuf, 0);
+                w.write(cbuf, 0, n);
+            }
+        } else {
+            w.write(s.toString());
+        }
+    }
+
     @Override
     protected void __append(char c) {
         if (appendToBuffer()) super.__append(c);
         if (null == os && null == w) return;
 
         if (appendToOutputStream()) {
-            try {
-                os.write(c);
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
+            os.write(c);
         } else if (appendToWriter()) {
             try {
                 w.write(c);
@@ -1271,12 +1681,7 @@ public abstract class TemplateBase extends TemplateBuilder implements ITemplate
         if (null == os && null == w) return;
 
         if (appendToOutputStream()) {
-            StrBuf wrapper = new StrBuf(String.valueOf(i));
-            try {
-                os.write(wrapper.toBinary());
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
+            os.write((long) i);
         } else if (appendToWriter()) {
             try {
                 w.write(String.valueOf(i));
@@ -1292,12 +1697,7 @@ public abstract class TemplateBase extends TemplateBuilder implements ITemplate
         if (null == os && null == w) return;
 
         if (appendToOutputStream()) {
-            StrBuf wrapper = new StrBuf(String.valueOf(l));
-            try {
-                os.write(wrapper.toBinary());
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
+            os.write(l);
         } else if (appendToWriter()) {
             try {
                 w.write(String.valueOf(l));
@@ -1313,12 +1713,7 @@ public abstract class TemplateBase extends TemplateBuilder implements ITemplate
         if (null == os && null == w) return;
 
         if (appendToOutputStream()) {
-            StrBuf wrapper = new StrBuf(String.valueOf(f));
-            try {
-                os.write(wrapper.toBinary());
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
+            os.write(String.valueOf(f));
         } else if (appendToWriter()) {
             try {
                 w.write(String.valueOf(f));
@@ -1334,12 +1729,7 @@ public abstract class TemplateBase extends TemplateBuilder implements ITemplate
         if (null == os && null == w) return;
 
         if (appendToOutputStream()) {
-            StrBuf wrapper = new StrBuf(String.valueOf(d));
-            try {
-                os.write(wrapper.toBinary());
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
+            os.write(String.valueOf(d));
         } else if (appendToWriter()) {
             try {
                 w.write(String.valueOf(d));
@@ -1355,12 +1745,7 @@ public abstract class TemplateBase extends TemplateBuilder implements ITemplate
         if (null == os && null == w) return;
 
         if (appendToOutputStream()) {
-            StrBuf wrapper = new StrBuf(String.valueOf(b));
-            try {
-                os.write(wrapper.toBinary());
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
+            os.write(String.valueOf(b));
         } else if (appendToWriter()) {
             try {
                 w.write(String.valueOf(b));
@@ -1424,7 +1809,8 @@ public abstract class TemplateBase extends TemplateBuilder implements ITemplate
     }
 
     protected final Object __eval(String expr) {
-        Map<String, Object> ctx = new ConcurrentHashMap<String, Object>(__renderArgs);
+        Map<String, Object> args = __renderArgMap();
+        Map<String, Object> ctx = args == __renderArgs ? new HashMap<String, Object>(args) : args;
         ctx.putAll(itrVars());
         try {
             Object retval = __engine().eval(expr, this, ctx);
@@ -1475,33 +1861,29 @@ public abstract class TemplateBase extends TemplateBuilder implements ITemplate
         return i18n.getMessage(TemplateBase.this, key, args);
     }
 
-    private Deque<F.T2<String, Object>> itrVars = new ConcurrentLinkedDeque<>();
+    private Deque<F.T2<String, Object>> itrVars = null;
 
     protected void __pushItrVar(String name, Object val) {
+        if (null == itrVars) itrVars = new ArrayDeque<F.T2<String, Object>>();
         itrVars.push(F.T2(name, val));
     }
 
     protected void __popItrVar() {
-        itrVars.poll();
+        if (null != itrVars) itrVars.poll();
     }
 
     private Map<String, Object> itrVars() {
-        if (itrVars.isEmpty()) return Collections.EMPTY_MAP;
-        if (itrVars.size() == 1) return itrVars.peek().asMap();
-        Deque<F.T2<String, Object>> tmp = new ConcurrentLinkedDeque<>();
-        Map<String, Object> m = new ConcurrentHashMap<String, Object>();
         Deque<F.T2<String, Object>> vs = itrVars;
-        while (!vs.isEmpty()) {
-            F.T2<String, Object> var = vs.pop();
-            tmp.push(var);
+        if (null == vs || vs.isEmpty()) return Collections.EMPTY_MAP;
+        if (vs.size() == 1) return vs.peek().asMap();
+        Map<String, Object> m = new HashMap<String, Object>();
+        // the most recently pushed variable shadows the outer ones with the same name
+        for (F.T2<String, Object> var : vs) {
             String k = var._1;
             if (!m.containsKey(k)) {
                 m.put(k, var._2);
             }
         }
-        while (!tmp.isEmpty()) {
-            vs.push(tmp.pop());
-        }
         return m;
     }
 
@@ -0,0 +1,299 @@
+/**
+ * Copyright (C) 2013-2016 The Rythm Engine project
+ * for LICENSE and other details see:
+ * https://github.com/rythmengine/rythmengine
+ */
+package org.rythmengine.utils;
+
+/*-
+ * #%L
+ * Rythm Template Engine
+ * %%
+ * Copyright (C) 2017 - 2021 OSGL (Open Source General Library)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * A buffered byte sink used when a template is rendered into a binary
+ * {@link OutputStream}. Characters are encoded with an explicit {@link Charset}
+ * straight into a byte buffer, which is written to the underlying stream in bulk
+ * once it reaches the flush threshold.
+ * <p/>
+ * <p>The byte buffer is borrowed from a per thread pool and returned on
+ * {@link #close()}. A sink instance is not thread safe and is supposed to be used
+ * by one render process only</p>
+ */
+public class ByteSink {
+
+    private static final ThreadLocal<byte[]> pool = new ThreadLocal<byte[]>();
+
+    private final OutputStream os;
+    private final Charset charset;
+    private final boolean asciiCompatible;
+    // whether separately encoded chunks concatenate to the encoding of the whole text
+    private final boolean chunkEncodable;
+    private CharsetEncoder encoder;
+    private byte[] buf;
+    private ByteBuffer bb;
+    private int count;
+    // a high surrogate char waiting for the low surrogate in the next write
+    private char pendingHigh;
+
+    /**
+     * Construct a byte sink
+     *
+     * @param os             the underlying output stream
+     * @param charset        the charset used to encode characters
+     * @param flushThreshold the buffer size, reaching which the buffered bytes are written to the output stream
+     */
+    public ByteSink(OutputStream os, Charset charset, int flushThreshold) {
+        if (null == os || null == charset) throw new NullPointerException();
+        this.os = os;
+        this.charset = charset;
+        this.asciiCompatible = isAsciiCompatible(charset);
+        this.chunkEncodable = !"UTF-16".equals(charset.name());
+        this.buf = acquire(flushThreshold < 16 ? 16 : flushThreshold);
+    }
+
+    /**
+     * Return the charset used to encode characters written to this sink
+     *
+     * @return the charset
+     */
+    public Charset charset() {
+        return charset;
+    }
+
+    /**
+     * Write a {@link TextBuilder.StrBuf} into the sink. The bytes cached with
+     * the StrBuf for the charset of this sink are used when possible
+     *
+     * @param strBuf
+     */
+    public void write(TextBuilder.StrBuf strBuf) {
+        if (chunkEncodable && 0 == pendingHigh) {
+            byte[] ba = strBuf.toBinary(charset);
+            write(ba, 0, ba.length);
+        } else {
+            write(strBuf.toString());
+        }
+    }
+
+    /**
+     * Encode a char sequence into the sink
+     *
+     * @param s
+     */
+    public void write(CharSequence s) {
+        int len = s.length();
+        int i = 0;
+        if (asciiCompatible && 0 == pendingHigh) {
+            byte[] buf = this.buf;
+            int count = this.count;
+            for (; i < len; ++i) {
+                char c = s.charAt(i);
+                if (c >= 0x80) break;
+                if (count == buf.length) {
+                    this.count = count;
+                    flushBuffer();
+                    count = 0;
+                }
+                buf[count++] = (byte) c;
+            }
+            this.count = count;
+            if (i == len) return;
+        }
+        encode(CharBuffer.wrap(s, i, len));
+    }
+
+    /**
+     * Encode a char into the sink
+     *
+     * @param c
+     */
+    public void write(char c) {
+        if (asciiCompatible && c < 0x80 && 0 == pendingHigh) {
+            if (count == buf.length) flushBuffer();
+            buf[count++] = (byte) c;
+        } else {
+            encode(CharBuffer.wrap(new char[]{c}));
+        }
+    }
+
+    /**
+     * Write the decimal representation of a long value into the sink
+     * without creating an intermediate string
+     *
+     * @param l
+     */
+    public void write(long l) {
+        if (!asciiCompatible || 0 != pendingHigh || Long.MIN_VALUE == l || buf.length < 20) {
+            write(String.valueOf(l));
+            return;
+        }
+        // 19 digits plus the sign
+        if (buf.length - count < 20) flushBuffer();
+        if (l < 0) {
+            buf[count++] = '-';
+            l = -l;
+        }
+        int digits = 1;
+        for (long v = l / 10; v > 0; v /= 10) digits++;
+        int pos = count + digits;
+        count = pos;
+        do {
+            buf[--pos] = (byte) ('0' + (int) (l % 10));
+            l /= 10;
+        } while (l > 0);
+    }
+
+    /**
+     * Write raw bytes into the sink. Bytes that exceed the buffer capacity
+     * are written to the output stream directly
+     *
+     * @param ba
+     * @param off
+     * @param len
+     */
+    public void write(byte[] ba, int off, int len) {
+        if (len > buf.length - count) {
+            flushBuffer();
+            if (len >= buf.length) {
+                try {
+                    os.write(ba, off, len);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                return;
+            }
+        }
+        System.arraycopy(ba, off, buf, count, len);
+        count += len;
+    }
+
+    private void encode(CharBuffer in) {
+        CharsetEncoder enc = encoder();
+        if (0 != pendingHigh) {
+            CharBuffer joined = CharBuffer.allocate(in.remaining() + 1);
+            joined.put(pendingHigh).put(in).flip();
+            pendingHigh = 0;
+            in = joined;
+        }
+        while (true) {
+            bb.position(count);
+            CoderResult cr = enc.encode(in, bb, false);
+            count = bb.position();
+            if (!cr.isOverflow()) break;
+            flushBuffer();
+        }
+        if (in.hasRemaining()) {
+            pendingHigh = in.get();
+        }
+    }
+
+    private CharsetEncoder encoder() {
+        if (null == encoder) {
+            encoder = charset.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            bb = ByteBuffer.wrap(buf);
+        }
+        return encoder;
+    }
+
+    private void flushBuffer() {
+        if (0 == count) return;
+        try {
+            os.write(buf, 0, count);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        count = 0;
+    }
+
+    /**
+     * Write all buffered bytes into the underlying output stream. Note the
+     * underlying output stream itself is not flushed
+     */
+    public void flush() {
+        flushBuffer();
+    }
+
+    /**
+     * Finish encoding, write all buffered bytes into the underlying output
+     * stream and return the byte buffer to the pool. Note the underlying output
+     * stream is not closed
+     */
+    public void close() {
+        if (null == buf) return;
+        try {
+            if (null != encoder) {
+                CharBuffer in = 0 == pendingHigh ? CharBuffer.allocate(0) : CharBuffer.wrap(new char[]{pendingHigh});
+                pendingHigh = 0;
+                while (true) {
+                    bb.position(count);
+                    CoderResult cr = encoder.encode(in, bb, true);
+                    if (!cr.isOverflow()) cr = encoder.flush(bb);
+                    count = bb.position();
+                    if (!cr.isOverflow()) break;
+                    flushBuffer();
+                }
+            }
+            flushBuffer();
+        } finally {
+            discard();
+        }
+    }
+
+    /**
+     * Drop all buffered bytes and return the byte buffer to the pool. This is
+     * called instead of {@link #close()} when the render process failed
+     */
+    public void discard() {
+        if (null == buf) return;
+        release(buf);
+        buf = null;
+        bb = null;
+        count = 0;
+    }
+
+    private static boolean isAsciiCompatible(Charset charset) {
+        String name = charset.name();
+        return "UTF-8".equals(name) || "US-ASCII".equals(name) || "ISO-8859-1".equals(name);
+    }
+
+    private static byte[] acquire(int size) {
+        byte[] ba = pool.get();
+        if (null != ba && ba.length == size) {
+            // the pooled buffer is owned by this sink until it is released
+            pool.remove();
+            return ba;
+        }
+        return new byte[size];
+    }
+
+    private static void release(byte[] ba) {
+        pool.set(ba);
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 2013-2016 The Rythm Engine project
+ * for LICENSE and other details see:
+ * https://github.com/rythmengine/rythmengine
+ */
+package org.rythmengine.utils;
+
+/*-
+ * #%L
+ * Rythm Template Engine
+ * %%
+ * Copyright (C) 2017 - 2021 OSGL (Open Source General Library)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * Interfaces of a demand driven publish subscribe stream. The interfaces mirror
+ * the ones in {@code java.util.concurrent.Flow} and the Reactive Streams
+ * specification, so that an adapter to either of them is a matter of delegation
+ */
+public final class Flow {
+
+    private Flow() {
+    }
+
+    /**
+     * A producer of items received by subscribers
+     *
+     * @param <T> the item type
+     */
+    public interface Publisher<T> {
+        /**
+         * Add a subscriber. {@link Subscriber#onSubscribe(Subscription)} is called
+         * before any other method of the subscriber
+         *
+         * @param subscriber the subscriber
+         */
+        void subscribe(Subscriber<? super T> subscriber);
+    }
+
+    /**
+     * A receiver of items. The methods of a subscriber are called in sequence,
+     * never concurrently
+     *
+     * @param <T> the item type
+     */
+    public interface Subscriber<T> {
+        void onSubscribe(Subscription subscription);
+
+        void onNext(T item);
+
+        void onError(Throwable throwable);
+
+        void onComplete();
+    }
+
+    /**
+     * The link between a publisher and a subscriber
+     */
+    public interface Subscription {
+        /**
+         * Add {@code n} items to the demand of the subscriber
+         *
+         * @param n the number of items, must be positive
+         */
+        void request(long n);
+
+        /**
+         * Stop receiving items. Items might still be delivered for a while
+         */
+        void cancel();
+    }
+}
@@ -0,0 +1,222 @@
+/**
+ * Copyright (C) 2013-2016 The Rythm Engine project
+ * for LICENSE and other details see:
+ * https://github.com/rythmengine/rythmengine
+ */
+package org.rythmengine.utils;
+
+/*-
+ * #%L
+ * Rythm Template Engine
+ * %%
+ * Copyright (C) 2017 - 2021 OSGL (Open Source General Library)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.rythmengine.internal.SlotPool;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+
+/**
+ * A {@link Flow.Publisher publisher} of the bytes rendered by a template.
+ * <p/>
+ * <p>Each subscriber triggers a render operation on the executor. The rendered
+ * bytes are delivered in chunks of a fixed size, each chunk takes one item of the
+ * subscriber's demand. When there is no demand the render thread blocks until the
+ * subscriber requests more, so that at most one chunk is held in memory for a
+ * subscriber no matter how large the render result is. The render call stack
+ * cannot be released between chunks, so a render operation holds its executor
+ * thread until the subscriber has consumed the last chunk or cancelled. With a
+ * bounded executor, slow subscribers therefore limit the number of renders in
+ * progress, the others wait in the executor queue. Use an executor running
+ * virtual threads to suspend the render operation without blocking a platform
+ * thread</p>
+ * <p/>
+ * <p>The chunks are direct byte buffers taken from a pool. A chunk is reused once
+ * {@link Flow.Subscriber#onNext(Object)} returns, thus a subscriber must consume or
+ * copy the bytes before returning from it</p>
+ */
+public abstract class RenderPublisher implements Flow.Publisher<ByteBuffer> {
+
+    private static final SlotPool<ByteBuffer> pool = new SlotPool<ByteBuffer>(32);
+
+    private final Executor executor;
+    private final int chunkSize;
+
+    /**
+     * Construct a render publisher
+     *
+     * @param executor  the executor to run the render operations
+     * @param chunkSize the size of the byte buffers delivered to subscribers
+     */
+    protected RenderPublisher(Executor executor, int chunkSize) {
+        if (null == executor) throw new NullPointerException();
+        this.executor = executor;
+        this.chunkSize = chunkSize < 16 ? 16 : chunkSize;
+    }
+
+    /**
+     * Render the template into the output stream specified. The stream shall not
+     * be closed by the implementation
+     *
+     * @param os the output stream
+     */
+    protected abstract void render(OutputStream os);
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+        if (null == subscriber) throw new NullPointerException();
+        final ChunkStream stream = new ChunkStream(subscriber);
+        subscriber.onSubscribe(stream);
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    stream.run();
+                }
+            });
+        } catch (RuntimeException e) {
+            stream.cancel();
+            subscriber.onError(e);
+        }
+    }
+
+    private static ByteBuffer acquire(int size) {
+        ByteBuffer bb = pool.borrow();
+        if (null == bb || bb.capacity() < size) bb = ByteBuffer.allocateDirect(size);
+        bb.clear();
+        return bb;
+    }
+
+    private final class ChunkStream extends OutputStream implements Flow.Subscription {
+        private final Flow.Subscriber<? super ByteBuffer> subscriber;
+        // guarded by this
+        private long demand;
+        private boolean cancelled;
+        private Throwable error;
+        // accessed by the render thread only
+        private ByteBuffer chunk;
+
+        private ChunkStream(Flow.Subscriber<? super ByteBuffer> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public synchronized void request(long n) {
+            if (cancelled) return;
+            if (n <= 0) {
+                error = new IllegalArgumentException("non-positive request: " + n);
+                cancelled = true;
+            } else {
+                demand += n;
+                if (demand < 0) demand = Long.MAX_VALUE;
+            }
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void cancel() {
+            cancelled = true;
+            notifyAll();
+        }
+
+        private synchronized void awaitDemand() {
+            boolean interrupted = false;
+            try {
+                while (0 == demand && !cancelled) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                        error = e;
+                        cancelled = true;
+                    }
+                }
+            } finally {
+                if (interrupted) Thread.currentThread().interrupt();
+            }
+            if (cancelled) throw new CancellationException();
+            demand--;
+        }
+
+        // the error to be signalled for the failure of the render operation
+        private synchronized Throwable error(Throwable e) {
+            if (null != error) return error;
+            return cancelled ? null : e;
+        }
+
+        void run() {
+            Throwable failure = null;
+            try {
+                if (isCancelled()) throw new CancellationException();
+                chunk = acquire(chunkSize);
+                render(this);
+                emit();
+            } catch (Throwable e) {
+                failure = error(e);
+            } finally {
+                ByteBuffer bb = chunk;
+                chunk = null;
+                pool.release(bb);
+            }
+            if (null != failure) {
+                subscriber.onError(failure);
+            } else if (!isCancelled()) {
+                subscriber.onComplete();
+            }
+        }
+
+        private synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        private void emit() {
+            ByteBuffer bb = chunk;
+            if (0 == bb.position()) return;
+            awaitDemand();
+            bb.flip();
+            try {
+                subscriber.onNext(bb);
+            } finally {
+                bb.clear();
+            }
+        }
+
+        @Override
+        public void write(int b) {
+            if (!chunk.hasRemaining()) emit();
+            chunk.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            while (len > 0) {
+                if (!chunk.hasRemaining()) emit();
+                int n = Math.min(len, chunk.remaining());
+                chunk.put(b, off, n);
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void flush() {
+            // the bytes are delivered when a chunk is full or the render finishes
+        }
+    }
+}
@@ -28,6 +28,8 @@ package org.rythmengine.utils;
 import org.rythmengine.exception.FastRuntimeException;
 import org.rythmengine.template.ITemplate;
 
+import java.nio.charset.Charset;
+
 /**
  * This class defines a chained text/string builder
  *
@@ -128,25 +130,37 @@ public class TextBuilder implements Cloneable {
      */
     protected static final class StrBuf {
         private final String s_;
-        private byte[] ba_;
+        // the lazily built encoding table, one entry per charset
+        private volatile Encoded encoded_;
+
+        private static final class Encoded {
+            private final Charset charset;
+            private final byte[] ba;
+            private final Encoded next;
+
+            private Encoded(Charset charset, byte[] ba, Encoded next) {
+                this.charset = charset;
+                this.ba = ba;
+                this.next = next;
+            }
+        }
 
+        /**
+         * Construct a StrBuf with the string and the bytes encoded using
+         * the platform default charset
+         *
+         * @param s
+         * @param ba
+         */
         public StrBuf(String s, byte[] ba) {
-            if (null == s || "".equals(s)) {
-                s_ = "";
-                ba_ = new byte[]{};
-            } else {
-                s_ = s;
-                ba_ = ba;
+            this(s);
+            if (null != ba && s_.length() > 0) {
+                encoded_ = new Encoded(Charset.defaultCharset(), ba, null);
             }
         }
 
         public StrBuf(String s) {
-            if (null == s || "".equals(s)) {
-                s_ = "";
-                ba_ = new byte[]{};
-            } else {
-                s_ = s;
-            }
+            s_ = (null == s) ? "" : s;
         }
 
         public String toString() {
@@ -154,10 +168,27 @@ public class TextBuilder implements Cloneable {
         }
 
         public byte[] toBinary() {
-            if (null == ba_) {
-                ba_ = s_.getBytes();
+            return toBinary(Charset.defaultCharset());
+        }
+
+        /**
+         * Return the bytes of the string encoded with the charset specified.
+         * The encoded bytes are cached with the instance so that a constant
+         * is encoded at most once for each charset
+         *
+         * @param charset
+         * @return the encoded bytes
+         */
+        public byte[] toBinary(Charset charset) {
+            Encoded head = encoded_;
+            for (Encoded e = head; null != e; e = e.next) {
+                if (e.charset.equals(charset)) return e.ba;
             }
-            return ba_;
+            byte[] ba = s_.getBytes(charset);
+            // a racing thread might drop this entry, in which case the string
+            // will simply be encoded again
+            encoded_ = new Encoded(charset, ba, head);
+            return ba;
         }
 
         @Override
@@ -207,7 +238,11 @@ public class TextBuilder implements Cloneable {
      * @param o
      */
     protected void __append(Object o) {
-        __buffer.append(o.toString());
+        if (o instanceof CharSequence) {
+            __buffer.append((CharSequence) o);
+        } else {
+            __buffer.append(o.toString());
+        }
     }
 
     private void p_(Object o) {
@@ -25,7 +25,42 @@ package org.rythmengine.web.servlet;
  * #L%
  */
 
+import org.rythmengine.RythmEngine;
+import org.rythmengine.internal.RythmThreadFactory;
+import org.rythmengine.template.ITemplate;
+import org.rythmengine.template.RenderArgIndex;
+import org.rythmengine.template.TemplateBase;
+import org.rythmengine.utils.Flow;
+import org.rythmengine.utils.RenderPublisher;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
 import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * <p>A servlet to process Rythm templates. This is comparable to the
@@ -33,52 +68,72 @@ import javax.servlet.http.HttpServlet;
  *
  * <p>The servlet provides the following features:</p>
  * <ul>
- *   <li>renders Rythm templates</li>
+ *   <li>renders Rythm templates, the request path is mapped to the template
+ *       path through the {@link org.rythmengine.resource.TemplateResourceManager}
+ *       of the engine</li>
  *   <li>provides transparent access to the servlet request attributes,
  *       servlet session attributes and servlet context attributes by
- *       auto-searching them</li>
+ *       auto-searching them. Only the render args declared in the template
+ *       are looked up. The implicit args {@code request}, {@code session}
+ *       and {@code application} are provided if no attribute found by
+ *       the name</li>
+ *   <li>streams the render result into the response output stream, or
+ *       buffers it to answer conditional requests</li>
+ *   <li>optionally renders asynchronously, see below</li>
  *   <li>logs to the logging facility of the servlet API</li>
  * </ul>
  *
- * <p>RythmViewServlet supports the following configuration parameters
+ * <p>RythmServlet supports the following configuration parameters
  * in web.xml:</p>
  * <dl>
  *   <dt>org.rythmengine.properties</dt>
  *   <dd>Path and name of the Rythm configuration file. The path must be
  *     relative to the web application root directory. If this parameter
  *     is not present, Rythm will check for a properties file at
- *     '/WEB-INF/rythm.properties'.  If no file is found there, then
- *     Rythm is initialized with the settings in the classpath at
- *     'org.rythmengine.web.servlet.properties'.</dd>
- *   <dt>org.rythmengine.tools.shared.config</dt>
- *   <dd>By default, this is {@code true}. If set to {@code false}, then
- *     the {@link RythmView} used by this servlet will not be shared
- *     with {@link RythmViewFilter}s, other RythmViewServlets or 
- *     {@link org.rythmengine.tools.view.jsp.RythmViewTag}s in the
- *     application.</dd>
- *   <dt>org.rythmengine.tools.loadDefaults</dt>
- *   <dd>By default, this is {@code true}. If set to {@code false}, then
- *     the default toolbox configuration will not be added to your (if any)
- *     custom configuration.  NOTE: The default configuration will also be
- *     suppressed if you are using a deprecated toolbox.xml format and do not
- *     explicitly set this to {@code true}.</dd>
- *   <dt>org.rythmengine.tools.cleanConfiguration</dt>
- *   <dd>By default, this is {@code false}. If set to {@code true}, then
- *     then the final toolbox configuration (the combination of any custom
- *     one(s) provided by yourself and/or the default configuration(s))
- *     will have all invalid tools, properties, and/or data removed prior to
- *     configuring the ToolboxFactory for this servlet by a
- *     {@link org.rythmengine.tools.config.ConfigurationCleaner}</dd>
+ *     '/WEB-INF/rythm.properties'. If no file is found there, then
+ *     Rythm is initialized with the default settings. Unless configured
+ *     the template home is the web application root directory</dd>
+ *   <dt>org.rythmengine.charset</dt>
+ *   <dd>The charset used to encode the render result. By default, this
+ *     is {@code UTF-8}</dd>
  *   <dt>org.rythmengine.tools.bufferOutput</dt>
  *   <dd>By default, the processed templates are merged directly into
- *     the {@link javax.servlet.http.HttpServletResponse}'s writer.  If this parameter is
- *     set to {@code true}, then the output of the merge process will be
- *     buffered before being fed to the response. This allows the {@link #error}
- *     method to be overridden to return a "500 Internal Server Error" or
- *     at least not return any of the failed request content. Essentially,
- *     setting this to {@code true} degrades performance in order to enable
- *     a more "correct" error response"</dd>
- *  </dd>
+ *     the {@link javax.servlet.http.HttpServletResponse}'s output stream. If
+ *     this parameter is set to {@code true}, then the output of the merge
+ *     process will be buffered before being fed to the response. This allows
+ *     the {@link #error} method to be overridden to return a "500 Internal
+ *     Server Error" or at least not return any of the failed request content.
+ *     A buffered response comes with an exact {@code Content-Length} and a
+ *     strong {@code ETag}, a request with a matching {@code If-None-Match}
+ *     header is answered with "304 Not Modified" and no content.</dd>
+ *   <dt>org.rythmengine.gzip</dt>
+ *   <dd>By default, this is {@code false}. If set to {@code true}, the
+ *     response is compressed with gzip when the client accepts it</dd>
+ *   <dt>org.rythmengine.async</dt>
+ *   <dd>By default, this is {@code false}. If set to {@code true} and the
+ *     output is not buffered, the request is processed in asynchronous mode
+ *     when the container supports it. The container thread is released
+ *     right after the template is looked up. Render args of type
+ *     {@link java.util.concurrent.CompletableFuture} or
+ *     {@link java.util.function.Supplier} are resolved unless the template
+ *     declares the arg of that type, the template is then rendered on the
+ *     render executor and written to the response with a
+ *     {@link javax.servlet.WriteListener}, following the pace the client
+ *     reads the response</dd>
+ *   <dt>org.rythmengine.async.threads</dt>
+ *   <dd>The number of threads of the render executor used in asynchronous
+ *     mode. By default, this is twice the number of the available processors.
+ *     A render keeps its thread until the whole response has been written, the
+ *     thread waits whenever the client has not read the previous chunk yet. So
+ *     this is also the number of asynchronous responses being rendered at the
+ *     same time, the other requests wait in the queue of the executor. Override
+ *     {@link #createExecutor()} to use another executor, e.g. one running
+ *     virtual threads, which do not hold a platform thread while waiting</dd>
+ *   <dt>org.rythmengine.async.timeout</dt>
+ *   <dd>The timeout in milliseconds of a request processed in asynchronous
+ *     mode. By default, the timeout of the container applies. When the request
+ *     times out or fails, the render is cancelled and nothing is written to
+ *     the response any more</dd>
  * </dl>
  *
  */
@@ -88,5 +143,474 @@ public class RythmServlet extends HttpServlet {
    * default serialVersion UID
    */
   private static final long serialVersionUID = 1L;
-    
+
+  public static final String PROPERTIES = "org.rythmengine.properties";
+  public static final String CHARSET = "org.rythmengine.charset";
+  public static final String BUFFER_OUTPUT = "org.rythmengine.tools.bufferOutput";
+  public static final String GZIP = "org.rythmengine.gzip";
+  public static final String ASYNC = "org.rythmengine.async";
+  public static final String ASYNC_THREADS = "org.rythmengine.async.threads";
+  public static final String ASYNC_TIMEOUT = "org.rythmengine.async.timeout";
+
+  private static final String DEFAULT_PROPERTIES = "/WEB-INF/rythm.properties";
+  private static final String DEFAULT_CONTENT_TYPE = "text/html";
+
+  private transient RythmEngine engine;
+  private transient Charset charset;
+  private boolean bufferOutput;
+  private boolean gzip;
+  private transient ExecutorService executor;
+  private long asyncTimeout = -1;
+
+  @Override
+  public void init() throws ServletException {
+    ServletContext context = getServletContext();
+    Properties conf = loadConfiguration(context);
+    if (!conf.containsKey("home.template.dir")) {
+      String root = context.getRealPath("/");
+      if (null != root) conf.setProperty("home.template.dir", root);
+    }
+    engine = new RythmEngine(conf);
+    String s = getInitParameter(CHARSET);
+    charset = Charset.forName(null == s ? "UTF-8" : s.trim());
+    bufferOutput = Boolean.valueOf(getInitParameter(BUFFER_OUTPUT));
+    gzip = Boolean.valueOf(getInitParameter(GZIP));
+    if (Boolean.valueOf(getInitParameter(ASYNC))) executor = createExecutor();
+    s = getInitParameter(ASYNC_TIMEOUT);
+    if (null != s) asyncTimeout = Long.parseLong(s.trim());
+  }
+
+  /**
+   * Create the executor to render templates in asynchronous mode
+   *
+   * @return the render executor
+   */
+  protected ExecutorService createExecutor() {
+    String s = getInitParameter(ASYNC_THREADS);
+    int n = null == s ? Runtime.getRuntime().availableProcessors() * 2 : Integer.parseInt(s.trim());
+    return Executors.newFixedThreadPool(n, new RythmThreadFactory("rythm-servlet") {});
+  }
+
+  private Properties loadConfiguration(ServletContext context) throws ServletException {
+    Properties conf = new Properties();
+    String path = getInitParameter(PROPERTIES);
+    InputStream is = context.getResourceAsStream(null == path ? DEFAULT_PROPERTIES : path);
+    if (null == is) {
+      if (null != path) throw new ServletException("Rythm configuration not found: " + path);
+      return conf;
+    }
+    try {
+      conf.load(is);
+    } catch (IOException e) {
+      throw new ServletException("Error loading Rythm configuration", e);
+    } finally {
+      try {
+        is.close();
+      } catch (IOException e) {
+        // ignore
+      }
+    }
+    return conf;
+  }
+
+  @Override
+  public void destroy() {
+    if (null != executor) {
+      executor.shutdownNow();
+      executor = null;
+    }
+    if (null != engine) {
+      engine.shutdown();
+      engine = null;
+    }
+  }
+
+  /**
+   * Return the engine used by this servlet
+   *
+   * @return the rythm engine
+   */
+  public RythmEngine engine() {
+    return engine;
+  }
+
+  @Override
+  protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+    doRequest(req, resp);
+  }
+
+  @Override
+  protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+    doRequest(req, resp);
+  }
+
+  protected void doRequest(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+    String path = templatePath(req);
+    if (null == path || !engine.resourceManager().getResource(path).isValid()) {
+      resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+      return;
+    }
+    String contentType = getServletContext().getMimeType(path);
+    resp.setContentType((null == contentType ? DEFAULT_CONTENT_TYPE : contentType) + "; charset=" + charset.name());
+    boolean compress = gzip && acceptsGzip(req);
+    if (gzip) resp.setHeader("Vary", "Accept-Encoding");
+    if (compress) resp.setHeader("Content-Encoding", "gzip");
+    try {
+      ITemplate t = engine.getTemplate(path);
+      if (null != executor && !bufferOutput && req.isAsyncSupported()) {
+        renderAsync(t, req, resp, compress);
+        return;
+      }
+      setRenderArgs(t, req);
+      if (bufferOutput) {
+        renderBuffered(t, req, resp, compress);
+      } else {
+        OutputStream os = resp.getOutputStream();
+        GZIPOutputStream gz = compress ? new GZIPOutputStream(os, engine.conf().outputBufferSize()) : null;
+        engine.render(null == gz ? os : gz, charset, t);
+        if (null != gz) gz.finish();
+      }
+    } catch (RuntimeException e) {
+      error(req, resp, e);
+    }
+  }
+
+  private void renderBuffered(ITemplate t, HttpServletRequest req, HttpServletResponse resp, boolean compress) throws IOException {
+    ByteArrayOutputStream buf = new ByteArrayOutputStream(engine.conf().outputBufferSize());
+    GZIPOutputStream gz = compress ? new GZIPOutputStream(buf) : null;
+    engine.render(null == gz ? buf : gz, charset, t);
+    if (null != gz) gz.finish();
+    byte[] ba = buf.toByteArray();
+    String etag = etag(ba);
+    resp.setHeader("ETag", etag);
+    if (matches(req.getHeader("If-None-Match"), etag)) {
+      resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return;
+    }
+    resp.setContentLength(ba.length);
+    resp.getOutputStream().write(ba);
+  }
+
+  private void renderAsync(final ITemplate t, final HttpServletRequest req, final HttpServletResponse resp, final boolean compress) throws IOException {
+    final AsyncContext ac = req.startAsync();
+    if (asyncTimeout >= 0) ac.setTimeout(asyncTimeout);
+    final ServletOutputStream out = resp.getOutputStream();
+    // listen to the timeout and error of the request from the start, while the args are resolved
+    final AsyncWriter writer = new AsyncWriter(ac, req, resp, out);
+    ac.addListener(writer);
+    // attributes are looked up on the container thread
+    final RenderArgIndex idx = t instanceof TemplateBase ? ((TemplateBase) t).__declaredRenderArgs() : RenderArgIndex.EMPTY;
+    final Object[] values = new Object[idx.size()];
+    List<CompletableFuture<?>> futures = new ArrayList<CompletableFuture<?>>();
+    for (int i = 0; i < values.length; ++i) {
+      Object o = findAttribute(req, idx.name(i));
+      values[i] = o;
+      if (o instanceof CompletableFuture && !idx.type(i).isInstance(o)) futures.add((CompletableFuture<?>) o);
+    }
+    CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()])).whenCompleteAsync(new BiConsumer<Void, Throwable>() {
+      @Override
+      public void accept(Void v, Throwable e) {
+        if (writer.isClosed()) return;
+        if (null != e) {
+          writer.onError(e);
+          return;
+        }
+        try {
+          for (int i = 0; i < values.length; ++i) {
+            Object o = values[i];
+            if (null == o || idx.type(i).isInstance(o)) {
+              // keep as it is
+            } else if (o instanceof CompletableFuture) {
+              o = ((CompletableFuture<?>) o).join();
+            } else if (o instanceof Supplier) {
+              o = ((Supplier<?>) o).get();
+            }
+            if (null != o) t.__setRenderArg(idx.name(i), o);
+          }
+        } catch (RuntimeException e0) {
+          writer.onError(e0);
+          return;
+        }
+        new RenderPublisher(executor, engine.conf().outputBufferSize()) {
+          @Override
+          protected void render(OutputStream os) {
+            try {
+              GZIPOutputStream gz = compress ? new GZIPOutputStream(os) : null;
+              engine.render(null == gz ? os : gz, charset, t);
+              if (null != gz) gz.finish();
+            } catch (IOException e) {
+              throw new RuntimeException(e);
+            }
+          }
+        }.subscribe(writer);
+      }
+    }, executor);
+  }
+
+  /*
+   * Write the chunks rendered in asynchronous mode to the response. A chunk is
+   * requested only when the response output stream is ready to take it. The render
+   * is cancelled when the request times out or fails, as the container might have
+   * completed the response by then
+   */
+  private final class AsyncWriter implements Flow.Subscriber<ByteBuffer>, WriteListener, AsyncListener {
+    private final AsyncContext ac;
+    private final HttpServletRequest req;
+    private final HttpServletResponse resp;
+    private final ServletOutputStream out;
+    private Flow.Subscription subscription;
+    // the chunk the output stream was not ready to take
+    private byte[] pending;
+    private byte[] scratch;
+    private boolean requested;
+    private boolean completed;
+    private boolean closed;
+
+    AsyncWriter(AsyncContext ac, HttpServletRequest req, HttpServletResponse resp, ServletOutputStream out) {
+      this.ac = ac;
+      this.req = req;
+      this.resp = resp;
+      this.out = out;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+      synchronized (this) {
+        if (closed) {
+          subscription.cancel();
+          return;
+        }
+        this.subscription = subscription;
+      }
+      out.setWriteListener(this);
+    }
+
+    synchronized boolean isClosed() {
+      return closed;
+    }
+
+    @Override
+    public synchronized void onWritePossible() throws IOException {
+      if (closed) return;
+      if (null != pending) {
+        byte[] ba = pending;
+        pending = null;
+        out.write(ba);
+        if (!out.isReady()) return;
+      }
+      if (completed) {
+        close();
+      } else if (!requested && null != subscription) {
+        requested = true;
+        subscription.request(1);
+      }
+    }
+
+    @Override
+    public void onNext(ByteBuffer item) {
+      int len = item.remaining();
+      synchronized (this) {
+        requested = false;
+        if (closed) return;
+        try {
+          if (out.isReady()) {
+            if (null == scratch || scratch.length < len) scratch = new byte[len];
+            item.get(scratch, 0, len);
+            out.write(scratch, 0, len);
+            if (out.isReady()) {
+              requested = true;
+              subscription.request(1);
+            }
+          } else {
+            pending = new byte[len];
+            item.get(pending);
+          }
+        } catch (IOException e) {
+          subscription.cancel();
+          fail(e);
+        } catch (RuntimeException e) {
+          // e.g. IllegalStateException thrown by the container after the response is completed
+          subscription.cancel();
+          fail(e);
+        }
+      }
+    }
+
+    @Override
+    public synchronized void onComplete() {
+      if (closed) return;
+      completed = true;
+      if (null == pending && out.isReady()) close();
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) {
+      abort();
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) {
+      log("Timeout rendering template for " + req.getRequestURI());
+      abort();
+      ac.complete();
+    }
+
+    @Override
+    public void onError(AsyncEvent event) {
+      log("Error processing request " + req.getRequestURI(), event.getThrowable());
+      abort();
+    }
+
+    /*
+     * Stop writing to the response and cancel the render. Called by the container
+     * thread when the request has been completed, timed out or failed
+     */
+    private synchronized void abort() {
+      if (closed) return;
+      closed = true;
+      pending = null;
+      if (null != subscription) subscription.cancel();
+    }
+
+    /*
+     * Called on both failure of the render operation and failure of writing
+     * to the response
+     */
+    @Override
+    public synchronized void onError(Throwable e) {
+      if (null != subscription) subscription.cancel();
+      fail(e);
+    }
+
+    private void fail(Throwable e) {
+      if (closed) return;
+      log("Error rendering template for " + req.getRequestURI(), e);
+      if (!resp.isCommitted()) {
+        resp.reset();
+        try {
+          resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        } catch (IOException e0) {
+          // ignore
+        }
+      }
+      close();
+    }
+
+    private void close() {
+      if (closed) return;
+      closed = true;
+      ac.complete();
+    }
+  }
+
+  /**
+   * Return the path of the template to render for the request, or {@code null}
+   * if the request path could not be mapped to a template
+   *
+   * @param req the request
+   * @return the template path
+   */
+  protected String templatePath(HttpServletRequest req) {
+    String path = req.getServletPath();
+    String info = req.getPathInfo();
+    if (null != info) path = null == path ? info : path + info;
+    if (null == path) return null;
+    while (path.startsWith("/")) path = path.substring(1);
+    if (path.length() == 0 || path.contains("\\")) return null;
+    for (String s : path.split("/")) {
+      if ("..".equals(s)) return null;
+    }
+    return path;
+  }
+
+  private void setRenderArgs(ITemplate t, HttpServletRequest req) {
+    if (!(t instanceof TemplateBase)) return;
+    RenderArgIndex idx = ((TemplateBase) t).__declaredRenderArgs();
+    for (int i = 0, n = idx.size(); i < n; ++i) {
+      String name = idx.name(i);
+      Object o = findAttribute(req, name);
+      if (null != o) t.__setRenderArg(name, o);
+    }
+  }
+
+  /**
+   * Search the request, session and servlet context attributes in order for
+   * the render arg by name
+   *
+   * @param req  the request
+   * @param name the render arg name
+   * @return the render arg value or {@code null} if not found
+   */
+  protected Object findAttribute(HttpServletRequest req, String name) {
+    Object o = req.getAttribute(name);
+    if (null != o) return o;
+    HttpSession session = req.getSession(false);
+    if (null != session) {
+      o = session.getAttribute(name);
+      if (null != o) return o;
+    }
+    ServletContext context = getServletContext();
+    o = context.getAttribute(name);
+    if (null != o) return o;
+    if ("request".equals(name)) return req;
+    if ("session".equals(name)) return session;
+    if ("application".equals(name)) return context;
+    return null;
+  }
+
+  /**
+   * Handle an error raised when rendering the template. The default
+   * implementation answers "500 Internal Server Error" if the response
+   * is not committed yet
+   *
+   * @param req  the request
+   * @param resp the response
+   * @param e    the error
+   * @throws ServletException
+   * @throws IOException
+   */
+  protected void error(HttpServletRequest req, HttpServletResponse resp, RuntimeException e) throws ServletException, IOException {
+    log("Error rendering template for " + req.getRequestURI(), e);
+    if (resp.isCommitted()) throw new ServletException(e);
+    resp.reset();
+    resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+  }
+
+  private static boolean acceptsGzip(HttpServletRequest req) {
+    String s = req.getHeader("Accept-Encoding");
+    return null != s && s.toLowerCase().contains("gzip");
+  }
+
+  private static boolean matches(String ifNoneMatch, String etag) {
+    if (null == ifNoneMatch) return false;
+    for (String s : ifNoneMatch.split(",")) {
+      s = s.trim();
+      if (s.startsWith("W/")) s = s.substring(2);
+      if ("*".equals(s) || etag.equals(s)) return true;
+    }
+    return false;
+  }
+
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private static String etag(byte[] ba) {
+    byte[] digest;
+    try {
+      digest = MessageDigest.getInstance("MD5").digest(ba);
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+    char[] ca = new char[digest.length * 2 + 2];
+    ca[0] = '"';
+    for (int i = 0; i < digest.length; ++i) {
+      ca[i * 2 + 1] = HEX[(digest[i] >> 4) & 0xf];
+      ca[i * 2 + 2] = HEX[digest[i] & 0xf];
+    }
+    ca[ca.length - 1] = '"';
+    return new String(ca);
+  }
 }
@@ -6,6 +6,7 @@
 package org.rythmengine;
 
 import static org.rythmengine.conf.RythmConfigurationKey.CODEGEN_COMPACT_ENABLED;
+import static org.rythmengine.conf.RythmConfigurationKey.CODEGEN_DIRECT_BYTE_CODE_ENABLED;
 import static org.rythmengine.conf.RythmConfigurationKey.DEFAULT_CODE_TYPE_IMPL;
 import static org.rythmengine.conf.RythmConfigurationKey.ENGINE_OUTPUT_JAVA_SOURCE_ENABLED;
 import static org.rythmengine.conf.RythmConfigurationKey.FEATURE_NATURAL_TEMPLATE_ENABLED;
@@ -14,7 +15,15 @@ import static org.rythmengine.conf.RythmConfigurationKey.FEATURE_TRANSFORM_ENABL
 import static org.rythmengine.conf.RythmConfigurationKey.FEATURE_TYPE_INFERENCE_ENABLED;
 import static org.rythmengine.conf.RythmConfigurationKey.HOME_TEMPLATE;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Properties;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -47,12 +56,65 @@ public abstract class TestBase extends Assert {
      * @return the resulting rendered string
      */
     protected String r(String template, Object... args) {
-        return Rythm.render(template, args);
+        String result = Rythm.render(template, args);
+        if (directByteCode(template) && renderable(args)) {
+            assertEquals("the template class written without the java compiler renders differently: " + template,
+                    compiled().render(template, args), result);
+        }
+        return result;
+    }
+
+    // the engine compiling the templates with the java compiler, which renders the templates
+    // compiled to byte code directly by the default engine to compare the result with
+    private static RythmEngine compiled;
+    private static RythmEngine compiledFor;
+
+    /*
+     * Whether the template class of the template is written without the java compiler
+     */
+    private static boolean directByteCode(String template) {
+        TemplateClass tc = Rythm.engine().classes().getByTemplate(template, false);
+        return null != tc && null != tc.javaByteCode && 49 == tc.javaByteCode[7];
+    }
+
+    /*
+     * Whether the args could be rendered again, an iterator or enumeration is consumed by the first render
+     */
+    private static boolean renderable(Object[] args) {
+        for (Object arg : args) {
+            if (arg instanceof Map) {
+                if (!renderable(((Map<?, ?>) arg).values().toArray())) return false;
+            } else if (arg instanceof Iterator || arg instanceof Enumeration) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static RythmEngine compiled() {
+        RythmEngine engine = Rythm.engine();
+        if (compiledFor != engine) {
+            shutdownCompiled();
+            Map<String, Object> conf = new HashMap<String, Object>();
+            conf.put(CODEGEN_DIRECT_BYTE_CODE_ENABLED.getKey(), false);
+            compiled = new RythmEngine(conf);
+            compiledFor = engine;
+        }
+        return compiled;
+    }
+
+    private static void shutdownCompiled() {
+        if (null != compiled) {
+            compiled.shutdown();
+            compiled = null;
+            compiledFor = null;
+        }
     }
 
     @Before
     public void initRythm() throws Exception {
         Rythm.shutdown();
+        shutdownCompiled();
         Properties prop = System.getProperties();
         prop.put(HOME_TEMPLATE.getKey(), "root");
         prop.put(FEATURE_NATURAL_TEMPLATE_ENABLED.getKey(), "false");
@@ -111,6 +173,21 @@ public abstract class TestBase extends Assert {
         eq(s0);
     }
     
+    /**
+     * write the content into the file, the parent dirs are created if not exist
+     * @param file
+     * @param content
+     */
+    protected static void write(File file, String content) throws IOException {
+        file.getParentFile().mkdirs();
+        OutputStream os = new FileOutputStream(file);
+        try {
+            os.write(content.getBytes("utf-8"));
+        } finally {
+            os.close();
+        }
+    }
+
     protected void getSource() {
         TemplateBase tb = (TemplateBase) Rythm.engine().getTemplate(t);
         TemplateClass tc = tb.__getTemplateClass(false);
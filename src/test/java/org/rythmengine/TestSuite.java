@@ -55,6 +55,14 @@ import org.junit.runners.Suite;
     org.rythmengine.render_mode.sandbox.SandboxTest.class,
     org.rythmengine.render_mode.substitute.SubstituteTest.class,
     org.rythmengine.render_mode.to_string.ToStringTest.class,
+    org.rythmengine.render_mode.output_stream.OutputStreamTest.class,
+    org.rythmengine.render_mode.async.AsyncRenderTest.class,
+    org.rythmengine.internal.RenderBufferPoolTest.class,
+    org.rythmengine.internal.EventBusTest.class,
+    org.rythmengine.internal.TemplateArchiveTest.class,
+    org.rythmengine.internal.compiler.TemplateClassCacheTest.class,
+    org.rythmengine.resource.TemplateResourceManagerTest.class,
+    org.rythmengine.web.servlet.RythmServletTest.class,
     org.rythmengine.tag.InlineTagTest.class,
     org.rythmengine.tag.InvokeParserTest.class,
     org.rythmengine.tag.InvokeTemplateTest.class,
@@ -9,6 +9,8 @@ import org.rythmengine.TestBase;
 import org.junit.Test;
 
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Test @args parser
@@ -76,6 +78,34 @@ public class ArgsParserTest extends TestBase {
         eq("\n</style>  \ns");
     }
 
+    @Test
+    public void testBindByNameAndPosition() {
+        t = "@args String a, int b, Boolean c\n@a-@b-@c";
+        Map<String, Object> m = new HashMap<String, Object>();
+        m.put("a", "x");
+        m.put("c", true);
+        m.put("d", "extra");
+        s = r(t, m);
+        eq("x-0-true");
+        s = r(t, "y", 3, false);
+        eq("y-3-false");
+    }
+
+    @Test
+    public void testMapViewOfDeclaredArgs() {
+        t = "@args String a, int b\n@__eval(\"a + b\")";
+        s = r(t, "x", 3);
+        eq("x3");
+    }
+
+    @Test
+    public void testPropagateToTag() {
+        // x and y flow to the tag, y is unboxed to the int declared in the tag
+        t = "@args Object x, Integer y, String z\n@foo.zee.x()|@foo.zee.x(x: \"b\")";
+        s = r(t, "a", 3, "c");
+        eq("x = a, y = 3|x = b, y = 3");
+    }
+
     public static void main(String[] args) {
         run(ArgsParserTest.class);
     }
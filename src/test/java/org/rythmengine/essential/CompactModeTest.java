@@ -7,12 +7,44 @@ package org.rythmengine.essential;
 
 import org.rythmengine.Rythm;
 import org.rythmengine.TestBase;
+import org.rythmengine.internal.compiler.TemplateClass;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 import static org.rythmengine.conf.RythmConfigurationKey.CODEGEN_COMPACT_ENABLED;
+import static org.rythmengine.conf.RythmConfigurationKey.CODEGEN_DIRECT_BYTE_CODE_ENABLED;
+import static org.rythmengine.conf.RythmConfigurationKey.CODEGEN_INLINE_TAG_MAX_SIZE;
 
 public class CompactModeTest extends TestBase {
+
+    /*
+     * The declared fields, methods and constructors of a template class, the const
+     * fields are named with random numbers
+     */
+    private static List<String> members(Class<?> c) {
+        List<String> members = new ArrayList<String>();
+        for (Field f : c.getDeclaredFields()) {
+            members.add(Modifier.toString(f.getModifiers()) + " " + f.getGenericType() + " " + f.getName().replaceAll("^__v\\d+$", "__v"));
+        }
+        for (Method m : c.getDeclaredMethods()) {
+            members.add(Modifier.toString(m.getModifiers()) + " " + m.getGenericReturnType() + " " + m.getName()
+                    + Arrays.toString(m.getGenericParameterTypes()) + (m.isBridge() ? " bridge" : "") + (m.isSynthetic() ? " synthetic" : ""));
+        }
+        for (Constructor<?> ctor : c.getDeclaredConstructors()) {
+            members.add(Modifier.toString(ctor.getModifiers()) + " <init>" + Arrays.toString(ctor.getParameterTypes()));
+        }
+        Collections.sort(members);
+        return members;
+    }
     
     @Before
     public void setup() {
@@ -64,6 +96,53 @@ public class CompactModeTest extends TestBase {
         eqf("foo/compact_test_no_compact.result");
     }
 
+    @Test
+    public void testDirectByteCode() {
+        Object[] args = {"rythm", Arrays.asList("a", "b"), true};
+        String[] templates = {"<h1>\n\n  \"abc\"</h1>  x\n", "@@ a  \u00fc",
+                "@args String who, List<String> items, boolean flag\n<h1>@who.toUpperCase()</h1>\n@if (flag) {yes @who.length()} else {no}\n",
+                "@args String who, List<String> items, boolean flag\n@for (String s: items) {\n  @s_index: @s@s_sep\n} else {none}\n@for (int i = 0; i < 3; ++i) {@i}",
+                "@args String who, List<String> items, boolean flag\n[@foo.zee.x(who, items.size())] [@foo.zee.x(x: \"b\", y: 1)]"};
+        // the tags are inlined into the caller compiled from the java source
+        System.setProperty(CODEGEN_INLINE_TAG_MAX_SIZE.getKey(), "0");
+        try {
+            for (String compact : new String[]{"true", "false"}) {
+                System.setProperty(CODEGEN_COMPACT_ENABLED.getKey(), compact);
+                for (String template : templates) {
+                    Rythm.shutdown();
+                    System.setProperty(CODEGEN_DIRECT_BYTE_CODE_ENABLED.getKey(), "false");
+                    List<String> compiled;
+                    try {
+                        t = r(template, args);
+                        compiled = members(Rythm.engine().classes().getByTemplate(template, false).javaClass);
+                    } finally {
+                        System.clearProperty(CODEGEN_DIRECT_BYTE_CODE_ENABLED.getKey());
+                    }
+                    Rythm.shutdown();
+                    s = r(template, args);
+                    eq(t);
+                    // the class file written without the java compiler has version 49
+                    TemplateClass tc = Rythm.engine().classes().getByTemplate(template, false);
+                    assertEquals(49, tc.javaByteCode[7]);
+                    // and the members of the class compiled from the generated source
+                    assertEquals(compiled, members(tc.javaClass));
+                }
+            }
+        } finally {
+            System.clearProperty(CODEGEN_INLINE_TAG_MAX_SIZE.getKey());
+        }
+    }
+
+    @Test
+    public void testDirectByteCodeFallback() {
+        // the imports are checked by the java compiler
+        Rythm.shutdown();
+        String template = "@import java.text.*\n@args String who\nhello @who";
+        s = r(template, "rythm");
+        eq("hello rythm");
+        assertTrue(Rythm.engine().classes().getByTemplate(template, false).javaByteCode[7] > 49);
+    }
+
     public static void main(String[] args) {
         run(CompactModeTest.class);
     }
@@ -113,6 +113,30 @@ public class ForParserTest extends TestBase {
         assertEquals("12345", s);
     }
     
+    @Test
+    public void testConstantRangeLowered() {
+        t = "@for (int i : 1 .. 5) {@i}";
+        assertEquals("1234", r(t));
+        getSource();
+        assertFalse(s.contains("Range.valueOf"));
+
+        t = "@for ('a' .. 'd') {@_}";
+        assertEquals("abc", r(t));
+
+        // the loop variable is boxed when it is dereferenced
+        t = "@for (1 .. 4) {@(_.hashCode())}";
+        assertEquals("123", r(t));
+    }
+
+    @Test
+    public void testPrimitiveArray() {
+        t = "@args int[] nums\n@for (n : nums) {@(n * 2)@n_sep}";
+        assertEquals("2,4,6", r(t, new int[]{1, 2, 3}));
+
+        t = "@args double[] nums\n@for (double d : nums) {@d}else{empty}";
+        assertEquals("empty", r(t, new double[0]));
+    }
+
     @Test
     public void testDifferentSeparators() {
         t = "@for (String item in items) @(item)@(item_sep)@";
@@ -252,6 +276,36 @@ public class ForParserTest extends TestBase {
         assertEquals("a|1,b|2,c|3", r(t));
     }
     
+    @Test
+    public void testLoopVarUtils() {
+        t = "@for(1..4){@(_)@_utils.sep(\";\")}";
+        assertEquals("1;2;3", r(t));
+    }
+
+    @Test
+    public void testUnreferencedLoopVarsNotDeclared() {
+        t = "@for(1..4){@_}";
+        assertEquals("123", r(t));
+        getSource();
+        assertFalse(s.contains("_isOdd"));
+        assertFalse(s.contains("_sep"));
+        assertFalse(s.contains("__pushItrVar"));
+    }
+
+    @Test
+    public void testOuterLoopVarInNestedLoop() {
+        t = "@for(String x: \"a,b\"){@for(String y: \"1,2\"){@(x)@(y)@(x_isFirst ? \"!\" : \"\")}}";
+        assertEquals("a1!a2!b1b2", r(t));
+    }
+
+    @Test
+    public void testDynamicExpressionInLoop() {
+        t = "@for(String x: \"ab,c\"){@x.length()@}";
+        assertEquals("21", r(t));
+        getSource();
+        assertTrue(s.contains("__pushItrVar"));
+    }
+
     @Test
     public void testElse() {
         t = "@for(@1){@(_)@_sep}else{empty list}";
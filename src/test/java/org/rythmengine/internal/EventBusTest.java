@@ -0,0 +1,60 @@
+/**
+ * Copyright (C) 2013-2016 The Rythm Engine project
+ * for LICENSE and other details see:
+ * https://github.com/rythmengine/rythmengine
+ */
+package org.rythmengine.internal;
+
+import org.junit.Test;
+import org.rythmengine.Rythm;
+import org.rythmengine.TestBase;
+import org.rythmengine.extension.IRythmListener;
+import org.rythmengine.template.ITag;
+import org.rythmengine.template.TemplateBase;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class EventBusTest extends TestBase {
+
+    private static class InvokeCounter extends IRythmListener.ListenerAdaptor {
+        AtomicInteger enter = new AtomicInteger();
+        AtomicInteger invoke = new AtomicInteger();
+
+        @Override
+        public void enterInvokeTemplate(TemplateBase caller) {
+            enter.incrementAndGet();
+        }
+
+        @Override
+        public void onInvoke(ITag tag) {
+            invoke.incrementAndGet();
+        }
+    }
+
+    @Test
+    public void testHooks() {
+        EventBus bus = (EventBus) Rythm.engine().eventDispatcher();
+        InvokeCounter l = new InvokeCounter();
+        bus.registerRenderListener(l);
+        try {
+            EventBus.Hooks hooks = bus.hooks();
+            assertNotNull(hooks.enterInvokeTemplate);
+            assertNotNull(hooks.onInvoke);
+            // not overridden by the listener
+            assertNull(hooks.exitInvokeTemplate);
+            assertNull(hooks.invoked);
+
+            t = "@for(int i = 0; i < 3; ++i){@invoke(\"foo.zee.x\", \"a\", i)}";
+            s = r(t);
+            eq("x = a, y = 0x = a, y = 1x = a, y = 2");
+            assertEquals(3, l.enter.get());
+            assertEquals(3, l.invoke.get());
+        } finally {
+            bus.unregisterRenderListener(l);
+        }
+        assertNull(bus.hooks().onInvoke);
+        s = r(t);
+        assertEquals(3, l.invoke.get());
+    }
+
+}
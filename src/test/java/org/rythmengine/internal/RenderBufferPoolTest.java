@@ -0,0 +1,68 @@
+/**
+ * Copyright (C) 2013-2016 The Rythm Engine project
+ * for LICENSE and other details see:
+ * https://github.com/rythmengine/rythmengine
+ */
+package org.rythmengine.internal;
+
+import org.junit.Test;
+import org.rythmengine.TestBase;
+
+public class RenderBufferPoolTest extends TestBase {
+
+    @Test
+    public void testReuse() {
+        RenderBufferPool pool = new RenderBufferPool(4, 1024);
+        StringBuilder sb = pool.borrow(100);
+        assertTrue(sb.capacity() >= 100);
+        sb.append("abc");
+        pool.release(sb);
+        StringBuilder sb2 = pool.borrow(200);
+        assertSame(sb, sb2);
+        assertEquals(0, sb2.length());
+        assertTrue(sb2.capacity() >= 200);
+    }
+
+    @Test
+    public void testLargeBufferNotRetained() {
+        RenderBufferPool pool = new RenderBufferPool(4, 1024);
+        StringBuilder sb = pool.borrow(2048);
+        pool.release(sb);
+        assertNotSame(sb, pool.borrow(0));
+    }
+
+    @Test
+    public void testPoolDisabled() {
+        RenderBufferPool pool = new RenderBufferPool(0, 1024);
+        StringBuilder sb = pool.borrow(0);
+        pool.release(sb);
+        assertNotSame(sb, pool.borrow(0));
+    }
+
+    @Test
+    public void testSlotPool() {
+        SlotPool<Object> pool = new SlotPool<Object>(2);
+        assertNull(pool.borrow());
+        Object o1 = new Object(), o2 = new Object();
+        pool.release(o1);
+        pool.release(o2);
+        Object b1 = pool.borrow(), b2 = pool.borrow();
+        assertNotNull(b1);
+        assertNotNull(b2);
+        assertNotSame(b1, b2);
+        assertNull(pool.borrow());
+    }
+
+    @Test
+    public void testRenderWithPooledBuffers() {
+        t = "@args String s\n@for(int i = 0; i < 3; ++i){[@s]}";
+        for (int i = 0; i < 5; ++i) {
+            assertEquals("[x][x][x]", r(t, "x"));
+        }
+        // pooled render context must not leak the escape state of the last render
+        t = "@args String s\n@escape(\"JS\"){@s}|@s";
+        assertEquals("\\\"|\"", r(t, "\""));
+        assertEquals("\\\"|\"", r(t, "\""));
+    }
+
+}
@@ -0,0 +1,77 @@
+/**
+ * Copyright (C) 2013-2016 The Rythm Engine project
+ * for LICENSE and other details see:
+ * https://github.com/rythmengine/rythmengine
+ */
+package org.rythmengine.internal;
+
+import org.junit.Test;
+import org.rythmengine.Precompiler;
+import org.rythmengine.Rythm;
+import org.rythmengine.RythmEngine;
+import org.rythmengine.TestBase;
+import org.rythmengine.internal.compiler.TemplateClass;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.rythmengine.conf.RythmConfigurationKey.*;
+
+public class TemplateArchiveTest extends TestBase {
+
+    @Test
+    public void testPrecompile() throws Exception {
+        File home = new File(System.getProperty("java.io.tmpdir"), "rythm-archive-test-" + System.nanoTime());
+        write(new File(home, "foo/hello.html"), "@args String who\n@foo.bar(who)!");
+        write(new File(home, "foo/bar.html"), "@args String x\nHello @x");
+        File archive = new File(home, "out/templates.jar");
+        int n = Precompiler.precompile(home, archive, new HashMap<String, Object>());
+        assertTrue(n >= 2);
+
+        Map<String, Object> conf = new HashMap<String, Object>();
+        conf.put(HOME_TEMPLATE.getKey(), home);
+        conf.put(ENGINE_MODE.getKey(), Rythm.Mode.prod);
+        conf.put(ENGINE_FILE_WRITE_ENABLED.getKey(), false);
+        conf.put(HOME_PRECOMPILED_ARCHIVE.getKey(), archive);
+        RythmEngine engine = new RythmEngine(conf);
+        try {
+            s = engine.render("foo/hello.html", "rythm");
+            eq("Hello rythm!");
+            // loaded from the archive, nothing is compiled
+            for (TemplateClass tc : engine.classes().all()) {
+                assertNull(tc.javaByteCode);
+            }
+        } finally {
+            engine.shutdown();
+        }
+    }
+
+    @Test
+    public void testPrecompileExtends() throws Exception {
+        File home = new File(System.getProperty("java.io.tmpdir"), "rythm-archive-test-" + System.nanoTime());
+        write(new File(home, "foo/layout.html"), "[@render()]");
+        write(new File(home, "foo/page.html"), "@extends(foo.layout)\n@args String who\nHi @who");
+        File archive = new File(home, "out/templates.jar");
+        Precompiler.precompile(home, archive, new HashMap<String, Object>());
+
+        Map<String, Object> conf = new HashMap<String, Object>();
+        conf.put(HOME_TEMPLATE.getKey(), home);
+        conf.put(ENGINE_MODE.getKey(), Rythm.Mode.prod);
+        conf.put(ENGINE_FILE_WRITE_ENABLED.getKey(), false);
+        conf.put(HOME_PRECOMPILED_ARCHIVE.getKey(), archive);
+        RythmEngine engine = new RythmEngine(conf);
+        try {
+            s = engine.render("foo/page.html", "rythm");
+            contains("[");
+            contains("Hi rythm");
+            // the extended template is restored from the cached metadata
+            TemplateClass tc = engine.classes().getByTemplate("foo/page.html");
+            assertNotNull(tc.extendedTemplateClass);
+            assertNull(tc.javaByteCode);
+        } finally {
+            engine.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,168 @@
+/**
+ * Copyright (C) 2013-2016 The Rythm Engine project
+ * for LICENSE and other details see:
+ * https://github.com/rythmengine/rythmengine
+ */
+package org.rythmengine.internal.compiler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.rythmengine.RythmEngine;
+import org.rythmengine.TestBase;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.rythmengine.conf.RythmConfigurationKey.*;
+
+public class TemplateClassCacheTest extends TestBase {
+
+    private static final String PATH = "hello.html";
+
+    private File home;
+    private List<RythmEngine> engines = new ArrayList<RythmEngine>();
+    // the engine of the template class loaded last
+    private RythmEngine engine;
+
+    /*
+     * Count the sources hashed
+     */
+    private static class CountingCache extends TemplateClassCache {
+        int hashed;
+
+        CountingCache(RythmEngine engine) {
+            super(engine);
+        }
+
+        @Override
+        long hash(String source) {
+            ++hashed;
+            return super.hash(source);
+        }
+    }
+
+    /*
+     * The last modified time, the source length and the hash recorded in a cache file
+     */
+    private static class Header {
+        final long lastModified;
+        final int sourceLength;
+        final long hash;
+
+        Header(byte[] data) throws IOException {
+            DataInputStream is = new DataInputStream(new ByteArrayInputStream(data));
+            assertEquals(TemplateClassCache.MAGIC, is.readInt());
+            assertEquals(TemplateClassCache.FORMAT_VERSION, is.readInt());
+            lastModified = is.readLong();
+            sourceLength = is.readInt();
+            hash = is.readLong();
+        }
+    }
+
+    @Before
+    public void createHome() {
+        home = new File(System.getProperty("java.io.tmpdir"), "rythm-cache-test-" + System.nanoTime());
+        home.mkdirs();
+    }
+
+    @After
+    public void shutdownEngines() {
+        for (RythmEngine engine : engines) {
+            engine.shutdown();
+        }
+    }
+
+    /*
+     * Write the template source, last modified the given time ago
+     */
+    private void write(String content, long age) throws IOException {
+        File file = new File(home, PATH);
+        OutputStream os = new FileOutputStream(file);
+        try {
+            os.write(content.getBytes("utf-8"));
+        } finally {
+            os.close();
+        }
+        if (age > 0) {
+            assertTrue(file.setLastModified(System.currentTimeMillis() - age));
+        }
+    }
+
+    /*
+     * Load the template class of the current source with a new engine
+     */
+    private TemplateClass load() {
+        Map<String, Object> conf = new HashMap<String, Object>();
+        conf.put(HOME_TEMPLATE.getKey(), home);
+        conf.put(ENGINE_FILE_WRITE_ENABLED.getKey(), false);
+        engine = new RythmEngine(conf);
+        engines.add(engine);
+        engine.getTemplate(PATH);
+        TemplateClass tc = engine.classes().getByTemplate(PATH);
+        assertNotNull(tc);
+        return tc;
+    }
+
+    @Test
+    public void testUnchanged() throws Exception {
+        write("Hello rythm", 60000);
+        TemplateClass tc = load();
+        CountingCache cache = new CountingCache(engine);
+        Header h = new Header(cache.serialize(tc));
+        assertTrue(0 != h.lastModified);
+        cache.hashed = 0;
+        assertTrue(cache.upToDate(tc, h.lastModified, h.sourceLength, h.hash));
+        assertEquals(0, cache.hashed);
+
+        // same source with an unknown last modified time
+        assertTrue(cache.upToDate(tc, 0, h.sourceLength, h.hash));
+        assertEquals(1, cache.hashed);
+    }
+
+    @Test
+    public void testEditedSameLength() throws Exception {
+        write("Hello rythm", 60000);
+        TemplateClass tc = load();
+        Header h = new Header(new CountingCache(engine).serialize(tc));
+        write("Hello world", 30000);
+        tc = load();
+        CountingCache cache = new CountingCache(engine);
+        assertFalse(cache.upToDate(tc, h.lastModified, h.sourceLength, h.hash));
+        assertEquals(1, cache.hashed);
+    }
+
+    @Test
+    public void testEditedOtherLength() throws Exception {
+        write("Hello rythm", 60000);
+        TemplateClass tc = load();
+        Header h = new Header(new CountingCache(engine).serialize(tc));
+        write("Hello rythm!", 30000);
+        tc = load();
+        CountingCache cache = new CountingCache(engine);
+        assertFalse(cache.upToDate(tc, h.lastModified, h.sourceLength, h.hash));
+        assertEquals(0, cache.hashed);
+    }
+
+    @Test
+    public void testRacySource() throws Exception {
+        write("Hello rythm", 0);
+        TemplateClass tc = load();
+        CountingCache cache = new CountingCache(engine);
+        Header h = new Header(cache.serialize(tc));
+        assertEquals(0, h.lastModified);
+        // the source is hashed even though the resource timestamp is known
+        cache.hashed = 0;
+        assertTrue(cache.upToDate(tc, h.lastModified, h.sourceLength, h.hash));
+        assertEquals(1, cache.hashed);
+    }
+
+}
@@ -69,6 +69,13 @@ public class LayoutTest extends TestBase {
         eqf("foo/index9.result");
     }
 
+    @Test
+    public void testBlankContent() {
+        // the content rendered by the child is passed to the layout even if it is blank
+        s = r("@extends(foo._layout)\n@(\" \t\")\n");
+        eq("<h1>foo</h1>\n \t\n");
+    }
+
     public static void main(String[] args) {
         run(LayoutTest.class);
     }
@@ -0,0 +1,155 @@
+/**
+ * Copyright (C) 2013-2016 The Rythm Engine project
+ * for LICENSE and other details see:
+ * https://github.com/rythmengine/rythmengine
+ */
+package org.rythmengine.render_mode.async;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.rythmengine.Rythm;
+import org.rythmengine.RythmEngine;
+import org.rythmengine.TestBase;
+import org.rythmengine.utils.Flow;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test rendering on an executor
+ */
+public class AsyncRenderTest extends TestBase {
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testRenderAsync() throws Exception {
+        t = "@args String who\nHello @who!";
+        s = Rythm.renderAsync(executor, t, "rythm").get();
+        eq("Hello rythm!");
+    }
+
+    @Test
+    public void testRenderContext() throws Exception {
+        RythmEngine engine = Rythm.engine();
+        Map<String, Object> userCtx = new HashMap<String, Object>();
+        userCtx.put("who", "rythm");
+        RythmEngine.RenderContext ctx = new RythmEngine.RenderContext(null, Locale.FRANCE, userCtx);
+        t = "@(__curLocale()) @(__getUserContext().get(\"who\"))";
+        s = engine.renderAsync(executor, ctx, t).get();
+        eq("fr_FR rythm");
+
+        // the context of the previous render must not leak into the next one
+        // running on the same thread
+        t = "@(__curLocale())";
+        s = engine.renderAsync(executor, t).get();
+        eq(engine.conf().locale().toString());
+    }
+
+    @Test
+    public void testRenderToOutputStream() throws Exception {
+        Charset utf8 = Charset.forName("UTF-8");
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        t = "@args String who\n你好 @who!";
+        Rythm.engine().renderAsync(executor, os, utf8, t, "rythm").get();
+        s = new String(os.toByteArray(), utf8);
+        eq("你好 rythm!");
+
+        // output mode of the previous render must not leak
+        s = Rythm.renderAsync(executor, t, "rythm").get();
+        eq("你好 rythm!");
+    }
+
+    private static class Collector implements Flow.Subscriber<ByteBuffer> {
+        private final int limit;
+        private final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private Flow.Subscription subscription;
+        private int chunks;
+        private boolean completed;
+        private Throwable error;
+
+        Collector(int limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(ByteBuffer item) {
+            byte[] ba = new byte[item.remaining()];
+            item.get(ba);
+            os.write(ba, 0, ba.length);
+            if (++chunks < limit) {
+                subscription.request(1);
+            } else {
+                subscription.cancel();
+                done.countDown();
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+            done.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+            done.countDown();
+        }
+    }
+
+    @Test
+    public void testRenderPublisher() throws Exception {
+        Charset utf8 = Charset.forName("UTF-8");
+        t = "@args int n\n@for (int i = 0; i < n; ++i) {你好 @i\n}";
+        Collector c = new Collector(Integer.MAX_VALUE);
+        Rythm.engine().renderPublisher(executor, utf8, t, 2000).subscribe(c);
+        assertTrue(c.done.await(10, TimeUnit.SECONDS));
+        assertNull(c.error);
+        assertTrue(c.completed);
+        assertTrue(c.chunks > 1);
+        s = new String(c.os.toByteArray(), utf8);
+        eq(r(t, 2000));
+    }
+
+    @Test
+    public void testCancelRenderPublisher() throws Exception {
+        t = "@args int n\n@for (int i = 0; i < n; ++i) {line @i\n}";
+        Collector c = new Collector(1);
+        Rythm.engine().renderPublisher(executor, t, 100000).subscribe(c);
+        assertTrue(c.done.await(10, TimeUnit.SECONDS));
+        assertEquals(1, c.chunks);
+
+        // the render operation is aborted and the executor thread is released
+        s = Rythm.renderAsync(executor, "@args String who\nHello @who!", "rythm").get(10, TimeUnit.SECONDS);
+        eq("Hello rythm!");
+        assertFalse(c.completed);
+        assertNull(c.error);
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ * Copyright (C) 2013-2016 The Rythm Engine project
+ * for LICENSE and other details see:
+ * https://github.com/rythmengine/rythmengine
+ */
+package org.rythmengine.render_mode.output_stream;
+
+import org.junit.Test;
+import org.rythmengine.Rythm;
+import org.rythmengine.TestBase;
+import org.rythmengine.conf.RythmConfigurationKey;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+
+/**
+ * Test rendering template into binary output stream
+ */
+public class OutputStreamTest extends TestBase {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private String ro(Charset charset, String template, Object... args) {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        Rythm.engine().render(os, charset, template, args);
+        return new String(os.toByteArray(), charset);
+    }
+
+    @Test
+    public void testAscii() {
+        t = "@args String who\nHello @who!";
+        s = ro(UTF8, t, "rythm");
+        eq("Hello rythm!");
+    }
+
+    @Test
+    public void testNonAscii() {
+        t = "@args String who\n你好 @who, ça va?";
+        s = ro(UTF8, t, "Zoë 😀");
+        eq("你好 Zoë 😀, ça va?");
+
+        Charset gbk = Charset.forName("GBK");
+        t = "@args String who\n你好 @who, 中文输出";
+        s = ro(gbk, t, "世界");
+        eq("你好 世界, 中文输出");
+    }
+
+    @Test
+    public void testNumbers() {
+        t = "@args int i, long l\n@i @l @(-i) @(Long.MIN_VALUE)";
+        s = ro(UTF8, t, 1024, 9876543210L);
+        eq("1024 9876543210 -1024 " + Long.MIN_VALUE);
+    }
+
+    @Test
+    public void testSmallBuffer() {
+        System.setProperty(RythmConfigurationKey.RENDER_OUTPUT_BUFFER_SIZE.getKey(), "16");
+        try {
+            Rythm.shutdown();
+            t = "@args int n\n@for(int i = 0; i < n; ++i){中文@(i) }";
+            String expected = r(t, 20);
+            s = ro(UTF8, t, 20);
+            eq(expected);
+        } finally {
+            System.getProperties().remove(RythmConfigurationKey.RENDER_OUTPUT_BUFFER_SIZE.getKey());
+        }
+    }
+
+    @Test
+    public void testSameTemplateInDifferentModes() {
+        t = "@args String who\n<h1>静态文本 @who</h1>";
+        assertEquals("<h1>静态文本 x</h1>", r(t, "x"));
+
+        StringWriter w = new StringWriter();
+        Rythm.engine().render(w, t, "y");
+        assertEquals("<h1>静态文本 y</h1>", w.toString());
+
+        s = ro(UTF8, t, "z");
+        eq("<h1>静态文本 z</h1>");
+        s = ro(Charset.forName("GBK"), t, "z");
+        eq("<h1>静态文本 z</h1>");
+        s = ro(Charset.forName("UTF-16"), t, "z");
+        eq("<h1>静态文本 z</h1>");
+    }
+
+    @Test
+    public void testLayout() {
+        // plain layout, layout with sections and inherited section content
+        for (String path : new String[]{"foo/index.html", "foo/index5.html", "foo/index10.html"}) {
+            String expected = r(path);
+            s = ro(UTF8, path);
+            eq(expected);
+
+            StringWriter w = new StringWriter();
+            Rythm.engine().render(w, path);
+            assertEquals(expected, w.toString());
+        }
+    }
+
+    public static void main(String[] args) {
+        run(OutputStreamTest.class);
+    }
+}
@@ -6,9 +6,13 @@
 package org.rythmengine.render_mode.substitute;
 
 import org.rythmengine.Rythm;
+import org.rythmengine.RythmEngine;
 import org.rythmengine.TestBase;
 import org.junit.Test;
 
+import java.util.*;
+
+import static org.rythmengine.conf.RythmConfigurationKey.ENGINE_TIERED_THRESHOLD;
 import static org.rythmengine.utils.NamedParams.*;
 
 /**
@@ -35,6 +39,62 @@ public class SubstituteTest extends TestBase {
         Rythm.substitute(t, from(p("who", p)));
     }
     
+    @Test
+    public void testTiered() throws Exception {
+        String[] templates = {
+                "Hello @who!",
+                "@ok: @if (ok) {yes @who} else {no}|",
+                "[@for(x : items){<@x>@if(x){!}}]@who",
+                "a  b\n\t@who"
+        };
+        Map<String, Object> args = new HashMap<String, Object>();
+        args.put("who", "Rythm");
+        args.put("ok", true);
+        args.put("items", Arrays.asList(1, 0));
+        List<String> expected = new ArrayList<String>();
+        for (String t : templates) {
+            expected.add(Rythm.substitute(t, args));
+        }
+
+        Rythm.shutdown();
+        System.setProperty(ENGINE_TIERED_THRESHOLD.getKey(), "2");
+        try {
+            for (int i = 0; i < templates.length; ++i) {
+                assertEquals(expected.get(i), Rythm.substitute(templates[i], args));
+                // rendered by the interpreter
+                assertNull(Rythm.engine().classes().getByTemplate(templates[i], false));
+            }
+            String t = templates[0];
+            assertEquals("Hello Rythm!", Rythm.substitute(t, args));
+            for (int i = 0; i < 100 && null == Rythm.engine().classes().getByTemplate(t, false); ++i) {
+                Thread.sleep(50);
+            }
+            assertNotNull(Rythm.engine().classes().getByTemplate(t, false));
+            assertEquals("Hello Rythm!", Rythm.substitute(t, args));
+        } finally {
+            System.clearProperty(ENGINE_TIERED_THRESHOLD.getKey());
+        }
+    }
+
+    @Test
+    public void testTieredClearsRenderSettings() throws Exception {
+        Rythm.shutdown();
+        System.setProperty(ENGINE_TIERED_THRESHOLD.getKey(), "100");
+        try {
+            RythmEngine engine = Rythm.engine();
+            Locale locale = engine.renderSettings.locale();
+            Locale other = Locale.FRANCE.equals(locale) ? Locale.GERMANY : Locale.FRANCE;
+            engine.prepare(other);
+            assertEquals("Hello Rythm!", engine.substitute("Hello @who!", from(p("who", "Rythm"))));
+            // rendered by the interpreter
+            assertNull(engine.classes().getByTemplate("Hello @who!", false));
+            // the locale prepared is for the render operation above only
+            assertEquals(locale, engine.renderSettings.locale());
+        } finally {
+            System.clearProperty(ENGINE_TIERED_THRESHOLD.getKey());
+        }
+    }
+
     public static void main(String[] args) {
         run(SubstituteTest.class);
     }
@@ -0,0 +1,72 @@
+/**
+ * Copyright (C) 2013-2016 The Rythm Engine project
+ * for LICENSE and other details see:
+ * https://github.com/rythmengine/rythmengine
+ */
+package org.rythmengine.resource;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.rythmengine.Rythm;
+import org.rythmengine.RythmEngine;
+import org.rythmengine.TestBase;
+import org.rythmengine.internal.compiler.TemplateClass;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.rythmengine.conf.RythmConfigurationKey.*;
+
+public class TemplateResourceManagerTest extends TestBase {
+
+    private File home;
+
+    @Before
+    public void createHome() {
+        home = new File(System.getProperty("java.io.tmpdir"), "rythm-scan-test-" + System.nanoTime());
+    }
+
+    @After
+    public void deleteHome() throws IOException {
+        FileUtils.deleteDirectory(home);
+    }
+
+    @Test
+    public void testParallelScan() throws Exception {
+        write(new File(home, "foo/bar.html"), "@args String x\nHello @x");
+        for (int i = 0; i < 12; ++i) {
+            write(new File(home, "foo/page" + i + ".html"), "@args String who\n@foo.bar(who) " + i + "!");
+        }
+
+        Map<String, Object> conf = new HashMap<String, Object>();
+        conf.put(HOME_TEMPLATE.getKey(), home);
+        conf.put(ENGINE_MODE.getKey(), Rythm.Mode.prod);
+        conf.put(ENGINE_FILE_WRITE_ENABLED.getKey(), false);
+        conf.put(RESOURCE_AUTO_SCAN.getKey(), true);
+        conf.put(RESOURCE_AUTO_SCAN_PARALLELISM.getKey(), 4);
+        RythmEngine engine = new RythmEngine(conf);
+        try {
+            // all templates are compiled by the scan
+            for (int i = 0; i < 12; ++i) {
+                // the file system loader registers the templates with the key relative to the home
+                TemplateClass tc = engine.classes().getByTemplate("/foo/page" + i + ".html");
+                assertNotNull(tc);
+                assertNotNull(tc.javaByteCode);
+            }
+            TemplateClass tag = engine.classes().getByTemplate("/foo/bar.html");
+            assertNotNull(tag);
+            assertNotNull(tag.javaByteCode);
+            for (int i = 0; i < 12; ++i) {
+                s = engine.render("foo/page" + i + ".html", "rythm");
+                eq("Hello rythm " + i + "!");
+            }
+        } finally {
+            engine.shutdown();
+        }
+    }
+
+}
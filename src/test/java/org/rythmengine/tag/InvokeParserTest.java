@@ -5,8 +5,22 @@
  */
 package org.rythmengine.tag;
 
+import org.apache.commons.io.FileUtils;
+import org.rythmengine.Rythm;
+import org.rythmengine.RythmEngine;
 import org.rythmengine.TestBase;
 import org.junit.Test;
+import org.rythmengine.template.TagCallSite;
+import org.rythmengine.template.TemplateBase;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.rythmengine.conf.RythmConfigurationKey.*;
 
 /**
  * test @invoke()
@@ -59,6 +73,185 @@ public class InvokeParserTest extends TestBase {
         eq("");
     }
 
+    @Test
+    public void testParallel() {
+        t = "abc@invoke(\"foo.zee.x\", \"a\", 1).parallel()-@invoke(\"bar.included\").parallel()-@invoke(\"foo.zee.x\", \"b\", 2).parallel()";
+        s = r(t);
+        eq("abcx = a, y = 1-included content-x = b, y = 2");
+    }
+
+    @Test
+    public void testParallelTemplate() {
+        t = "@parallel()\n@for(int i : 1 .. 4){@invoke(\"foo.zee.x\", \"s\", i)\n}";
+        s = r(t);
+        eq("\nx = s, y = 1\n\nx = s, y = 2\n\nx = s, y = 3\n");
+    }
+
+    @Test
+    public void testCallSiteCache() throws Exception {
+        t = "@for(String s : \"a,b,c\".split(\",\")){@invoke(\"foo.zee.x\", s, 1)\n}";
+        s = r(t);
+        eq("\nx = a, y = 1\n\nx = b, y = 1\n\nx = c, y = 1\n");
+        List<Object> entries = callSiteEntries();
+        assertEquals(1, entries.size());
+        assertNotNull(entries.get(0));
+
+        // the tag cached is used without resolving it again
+        s = r(t);
+        eq("\nx = a, y = 1\n\nx = b, y = 1\n\nx = c, y = 1\n");
+        assertSame(entries.get(0), callSiteEntries().get(0));
+        getSource();
+        contains("org.rythmengine.template.TagCallSite");
+    }
+
+    @Test
+    public void testCallSiteCacheInDevMode() throws Exception {
+        File home = new File(System.getProperty("java.io.tmpdir"), "rythm-call-site-test-" + System.nanoTime());
+        File tag = new File(home, "foo/bar.html");
+        write(tag, "@args String x\nHello @x");
+        write(new File(home, "page.html"), "@args String who\n@foo.bar(who)!");
+        // the tag is not inlined, see testInlineTagChangedInDevMode
+        RythmEngine engine = devEngine(home, 0);
+        try {
+            s = engine.render("page.html", "rythm");
+            eq("Hello rythm!");
+
+            // the tag changed is reloaded instead of the one cached at the call site
+            long lastModified = tag.lastModified();
+            write(tag, "@args String x\nBye @x");
+            assertTrue(tag.setLastModified(lastModified + 2000));
+            s = engine.render("page.html", "rythm");
+            eq("Bye rythm!");
+        } finally {
+            engine.shutdown();
+            FileUtils.deleteDirectory(home);
+        }
+    }
+
+    private static RythmEngine devEngine(File home, int inlineTagMaxSize) {
+        Map<String, Object> conf = new HashMap<String, Object>();
+        conf.put(HOME_TEMPLATE.getKey(), home);
+        conf.put(ENGINE_MODE.getKey(), Rythm.Mode.dev);
+        conf.put(ENGINE_FILE_WRITE_ENABLED.getKey(), false);
+        conf.put(RESOURCE_REFRESH_INTERVAL.getKey(), 0);
+        conf.put(CODEGEN_INLINE_TAG_MAX_SIZE.getKey(), inlineTagMaxSize);
+        return new RythmEngine(conf);
+    }
+
+    // the tags cached at the call sites of the current template
+    private List<Object> callSiteEntries() throws Exception {
+        TemplateBase tb = (TemplateBase) Rythm.engine().getTemplate(t);
+        Field entry = TagCallSite.class.getDeclaredField("entry");
+        entry.setAccessible(true);
+        List<Object> entries = new ArrayList<Object>();
+        for (Field f : tb.getClass().getDeclaredFields()) {
+            if (f.getType() == TagCallSite.class) {
+                f.setAccessible(true);
+                entries.add(entry.get(f.get(null)));
+            }
+        }
+        return entries;
+    }
+
+    @Test
+    public void testLinkedTag() {
+        t = "@invoke(\"foo.zee.x\", y: 123, x = \"ss\")|@invoke(\"foo.zee.x\", \"a\", 1).escape()";
+        s = r(t);
+        eq("x = ss, y = 123|x = a, y = 1");
+        getSource();
+        contains("__linkTag(\"foo.zee.x\"");
+
+        t = "@invoke(\"foo.zee.nonExists\", 1).ignoreNonExistsTag()";
+        s = r(t);
+        eq("");
+    }
+
+    @Test
+    public void testInlineTag() {
+        System.setProperty(CODEGEN_INLINE_TAG_MAX_SIZE.getKey(), "100");
+        try {
+            t = "@for(int i = 0; i < 2; ++i){@foo.zee.x(\"a\", i)|}@foo.zee.x(y: 5)";
+            s = r(t);
+            eq("x = a, y = 0|x = a, y = 1|x = , y = 5");
+            getSource();
+            contains("private void __inl");
+        } finally {
+            System.clearProperty(CODEGEN_INLINE_TAG_MAX_SIZE.getKey());
+        }
+    }
+
+    @Test
+    public void testInlineTagEligibility() {
+        System.setProperty(CODEGEN_INLINE_TAG_MAX_SIZE.getKey(), "100");
+        try {
+            // the names containing those of the tag members do not refer to the tag instance
+            t = "@foo.zee.y(\" a \", \"b\")";
+            s = r(t);
+            eq("a: b");
+            getSource();
+            contains("private void __inl");
+
+            // the tag calling a method of the tag instance is not inlined
+            t = "@foo.zee.z(\"a\")";
+            s = r(t);
+            eq("a: foo.zee.z.html");
+            getSource();
+            assertNotContains(s, "private void __inl");
+        } finally {
+            System.clearProperty(CODEGEN_INLINE_TAG_MAX_SIZE.getKey());
+        }
+    }
+
+    @Test
+    public void testExpandDefTag() {
+        t = "@args String x\n@def hi(String who, int n) {@if (n > 1) {big }hi @who}\n@for (int i = 1; i < 3; ++i) {@hi(x, i)|}@hi(x.toUpperCase(), 2).toString().length()";
+        s = r(t, "rythm");
+        eq("\nhi rythm|big hi rythm|12");
+        String expanded = s;
+        getSource();
+        assertNotContains(s, "pe(hi(x, i))");
+        contains("pe(hi(x.toUpperCase(), 2).toString().length())");
+
+        // the same as the tag method called
+        System.setProperty(CODEGEN_INLINE_TAG_MAX_SIZE.getKey(), "0");
+        try {
+            Rythm.shutdown();
+            s = r(t, "rythm");
+            eq(expanded);
+            getSource();
+            contains("pe(hi(x, i))");
+        } finally {
+            System.clearProperty(CODEGEN_INLINE_TAG_MAX_SIZE.getKey());
+        }
+    }
+
+    @Test
+    public void testInlineTagChangedInDevMode() throws Exception {
+        File home = new File(System.getProperty("java.io.tmpdir"), "rythm-inline-test-" + System.nanoTime());
+        File tag = new File(home, "foo/inl.html");
+        write(tag, "@args String x, int y\nx = @x, y = @y");
+        write(new File(home, "page.html"), "@args String who\n@for (int i = 0; i < 2; ++i) {@foo.inl(who, i)|}");
+        RythmEngine inlined = devEngine(home, 256), invoked = devEngine(home, 0);
+        try {
+            s = inlined.render("page.html", "a");
+            eq("x = a, y = 0|x = a, y = 1|");
+            assertEquals(s, invoked.render("page.html", "a"));
+            assertContains(((TemplateBase) inlined.getTemplate("page.html")).__getTemplateClass(false).javaSource, "private void __inl");
+
+            // the caller is recompiled with the tag changed
+            long lastModified = tag.lastModified();
+            write(tag, "@args String x, int y\n@x.toUpperCase(): @y!");
+            assertTrue(tag.setLastModified(lastModified + 2000));
+            s = inlined.render("page.html", "a");
+            eq("A: 0!|A: 1!|");
+            assertEquals(s, invoked.render("page.html", "a"));
+        } finally {
+            inlined.shutdown();
+            invoked.shutdown();
+            FileUtils.deleteDirectory(home);
+        }
+    }
+
     public static void main(String[] args) {
         run(InvokeParserTest.class);
     }
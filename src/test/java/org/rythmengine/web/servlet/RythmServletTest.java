@@ -0,0 +1,390 @@
+/**
+ * Copyright (C) 2013-2016 The Rythm Engine project
+ * for LICENSE and other details see:
+ * https://github.com/rythmengine/rythmengine
+ */
+package org.rythmengine.web.servlet;
+
+import org.junit.After;
+import org.junit.Test;
+import org.rythmengine.TestBase;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Test {@link RythmServlet} with stub requests and responses. A stub forwards
+ * the calls to the public method of the same signature of a delegate object if
+ * any, the other calls return the default value of the return type
+ */
+public class RythmServletTest extends TestBase {
+
+    private File home;
+    private RythmServlet servlet;
+    private Context context;
+
+    private static <T> T stub(Class<T> type, final Object delegate) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                Method m;
+                try {
+                    m = delegate.getClass().getMethod(method.getName(), method.getParameterTypes());
+                } catch (NoSuchMethodException e) {
+                    Class<?> c = method.getReturnType();
+                    if (c == boolean.class) return false;
+                    if (c == int.class) return 0;
+                    if (c == long.class) return 0L;
+                    return null;
+                }
+                try {
+                    return m.invoke(delegate, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+        }));
+    }
+
+    public static class Context {
+        public final Map<String, Object> attributes = new HashMap<String, Object>();
+        private final String root;
+
+        Context(String root) {
+            this.root = root;
+        }
+
+        public Object getAttribute(String name) {
+            return attributes.get(name);
+        }
+
+        public String getRealPath(String path) {
+            return root;
+        }
+
+        public void log(String msg) {
+        }
+
+        public void log(String msg, Throwable e) {
+        }
+    }
+
+    public static class Config {
+        public final Map<String, String> params = new HashMap<String, String>();
+        private final ServletContext context;
+
+        Config(ServletContext context) {
+            this.context = context;
+        }
+
+        public ServletContext getServletContext() {
+            return context;
+        }
+
+        public String getServletName() {
+            return "rythm";
+        }
+
+        public String getInitParameter(String name) {
+            return params.get(name);
+        }
+
+        public java.util.Enumeration<String> getInitParameterNames() {
+            return Collections.enumeration(params.keySet());
+        }
+    }
+
+    public static class Attributes {
+        public final Map<String, Object> attributes = new HashMap<String, Object>();
+
+        public Object getAttribute(String name) {
+            return attributes.get(name);
+        }
+    }
+
+    public static class Request extends Attributes {
+        public final Map<String, String> headers = new HashMap<String, String>();
+        public HttpSession session;
+        public boolean asyncSupported;
+        public final Async async = new Async();
+        private final String path;
+
+        Request(String path) {
+            this.path = path;
+        }
+
+        public String getMethod() {
+            return "GET";
+        }
+
+        public String getServletPath() {
+            return path;
+        }
+
+        public String getRequestURI() {
+            return path;
+        }
+
+        public String getHeader(String name) {
+            return headers.get(name);
+        }
+
+        public HttpSession getSession(boolean create) {
+            return session;
+        }
+
+        public boolean isAsyncSupported() {
+            return asyncSupported;
+        }
+
+        public AsyncContext startAsync() {
+            return stub(AsyncContext.class, async);
+        }
+    }
+
+    public static class Async {
+        public final CountDownLatch completed = new CountDownLatch(1);
+
+        public void complete() {
+            completed.countDown();
+        }
+
+        public void setTimeout(long timeout) {
+        }
+
+        public void addListener(AsyncListener listener) {
+        }
+    }
+
+    public static class Output extends ServletOutputStream {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener listener) {
+            try {
+                listener.onWritePossible();
+            } catch (IOException e) {
+                listener.onError(e);
+            }
+        }
+
+        @Override
+        public void write(int b) {
+            body.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            body.write(b, off, len);
+        }
+    }
+
+    public static class Response {
+        public final Map<String, String> headers = new HashMap<String, String>();
+        public int status = HttpServletResponse.SC_OK;
+        public int contentLength = -1;
+        public boolean committed;
+        public final Output out = new Output();
+
+        public void setHeader(String name, String value) {
+            headers.put(name, value);
+        }
+
+        public void setContentType(String type) {
+            headers.put("Content-Type", type);
+        }
+
+        public void setContentLength(int len) {
+            contentLength = len;
+        }
+
+        public void setStatus(int status) {
+            this.status = status;
+        }
+
+        public void sendError(int status) {
+            this.status = status;
+            committed = true;
+        }
+
+        public boolean isCommitted() {
+            return committed;
+        }
+
+        public void reset() {
+            headers.clear();
+            status = HttpServletResponse.SC_OK;
+            out.body.reset();
+        }
+
+        public ServletOutputStream getOutputStream() {
+            return out;
+        }
+
+        String body() throws IOException {
+            return new String(out.body.toByteArray(), "utf-8");
+        }
+    }
+
+    private void init(String... params) throws Exception {
+        home = new File(System.getProperty("java.io.tmpdir"), "rythm-servlet-test-" + System.nanoTime());
+        home.mkdirs();
+        context = new Context(home.getAbsolutePath());
+        Config config = new Config(stub(ServletContext.class, context));
+        for (int i = 0; i < params.length; i += 2) {
+            config.params.put(params[i], params[i + 1]);
+        }
+        servlet = new RythmServlet();
+        servlet.init(stub(ServletConfig.class, config));
+    }
+
+    private Response service(Request req) throws Exception {
+        Response resp = new Response();
+        servlet.service(stub(HttpServletRequest.class, req), stub(HttpServletResponse.class, resp));
+        return resp;
+    }
+
+    @After
+    public void destroyServlet() {
+        if (null != servlet) servlet.destroy();
+    }
+
+    @Test
+    public void testParentPathNotFound() throws Exception {
+        init();
+        write(new File(home, "secret.html"), "secret");
+        write(new File(home, "foo/bar.html"), "bar");
+        Response resp = service(new Request("/foo/../secret.html"));
+        assertEquals(HttpServletResponse.SC_NOT_FOUND, resp.status);
+        assertEquals("", resp.body());
+        resp = service(new Request("/foo/bar.html"));
+        assertEquals(HttpServletResponse.SC_OK, resp.status);
+        assertEquals("bar", resp.body());
+    }
+
+    @Test
+    public void testAttributeLookupOrder() throws Exception {
+        init();
+        write(new File(home, "args.html"), "@args String a, String b, String c\n@a @b @c");
+        Attributes session = new Attributes();
+        session.attributes.put("a", "session");
+        session.attributes.put("b", "session");
+        context.attributes.put("a", "application");
+        context.attributes.put("b", "application");
+        context.attributes.put("c", "application");
+        Request req = new Request("/args.html");
+        req.attributes.put("a", "request");
+        req.session = stub(HttpSession.class, session);
+        Response resp = service(req);
+        assertEquals("request session application", resp.body());
+    }
+
+    @Test
+    public void testBufferedOutput() throws Exception {
+        init(RythmServlet.BUFFER_OUTPUT, "true");
+        write(new File(home, "hello.html"), "@args String who\nHello @who");
+        Request req = new Request("/hello.html");
+        req.attributes.put("who", "rythm");
+        Response resp = service(req);
+        assertEquals("Hello rythm", resp.body());
+        assertEquals(resp.out.body.size(), resp.contentLength);
+        String etag = resp.headers.get("ETag");
+        assertNotNull(etag);
+        assertTrue(etag.startsWith("\"") && etag.endsWith("\""));
+
+        // same content, same etag
+        resp = service(req);
+        assertEquals(etag, resp.headers.get("ETag"));
+        req.attributes.put("who", "world");
+        resp = service(req);
+        assertFalse(etag.equals(resp.headers.get("ETag")));
+    }
+
+    @Test
+    public void testIfNoneMatch() throws Exception {
+        init(RythmServlet.BUFFER_OUTPUT, "true");
+        write(new File(home, "hello.html"), "Hello");
+        Request req = new Request("/hello.html");
+        String etag = service(req).headers.get("ETag");
+        req.headers.put("If-None-Match", "W/\"0\", " + etag);
+        Response resp = service(req);
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, resp.status);
+        assertEquals(0, resp.out.body.size());
+        assertEquals(-1, resp.contentLength);
+
+        req.headers.put("If-None-Match", "\"0\"");
+        resp = service(req);
+        assertEquals(HttpServletResponse.SC_OK, resp.status);
+        assertEquals("Hello", resp.body());
+    }
+
+    @Test
+    public void testGzip() throws Exception {
+        init(RythmServlet.GZIP, "true");
+        write(new File(home, "hello.html"), "Hello gzip");
+        Request req = new Request("/hello.html");
+        Response resp = service(req);
+        assertEquals("Accept-Encoding", resp.headers.get("Vary"));
+        assertNull(resp.headers.get("Content-Encoding"));
+        assertEquals("Hello gzip", resp.body());
+
+        req.headers.put("Accept-Encoding", "deflate, gzip");
+        resp = service(req);
+        assertEquals("Accept-Encoding", resp.headers.get("Vary"));
+        assertEquals("gzip", resp.headers.get("Content-Encoding"));
+        InputStream is = new GZIPInputStream(new ByteArrayInputStream(resp.out.body.toByteArray()));
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        byte[] buf = new byte[256];
+        for (int n = is.read(buf); n > 0; n = is.read(buf)) {
+            os.write(buf, 0, n);
+        }
+        assertEquals("Hello gzip", new String(os.toByteArray(), "utf-8"));
+    }
+
+    @Test
+    public void testAsyncFutureArg() throws Exception {
+        init(RythmServlet.ASYNC, "true", RythmServlet.ASYNC_THREADS, "2");
+        write(new File(home, "hello.html"), "@args String who, int n\nHello @who @n");
+        CompletableFuture<String> who = new CompletableFuture<String>();
+        Request req = new Request("/hello.html");
+        req.asyncSupported = true;
+        req.attributes.put("who", who);
+        req.attributes.put("n", 3);
+        Response resp = service(req);
+        // the container thread is released before the future is resolved
+        assertEquals(1, req.async.completed.getCount());
+        who.complete("rythm");
+        assertTrue(req.async.completed.await(10, TimeUnit.SECONDS));
+        assertEquals(HttpServletResponse.SC_OK, resp.status);
+        assertEquals("Hello rythm 3", resp.body());
+    }
+
+}